@@ -12,6 +12,7 @@ CREATE TABLE IF NOT EXISTS vector_store (
     content text NOT NULL,
     metadata json,
     embedding vector(1536), -- OpenAI text-embedding-3-small 的向量维度
+    category text GENERATED ALWAYS AS (metadata->>'category') STORED, -- 由元数据生成，用于按类别检索的部分索引
     created_at timestamp DEFAULT CURRENT_TIMESTAMP,
     updated_at timestamp DEFAULT CURRENT_TIMESTAMP
 );
@@ -24,6 +25,29 @@ ON vector_store USING hnsw (embedding vector_cosine_ops);
 CREATE INDEX IF NOT EXISTS vector_store_metadata_idx
 ON vector_store USING gin (metadata);
 
+-- 按逻辑文档ID查找文档块（增量更新）
+CREATE INDEX IF NOT EXISTS vector_store_document_id_idx
+ON vector_store ((metadata->>'document_id'));
+
+-- 按来源文件删除文档块
+CREATE INDEX IF NOT EXISTS vector_store_source_file_idx
+ON vector_store ((metadata->>'source_file'));
+
+-- 按类别检索和删除文档块；文档块较多的类别由应用另外建立部分HNSW索引
+CREATE INDEX IF NOT EXISTS vector_store_category_col_idx
+ON vector_store (category);
+
+-- 创建embedding缓存表（按内容哈希 + 模型 + 维度缓存文档块向量）
+CREATE TABLE IF NOT EXISTS embedding_cache (
+    content_hash char(64) NOT NULL,
+    model varchar(100) NOT NULL,
+    dimensions integer NOT NULL,
+    embedding vector NOT NULL,
+    token_count integer NOT NULL,
+    created_at timestamp DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (content_hash, model, dimensions)
+);
+
 -- 创建文档管理表（可选，用于跟踪原始文档）
 CREATE TABLE IF NOT EXISTS documents (
     id uuid DEFAULT uuid_generate_v4() PRIMARY KEY,
@@ -35,13 +59,21 @@ CREATE TABLE IF NOT EXISTS documents (
     upload_time timestamp DEFAULT CURRENT_TIMESTAMP,
     processed boolean DEFAULT false,
     chunk_count integer DEFAULT 0,
-    metadata json
+    metadata json,
+    document_key varchar(255),   -- 逻辑文档ID，重复上传时据此识别为同一文档
+    version integer DEFAULT 1,   -- 文档版本号
+    content_hash char(64),       -- 存储文件的SHA-256内容哈希，相同内容的文件只保存一份
+    source_path varchar(1024),   -- 监控目录中源文件的相对路径
+    source_modified bigint       -- 源文件处理时的修改时间（毫秒），重启后据此跳过未变化的文件
 );
 
 -- 创建文档索引
 CREATE INDEX IF NOT EXISTS documents_category_idx ON documents(category);
 CREATE INDEX IF NOT EXISTS documents_file_type_idx ON documents(file_type);
 CREATE INDEX IF NOT EXISTS documents_upload_time_idx ON documents(upload_time);
+CREATE UNIQUE INDEX IF NOT EXISTS documents_document_key_idx ON documents(document_key);
+CREATE INDEX IF NOT EXISTS documents_content_hash_idx ON documents(content_hash);
+CREATE INDEX IF NOT EXISTS documents_original_filename_idx ON documents(original_filename);
 
 -- 创建会话管理表（可选，用于跟踪对话会话）
 CREATE TABLE IF NOT EXISTS chat_sessions (
@@ -74,37 +106,8 @@ CREATE TRIGGER update_vector_store_updated_at
 
 -- 创建一些实用的视图
 
--- 文档统计视图
-CREATE OR REPLACE VIEW document_stats AS
-SELECT
-    COUNT(*) as total_documents,
-    COUNT(CASE WHEN processed = true THEN 1 END) as processed_documents,
-    COUNT(CASE WHEN processed = false THEN 1 END) as pending_documents,
-    COUNT(DISTINCT category) as unique_categories,
-    COUNT(DISTINCT file_type) as unique_file_types,
-    SUM(chunk_count) as total_chunks,
-    AVG(chunk_count) as avg_chunks_per_document
-FROM documents;
-
--- 分类统计视图
-CREATE OR REPLACE VIEW category_stats AS
-SELECT
-    COALESCE(category, 'Uncategorized') as category,
-    COUNT(*) as document_count,
-    SUM(chunk_count) as total_chunks,
-    AVG(chunk_count) as avg_chunks
-FROM documents
-GROUP BY category
-ORDER BY document_count DESC;
-
--- 向量存储统计视图
-CREATE OR REPLACE VIEW vector_store_stats AS
-SELECT
-    COUNT(*) as total_vectors,
-    COUNT(CASE WHEN metadata->>'category' IS NOT NULL THEN 1 END) as categorized_vectors,
-    COUNT(DISTINCT metadata->>'source_file') as unique_source_files,
-    AVG(length(content)) as avg_content_length
-FROM vector_store;
+-- 文档统计视图document_stats和分类统计视图category_stats由应用启动时创建（DocumentRegistry，需开启initialize-schema）
+-- 向量存储统计视图vector_store_stats由应用启动时在主库和每个分片上创建（VectorStoreSchema，需开启initialize-schema）
 
 -- 插入一些示例数据（可选）
 -- 您可以根据需要取消注释以下行
@@ -148,7 +151,7 @@ $$ LANGUAGE plpgsql;
 DO $$
 BEGIN
     RAISE NOTICE 'AI Knowledge Database initialization completed successfully!';
-    RAISE NOTICE 'Available tables: vector_store, documents, chat_sessions';
+    RAISE NOTICE 'Available tables: vector_store, embedding_cache, documents, chat_sessions';
     RAISE NOTICE 'Available views: document_stats, category_stats, vector_store_stats';
     RAISE NOTICE 'Vector extension enabled with HNSW indexing';
 END $$;
\ No newline at end of file
@@ -1,6 +1,23 @@
 package com.example.config;
 
 import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import com.example.datasource.ReadReplicaRouter;
+import com.example.reader.ParallelPdfPageReader;
+import com.example.service.CachingDocumentRetriever;
+import com.example.service.HybridDocumentRetriever;
+import com.example.service.HybridSearchService;
+import com.example.service.MmrDocumentRetriever;
+import com.example.service.MmrReranker;
+import com.example.service.MultiQueryDocumentRetriever;
+import com.example.service.MultiQueryRetrievalService;
+import com.example.service.QueryEmbeddingCache;
+import com.example.service.RetrievalResultCache;
+import com.example.splitter.FastTokenTextSplitter;
+import com.example.splitter.StreamingTextSplitter;
+import com.example.vectorstore.CategoryVectorSearch;
+import com.example.vectorstore.QuantizedVectorSearch;
+import com.example.vectorstore.ShardedVectorStore;
+import com.example.vectorstore.VectorStoreReplica;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
@@ -8,12 +25,17 @@ import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvi
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
 import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.reader.ExtractedTextFormatter;
 import org.springframework.ai.rag.advisor.RetrievalAugmentationAdvisor;
 import org.springframework.ai.rag.preretrieval.query.transformation.RewriteQueryTransformer;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
 import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
 import org.springframework.ai.transformer.splitter.TokenTextSplitter;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestClient;
@@ -42,6 +64,21 @@ public class ChatConfig {
     @Value("${app.rag.enable-rewrite-query:true}")
     private boolean enableRewriteQuery;
 
+    @Value("${app.rag.hybrid.rag-retriever:false}")
+    private boolean hybridRetriever;
+
+    @Value("${app.rag.multi-query.rag-retriever:false}")
+    private boolean multiQueryRetriever;
+
+    @Value("${app.ingestion.pdf-parallelism:0}")
+    private int pdfParallelism;
+
+    @Value("${app.ingestion.pdf-pages-per-task:4}")
+    private int pdfPagesPerTask;
+
+    @Value("${app.ingestion.pdf-queue-capacity:32}")
+    private int pdfQueueCapacity;
+
     /**
      * 配置内存聊天记录仓库
      */
@@ -64,23 +101,102 @@ public class ChatConfig {
 
     /**
      * 配置文档分割器
-     * 用于将长文档分割成适合向量化的小块
+     * 用于将长文档分割成适合向量化的小块，分块结果与TokenTextSplitter相同，多个文档并行分割
      */
     @Bean
     public TokenTextSplitter textSplitter() {
-        return new TokenTextSplitter(chunkSize, chunkOverlap, 5, 10000, true);
+        return new FastTokenTextSplitter(chunkSize, chunkOverlap, 5, 10000, true);
     }
 
     /**
-     * 配置向量存储文档检索器
+     * 配置流式文档分割器
+     * 分块规则与textSplitter相同，用于大文本文件的边读边分割
      */
     @Bean
-    public VectorStoreDocumentRetriever documentRetriever(VectorStore vectorStore) {
-        return VectorStoreDocumentRetriever.builder()
-                .vectorStore(vectorStore)
-                .similarityThreshold(similarityThreshold)
-                .topK(topK)
+    public StreamingTextSplitter streamingTextSplitter() {
+        return new StreamingTextSplitter(chunkSize, chunkOverlap, 5, true);
+    }
+
+    /**
+     * 配置并行分页PDF读取器
+     * 页面文本格式化规则与一次性读取PDF时相同：跳过第1页后删除每页底部3行
+     */
+    @Bean
+    public ParallelPdfPageReader pdfPageReader() {
+        ExtractedTextFormatter textFormatter = new ExtractedTextFormatter.Builder()
+                .withNumberOfBottomTextLinesToDelete(3)
+                .withNumberOfTopPagesToSkipBeforeDelete(1)
                 .build();
+        return new ParallelPdfPageReader(textFormatter, pdfParallelism, pdfPagesPerTask, pdfQueueCapacity);
+    }
+
+    /**
+     * 为EmbeddingModel加上查询向量缓存
+     * 向量存储、文档检索器和问答Advisor检索时都通过embed(String)向量化查询，包装后相同的查询不再调用远程模型
+     */
+    @Bean
+    public static BeanPostProcessor queryEmbeddingCachePostProcessor(ObjectProvider<QueryEmbeddingCache> queryEmbeddingCache) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof EmbeddingModel embeddingModel) {
+                    return queryEmbeddingCache.getObject().decorate(embeddingModel);
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * 包装VectorStore的检索路径：启用量化存储时用量化索引取候选后精确重排，
+     * 启用检索调优时按SearchPlanner的计划设置ef_search、迭代扫描或精确排序，
+     * 启用向量热副本时优先在进程内的HNSW索引中检索，副本无法回答时再走前者；
+     * 过滤条件包含类别时最先交给按类别的检索（部分索引或精确排序）
+     * DocumentService、文档检索器和问答Advisor使用的都是包装后的VectorStore；
+     * 这些检索方式都直接查询主库的vector_store，分片向量存储不包装，配置分片时它们必须关闭（见VectorStoreShardConfig）
+     */
+    @Bean
+    public static BeanPostProcessor vectorStoreSearchPostProcessor(
+            ObjectProvider<CategoryVectorSearch> categoryVectorSearch,
+            ObjectProvider<QuantizedVectorSearch> quantizedVectorSearch,
+            ObjectProvider<VectorStoreReplica> vectorStoreReplica) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof VectorStore vectorStore && !(bean instanceof ShardedVectorStore)) {
+                    return categoryVectorSearch.getObject().decorate(
+                            vectorStoreReplica.getObject().decorate(quantizedVectorSearch.getObject().decorate(vectorStore)));
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * 配置文档检索器，开启app.rag.multi-query.rag-retriever时使用多查询并行检索，
+     * 开启app.rag.hybrid.rag-retriever时使用全文+向量的混合检索；
+     * 启用MMR时多取候选，重排后返回topK个不重复的文档块；配置只读副本时检索在副本上执行；最终结果按知识库版本号缓存
+     */
+    @Bean
+    public DocumentRetriever documentRetriever(VectorStore vectorStore, HybridSearchService hybridSearchService,
+                                               MultiQueryRetrievalService multiQueryRetrievalService,
+                                               MmrReranker mmrReranker, RetrievalResultCache retrievalResultCache,
+                                               ReadReplicaRouter readReplicaRouter) {
+        int fetchTopK = mmrReranker.fetchSize(topK);
+        DocumentRetriever retriever = multiQueryRetriever
+                ? new MultiQueryDocumentRetriever(multiQueryRetrievalService, similarityThreshold, fetchTopK)
+                : hybridRetriever
+                ? new HybridDocumentRetriever(hybridSearchService, similarityThreshold, fetchTopK)
+                : VectorStoreDocumentRetriever.builder()
+                        .vectorStore(vectorStore)
+                        .similarityThreshold(similarityThreshold)
+                        .topK(fetchTopK)
+                        .build();
+        DocumentRetriever reranked = mmrReranker.isEnabled()
+                ? new MmrDocumentRetriever(retriever, mmrReranker, topK) : retriever;
+        DocumentRetriever replicaRetriever = query -> readReplicaRouter.read(() -> reranked.retrieve(query));
+        String mode = multiQueryRetriever ? "rag-multi" : hybridRetriever ? "rag-hybrid" : "rag-vector";
+        return new CachingDocumentRetriever(replicaRetriever, retrievalResultCache, mode, similarityThreshold, topK);
     }
 
     /**
@@ -96,7 +212,7 @@ public class ChatConfig {
      */
     @Bean
     public RetrievalAugmentationAdvisor retrievalAugmentationAdvisor(
-            VectorStoreDocumentRetriever documentRetriever,
+            DocumentRetriever documentRetriever,
             ChatClient.Builder chatClientBuilder) {
 
         var builder = RetrievalAugmentationAdvisor.builder()
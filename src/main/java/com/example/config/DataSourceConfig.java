@@ -0,0 +1,100 @@
+package com.example.config;
+
+import com.example.datasource.ReadReplicaRouter;
+import com.example.service.RetrievalResultCache;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 数据源配置
+ * 配置app.datasource.replicas.urls后，spring.datasource作为主库承担写入，
+ * DocumentService和RAG检索器的相似度检索路由到只读副本；未配置时只有一个数据源，检索和写入都使用它
+ *
+ * @author AI Assistant
+ */
+@Configuration
+public class DataSourceConfig {
+
+    /**
+     * 主库 + 只读副本
+     */
+    @Configuration
+    @ConditionalOnExpression("!'${app.datasource.replicas.urls:}'.isBlank()")
+    static class ReadReplicaConfig {
+
+        /**
+         * 主库连接池，连接池参数与未配置副本时相同，取自spring.datasource.hikari
+         */
+        @Bean
+        @ConfigurationProperties("spring.datasource.hikari")
+        public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+            return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        }
+
+        @Bean
+        public ReadReplicaRouter readReplicaRouter(HikariDataSource primaryDataSource,
+                                                   RetrievalResultCache retrievalResultCache,
+                                                   @Value("${app.datasource.replicas.urls}") String urls,
+                                                   @Value("${app.datasource.replicas.username:${spring.datasource.username}}") String username,
+                                                   @Value("${app.datasource.replicas.password:${spring.datasource.password}}") String password,
+                                                   @Value("${app.datasource.replicas.pool-size:10}") int poolSize,
+                                                   @Value("${app.datasource.replicas.max-lag:16MB}") DataSize maxLag,
+                                                   @Value("${app.datasource.replicas.check-interval:1s}") Duration checkInterval) {
+            Map<String, DataSource> replicas = new LinkedHashMap<>();
+            for (String url : StringUtils.commaDelimitedListToStringArray(urls)) {
+                if (!StringUtils.hasText(url)) {
+                    continue;
+                }
+                HikariDataSource replica = new HikariDataSource();
+                replica.setJdbcUrl(url.trim());
+                replica.setUsername(username);
+                replica.setPassword(password);
+                replica.setMaximumPoolSize(poolSize);
+                replica.setReadOnly(true);
+                replica.setPoolName("read-replica-" + (replicas.size() + 1));
+                replicas.put(url.trim(), replica);
+            }
+
+            ReadReplicaRouter router = new ReadReplicaRouter(primaryDataSource, replicas, maxLag.toBytes(),
+                    checkInterval.toMillis());
+            // 知识库变化时先记录主库的WAL位置，再使检索结果缓存失效
+            retrievalResultCache.addInvalidationListener(router::fence);
+            return router;
+        }
+
+        /**
+         * 应用使用的数据源：JdbcTemplate、PgVectorStore和JPA默认连接主库，读范围内连接副本
+         */
+        @Bean
+        @Primary
+        public DataSource dataSource(ReadReplicaRouter readReplicaRouter) {
+            return readReplicaRouter.getDataSource();
+        }
+    }
+
+    /**
+     * 只有一个数据源
+     */
+    @Configuration
+    @ConditionalOnExpression("'${app.datasource.replicas.urls:}'.isBlank()")
+    static class PrimaryOnlyConfig {
+
+        @Bean
+        public ReadReplicaRouter readReplicaRouter(DataSource dataSource) {
+            return ReadReplicaRouter.primaryOnly(dataSource);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.config;
+
+import com.example.vectorstore.PgVectorWriter;
+import com.example.vectorstore.QuantizedVectorSearch.Quantization;
+import com.example.vectorstore.ShardedVectorStore;
+import com.example.vectorstore.VectorStoreShards;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.ai.vectorstore.pgvector.autoconfigure.PgVectorStoreProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 向量存储分片配置
+ * 配置app.vectorstore.sharding.urls后，文档块按逻辑文档ID分布到各分片的vector_store表，
+ * 应用使用的VectorStore是并行检索所有分片并归并结果的ShardedVectorStore；未配置时只使用主库的vector_store。
+ * 类别索引、检索调优、量化索引和内存副本只访问主库的vector_store，配置分片时必须关闭，否则启动失败
+ *
+ * @author AI Assistant
+ */
+@Configuration
+public class VectorStoreShardConfig {
+
+    /**
+     * 多个分片
+     */
+    @Configuration
+    @ConditionalOnExpression("!'${app.vectorstore.sharding.urls:}'.isBlank()")
+    static class ShardedConfig {
+
+        @Bean
+        public VectorStoreShards vectorStoreShards(
+                @Value("${app.vectorstore.sharding.urls}") String urls,
+                @Value("${app.vectorstore.sharding.username:${spring.datasource.username}}") String username,
+                @Value("${app.vectorstore.sharding.password:${spring.datasource.password}}") String password,
+                @Value("${app.vectorstore.sharding.pool-size:10}") int poolSize,
+                @Value("${app.vectorstore.category-index.enabled:true}") boolean categoryIndex,
+                @Value("${app.vectorstore.search-tuning.enabled:true}") boolean searchTuning,
+                @Value("${spring.ai.vectorstore.pgvector.quantization:NONE}") Quantization quantization,
+                @Value("${app.vectorstore.replica.enabled:false}") boolean replica) {
+            List<String> unsupported = new ArrayList<>();
+            if (categoryIndex) {
+                unsupported.add("app.vectorstore.category-index.enabled=false");
+            }
+            if (searchTuning) {
+                unsupported.add("app.vectorstore.search-tuning.enabled=false");
+            }
+            if (quantization != Quantization.NONE) {
+                unsupported.add("spring.ai.vectorstore.pgvector.quantization=NONE");
+            }
+            if (replica) {
+                unsupported.add("app.vectorstore.replica.enabled=false");
+            }
+            if (!unsupported.isEmpty()) {
+                throw new IllegalStateException("配置分片时类别索引、检索调优、量化索引和内存副本只会访问主库的vector_store，请设置 "
+                        + String.join(", ", unsupported));
+            }
+
+            Map<String, DataSource> shards = new LinkedHashMap<>();
+            for (String url : StringUtils.commaDelimitedListToStringArray(urls)) {
+                if (!StringUtils.hasText(url)) {
+                    continue;
+                }
+                HikariDataSource shard = new HikariDataSource();
+                shard.setJdbcUrl(url.trim());
+                shard.setUsername(username);
+                shard.setPassword(password);
+                shard.setMaximumPoolSize(poolSize);
+                shard.setPoolName("vector-shard-" + (shards.size() + 1));
+                shards.put(url.trim(), shard);
+            }
+            return new VectorStoreShards(shards);
+        }
+
+        /**
+         * 各分片的PgVectorStore与主库使用相同的表、维度、距离和索引配置，负责写入和删除；
+         * 检索由分片向量存储直接在各分片上执行。DocumentService、文档检索器和问答Advisor注入的都是这里的分片向量存储
+         */
+        @Bean
+        @Primary
+        public ShardedVectorStore shardedVectorStore(
+                VectorStoreShards vectorStoreShards, EmbeddingModel embeddingModel, PgVectorStoreProperties properties,
+                PgVectorWriter vectorWriter, ObjectMapper objectMapper,
+                @Value("${app.vectorstore.sharding.timeout:2s}") Duration timeout,
+                @Value("${app.vectorstore.sharding.partial-results:true}") boolean partialResults,
+                @Value("${app.vectorstore.sharding.parallelism:16}") int parallelism) throws Exception {
+            List<VectorStore> shardStores = new ArrayList<>();
+            for (JdbcTemplate jdbcTemplate : vectorStoreShards.getJdbcTemplates()) {
+                PgVectorStore shardStore = PgVectorStore.builder(jdbcTemplate, embeddingModel)
+                        .schemaName(properties.getSchemaName())
+                        .vectorTableName(properties.getTableName())
+                        .idType(properties.getIdType())
+                        .dimensions(properties.getDimensions())
+                        .distanceType(properties.getDistanceType())
+                        .indexType(properties.getIndexType())
+                        .initializeSchema(properties.isInitializeSchema())
+                        .maxDocumentBatchSize(properties.getMaxDocumentBatchSize())
+                        .build();
+                // 不是容器中的bean，需要手动建表
+                shardStore.afterPropertiesSet();
+                shardStores.add(shardStore);
+            }
+            return new ShardedVectorStore(vectorStoreShards, shardStores, embeddingModel, objectMapper,
+                    vectorWriter.getQualifiedTableName(), properties.getDistanceType(), timeout.toMillis(),
+                    partialResults, parallelism);
+        }
+    }
+
+    /**
+     * 只有主库
+     */
+    @Configuration
+    @ConditionalOnExpression("'${app.vectorstore.sharding.urls:}'.isBlank()")
+    static class SingleConfig {
+
+        @Bean
+        public VectorStoreShards vectorStoreShards(JdbcTemplate jdbcTemplate) {
+            return VectorStoreShards.single(jdbcTemplate);
+        }
+    }
+}
@@ -1,14 +1,28 @@
 package com.example.controller;
 
+import com.example.datasource.ReadReplicaRouter;
+import com.example.service.BulkTextIngestionService;
 import com.example.service.ChatService;
+import com.example.service.ChunkedUploadService;
+import com.example.service.DocumentDeletionService;
+import com.example.service.DocumentDeletionService.DeletionScope;
 import com.example.service.DocumentService;
+import com.example.service.WatchFolderIngestionService;
+import com.example.vectorstore.CategoryVectorSearch;
+import com.example.vectorstore.QuantizedVectorSearch;
+import com.example.vectorstore.SearchPlanner;
+import com.example.vectorstore.VectorStoreReplica;
+import com.example.vectorstore.VectorStoreShards;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,8 +39,20 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class RAGController {
 
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
     private final ChatService chatService;
     private final DocumentService documentService;
+    private final ChunkedUploadService chunkedUploadService;
+    private final WatchFolderIngestionService watchFolderIngestionService;
+    private final BulkTextIngestionService bulkTextIngestionService;
+    private final DocumentDeletionService documentDeletionService;
+    private final VectorStoreReplica vectorStoreReplica;
+    private final QuantizedVectorSearch quantizedVectorSearch;
+    private final CategoryVectorSearch categoryVectorSearch;
+    private final SearchPlanner searchPlanner;
+    private final ReadReplicaRouter readReplicaRouter;
+    private final VectorStoreShards vectorStoreShards;
 
     /**
      * RAG对话接口
@@ -116,14 +142,16 @@ public class RAGController {
 
     /**
      * 文档上传接口
+     * 传入相同的documentId（或在同一类别下上传同名文件）时按新版本增量更新
      */
     @PostMapping("/documents/upload")
     public ResponseEntity<Map<String, Object>> uploadDocument(
             @RequestParam("file") MultipartFile file,
-            @RequestParam(required = false) String category) {
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) String documentId) {
 
         try {
-            String result = documentService.uploadAndProcessDocument(file, category);
+            String result = documentService.uploadAndProcessDocument(file, category, documentId);
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
@@ -170,6 +198,103 @@ public class RAGController {
         }
     }
 
+    /**
+     * 初始化分片上传接口
+     * 用于超过multipart大小限制的大文件，返回uploadId和分片大小
+     */
+    @PostMapping("/documents/uploads")
+    public ResponseEntity<Map<String, Object>> initiateChunkedUpload(
+            @RequestParam String filename,
+            @RequestParam long fileSize,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) String documentId) {
+
+        try {
+            Map<String, Object> response = chunkedUploadService.initiate(filename, fileSize, category, documentId);
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("初始化分片上传失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("初始化分片上传失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 上传分片接口
+     * 请求体为分片的原始字节，分片序号从1开始，失败的分片可以重复上传
+     */
+    @PutMapping(value = "/documents/uploads/{uploadId}/parts/{partNumber}",
+            consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Map<String, Object>> uploadPart(
+            @PathVariable String uploadId,
+            @PathVariable int partNumber,
+            InputStream content) {
+
+        try {
+            Map<String, Object> response = chunkedUploadService.uploadPart(uploadId, partNumber, content);
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("上传分片失败: uploadId={}, part={}", uploadId, partNumber, e);
+            return ResponseEntity.status(500).body(createErrorResponse("上传分片失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 查询分片上传状态接口，用于断点续传
+     */
+    @GetMapping("/documents/uploads/{uploadId}")
+    public ResponseEntity<Map<String, Object>> getChunkedUploadStatus(@PathVariable String uploadId) {
+        try {
+            Map<String, Object> response = chunkedUploadService.getStatus(uploadId);
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("查询分片上传状态失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("查询分片上传状态失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 完成分片上传接口，处理文档并存储到知识库
+     */
+    @PostMapping("/documents/uploads/{uploadId}/complete")
+    public ResponseEntity<Map<String, Object>> completeChunkedUpload(@PathVariable String uploadId) {
+        try {
+            Map<String, Object> response = chunkedUploadService.complete(uploadId);
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("完成分片上传失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("完成分片上传失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 放弃分片上传接口
+     */
+    @DeleteMapping("/documents/uploads/{uploadId}")
+    public ResponseEntity<Map<String, Object>> abortChunkedUpload(@PathVariable String uploadId) {
+        try {
+            chunkedUploadService.abort(uploadId);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", "分片上传已取消");
+            response.put("uploadId", uploadId);
+
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("放弃分片上传失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("放弃分片上传失败: " + e.getMessage()));
+        }
+    }
+
     /**
      * 添加文本文档接口
      */
@@ -196,20 +321,45 @@ public class RAGController {
         }
     }
 
+    /**
+     * NDJSON批量添加文本文档接口
+     * 请求体每行一条 {"content","title","category"} 记录，边读取边处理；
+     * 响应同样是NDJSON，按段输出progress事件，记录错误输出error事件，最后输出summary事件；
+     * deferIndex=true时导入期间删除向量索引、完成后重建，适合初次导入大量数据
+     */
+    @PostMapping(value = "/documents/add-text/bulk", consumes = APPLICATION_NDJSON_VALUE,
+            produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> addTextDocumentsBulk(
+            InputStream content,
+            @RequestParam(defaultValue = "false") boolean deferIndex) {
+        StreamingResponseBody body = output -> {
+            try {
+                bulkTextIngestionService.ingest(content, output, deferIndex);
+            } catch (Exception e) {
+                log.error("NDJSON批量导入失败", e);
+                throw e;
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE)).body(body);
+    }
+
     /**
      * 文档搜索接口
+     * mode=hybrid时使用全文+向量混合检索，mode=multi时使用多查询并行检索
      */
     @GetMapping("/documents/search")
     public ResponseEntity<Map<String, Object>> searchDocuments(
             @RequestParam String query,
-            @RequestParam(defaultValue = "10") int maxResults) {
+            @RequestParam(defaultValue = "10") int maxResults,
+            @RequestParam(defaultValue = "vector") String mode) {
 
         try {
-            List<Document> documents = documentService.searchDocuments(query, maxResults);
+            List<Document> documents = searchByMode(mode, query, null, maxResults);
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("query", query);
+            response.put("mode", mode.toLowerCase());
             response.put("totalResults", documents.size());
             response.put("documents", documents.stream().map(this::documentToMap).toList());
 
@@ -223,20 +373,23 @@ public class RAGController {
 
     /**
      * 按类别搜索文档接口
+     * mode=hybrid时使用全文+向量混合检索，mode=multi时使用多查询并行检索
      */
     @GetMapping("/documents/search/category")
     public ResponseEntity<Map<String, Object>> searchDocumentsByCategory(
             @RequestParam String query,
             @RequestParam String category,
-            @RequestParam(defaultValue = "10") int maxResults) {
+            @RequestParam(defaultValue = "10") int maxResults,
+            @RequestParam(defaultValue = "vector") String mode) {
 
         try {
-            List<Document> documents = documentService.searchDocumentsByCategory(query, category, maxResults);
+            List<Document> documents = searchByMode(mode, query, category, maxResults);
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("query", query);
             response.put("category", category);
+            response.put("mode", mode.toLowerCase());
             response.put("totalResults", documents.size());
             response.put("documents", documents.stream().map(this::documentToMap).toList());
 
@@ -269,6 +422,186 @@ public class RAGController {
         }
     }
 
+    /**
+     * 获取监控目录入库状态接口
+     */
+    @GetMapping("/documents/watch")
+    public ResponseEntity<Map<String, Object>> getWatchFolderStatus() {
+        try {
+            Map<String, Object> response = watchFolderIngestionService.getStatus();
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("获取监控目录状态失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("获取监控目录状态失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 重新扫描监控目录接口
+     */
+    @PostMapping("/documents/watch/rescan")
+    public ResponseEntity<Map<String, Object>> rescanWatchFolder() {
+        try {
+            watchFolderIngestionService.requestRescan();
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", "已请求重新扫描监控目录");
+
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("重新扫描监控目录失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("重新扫描监控目录失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 获取向量热副本状态接口
+     */
+    @GetMapping("/vectorstore/replica")
+    public ResponseEntity<Map<String, Object>> getReplicaStatus() {
+        try {
+            Map<String, Object> response = vectorStoreReplica.getStatus();
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("获取向量热副本状态失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("获取向量热副本状态失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 对比向量热副本与pgvector的召回率和延迟接口
+     */
+    @PostMapping("/vectorstore/replica/validate")
+    public ResponseEntity<Map<String, Object>> validateReplica(
+            @RequestParam(defaultValue = "50") int samples,
+            @RequestParam(defaultValue = "5") int topK) {
+        try {
+            if (samples <= 0 || samples > 1000 || topK <= 0 || topK > 100) {
+                throw new IllegalArgumentException("samples需在1-1000之间，topK需在1-100之间");
+            }
+
+            Map<String, Object> response = new HashMap<>(vectorStoreReplica.validate(samples, topK));
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("验证向量热副本失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("验证向量热副本失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 对比原始精度与量化索引的召回率、延迟和索引大小接口
+     */
+    @PostMapping("/vectorstore/quantization/compare")
+    public ResponseEntity<Map<String, Object>> compareQuantization(
+            @RequestParam(defaultValue = "50") int samples,
+            @RequestParam(defaultValue = "5") int topK) {
+        try {
+            if (samples <= 0 || samples > 1000 || topK <= 0 || topK > 100) {
+                throw new IllegalArgumentException("samples需在1-1000之间，topK需在1-100之间");
+            }
+
+            Map<String, Object> response = new HashMap<>(quantizedVectorSearch.compare(samples, topK));
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("对比量化索引失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("对比量化索引失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 获取各类别文档块数和部分向量索引状态接口
+     */
+    @GetMapping("/vectorstore/category-indexes")
+    public ResponseEntity<Map<String, Object>> getCategoryIndexStatus() {
+        try {
+            Map<String, Object> response = categoryVectorSearch.getStatus();
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("获取类别向量索引状态失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("获取类别向量索引状态失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 为文档块数达到阈值的类别建立部分向量索引接口
+     * 索引在请求中同步建立，大类别需要较长时间
+     */
+    @PostMapping("/vectorstore/category-indexes/sync")
+    public ResponseEntity<Map<String, Object>> syncCategoryIndexes() {
+        try {
+            List<String> created = categoryVectorSearch.syncIndexes();
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("created", created);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("建立类别向量索引失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("建立类别向量索引失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 获取向量检索执行计划统计接口
+     */
+    @GetMapping("/vectorstore/search-plans")
+    public ResponseEntity<Map<String, Object>> getSearchPlanStats() {
+        try {
+            Map<String, Object> response = new HashMap<>(searchPlanner.getStats());
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("获取向量检索计划统计失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("获取向量检索计划统计失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 获取向量存储分片检索统计接口
+     */
+    @GetMapping("/vectorstore/shards")
+    public ResponseEntity<Map<String, Object>> getShardStats() {
+        try {
+            Map<String, Object> response = new HashMap<>(vectorStoreShards.getStats());
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("获取向量存储分片状态失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("获取向量存储分片状态失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 获取只读副本路由状态接口
+     */
+    @GetMapping("/datasource/replicas")
+    public ResponseEntity<Map<String, Object>> getReadReplicaStats() {
+        try {
+            Map<String, Object> response = new HashMap<>(readReplicaRouter.getStats());
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("获取只读副本状态失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("获取只读副本状态失败: " + e.getMessage()));
+        }
+    }
+
     /**
      * 获取文档统计信息接口
      */
@@ -306,6 +639,59 @@ public class RAGController {
         }
     }
 
+    /**
+     * 按来源文件、类别或逻辑文档ID删除文档接口
+     * 三个条件只能指定一个，按来源文件删除时可以同时用category指定文件所在的类别（不指定时删除未分类的同名文件）；
+     * 文档块在后台分批删除，返回的taskId用于查询进度
+     */
+    @DeleteMapping("/documents")
+    public ResponseEntity<Map<String, Object>> deleteDocuments(
+            @RequestParam(required = false) String sourceFile,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) String documentId) {
+
+        try {
+            Map<DeletionScope, String> conditions = new HashMap<>();
+            if (sourceFile != null) {
+                conditions.put(DeletionScope.SOURCE_FILE, sourceFile);
+            }
+            if (category != null && sourceFile == null) {
+                conditions.put(DeletionScope.CATEGORY, category);
+            }
+            if (documentId != null) {
+                conditions.put(DeletionScope.DOCUMENT_ID, documentId);
+            }
+            if (conditions.size() != 1) {
+                throw new IllegalArgumentException("sourceFile、category、documentId必须且只能指定一个");
+            }
+
+            Map.Entry<DeletionScope, String> condition = conditions.entrySet().iterator().next();
+            Map<String, Object> response = documentDeletionService.submit(condition.getKey(), condition.getValue(), category);
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("删除文档失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("删除文档失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 查询删除任务状态接口
+     */
+    @GetMapping("/documents/deletions/{taskId}")
+    public ResponseEntity<Map<String, Object>> getDeletionTask(@PathVariable String taskId) {
+        try {
+            Map<String, Object> response = documentDeletionService.getTask(taskId);
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("查询删除任务失败", e);
+            return ResponseEntity.status(500).body(createErrorResponse("查询删除任务失败: " + e.getMessage()));
+        }
+    }
+
     /**
      * 清除所有文档接口 (谨慎使用)
      */
@@ -384,6 +770,22 @@ public class RAGController {
         return error;
     }
 
+    /**
+     * 按搜索模式检索：vector（默认）、hybrid或multi
+     *
+     * @param category 文档类别，为null时不过滤
+     */
+    private List<Document> searchByMode(String mode, String query, String category, int maxResults) {
+        return switch (mode.toLowerCase()) {
+            case "vector" -> category == null
+                    ? documentService.searchDocuments(query, maxResults)
+                    : documentService.searchDocumentsByCategory(query, category, maxResults);
+            case "hybrid" -> documentService.hybridSearchDocuments(query, category, maxResults);
+            case "multi" -> documentService.multiQuerySearchDocuments(query, category, maxResults);
+            default -> throw new IllegalArgumentException("不支持的搜索模式: " + mode + "，可选值为 vector、hybrid、multi");
+        };
+    }
+
     private Map<String, Object> documentToMap(Document document) {
         Map<String, Object> docMap = new HashMap<>();
         docMap.put("content", document.getFormattedContent());
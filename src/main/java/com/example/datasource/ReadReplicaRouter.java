@@ -0,0 +1,313 @@
+package com.example.datasource;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 只读副本路由
+ * 在read(...)范围内获取的数据库连接轮询分配到健康的只读副本，其余连接（写入、建表、建索引、LISTEN）始终使用主库。
+ * 后台定期比较主库的WAL位置（pg_current_wal_lsn）和各副本的回放位置（pg_last_wal_replay_lsn），
+ * 延迟超过max-lag的副本不参与检索；知识库发生变化时记录主库当前的WAL位置作为栅栏，
+ * 副本回放到栅栏之前检索都走主库，刚写入的内容不会因为副本延迟而检索不到（也不会被检索结果缓存记住旧结果）。
+ * 没有健康的副本时回退到主库。
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+public class ReadReplicaRouter {
+
+    private static final ThreadLocal<Boolean> READ_SCOPE = new ThreadLocal<>();
+
+    // 栅栏未知（记录时主库不可用），下次健康检查时改为主库当时的WAL位置
+    private static final long UNKNOWN_FENCE = Long.MAX_VALUE;
+
+    private final JdbcTemplate primaryJdbcTemplate;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long maxLagBytes;
+    private final DataSource routingDataSource;
+    private final ScheduledExecutorService healthChecker;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong fenceLsn = new AtomicLong();
+    private volatile long primaryLsn;
+
+    // 统计信息
+    private final AtomicLong primaryReads = new AtomicLong();
+
+    /**
+     * @param primary 主库连接池
+     * @param replicaDataSources 副本名称（如JDBC URL）到副本连接池
+     * @param maxLagBytes 副本可以落后主库的最大WAL字节数
+     * @param checkIntervalMillis 健康检查间隔，0表示不启动后台检查
+     */
+    public ReadReplicaRouter(DataSource primary, Map<String, DataSource> replicaDataSources, long maxLagBytes,
+                             long checkIntervalMillis) {
+        this.primaryJdbcTemplate = new JdbcTemplate(primary);
+        this.maxLagBytes = maxLagBytes;
+        replicaDataSources.forEach((name, dataSource) -> replicas.add(new Replica(name, dataSource)));
+
+        RoutingDataSource routing = new RoutingDataSource();
+        Map<Object, Object> targets = new HashMap<>();
+        for (int i = 0; i < replicas.size(); i++) {
+            targets.put(i, replicas.get(i).dataSource);
+        }
+        routing.setTargetDataSources(targets);
+        routing.setDefaultTargetDataSource(primary);
+        routing.afterPropertiesSet();
+        this.routingDataSource = routing;
+
+        if (!replicas.isEmpty() && checkIntervalMillis > 0) {
+            this.healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "read-replica-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            healthChecker.scheduleWithFixedDelay(this::checkReplicas, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.healthChecker = null;
+        }
+    }
+
+    /**
+     * 不配置副本时使用，read(...)直接在主库上执行
+     */
+    public static ReadReplicaRouter primaryOnly(DataSource primary) {
+        return new ReadReplicaRouter(primary, Map.of(), 0, 0);
+    }
+
+    /**
+     * 按主库/副本路由的DataSource，作为应用的DataSource
+     */
+    public DataSource getDataSource() {
+        return routingDataSource;
+    }
+
+    /**
+     * 在只读副本上执行检索，其中的查询不能写入
+     * 检索在其他线程中执行的部分需要用propagate包装
+     */
+    public <T> T read(Supplier<T> task) {
+        if (replicas.isEmpty() || Boolean.TRUE.equals(READ_SCOPE.get())) {
+            return task.get();
+        }
+        READ_SCOPE.set(Boolean.TRUE);
+        try {
+            return task.get();
+        } finally {
+            READ_SCOPE.remove();
+        }
+    }
+
+    /**
+     * 把当前线程的读范围传递给在线程池中执行的任务
+     */
+    public static <T> Supplier<T> propagate(Supplier<T> task) {
+        Boolean scope = READ_SCOPE.get();
+        if (scope == null) {
+            return task;
+        }
+        return () -> {
+            Boolean previous = READ_SCOPE.get();
+            READ_SCOPE.set(scope);
+            try {
+                return task.get();
+            } finally {
+                if (previous == null) {
+                    READ_SCOPE.remove();
+                } else {
+                    READ_SCOPE.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * 知识库发生变化后调用：副本回放到主库当前的WAL位置之前不参与检索
+     */
+    public void fence() {
+        if (replicas.isEmpty()) {
+            return;
+        }
+        try {
+            fence(parseLsn(primaryJdbcTemplate.queryForObject("SELECT pg_current_wal_lsn()::text", String.class)));
+        } catch (Exception e) {
+            log.warn("读取主库WAL位置失败，下次健康检查前检索只使用主库: {}", e.getMessage());
+            fenceLsn.set(UNKNOWN_FENCE);
+        }
+    }
+
+    void fence(long lsn) {
+        fenceLsn.updateAndGet(current -> current == UNKNOWN_FENCE ? lsn : Math.max(current, lsn));
+    }
+
+    /**
+     * 检查各副本的回放位置
+     */
+    void checkReplicas() {
+        try {
+            recordPrimaryLsn(parseLsn(primaryJdbcTemplate.queryForObject("SELECT pg_current_wal_lsn()::text", String.class)));
+        } catch (Exception e) {
+            // 无法计算延迟，保持上次的检查结果
+            log.warn("读取主库WAL位置失败: {}", e.getMessage());
+            return;
+        }
+
+        for (int i = 0; i < replicas.size(); i++) {
+            try {
+                Map<String, Object> status = replicas.get(i).jdbcTemplate.queryForMap(
+                        "SELECT pg_is_in_recovery() AS in_recovery, pg_last_wal_replay_lsn()::text AS replay_lsn");
+                if (!Boolean.TRUE.equals(status.get("in_recovery"))) {
+                    recordReplica(i, null, "不是备库（pg_is_in_recovery()为false）");
+                } else if (status.get("replay_lsn") == null) {
+                    recordReplica(i, null, "备库尚未开始回放WAL");
+                } else {
+                    recordReplica(i, parseLsn((String) status.get("replay_lsn")), null);
+                }
+            } catch (Exception e) {
+                recordReplica(i, null, e.getMessage());
+            }
+        }
+    }
+
+    void recordPrimaryLsn(long lsn) {
+        primaryLsn = lsn;
+        fenceLsn.compareAndSet(UNKNOWN_FENCE, lsn);
+    }
+
+    void recordReplica(int index, Long replayLsn, String error) {
+        Replica replica = replicas.get(index);
+        if (error != null && replica.error == null) {
+            log.warn("只读副本 {} 不可用: {}", replica.name, error);
+        } else if (error == null && replica.error != null) {
+            log.info("只读副本 {} 恢复可用", replica.name);
+        }
+        replica.error = error;
+        replica.replayLsn = replayLsn != null ? replayLsn : -1;
+    }
+
+    /**
+     * 获取路由统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", !replicas.isEmpty());
+        stats.put("max_lag_bytes", maxLagBytes);
+        stats.put("primary_reads", primaryReads.get());
+        long fence = fenceLsn.get();
+        stats.put("fence_lsn", fence == UNKNOWN_FENCE ? null : formatLsn(fence));
+
+        List<Map<String, Object>> replicaStats = new ArrayList<>();
+        for (Replica replica : replicas) {
+            Map<String, Object> replicaStat = new LinkedHashMap<>();
+            replicaStat.put("name", replica.name);
+            replicaStat.put("healthy", isHealthy(replica, fence));
+            replicaStat.put("reads", replica.reads.get());
+            if (replica.replayLsn >= 0) {
+                replicaStat.put("replay_lsn", formatLsn(replica.replayLsn));
+                replicaStat.put("lag_bytes", Math.max(0, primaryLsn - replica.replayLsn));
+            }
+            if (replica.error != null) {
+                replicaStat.put("error", replica.error);
+            }
+            replicaStats.add(replicaStat);
+        }
+        stats.put("replicas", replicaStats);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    log.warn("关闭只读副本 {} 的连接池失败", replica.name, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * WAL位置文本（如 16/B374D848）转为字节位置
+     */
+    static long parseLsn(String lsn) {
+        int slash = lsn.indexOf('/');
+        return (Long.parseLong(lsn.substring(0, slash), 16) << 32) + Long.parseLong(lsn.substring(slash + 1), 16);
+    }
+
+    static String formatLsn(long lsn) {
+        return Long.toHexString(lsn >>> 32).toUpperCase() + "/" + Long.toHexString(lsn & 0xFFFFFFFFL).toUpperCase();
+    }
+
+    /**
+     * 在读范围内轮询选择健康的副本，没有健康的副本时返回null（使用主库）
+     */
+    private Integer chooseReplica() {
+        long fence = fenceLsn.get();
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            int index = (start + i) % replicas.size();
+            Replica replica = replicas.get(index);
+            if (isHealthy(replica, fence)) {
+                replica.reads.incrementAndGet();
+                return index;
+            }
+        }
+        primaryReads.incrementAndGet();
+        return null;
+    }
+
+    private boolean isHealthy(Replica replica, long fence) {
+        long replayLsn = replica.replayLsn;
+        return replica.error == null && replayLsn >= 0 && replayLsn >= fence && primaryLsn - replayLsn <= maxLagBytes;
+    }
+
+    /**
+     * 只读副本的状态，回放位置由健康检查更新，-1表示未知或不可用
+     */
+    private static class Replica {
+
+        private final String name;
+        private final DataSource dataSource;
+        private final JdbcTemplate jdbcTemplate;
+        private final AtomicLong reads = new AtomicLong();
+        private volatile long replayLsn = -1;
+        private volatile String error;
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.jdbcTemplate = new JdbcTemplate(dataSource);
+        }
+    }
+
+    /**
+     * 读范围内的连接路由到副本，其余路由到主库
+     */
+    private class RoutingDataSource extends AbstractRoutingDataSource {
+
+        @Override
+        protected Object determineCurrentLookupKey() {
+            return Boolean.TRUE.equals(READ_SCOPE.get()) ? chooseReplica() : null;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.reader;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.reader.ExtractedTextFormatter;
+import org.springframework.ai.reader.pdf.layout.PDFLayoutTextStripperByArea;
+import org.springframework.util.StringUtils;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 并行分页PDF读取器
+ * 多个工作线程各自打开同一个PDF文件，按页段领取任务并提取文本，每页提取完成后立即在工作线程中分割，
+ * 分割结果经有界队列交给调用线程，因此解析、分割与后续的向量化可以重叠进行，内存占用只与队列容量有关。
+ * 单页文本的提取方式与PagePdfDocumentReader(pagesPerDocument=1)保持一致。
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+public class ParallelPdfPageReader implements AutoCloseable {
+
+    private static final String PAGE_REGION = "pdfPageRegion";
+
+    private final ExtractedTextFormatter textFormatter;
+    private final int parallelism;
+    private final int pagesPerTask;
+    private final int queueCapacity;
+    private final ExecutorService executor;
+
+    /**
+     * @param textFormatter 单页文本格式化规则
+     * @param parallelism 并行解析的线程数，小于等于0时使用CPU核数
+     * @param pagesPerTask 每个任务领取的连续页数
+     * @param queueCapacity 已解析但尚未被消费的页数上限
+     */
+    public ParallelPdfPageReader(ExtractedTextFormatter textFormatter, int parallelism,
+                                 int pagesPerTask, int queueCapacity) {
+        this.textFormatter = textFormatter;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.pagesPerTask = Math.max(1, pagesPerTask);
+        this.queueCapacity = Math.max(1, queueCapacity);
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "pdf-page-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 流式读取PDF
+     *
+     * @param file PDF文件
+     * @param pageProcessor 在工作线程中对单页文档执行的处理（补充元数据、分割），必须是线程安全的
+     * @param consumer 在调用线程中按完成顺序接收处理结果
+     * @return consumer接收到的文档总数
+     */
+    public int read(Path file, Function<Document, List<Document>> pageProcessor,
+                    Consumer<Document> consumer) throws IOException {
+        int pageCount;
+        try (PDDocument document = Loader.loadPDF(file.toFile(), IOUtils.createTempFileOnlyStreamCache())) {
+            pageCount = document.getNumberOfPages();
+        }
+        if (pageCount == 0) {
+            return 0;
+        }
+
+        int workers = Math.min(parallelism, (pageCount + pagesPerTask - 1) / pagesPerTask);
+        BlockingQueue<PageResult> queue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicInteger nextPage = new AtomicInteger();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> parsePages(file, pageCount, nextPage, pageProcessor, queue, cancelled, failure));
+        }
+
+        int emitted = 0;
+        int finishedWorkers = 0;
+        try {
+            while (finishedWorkers < workers) {
+                PageResult result = queue.take();
+                if (result == PageResult.DONE) {
+                    finishedWorkers++;
+                } else if (!cancelled.get()) {
+                    result.documents().forEach(consumer);
+                    emitted += result.documents().size();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled.set(true);
+            throw new IOException("PDF解析被中断", e);
+        } catch (RuntimeException e) {
+            // 消费失败时通知工作线程停止，并继续取出队列中的结果使其不会阻塞
+            cancelled.set(true);
+            drain(queue, workers - finishedWorkers);
+            throw e;
+        }
+
+        if (failure.get() != null) {
+            throw new IOException("PDF页面解析失败: " + failure.get().getMessage(), failure.get());
+        }
+
+        log.info("并行解析PDF完成: {}, 共 {} 页, {} 个线程, 产生 {} 个文档块", file.getFileName(), pageCount, workers, emitted);
+        return emitted;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void parsePages(Path file, int pageCount, AtomicInteger nextPage,
+                            Function<Document, List<Document>> pageProcessor, BlockingQueue<PageResult> queue,
+                            AtomicBoolean cancelled, AtomicReference<Exception> failure) {
+        // PDDocument不是线程安全的，每个工作线程各自打开文件，对象按需从文件中解析
+        try (PDDocument document = Loader.loadPDF(file.toFile(), IOUtils.createTempFileOnlyStreamCache())) {
+            PDFLayoutTextStripperByArea stripper = new PDFLayoutTextStripperByArea();
+            String fileName = file.getFileName().toString();
+
+            int start;
+            while (!cancelled.get() && (start = nextPage.getAndAdd(pagesPerTask)) < pageCount) {
+                int end = Math.min(start + pagesPerTask, pageCount);
+                for (int pageIndex = start; pageIndex < end && !cancelled.get(); pageIndex++) {
+                    String text = extractPageText(stripper, document.getPage(pageIndex), pageIndex);
+                    if (!StringUtils.hasText(text)) {
+                        continue;
+                    }
+                    Document page = new Document(text);
+                    page.getMetadata().put("page_number", pageIndex + 1);
+                    page.getMetadata().put("file_name", fileName);
+                    putUntilCancelled(queue, new PageResult(pageProcessor.apply(page)), cancelled);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled.set(true);
+        } catch (Exception e) {
+            log.error("解析PDF页面失败: {}", file, e);
+            failure.compareAndSet(null, e);
+            cancelled.set(true);
+        } finally {
+            try {
+                queue.put(PageResult.DONE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private String extractPageText(PDFLayoutTextStripperByArea stripper, PDPage page, int pageIndex)
+            throws IOException {
+        PDRectangle mediaBox = page.getMediaBox();
+        stripper.addRegion(PAGE_REGION, new Rectangle((int) mediaBox.getLowerLeftX(), (int) mediaBox.getLowerLeftY(),
+                (int) mediaBox.getWidth(), (int) mediaBox.getHeight()));
+        try {
+            stripper.extractRegions(page);
+            String text = stripper.getTextForRegion(PAGE_REGION);
+            return StringUtils.hasText(text) ? textFormatter.format(text, pageIndex) : text;
+        } finally {
+            stripper.removeRegion(PAGE_REGION);
+        }
+    }
+
+    private void putUntilCancelled(BlockingQueue<PageResult> queue, PageResult result, AtomicBoolean cancelled)
+            throws InterruptedException {
+        while (!cancelled.get()) {
+            if (queue.offer(result, 100, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    private void drain(BlockingQueue<PageResult> queue, int remainingWorkers) {
+        try {
+            while (remainingWorkers > 0) {
+                if (queue.take() == PageResult.DONE) {
+                    remainingWorkers--;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 单页处理结果，DONE表示某个工作线程已结束
+     */
+    private record PageResult(List<Document> documents) {
+
+        static final PageResult DONE = new PageResult(List.of());
+    }
+}
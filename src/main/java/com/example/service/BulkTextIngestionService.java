@@ -0,0 +1,310 @@
+package com.example.service;
+
+import com.example.vectorstore.VectorStoreSchema;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * NDJSON批量文本入库服务
+ * 逐行解析请求体中的 {content,title,category} 记录，不缓冲整个请求体；
+ * 记录按组并行分割后交给同一个向量化批处理会话，读取速度受embedding并发上限的背压控制，
+ * 向量默认以二进制COPY写入，也可以在导入期间删除向量索引、导入完成后重建。
+ * 处理进度和每条记录的错误以NDJSON事件的形式边处理边写回，成功写入的每条记录在documents表中登记为一个文档。
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Service
+public class BulkTextIngestionService {
+
+    // 每次并行分割的记录数
+    private static final int SPLIT_GROUP_SIZE = 64;
+
+    private final TokenTextSplitter textSplitter;
+    private final EmbeddingBatcher embeddingBatcher;
+    private final VectorStoreSchema vectorStoreSchema;
+    private final DocumentRegistry documentRegistry;
+    private final ObjectMapper objectMapper;
+    private final RetrievalResultCache retrievalResultCache;
+    private final int segmentRecords;
+    private final boolean useCopy;
+
+    public BulkTextIngestionService(TokenTextSplitter textSplitter, EmbeddingBatcher embeddingBatcher,
+                                    VectorStoreSchema vectorStoreSchema, DocumentRegistry documentRegistry,
+                                    ObjectMapper objectMapper, RetrievalResultCache retrievalResultCache,
+                                    @Value("${app.ingestion.bulk.segment-records:1000}") int segmentRecords,
+                                    @Value("${app.ingestion.bulk.use-copy:true}") boolean useCopy) {
+        this.textSplitter = textSplitter;
+        this.embeddingBatcher = embeddingBatcher;
+        this.vectorStoreSchema = vectorStoreSchema;
+        this.documentRegistry = documentRegistry;
+        this.objectMapper = objectMapper;
+        this.retrievalResultCache = retrievalResultCache;
+        this.segmentRecords = Math.max(1, segmentRecords);
+        this.useCopy = useCopy;
+    }
+
+    /**
+     * 处理NDJSON记录流
+     * 每处理完一段记录（segment-records条）等待其向量化写入完成并输出一条progress事件，
+     * 向量化失败只影响所在的一段；格式错误或内容为空的记录输出error事件后跳过；最后输出summary事件
+     *
+     * @param input NDJSON请求体，每行一条记录
+     * @param output NDJSON响应体
+     * @param deferIndex 导入期间是否删除向量索引，导入完成后重建
+     * @return 处理结果汇总
+     */
+    public Map<String, Object> ingest(InputStream input, OutputStream output, boolean deferIndex) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 64 * 1024);
+        BulkProgress progress = new BulkProgress(System.currentTimeMillis());
+
+        long indexRebuildMillis = 0;
+        String indexRebuildError = null;
+        if (deferIndex) {
+            vectorStoreSchema.deferVectorIndexes();
+        }
+        try {
+            readRecords(reader, progress, output);
+        } finally {
+            if (deferIndex) {
+                try {
+                    indexRebuildMillis = vectorStoreSchema.restoreVectorIndexes();
+                } catch (RuntimeException e) {
+                    // 数据已经写入，索引重建失败不影响导入结果，在汇总中报告
+                    log.error("批量导入后重建向量索引失败", e);
+                    indexRebuildError = e.getMessage();
+                }
+            }
+        }
+
+        Map<String, Object> summary = progress.toEvent("summary");
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - progress.startTime);
+        summary.put("elapsedMillis", elapsedMillis);
+        summary.put("recordsPerSecond", progress.succeededRecords * 1000 / elapsedMillis);
+        if (deferIndex) {
+            summary.put("indexRebuildMillis", indexRebuildMillis);
+            if (indexRebuildError != null) {
+                summary.put("indexRebuildError", indexRebuildError);
+            }
+        }
+        writeEvent(output, summary);
+
+        log.info("NDJSON批量导入完成: 成功 {} 条, 失败 {} 条, 生成 {} 个文档块, 耗时 {} ms",
+                progress.succeededRecords, progress.failedRecords, progress.chunks, elapsedMillis);
+        return summary;
+    }
+
+    private void readRecords(BufferedReader reader, BulkProgress progress, OutputStream output) throws IOException {
+        Segment segment = new Segment(1);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+
+            Document document;
+            try {
+                document = toDocument(objectMapper.readValue(line, BulkTextRecord.class));
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                progress.failedRecords++;
+                writeEvent(output, recordError(lineNumber, e instanceof JsonProcessingException
+                        ? "JSON格式错误: " + ((JsonProcessingException) e).getOriginalMessage() : e.getMessage()));
+                continue;
+            }
+
+            segment.add(document);
+            if (segment.records >= segmentRecords) {
+                segment.finish(lineNumber, progress, output);
+                segment = new Segment(lineNumber + 1);
+            }
+        }
+        segment.finish(lineNumber, progress, output);
+    }
+
+    private Document toDocument(BulkTextRecord record) {
+        if (record == null || record.content() == null || record.content().trim().isEmpty()) {
+            throw new IllegalArgumentException("文档内容不能为空");
+        }
+
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("title", record.title() != null ? record.title() : "批量导入文档");
+        metadata.put("source", "bulk_input");
+        metadata.put("upload_time", new Date().toString());
+        metadata.put(IncrementalIngestionService.DOCUMENT_ID, UUID.randomUUID().toString());
+        if (record.category() != null && !record.category().trim().isEmpty()) {
+            metadata.put("category", record.category());
+        }
+        return new Document(record.content(), metadata);
+    }
+
+    private void writeEvent(OutputStream output, Map<String, Object> event) throws IOException {
+        output.write(objectMapper.writeValueAsBytes(event));
+        output.write('\n');
+        output.flush();
+    }
+
+    private static Map<String, Object> recordError(int lineNumber, String error) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", "error");
+        event.put("line", lineNumber);
+        event.put("error", error);
+        return event;
+    }
+
+    /**
+     * 一段记录共用一个批处理会话，会话结束时等待该段的向量化写入完成
+     */
+    private class Segment {
+
+        private final int firstLine;
+        private final List<Document> splitGroup = new ArrayList<>(SPLIT_GROUP_SIZE);
+        private final List<DocumentRegistry.TextDocument> textDocuments = new ArrayList<>();
+        private EmbeddingBatcher.Session session;
+        private RuntimeException failure;
+        private int records;
+        private int chunks;
+
+        Segment(int firstLine) {
+            this.firstLine = firstLine;
+        }
+
+        void add(Document document) {
+            records++;
+            splitGroup.add(document);
+            if (splitGroup.size() >= SPLIT_GROUP_SIZE) {
+                submitGroup();
+            }
+        }
+
+        void finish(int lastLine, BulkProgress progress, OutputStream output) throws IOException {
+            if (records == 0) {
+                return;
+            }
+            submitGroup();
+            if (session != null) {
+                try {
+                    session.finish();
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+                // 失败时会话已回滚本段写入的文档块，回滚前它们可能已被检索并缓存
+                textDocuments.stream().map(DocumentRegistry.TextDocument::category).distinct()
+                        .forEach(retrievalResultCache::invalidateCategory);
+            }
+
+            if (failure == null) {
+                registerDocuments();
+                progress.succeededRecords += records;
+                progress.chunks += chunks;
+                writeEvent(output, progress.toEvent("progress"));
+                return;
+            }
+
+            log.error("NDJSON批量导入第 {}-{} 行向量化失败", firstLine, lastLine, failure);
+            progress.failedRecords += records;
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("type", "error");
+            event.put("fromLine", firstLine);
+            event.put("toLine", lastLine);
+            event.put("records", records);
+            event.put("error", "向量化存储失败，该范围内已写入的文档块已回滚: " + failure.getMessage());
+            writeEvent(output, event);
+        }
+
+        private void submitGroup() {
+            if (splitGroup.isEmpty() || failure != null) {
+                splitGroup.clear();
+                return;
+            }
+            try {
+                List<Document> splitDocuments = textSplitter.apply(new ArrayList<>(splitGroup));
+                if (session == null) {
+                    session = useCopy ? embeddingBatcher.openBulkLoadSession() : embeddingBatcher.openSession();
+                }
+                splitDocuments.forEach(session::add);
+                chunks += splitDocuments.size();
+                collectTextDocuments(splitDocuments);
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                splitGroup.clear();
+            }
+        }
+
+        private void collectTextDocuments(List<Document> splitDocuments) {
+            Map<Object, Integer> chunkCounts = new HashMap<>();
+            for (Document chunk : splitDocuments) {
+                chunkCounts.merge(chunk.getMetadata().get(IncrementalIngestionService.DOCUMENT_ID), 1, Integer::sum);
+            }
+            for (Document document : splitGroup) {
+                Map<String, Object> metadata = document.getMetadata();
+                String documentKey = (String) metadata.get(IncrementalIngestionService.DOCUMENT_ID);
+                textDocuments.add(new DocumentRegistry.TextDocument(documentKey, (String) metadata.get("title"),
+                        document.getText().getBytes(StandardCharsets.UTF_8).length,
+                        (String) metadata.get("category"), chunkCounts.getOrDefault(documentKey, 0)));
+            }
+        }
+
+        private void registerDocuments() {
+            // 文档块已经写入，登记失败只影响统计信息
+            try {
+                documentRegistry.registerTextDocuments(textDocuments);
+            } catch (RuntimeException e) {
+                log.warn("登记第 {} 行起的 {} 条批量导入记录失败", firstLine, textDocuments.size(), e);
+            }
+        }
+    }
+
+    /**
+     * 整个请求的处理进度
+     */
+    private static class BulkProgress {
+
+        private final long startTime;
+        private long succeededRecords;
+        private long failedRecords;
+        private long chunks;
+
+        BulkProgress(long startTime) {
+            this.startTime = startTime;
+        }
+
+        Map<String, Object> toEvent(String type) {
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("type", type);
+            event.put("succeededRecords", succeededRecords);
+            event.put("failedRecords", failedRecords);
+            event.put("chunks", chunks);
+            return event;
+        }
+    }
+
+    /**
+     * NDJSON中的一条记录
+     */
+    public record BulkTextRecord(String content, String title, String category) {
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.service;
+
+import com.example.service.RetrievalResultCache.RetrievalKey;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.List;
+
+/**
+ * 带检索结果缓存的文档检索器，供RetrievalAugmentationAdvisor使用
+ * 相同的（改写后的）查询和过滤条件在知识库未变化时直接返回缓存的结果
+ *
+ * @author AI Assistant
+ */
+public class CachingDocumentRetriever implements DocumentRetriever {
+
+    private final DocumentRetriever delegate;
+    private final RetrievalResultCache retrievalResultCache;
+    private final String mode;
+    private final double similarityThreshold;
+    private final int topK;
+
+    public CachingDocumentRetriever(DocumentRetriever delegate, RetrievalResultCache retrievalResultCache, String mode,
+                                    double similarityThreshold, int topK) {
+        this.delegate = delegate;
+        this.retrievalResultCache = retrievalResultCache;
+        this.mode = mode;
+        this.similarityThreshold = similarityThreshold;
+        this.topK = topK;
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        Filter.Expression filter = HybridDocumentRetriever.filterExpression(query);
+        RetrievalKey key = new RetrievalKey(mode, query.text(), null, filter != null ? filter.toString() : null,
+                topK, similarityThreshold);
+        return retrievalResultCache.get(key, () -> delegate.retrieve(query));
+    }
+}
@@ -0,0 +1,487 @@
+package com.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分片上传服务
+ * 支持"初始化 - 上传分片 - 完成"的可续传上传协议：分片通过FileChannel按偏移直接写入磁盘，不在内存中缓冲，
+ * 上传状态以清单文件保存在磁盘上，连接中断或服务重启后客户端可以查询缺失的分片继续上传。
+ * 对txt/md文件，第一个分片到达后即开始边接收边分割和向量化，完成上传时通常已处理完毕。
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Service
+public class ChunkedUploadService {
+
+    private static final String UPLOAD_DIRECTORY = "uploads";
+    private static final String DATA_SUFFIX = ".part";
+    private static final String MANIFEST_SUFFIX = ".json";
+
+    private final DocumentService documentService;
+    private final ObjectMapper objectMapper;
+    private final Path uploadDirectory;
+    private final long partSize;
+    private final long maxFileSize;
+    private final long stallTimeoutMillis;
+
+    private final Map<String, UploadState> uploads = new ConcurrentHashMap<>();
+    private final ExecutorService ingestionExecutor;
+
+    public ChunkedUploadService(DocumentService documentService, ObjectMapper objectMapper,
+                                @Value("${app.document-storage-path:documents/}") String documentStoragePath,
+                                @Value("${app.upload.part-size:8MB}") DataSize partSize,
+                                @Value("${app.upload.max-file-size:2GB}") DataSize maxFileSize,
+                                @Value("${app.upload.stall-timeout-seconds:600}") long stallTimeoutSeconds) {
+        this.documentService = documentService;
+        this.objectMapper = objectMapper;
+        this.uploadDirectory = Paths.get(documentStoragePath).resolve(UPLOAD_DIRECTORY);
+        this.partSize = partSize.toBytes();
+        this.maxFileSize = maxFileSize.toBytes();
+        this.stallTimeoutMillis = stallTimeoutSeconds * 1000;
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.ingestionExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "chunked-upload-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 初始化分片上传
+     *
+     * @return 上传ID、分片大小和分片数量
+     */
+    public Map<String, Object> initiate(String filename, long fileSize, String category, String documentId)
+            throws IOException {
+        documentService.validateDocumentType(filename);
+        if (fileSize <= 0) {
+            throw new IllegalArgumentException("文件大小必须大于0");
+        }
+        if (fileSize > maxFileSize) {
+            throw new IllegalArgumentException("文件大小超过上限: " + DataSize.ofBytes(maxFileSize).toMegabytes() + "MB");
+        }
+
+        Files.createDirectories(uploadDirectory);
+
+        UploadManifest manifest = new UploadManifest();
+        manifest.setUploadId(UUID.randomUUID().toString());
+        manifest.setOriginalFilename(filename);
+        manifest.setCategory(category);
+        manifest.setDocumentId(documentId);
+        manifest.setFileSize(fileSize);
+        manifest.setPartSize(partSize);
+        manifest.setTotalParts((int) ((fileSize + partSize - 1) / partSize));
+
+        UploadState state = new UploadState(manifest);
+        // 预先分配文件大小，分片可以按任意顺序写入
+        try (FileChannel channel = FileChannel.open(dataPath(state), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(1), fileSize - 1);
+        }
+        saveManifest(state);
+        uploads.put(manifest.getUploadId(), state);
+
+        log.info("初始化分片上传: {} ({} 字节, {} 个分片), uploadId={}",
+                filename, fileSize, manifest.getTotalParts(), manifest.getUploadId());
+        return describe(state);
+    }
+
+    /**
+     * 上传一个分片
+     * 分片内容从请求体直接写入文件中对应的位置；已接收或正在接收的分片不允许重复上传，
+     * 避免覆盖边接收边处理可能已读取的内容，客户端可以通过查询状态确认需要补传的分片。
+     * 大小不正确的分片不计为已接收，可以重新上传
+     *
+     * @param partNumber 分片序号，从1开始
+     */
+    public Map<String, Object> uploadPart(String uploadId, int partNumber, InputStream content) throws IOException {
+        UploadState state = getState(uploadId);
+        UploadManifest manifest = state.manifest;
+        if (partNumber < 1 || partNumber > manifest.getTotalParts()) {
+            throw new IllegalArgumentException("分片序号超出范围: 1-" + manifest.getTotalParts());
+        }
+
+        synchronized (state) {
+            if (state.completing) {
+                throw new IllegalStateException("上传正在完成，不能再上传分片");
+            }
+            if (manifest.getReceivedParts().contains(partNumber) || !state.writingParts.add(partNumber)) {
+                throw new IllegalArgumentException("分片 " + partNumber + " 已上传或正在上传");
+            }
+        }
+
+        long position = (partNumber - 1) * manifest.getPartSize();
+        long expectedLength = Math.min(manifest.getPartSize(), manifest.getFileSize() - position);
+
+        try {
+            long written = 0;
+            try (FileChannel channel = FileChannel.open(dataPath(state), StandardOpenOption.WRITE);
+                 ReadableByteChannel source = Channels.newChannel(content)) {
+                while (written < expectedLength) {
+                    long transferred = channel.transferFrom(source, position + written, expectedLength - written);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    written += transferred;
+                }
+                if (written != expectedLength || content.read() != -1) {
+                    throw new IllegalArgumentException(String.format("分片 %d 大小不正确，应为 %d 字节", partNumber, expectedLength));
+                }
+                channel.force(false);
+            }
+
+            synchronized (state) {
+                manifest.getReceivedParts().add(partNumber);
+                saveManifest(state);
+                state.notifyAll();
+            }
+        } finally {
+            synchronized (state) {
+                state.writingParts.remove(partNumber);
+            }
+        }
+        log.debug("分片上传 {} 收到分片 {}/{}", uploadId, partNumber, manifest.getTotalParts());
+
+        startProgressiveIngestion(state);
+        return describe(state);
+    }
+
+    /**
+     * 查询上传状态，客户端据此补传缺失的分片
+     */
+    public Map<String, Object> getStatus(String uploadId) throws IOException {
+        return describe(getState(uploadId));
+    }
+
+    /**
+     * 完成上传并处理文档
+     * 所有分片必须已经到达；已开始的边接收边处理任务在此等待结束，失败时退回到对完整文件的处理。
+     * 同一上传同时只能有一个完成请求，处理失败后可以重新调用
+     */
+    public Map<String, Object> complete(String uploadId) throws IOException {
+        UploadState state = getState(uploadId);
+        synchronized (state) {
+            List<Integer> missingParts = missingParts(state);
+            if (!missingParts.isEmpty()) {
+                throw new IllegalArgumentException("尚有分片未上传: " + missingParts);
+            }
+            if (state.completing) {
+                throw new IllegalStateException("上传正在完成或已完成: " + uploadId);
+            }
+            state.completing = true;
+        }
+
+        boolean completed = false;
+        try {
+            Map<String, Object> result = ingestCompletedUpload(state);
+            completed = true;
+            return result;
+        } finally {
+            if (!completed) {
+                synchronized (state) {
+                    state.completing = false;
+                }
+            }
+        }
+    }
+
+    private Map<String, Object> ingestCompletedUpload(UploadState state) throws IOException {
+        UploadManifest manifest = state.manifest;
+        String uploadId = manifest.getUploadId();
+
+        String message = null;
+        boolean progressive = false;
+        CompletableFuture<String> ingestion = state.ingestion;
+        if (ingestion != null) {
+            try {
+                message = ingestion.join();
+                progressive = true;
+            } catch (CompletionException e) {
+                log.warn("边接收边处理失败，改为处理完整文件: {}", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            }
+        }
+
+        // 合并完成的文件加入内容寻址存储，处理成功后才删除，失败时重新完成仍可使用
+        if (message != null) {
+            documentService.attachStoredFile(dataPath(state), manifest.getOriginalFilename(),
+                    manifest.getCategory(), manifest.getDocumentId());
+        } else {
+            message = documentService.processStoredDocument(dataPath(state), manifest.getOriginalFilename(),
+                    manifest.getCategory(), manifest.getDocumentId());
+        }
+        Files.deleteIfExists(dataPath(state));
+        Files.deleteIfExists(manifestPath(uploadId));
+        uploads.remove(uploadId);
+
+        log.info("分片上传完成: {}, uploadId={}", manifest.getOriginalFilename(), uploadId);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("uploadId", uploadId);
+        result.put("filename", manifest.getOriginalFilename());
+        result.put("category", manifest.getCategory());
+        result.put("progressive", progressive);
+        result.put("message", message);
+        return result;
+    }
+
+    /**
+     * 放弃上传并删除已接收的数据
+     */
+    public void abort(String uploadId) throws IOException {
+        UploadState state = getState(uploadId);
+        synchronized (state) {
+            state.aborted = true;
+            state.notifyAll();
+        }
+        uploads.remove(uploadId);
+        Files.deleteIfExists(dataPath(state));
+        Files.deleteIfExists(manifestPath(uploadId));
+        log.info("已放弃分片上传: {}", uploadId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ingestionExecutor.shutdownNow();
+    }
+
+    /**
+     * 对支持流式处理的格式，在第一个分片到达后启动边接收边处理任务
+     */
+    private void startProgressiveIngestion(UploadState state) {
+        UploadManifest manifest = state.manifest;
+        if (!documentService.supportsProgressiveIngestion(manifest.getOriginalFilename())) {
+            return;
+        }
+        synchronized (state) {
+            if (state.ingestion != null || !manifest.getReceivedParts().contains(1)) {
+                return;
+            }
+            state.ingestion = CompletableFuture.supplyAsync(() -> {
+                try (FileChannel channel = FileChannel.open(dataPath(state), StandardOpenOption.READ)) {
+                    return documentService.processTextStream(new ReceivedPrefixChannel(state, channel),
+                            manifest.getOriginalFilename(), manifest.getFileSize(),
+                            manifest.getCategory(), manifest.getDocumentId());
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, ingestionExecutor);
+        }
+        log.debug("分片上传 {} 开始边接收边处理", manifest.getUploadId());
+    }
+
+    private UploadState getState(String uploadId) throws IOException {
+        UploadState state = uploads.get(uploadId);
+        if (state != null) {
+            return state;
+        }
+
+        // 服务重启后从清单文件恢复上传状态
+        Path manifestPath = manifestPath(uploadId);
+        if (!isValidUploadId(uploadId) || !Files.exists(manifestPath)) {
+            throw new IllegalArgumentException("上传不存在或已结束: " + uploadId);
+        }
+        UploadManifest manifest = objectMapper.readValue(manifestPath.toFile(), UploadManifest.class);
+        return uploads.computeIfAbsent(uploadId, id -> new UploadState(manifest));
+    }
+
+    private Map<String, Object> describe(UploadState state) {
+        UploadManifest manifest = state.manifest;
+        Map<String, Object> result = new HashMap<>();
+        result.put("uploadId", manifest.getUploadId());
+        result.put("filename", manifest.getOriginalFilename());
+        result.put("fileSize", manifest.getFileSize());
+        result.put("partSize", manifest.getPartSize());
+        result.put("totalParts", manifest.getTotalParts());
+        synchronized (state) {
+            result.put("receivedParts", manifest.getReceivedParts().size());
+            result.put("missingParts", missingParts(state));
+            result.put("processing", state.ingestion != null);
+        }
+        return result;
+    }
+
+    private List<Integer> missingParts(UploadState state) {
+        List<Integer> missing = new ArrayList<>();
+        synchronized (state) {
+            for (int part = 1; part <= state.manifest.getTotalParts(); part++) {
+                if (!state.manifest.getReceivedParts().contains(part)) {
+                    missing.add(part);
+                }
+            }
+        }
+        return missing;
+    }
+
+    private void saveManifest(UploadState state) throws IOException {
+        Path manifestPath = manifestPath(state.manifest.getUploadId());
+        Path tempPath = manifestPath.resolveSibling(manifestPath.getFileName() + ".tmp");
+        objectMapper.writeValue(tempPath.toFile(), state.manifest);
+        Files.move(tempPath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path dataPath(UploadState state) {
+        return uploadDirectory.resolve(state.manifest.getUploadId() + DATA_SUFFIX);
+    }
+
+    private Path manifestPath(String uploadId) {
+        return uploadDirectory.resolve(uploadId + MANIFEST_SUFFIX);
+    }
+
+    private boolean isValidUploadId(String uploadId) {
+        try {
+            return UUID.fromString(uploadId).toString().equals(uploadId);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 只暴露从文件开头起连续到达的数据的只读通道
+     * 读到尚未到达的位置时阻塞等待后续分片，长时间没有新分片或上传被放弃时抛出异常
+     */
+    private class ReceivedPrefixChannel implements ReadableByteChannel {
+
+        private final UploadState state;
+        private final FileChannel channel;
+        private long position;
+
+        ReceivedPrefixChannel(UploadState state, FileChannel channel) {
+            this.state = state;
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            long fileSize = state.manifest.getFileSize();
+            if (position >= fileSize) {
+                return -1;
+            }
+
+            long available = awaitAvailable();
+            int limit = dst.limit();
+            if (dst.remaining() > available - position) {
+                dst.limit(dst.position() + (int) (available - position));
+            }
+            try {
+                int read = channel.read(dst, position);
+                if (read > 0) {
+                    position += read;
+                }
+                return read;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        private long awaitAvailable() throws IOException {
+            synchronized (state) {
+                long deadline = System.currentTimeMillis() + stallTimeoutMillis;
+                long available;
+                while ((available = state.receivedPrefixBytes()) <= position) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (state.aborted) {
+                        throw new IOException("上传已被放弃");
+                    }
+                    if (remaining <= 0) {
+                        throw new IOException("等待后续分片超时");
+                    }
+                    try {
+                        state.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("等待后续分片时被中断", e);
+                    }
+                }
+                return available;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // 底层通道由调用方关闭
+        }
+    }
+
+    /**
+     * 进行中的上传
+     */
+    private static class UploadState {
+
+        private final UploadManifest manifest;
+        // 正在写入、尚未确认大小的分片
+        private final Set<Integer> writingParts = new HashSet<>();
+        private CompletableFuture<String> ingestion;
+        private boolean aborted;
+        private boolean completing;
+
+        UploadState(UploadManifest manifest) {
+            this.manifest = manifest;
+        }
+
+        /**
+         * 从文件开头起连续到达的字节数
+         */
+        synchronized long receivedPrefixBytes() {
+            int parts = 0;
+            while (manifest.getReceivedParts().contains(parts + 1)) {
+                parts++;
+            }
+            return Math.min(parts * manifest.getPartSize(), manifest.getFileSize());
+        }
+    }
+
+    /**
+     * 持久化到磁盘的上传清单
+     */
+    @Data
+    public static class UploadManifest {
+
+        private String uploadId;
+        private String originalFilename;
+        private String category;
+        private String documentId;
+        private long fileSize;
+        private long partSize;
+        private int totalParts;
+        private TreeSet<Integer> receivedParts = new TreeSet<>();
+    }
+}
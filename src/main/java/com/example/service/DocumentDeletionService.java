@@ -0,0 +1,325 @@
+package com.example.service;
+
+import com.example.service.DocumentRegistry.StoredContent;
+import com.example.storage.ContentAddressedDocumentStore;
+import com.example.vectorstore.PgVectorWriter;
+import com.example.vectorstore.VectorStoreShards;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 文档删除服务
+ * 清空知识库使用TRUNCATE，表和索引直接置空，不逐行删除；
+ * 按来源文件、类别或逻辑文档ID删除时，后台线程先通过表达式索引读出要删除的文档块ID，再删除documents中的登记，
+ * 最后按ID分批删除文档块：删除登记后重新上传的同名文档写入的文档块不在这些ID中，不会被误删；
+ * 每批是独立的短事务，大量删除不会长时间持有锁、影响检索；
+ * 每批删除后相关的检索结果缓存失效（按类别或来源文件删除时只影响该类别）。
+ * 配置分片时在各分片上分别清空和删除，按逻辑文档ID删除只访问该文档所在的分片。
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Service
+public class DocumentDeletionService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PgVectorWriter vectorWriter;
+    private final VectorStoreShards vectorStoreShards;
+    private final DocumentRegistry documentRegistry;
+    private final ContentAddressedDocumentStore documentStore;
+    private final RetrievalResultCache retrievalResultCache;
+    private final int batchSize;
+    private final long batchPauseMillis;
+    private final String lockTimeout;
+
+    private final Map<String, DeletionTask> tasks = new ConcurrentHashMap<>();
+    private final ExecutorService deletionExecutor;
+
+    public DocumentDeletionService(JdbcTemplate jdbcTemplate, PgVectorWriter vectorWriter,
+                                   VectorStoreShards vectorStoreShards, DocumentRegistry documentRegistry, ContentAddressedDocumentStore documentStore,
+                                   RetrievalResultCache retrievalResultCache,
+                                   @Value("${app.deletion.batch-size:1000}") int batchSize,
+                                   @Value("${app.deletion.batch-pause-millis:20}") long batchPauseMillis,
+                                   @Value("${app.deletion.truncate-lock-timeout:5s}") String lockTimeout) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorWriter = vectorWriter;
+        this.vectorStoreShards = vectorStoreShards;
+        this.documentRegistry = documentRegistry;
+        this.documentStore = documentStore;
+        this.retrievalResultCache = retrievalResultCache;
+        this.batchSize = batchSize;
+        this.batchPauseMillis = batchPauseMillis;
+        this.lockTimeout = lockTimeout;
+
+        // 删除任务串行执行，避免多个大批量删除同时争用
+        this.deletionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "document-delete");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 清空知识库
+     * 在同一事务中TRUNCATE vector_store和documents，向量索引随表一起置空，不需要重建；
+     * TRUNCATE需要排他锁，等待超过truncate-lock-timeout时放弃，避免排在长查询之后阻塞所有检索；
+     * 配置分片时先逐个清空各分片的vector_store，再清空主库的documents
+     *
+     * @return 清空前文档块数量的估计值，来自pg_class.reltuples（最近一次VACUUM/ANALYZE时的统计），不扫描表
+     */
+    public long clearAll() {
+        String table = vectorWriter.getQualifiedTableName();
+        long estimatedChunks = 0;
+        for (JdbcTemplate shard : vectorStoreShards.getJdbcTemplates()) {
+            // 从未ANALYZE的表reltuples为-1
+            Long estimate = shard.queryForObject("SELECT GREATEST(reltuples, 0)::bigint FROM pg_class WHERE oid = ?::regclass",
+                    Long.class, table);
+            estimatedChunks += estimate != null ? estimate : 0;
+        }
+
+        if (vectorStoreShards.isSharded()) {
+            for (JdbcTemplate shard : vectorStoreShards.getJdbcTemplates()) {
+                truncate(shard, table);
+            }
+            truncate(jdbcTemplate, "documents");
+        } else {
+            truncate(jdbcTemplate, table + ", documents");
+        }
+
+        try {
+            documentStore.deleteAll();
+        } catch (IOException e) {
+            log.warn("删除存储的文档文件失败", e);
+        }
+
+        log.warn("知识库已清空，约 {} 个文档块（估计值）", estimatedChunks);
+        return estimatedChunks;
+    }
+
+    private void truncate(JdbcTemplate jdbcTemplate, String tables) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET LOCAL lock_timeout = '" + lockTimeout.replace("'", "") + "'");
+                statement.execute("TRUNCATE " + tables);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 按条件提交后台删除任务
+     *
+     * @return 任务状态
+     */
+    public Map<String, Object> submit(DeletionScope scope, String value) {
+        return submit(scope, value, null);
+    }
+
+    /**
+     * 按条件提交后台删除任务
+     *
+     * @param category 按来源文件删除时文件所在的类别，为空时删除未分类的同名文件；其他条件忽略该参数
+     * @return 任务状态
+     */
+    public Map<String, Object> submit(DeletionScope scope, String value, String category) {
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("删除条件不能为空");
+        }
+
+        String taskCategory = scope == DeletionScope.SOURCE_FILE && category != null && !category.trim().isEmpty()
+                ? category.trim() : null;
+        DeletionTask task = new DeletionTask(UUID.randomUUID().toString(), scope, value.trim(), taskCategory);
+        tasks.put(task.taskId, task);
+        deletionExecutor.execute(() -> run(task));
+
+        log.info("提交删除任务 {}: {} = {}{}", task.taskId, scope.metadataKey, task.value,
+                scope == DeletionScope.SOURCE_FILE ? " (类别: " + taskCategory + ")" : "");
+        return task.describe();
+    }
+
+    /**
+     * 查询删除任务状态
+     */
+    public Map<String, Object> getTask(String taskId) {
+        DeletionTask task = tasks.get(taskId);
+        if (task == null) {
+            throw new IllegalArgumentException("删除任务不存在: " + taskId);
+        }
+        return task.describe();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deletionExecutor.shutdownNow();
+    }
+
+    private void run(DeletionTask task) {
+        task.status = "RUNNING";
+        try {
+            String table = vectorWriter.getQualifiedTableName();
+            Object[] params = task.params();
+            List<JdbcTemplate> shards = task.scope == DeletionScope.DOCUMENT_ID
+                    ? List.of(vectorStoreShards.forDocument(task.value)) : vectorStoreShards.getJdbcTemplates();
+
+            // 先确定要删除的文档块，再删除登记：之后重新上传的同名文档登记为新文档，写入的文档块不在其中
+            List<List<String>> chunkIds = new ArrayList<>(shards.size());
+            for (JdbcTemplate shard : shards) {
+                chunkIds.add(shard.queryForList("SELECT id::text FROM " + table + " WHERE " + task.scope.chunkCondition,
+                        String.class, params));
+            }
+            List<StoredContent> storedContents = documentRegistry.deleteDocuments(task.scope.documentCondition, params);
+            task.deletedDocuments = storedContents.size();
+
+            for (int i = 0; i < shards.size(); i++) {
+                List<String> ids = chunkIds.get(i);
+                for (int from = 0; from < ids.size(); from += batchSize) {
+                    if (from > 0 && batchPauseMillis > 0) {
+                        Thread.sleep(batchPauseMillis);
+                    }
+                    int deleted = deleteChunks(shards.get(i), table, ids.subList(from, Math.min(from + batchSize, ids.size())));
+                    task.deletedChunks += deleted;
+                    if (deleted > 0) {
+                        invalidateRetrievalCache(task);
+                    }
+                }
+            }
+
+            deleteUnreferencedFiles(storedContents);
+
+            task.status = "COMPLETED";
+            log.info("删除任务 {} 完成: 删除 {} 个文档, {} 个文档块", task.taskId, task.deletedDocuments, task.deletedChunks);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.status = "CANCELLED";
+        } catch (Exception e) {
+            log.error("删除任务 {} 失败", task.taskId, e);
+            task.status = "FAILED";
+            task.error = e.getMessage();
+        } finally {
+            task.finishedAt = new Date();
+        }
+    }
+
+    private int deleteChunks(JdbcTemplate shard, String table, List<String> ids) {
+        return shard.update(connection -> {
+            var ps = connection.prepareStatement("DELETE FROM " + table + " WHERE id = ANY (?)");
+            ps.setArray(1, connection.createArrayOf("uuid", ids.stream().map(UUID::fromString).toArray()));
+            return ps;
+        });
+    }
+
+    /**
+     * 按类别或来源文件删除只影响该类别的检索结果，按文档ID删除时无法确定类别
+     */
+    private void invalidateRetrievalCache(DeletionTask task) {
+        switch (task.scope) {
+            case CATEGORY -> retrievalResultCache.invalidateCategory(task.value);
+            case SOURCE_FILE -> retrievalResultCache.invalidateCategory(task.category);
+            default -> retrievalResultCache.invalidateAll();
+        }
+    }
+
+    private void deleteUnreferencedFiles(List<StoredContent> storedContents) throws IOException {
+        for (StoredContent content : storedContents) {
+            documentStore.deleteIfUnreferenced(content.contentHash(), content.fileType(),
+                    () -> documentRegistry.countContentReferences(content.contentHash(), content.fileType()));
+        }
+    }
+
+    /**
+     * 删除条件，对应文档块元数据中的键、vector_store中通过索引定位的条件和documents表中的条件
+     * 同名文件在不同类别下是不同的文档，按来源文件删除时同时按类别限定
+     */
+    public enum DeletionScope {
+        SOURCE_FILE("source_file", "metadata->>'source_file' = ? AND category IS NOT DISTINCT FROM ?::text",
+                "original_filename = ? AND NULLIF(category, '') IS NOT DISTINCT FROM ?::text"),
+        CATEGORY("category", "category = ?", "category = ?"),
+        DOCUMENT_ID(IncrementalIngestionService.DOCUMENT_ID, "metadata->>'" + IncrementalIngestionService.DOCUMENT_ID + "' = ?",
+                "document_key = ?");
+
+        private final String metadataKey;
+        private final String chunkCondition;
+        private final String documentCondition;
+
+        DeletionScope(String metadataKey, String chunkCondition, String documentCondition) {
+            this.metadataKey = metadataKey;
+            this.chunkCondition = chunkCondition;
+            this.documentCondition = documentCondition;
+        }
+    }
+
+    /**
+     * 后台删除任务的状态
+     */
+    private static class DeletionTask {
+
+        private final String taskId;
+        private final DeletionScope scope;
+        private final String value;
+        private final String category;
+        private final Date submittedAt = new Date();
+        private volatile String status = "PENDING";
+        private volatile int deletedDocuments;
+        private volatile long deletedChunks;
+        private volatile String error;
+        private volatile Date finishedAt;
+
+        DeletionTask(String taskId, DeletionScope scope, String value, String category) {
+            this.taskId = taskId;
+            this.scope = scope;
+            this.value = value;
+            this.category = category;
+        }
+
+        Object[] params() {
+            return scope == DeletionScope.SOURCE_FILE ? new Object[]{value, category} : new Object[]{value};
+        }
+
+        Map<String, Object> describe() {
+            Map<String, Object> result = new HashMap<>();
+            result.put("taskId", taskId);
+            result.put("scope", scope.metadataKey);
+            result.put("value", value);
+            if (scope == DeletionScope.SOURCE_FILE) {
+                result.put("category", category);
+            }
+            result.put("status", status);
+            result.put("deletedDocuments", deletedDocuments);
+            result.put("deletedChunks", deletedChunks);
+            result.put("submittedAt", submittedAt);
+            if (finishedAt != null) {
+                result.put("finishedAt", finishedAt);
+            }
+            if (error != null) {
+                result.put("error", error);
+            }
+            return result;
+        }
+    }
+}
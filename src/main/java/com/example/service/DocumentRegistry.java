@@ -0,0 +1,264 @@
+package com.example.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 文档登记服务
+ * 在documents表中维护逻辑文档的身份和版本号，使重复上传能够识别为同一文档的新版本
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DocumentRegistry {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.ai.vectorstore.pgvector.initialize-schema:true}")
+    private boolean initializeSchema;
+
+    @PostConstruct
+    public void initSchema() {
+        if (!initializeSchema) {
+            return;
+        }
+        jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS documents (
+                    id uuid DEFAULT gen_random_uuid() PRIMARY KEY,
+                    filename varchar(255) NOT NULL,
+                    original_filename varchar(255) NOT NULL,
+                    file_type varchar(50) NOT NULL,
+                    file_size bigint,
+                    category varchar(100),
+                    upload_time timestamp DEFAULT CURRENT_TIMESTAMP,
+                    processed boolean DEFAULT false,
+                    chunk_count integer DEFAULT 0,
+                    metadata json
+                )
+                """);
+        jdbcTemplate.execute("ALTER TABLE documents ADD COLUMN IF NOT EXISTS document_key varchar(255)");
+        jdbcTemplate.execute("ALTER TABLE documents ADD COLUMN IF NOT EXISTS version integer DEFAULT 1");
+        jdbcTemplate.execute("CREATE UNIQUE INDEX IF NOT EXISTS documents_document_key_idx ON documents(document_key)");
+        jdbcTemplate.execute("ALTER TABLE documents ADD COLUMN IF NOT EXISTS content_hash char(64)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS documents_content_hash_idx ON documents(content_hash)");
+        jdbcTemplate.execute("ALTER TABLE documents ADD COLUMN IF NOT EXISTS source_path varchar(1024)");
+        jdbcTemplate.execute("ALTER TABLE documents ADD COLUMN IF NOT EXISTS source_modified bigint");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS documents_original_filename_idx ON documents(original_filename)");
+
+        // 统计视图只在这里定义
+        jdbcTemplate.execute("""
+                CREATE OR REPLACE VIEW document_stats AS
+                SELECT
+                    COUNT(*) as total_documents,
+                    COUNT(CASE WHEN processed = true THEN 1 END) as processed_documents,
+                    COUNT(CASE WHEN processed = false THEN 1 END) as pending_documents,
+                    COUNT(DISTINCT category) as unique_categories,
+                    COUNT(DISTINCT file_type) as unique_file_types,
+                    SUM(chunk_count) as total_chunks,
+                    AVG(chunk_count) as avg_chunks_per_document
+                FROM documents
+                """);
+        jdbcTemplate.execute("""
+                CREATE OR REPLACE VIEW category_stats AS
+                SELECT
+                    COALESCE(category, 'Uncategorized') as category,
+                    COUNT(*) as document_count,
+                    SUM(chunk_count) as total_chunks,
+                    AVG(chunk_count) as avg_chunks
+                FROM documents
+                GROUP BY category
+                ORDER BY document_count DESC
+                """);
+    }
+
+    /**
+     * 计算逻辑文档ID
+     * 调用方显式指定时直接使用，否则由类别和原始文件名派生，同名文件在同一类别下视为同一文档
+     */
+    public String resolveDocumentKey(String documentId, String originalFilename, String category) {
+        if (documentId != null && !documentId.trim().isEmpty()) {
+            return documentId.trim();
+        }
+        String identity = (category != null ? category.trim() : "") + "/" + originalFilename;
+        return UUID.nameUUIDFromBytes(identity.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * 登记文档的一个新版本
+     *
+     * @return 新的版本号，首次上传为1
+     */
+    public int beginVersion(String documentKey, String filename, String originalFilename,
+                            String fileType, long fileSize, String category) {
+        Integer version = jdbcTemplate.queryForObject("""
+                INSERT INTO documents (document_key, filename, original_filename, file_type, file_size, category,
+                                       version, processed, chunk_count)
+                VALUES (?, ?, ?, ?, ?, ?, 1, false, 0)
+                ON CONFLICT (document_key) DO UPDATE SET
+                    filename = EXCLUDED.filename,
+                    original_filename = EXCLUDED.original_filename,
+                    file_size = EXCLUDED.file_size,
+                    category = EXCLUDED.category,
+                    version = documents.version + 1,
+                    processed = false,
+                    upload_time = CURRENT_TIMESTAMP
+                RETURNING version
+                """, Integer.class, documentKey, filename, originalFilename, fileType, fileSize, category);
+
+        log.debug("文档 {} 登记为版本 {}", documentKey, version);
+        return version != null ? version : 1;
+    }
+
+    /**
+     * 文档当前版本是否已由相同内容处理完成
+     */
+    public boolean isProcessedWithContent(String documentKey, String contentHash) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM documents WHERE document_key = ? AND content_hash = ? AND processed = true",
+                Integer.class, documentKey, contentHash);
+        return count != null && count > 0;
+    }
+
+    /**
+     * 查找内容相同且已处理完成的其他文档，其文档块可以直接复用
+     *
+     * @return 文档的document_key，不存在时返回null
+     */
+    public String findProcessedDocumentWithContent(String contentHash, String fileType, String excludedDocumentKey) {
+        List<String> keys = jdbcTemplate.queryForList("""
+                SELECT document_key FROM documents
+                WHERE content_hash = ? AND file_type = ? AND processed = true AND chunk_count > 0 AND document_key <> ?
+                ORDER BY upload_time DESC LIMIT 1
+                """, String.class, contentHash, fileType, excludedDocumentKey);
+        return keys.isEmpty() ? null : keys.get(0);
+    }
+
+    /**
+     * 记录文档当前版本对应的存储文件
+     *
+     * @return 之前版本的内容哈希，没有时返回null
+     */
+    public String replaceStoredFile(String documentKey, String contentHash, String storedPath) {
+        List<String> previous = jdbcTemplate.queryForList("""
+                WITH previous AS (SELECT content_hash FROM documents WHERE document_key = ?)
+                UPDATE documents SET content_hash = ?, filename = ? WHERE document_key = ?
+                RETURNING (SELECT content_hash FROM previous)
+                """, String.class, documentKey, contentHash, storedPath, documentKey);
+        return previous.isEmpty() ? null : previous.get(0);
+    }
+
+    /**
+     * 统计引用某个存储文件的文档数量
+     */
+    public int countContentReferences(String contentHash, String fileType) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM documents WHERE content_hash = ? AND file_type = ?",
+                Integer.class, contentHash, fileType);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * 登记直接以文本形式添加、已处理完成的文档（/documents/add-text及NDJSON批量导入）
+     */
+    public void registerTextDocuments(List<TextDocument> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate("""
+                INSERT INTO documents (document_key, filename, original_filename, file_type, file_size, category,
+                                       version, processed, chunk_count)
+                VALUES (?, ?, ?, 'text', ?, ?, 1, true, ?)
+                """, documents, documents.size(), (ps, document) -> {
+            String title = document.title().length() > 255 ? document.title().substring(0, 255) : document.title();
+            ps.setString(1, document.documentKey());
+            ps.setString(2, title);
+            ps.setString(3, title);
+            ps.setLong(4, document.size());
+            ps.setString(5, document.category());
+            ps.setInt(6, document.chunkCount());
+        });
+    }
+
+    /**
+     * 查询已处理完成的本地源文件（监控目录中的文件）及其处理时的大小和修改时间
+     *
+     * @return 源文件相对路径到文件状态的映射
+     */
+    public Map<String, SourceFileState> findProcessedSourceFiles() {
+        Map<String, SourceFileState> sources = new HashMap<>();
+        jdbcTemplate.query("""
+                SELECT source_path, file_size, source_modified FROM documents
+                WHERE source_path IS NOT NULL AND processed = true
+                """, rs -> {
+            sources.put(rs.getString("source_path"),
+                    new SourceFileState(rs.getLong("file_size"), rs.getLong("source_modified")));
+        });
+        return sources;
+    }
+
+    /**
+     * 记录文档对应的本地源文件及其处理时的修改时间，重启后据此跳过未变化的文件
+     */
+    public void recordSourceFile(String documentKey, String sourcePath, long lastModified) {
+        jdbcTemplate.update("UPDATE documents SET source_path = ?, source_modified = ? WHERE document_key = ?",
+                sourcePath, lastModified, documentKey);
+    }
+
+    /**
+     * 删除满足条件的文档登记
+     *
+     * @param condition WHERE条件，由调用方从固定的条件中选择
+     * @param params 条件中的参数
+     * @return 被删除文档引用的存储文件 (content_hash, file_type)，没有存储文件的文档不包含在内
+     */
+    public List<StoredContent> deleteDocuments(String condition, Object... params) {
+        return jdbcTemplate.query("DELETE FROM documents WHERE " + condition + " RETURNING content_hash, file_type",
+                (rs, rowNum) -> new StoredContent(rs.getString("content_hash"), rs.getString("file_type")), params)
+                .stream()
+                .filter(content -> content.contentHash() != null)
+                .distinct()
+                .toList();
+    }
+
+    /**
+     * 标记文档处理完成并记录当前的文档块数量
+     */
+    public void markProcessed(String documentKey, int chunkCount) {
+        jdbcTemplate.update("UPDATE documents SET processed = true, chunk_count = ? WHERE document_key = ?",
+                chunkCount, documentKey);
+    }
+
+    /**
+     * 以文本形式添加的文档
+     *
+     * @param size 文本的UTF-8字节数
+     */
+    public record TextDocument(String documentKey, String title, long size, String category, int chunkCount) {
+    }
+
+    /**
+     * 文档引用的存储文件
+     */
+    public record StoredContent(String contentHash, String fileType) {
+    }
+
+    /**
+     * 本地源文件处理时的状态
+     *
+     * @param lastModified 修改时间（毫秒）
+     */
+    public record SourceFileState(long fileSize, long lastModified) {
+    }
+}
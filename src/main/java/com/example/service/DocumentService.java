@@ -1,5 +1,13 @@
 package com.example.service;
 
+import com.example.datasource.ReadReplicaRouter;
+import com.example.service.IncrementalIngestionService.ChunkDiff;
+import com.example.service.IncrementalIngestionService.IngestionResult;
+import com.example.service.RetrievalResultCache.RetrievalKey;
+import com.example.reader.ParallelPdfPageReader;
+import com.example.splitter.StreamingTextSplitter;
+import com.example.storage.ContentAddressedDocumentStore;
+import com.example.storage.ContentAddressedDocumentStore.StoredFile;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
@@ -10,17 +18,26 @@ import org.springframework.ai.reader.pdf.config.PdfDocumentReaderConfig;
 import org.springframework.ai.transformer.splitter.TokenTextSplitter;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * 文档管理服务
@@ -36,9 +53,21 @@ public class DocumentService {
     private final VectorStore vectorStore;
     private final EmbeddingModel embeddingModel;
     private final TokenTextSplitter textSplitter;
-
-    @Value("${app.document-storage-path:documents/}")
-    private String documentStoragePath;
+    private final EmbeddingBatcher embeddingBatcher;
+    private final EmbeddingCache embeddingCache;
+    private final DocumentRegistry documentRegistry;
+    private final IncrementalIngestionService incrementalIngestionService;
+    private final StreamingTextSplitter streamingTextSplitter;
+    private final ParallelPdfPageReader pdfPageReader;
+    private final ContentAddressedDocumentStore documentStore;
+    private final DocumentDeletionService documentDeletionService;
+    private final DocumentStatsService documentStatsService;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final HybridSearchService hybridSearchService;
+    private final MultiQueryRetrievalService multiQueryRetrievalService;
+    private final MmrReranker mmrReranker;
+    private final RetrievalResultCache retrievalResultCache;
+    private final ReadReplicaRouter readReplicaRouter;
 
     @Value("${app.rag.similarity-threshold:0.75}")
     private double similarityThreshold;
@@ -49,6 +78,12 @@ public class DocumentService {
     @Value("#{'${app.supported-document-types}'.split(',')}")
     private List<String> supportedDocumentTypes;
 
+    @Value("${app.ingestion.text-streaming-threshold:1MB}")
+    private DataSize textStreamingThreshold;
+
+    @Value("${app.ingestion.pdf-streaming-threshold:512KB}")
+    private DataSize pdfStreamingThreshold;
+
     /**
      * 上传并处理文档
      *
@@ -57,58 +92,219 @@ public class DocumentService {
      * @return 处理结果摘要
      */
     public String uploadAndProcessDocument(MultipartFile file, String category) throws IOException {
-        if (file.isEmpty()) {
-            throw new IllegalArgumentException("上传文件为空");
-        }
+        return uploadAndProcessDocument(file, category, null);
+    }
 
-        // 验证文件类型
+    /**
+     * 上传并处理文档
+     * 同一逻辑文档再次上传时按文档块内容做增量更新，只向量化发生变化的部分
+     *
+     * @param file 上传的文件
+     * @param category 文档类别 (可选)
+     * @param documentId 逻辑文档ID (可选，默认由类别和文件名派生)
+     * @return 处理结果摘要
+     */
+    public String uploadAndProcessDocument(MultipartFile file, String category, String documentId) throws IOException {
         String originalFilename = file.getOriginalFilename();
-        if (originalFilename == null || !isValidFileType(originalFilename)) {
-            throw new IllegalArgumentException("不支持的文件类型，支持的类型：" + supportedDocumentTypes);
-        }
-
-        // 保存文件到本地
-        Path uploadPath = saveUploadedFile(file);
-        log.info("文件已保存到: {}", uploadPath);
 
         try {
             // 读取和处理文档
-            List<Document> documents = loadAndSplitDocument(uploadPath, category);
+            PreparedDocument prepared = prepareUploadedDocument(file, category, documentId);
+            return ingest(prepared);
 
-            if (documents.isEmpty()) {
-                throw new RuntimeException("文档处理失败，未能提取到有效内容");
-            }
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("处理文档时发生错误: {}", originalFilename, e);
+            throw new RuntimeException("文档处理失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 处理已完整写入磁盘的文档，例如分片上传合并完成的文件
+     * 文件内容被加入内容寻址存储，原文件保持不变，由调用方删除；内容重复时跳过解析和向量化
+     *
+     * @param filePath 文档文件
+     * @param originalFilename 原始文件名
+     * @param category 文档类别 (可选)
+     * @param documentId 逻辑文档ID (可选)
+     * @return 处理结果摘要
+     */
+    public String processStoredDocument(Path filePath, String originalFilename, String category, String documentId) {
+        try {
+            validateDocumentType(originalFilename);
+            StoredFile stored = documentStore.store(filePath, getFileExtension(originalFilename).toLowerCase());
+            PreparedDocument prepared = prepareStoredDocument(stored, originalFilename, category, documentId);
+            return ingest(prepared);
 
-            // 向量化并存储到向量数据库
-            vectorStore.add(documents);
+        } catch (Exception e) {
+            log.error("处理文档时发生错误: {}", originalFilename, e);
+            throw new RuntimeException("文档处理失败: " + e.getMessage(), e);
+        }
+    }
 
-            log.info("成功处理文档: {}, 生成 {} 个文档块", originalFilename, documents.size());
+    /**
+     * 处理本地目录中的文档，例如监控目录中新增或修改的文件
+     * 文件内容被复制到内容寻址存储，原文件保持不变；内容未变化时跳过解析和向量化
+     *
+     * @param filePath 文档文件
+     * @param category 文档类别 (可选)
+     * @param documentId 逻辑文档ID (可选)
+     * @return 处理结果摘要
+     */
+    public String processLocalFile(Path filePath, String category, String documentId) {
+        String originalFilename = filePath.getFileName().toString();
 
-            return String.format("文档 '%s' 处理成功，生成了 %d 个文档块并已存储到知识库",
-                    originalFilename, documents.size());
+        try {
+            validateDocumentType(originalFilename);
+            StoredFile stored;
+            try (InputStream content = Files.newInputStream(filePath)) {
+                stored = documentStore.store(content, getFileExtension(originalFilename).toLowerCase());
+            }
+            PreparedDocument prepared = prepareStoredDocument(stored, originalFilename, category, documentId);
+            return ingest(prepared);
 
+        } catch (IllegalArgumentException e) {
+            throw e;
         } catch (Exception e) {
-            log.error("处理文档时发生错误: {}", originalFilename, e);
+            log.error("处理文档时发生错误: {}", filePath, e);
+            throw new RuntimeException("文档处理失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 边接收边处理文本文档
+     * 从channel中流式读取尚在写入的txt/md文件，已到达的内容立即分割和向量化，channel读到文件末尾时结束
+     *
+     * @param channel 文档内容
+     * @param originalFilename 原始文件名
+     * @param fileSize 文件总大小
+     * @param category 文档类别 (可选)
+     * @param documentId 逻辑文档ID (可选)
+     * @return 处理结果摘要
+     */
+    public String processTextStream(ReadableByteChannel channel, String originalFilename,
+                                    long fileSize, String category, String documentId) {
+        try {
+            String documentKey = documentRegistry.resolveDocumentKey(documentId, originalFilename, category);
+            PreparedDocument prepared = beginIngestion(documentKey, originalFilename, fileSize, category, null, null,
+                    consumer -> streamTextDocument(originalFilename, channel, category, consumer));
+            return ingest(prepared);
+
+        } catch (Exception e) {
+            log.error("流式处理文档时发生错误: {}", originalFilename, e);
             throw new RuntimeException("文档处理失败: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * 把已经边接收边处理完成的文件加入内容寻址存储并登记到文档，原文件保持不变
+     */
+    public void attachStoredFile(Path filePath, String originalFilename, String category, String documentId)
+            throws IOException {
+        StoredFile stored = documentStore.store(filePath, getFileExtension(originalFilename).toLowerCase());
+        boolean recorded = false;
+        try {
+            recordStoredFile(documentRegistry.resolveDocumentKey(documentId, originalFilename, category), stored);
+            recorded = true;
+        } finally {
+            releaseStoredFile(stored, recorded);
+        }
+    }
+
+    /**
+     * 校验文件类型是否受支持
+     */
+    public void validateDocumentType(String originalFilename) {
+        if (originalFilename == null || !isValidFileType(originalFilename)) {
+            throw new IllegalArgumentException("不支持的文件类型，支持的类型：" + supportedDocumentTypes);
+        }
+    }
+
+    /**
+     * 文件类型是否受支持
+     */
+    public boolean isSupportedDocumentType(String filename) {
+        return filename != null && isValidFileType(filename);
+    }
+
+    /**
+     * 文件格式是否支持在内容未全部到达时开始处理
+     * txt/md可以顺序流式分割；PDF的交叉引用表位于文件末尾，必须等待完整文件
+     */
+    public boolean supportsProgressiveIngestion(String filename) {
+        String extension = getFileExtension(filename).toLowerCase();
+        return "txt".equals(extension) || "md".equals(extension);
+    }
+
     /**
      * 批量上传文档
+     * 先读取并分割所有文件，再把全部文档块交给批处理器统一向量化，
+     * 使embedding请求的大小不受单个文件大小的影响
      */
     public Map<String, String> uploadMultipleDocuments(List<MultipartFile> files, String category) {
         Map<String, String> results = new HashMap<>();
+        List<PreparedDocument> preparedDocuments = new ArrayList<>();
 
         for (MultipartFile file : files) {
             try {
-                String result = uploadAndProcessDocument(file, category);
-                results.put(file.getOriginalFilename(), result);
+                preparedDocuments.add(prepareUploadedDocument(file, category, null));
             } catch (Exception e) {
                 log.error("批量上传中处理文件 {} 失败", file.getOriginalFilename(), e);
                 results.put(file.getOriginalFilename(), "处理失败: " + e.getMessage());
             }
         }
 
+        if (preparedDocuments.isEmpty()) {
+            return results;
+        }
+
+        // 读取中途失败的文件，其已提交的文档块从会话中撤销
+        List<PreparedDocument> failedDocuments = new ArrayList<>();
+        Set<PreparedDocument> completedDocuments = new HashSet<>();
+        try (EmbeddingBatcher.Session session = embeddingBatcher.openSession()) {
+            for (Iterator<PreparedDocument> iterator = preparedDocuments.iterator(); iterator.hasNext(); ) {
+                PreparedDocument prepared = iterator.next();
+                List<Document> submitted = new ArrayList<>();
+                try {
+                    prepared.submitTo(chunk -> {
+                        session.add(chunk);
+                        submitted.add(chunk);
+                    });
+                } catch (Exception e) {
+                    log.error("批量上传中读取文件 {} 失败", prepared.originalFilename(), e);
+                    results.put(prepared.originalFilename(), "处理失败: " + e.getMessage());
+                    iterator.remove();
+                    session.discard(submitted);
+                    failedDocuments.add(prepared);
+                }
+            }
+            int embeddedChunks = session.finish();
+
+            for (PreparedDocument prepared : preparedDocuments) {
+                results.put(prepared.originalFilename(), completeIngestion(prepared));
+                completedDocuments.add(prepared);
+            }
+            log.info("批量上传完成: {} 个文件, 向量化 {} 个文档块", preparedDocuments.size(), embeddedChunks);
+        } catch (Exception e) {
+            log.error("批量上传中向量化存储失败", e);
+            preparedDocuments.forEach(prepared ->
+                    results.putIfAbsent(prepared.originalFilename(), "处理失败: " + e.getMessage()));
+        } finally {
+            // 与ingest相同：文档块已新增或删除（包括中途失败时的部分写入），相关类别的检索结果缓存失效
+            Stream.concat(preparedDocuments.stream(), failedDocuments.stream())
+                    .filter(prepared -> !prepared.unchanged())
+                    .flatMap(this::affectedCategories)
+                    .distinct()
+                    .forEach(retrievalResultCache::invalidateCategory);
+            Stream.concat(preparedDocuments.stream(), failedDocuments.stream()).forEach(prepared -> {
+                if (prepared.stored() != null) {
+                    releaseStoredFile(prepared.stored(), completedDocuments.contains(prepared));
+                }
+                prepared.close();
+            });
+        }
+
         return results;
     }
 
@@ -121,10 +317,13 @@ public class DocumentService {
         }
 
         try {
-            // 创建文档元数据
+            // 创建文档元数据，每次添加都是一个新的逻辑文档
+            String documentKey = UUID.randomUUID().toString();
+            String documentTitle = title != null ? title : "手动添加文档";
             Map<String, Object> metadata = new HashMap<>();
-            metadata.put("title", title != null ? title : "手动添加文档");
+            metadata.put("title", documentTitle);
             metadata.put("source", "manual_input");
+            metadata.put(IncrementalIngestionService.DOCUMENT_ID, documentKey);
             metadata.put("upload_time", new Date().toString());
             if (category != null && !category.trim().isEmpty()) {
                 metadata.put("category", category);
@@ -134,8 +333,14 @@ public class DocumentService {
             Document document = new Document(content, metadata);
             List<Document> splitDocuments = textSplitter.apply(List.of(document));
 
-            // 存储到向量数据库
-            vectorStore.add(splitDocuments);
+            // 存储到向量数据库，部分写入失败时同样使该类别的检索结果缓存失效
+            try {
+                embeddingBatcher.embedAndStore(splitDocuments);
+            } finally {
+                retrievalResultCache.invalidateCategory(category);
+            }
+            documentRegistry.registerTextDocuments(List.of(new DocumentRegistry.TextDocument(documentKey, documentTitle,
+                    content.getBytes(StandardCharsets.UTF_8).length, category, splitDocuments.size())));
 
             log.info("成功添加文本文档: {}, 生成 {} 个文档块", title, splitDocuments.size());
 
@@ -152,13 +357,17 @@ public class DocumentService {
      */
     public List<Document> searchDocuments(String query, int maxResults) {
         try {
+            int resultLimit = Math.min(maxResults, 20);  // 限制最大返回数量
             SearchRequest searchRequest = SearchRequest.builder()
                     .query(query)
-                    .topK(Math.min(maxResults, 20))  // 限制最大返回数量
+                    .topK(mmrReranker.fetchSize(resultLimit))
                     .similarityThreshold(similarityThreshold)
                     .build();
 
-            List<Document> results = vectorStore.similaritySearch(searchRequest);
+            List<Document> results = retrievalResultCache.get(
+                    new RetrievalKey("vector", query, null, null, resultLimit, similarityThreshold),
+                    () -> readReplicaRouter.read(
+                            () -> mmrReranker.rerank(query, vectorStore.similaritySearch(searchRequest), resultLimit)));
             log.debug("搜索查询 '{}' 返回 {} 个相关文档", query, results.size());
 
             return results;
@@ -174,16 +383,19 @@ public class DocumentService {
      */
     public List<Document> searchDocumentsByCategory(String query, String category, int maxResults) {
         try {
-            String filterExpression = String.format("category == '%s'", category);
-
+            // 类别作为值传入过滤条件，不拼接到表达式文本中
+            int resultLimit = Math.min(maxResults, 20);
             SearchRequest searchRequest = SearchRequest.builder()
                     .query(query)
-                    .topK(Math.min(maxResults, 20))
+                    .topK(mmrReranker.fetchSize(resultLimit))
                     .similarityThreshold(similarityThreshold)
-                    .filterExpression(filterExpression)
+                    .filterExpression(new FilterExpressionBuilder().eq("category", category).build())
                     .build();
 
-            List<Document> results = vectorStore.similaritySearch(searchRequest);
+            List<Document> results = retrievalResultCache.get(
+                    new RetrievalKey("vector", query, category, null, resultLimit, similarityThreshold),
+                    () -> readReplicaRouter.read(
+                            () -> mmrReranker.rerank(query, vectorStore.similaritySearch(searchRequest), resultLimit)));
             log.debug("在类别 '{}' 中搜索 '{}' 返回 {} 个相关文档", category, query, results.size());
 
             return results;
@@ -195,39 +407,77 @@ public class DocumentService {
     }
 
     /**
-     * 获取文档统计信息
+     * 全文+向量混合搜索文档
+     *
+     * @param category 文档类别，为空时不过滤
      */
-    public Map<String, Object> getDocumentStats() {
-        Map<String, Object> stats = new HashMap<>();
+    public List<Document> hybridSearchDocuments(String query, String category, int maxResults) {
+        try {
+            Filter.Expression filter = StringUtils.hasText(category)
+                    ? new FilterExpressionBuilder().eq("category", category).build() : null;
+
+            int resultLimit = Math.min(maxResults, 20);
+            List<Document> results = retrievalResultCache.get(
+                    new RetrievalKey("hybrid", query, filter != null ? category : null, null, resultLimit,
+                            similarityThreshold),
+                    () -> readReplicaRouter.read(() -> mmrReranker.rerank(query, hybridSearchService.search(
+                            query, mmrReranker.fetchSize(resultLimit), similarityThreshold, filter), resultLimit)));
+            log.debug("混合搜索 '{}'（类别: {}）返回 {} 个相关文档", query, category, results.size());
+
+            return results;
 
+        } catch (Exception e) {
+            log.error("混合搜索文档时发生错误", e);
+            throw new RuntimeException("文档搜索失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 多查询并行搜索文档
+     * 查询扩展为多个变体后并行检索，结果按倒数排名融合
+     *
+     * @param category 文档类别，为空时不过滤
+     */
+    public List<Document> multiQuerySearchDocuments(String query, String category, int maxResults) {
         try {
-            // 执行一个广泛的搜索来获取所有文档的样本
-            List<Document> sampleDocs = vectorStore.similaritySearch(
-                    SearchRequest.builder()
-                            .query("*")  // 通配符查询（某些向量数据库可能不支持）
-                            .topK(1000)
-                            .similarityThreshold(0.0)
-                            .build()
-            );
+            Filter.Expression filter = StringUtils.hasText(category)
+                    ? new FilterExpressionBuilder().eq("category", category).build() : null;
 
-            stats.put("total_documents", sampleDocs.size());
+            int resultLimit = Math.min(maxResults, 20);
+            List<Document> results = retrievalResultCache.get(
+                    new RetrievalKey("multi", query, filter != null ? category : null, null, resultLimit,
+                            similarityThreshold),
+                    () -> readReplicaRouter.read(() -> mmrReranker.rerank(query, multiQueryRetrievalService.search(
+                            query, mmrReranker.fetchSize(resultLimit), similarityThreshold, filter), resultLimit)));
+            log.debug("多查询搜索 '{}'（类别: {}）返回 {} 个相关文档", query, category, results.size());
+
+            return results;
 
-            // 统计不同类别的文档数量
-            Map<String, Long> categoryStats = sampleDocs.stream()
-                    .filter(doc -> doc.getMetadata().containsKey("category"))
-                    .collect(Collectors.groupingBy(
-                            doc -> doc.getMetadata().get("category").toString(),
-                            Collectors.counting()
-                    ));
+        } catch (Exception e) {
+            log.error("多查询搜索文档时发生错误", e);
+            throw new RuntimeException("文档搜索失败: " + e.getMessage(), e);
+        }
+    }
 
-            stats.put("categories", categoryStats);
-            stats.put("supported_file_types", supportedDocumentTypes);
+    /**
+     * 获取文档统计信息
+     * 文档和向量数量来自数据库统计视图，不调用embedding模型
+     */
+    public Map<String, Object> getDocumentStats() {
+        Map<String, Object> stats = new HashMap<>();
 
+        try {
+            stats.putAll(documentStatsService.getStats());
         } catch (Exception e) {
             log.warn("获取文档统计信息时发生错误", e);
             stats.put("error", "无法获取准确的统计信息");
         }
 
+        stats.put("supported_file_types", supportedDocumentTypes);
+        stats.put("embedding_batch", embeddingBatcher.getStats());
+        stats.put("embedding_cache", embeddingCache.getStats());
+        stats.put("query_embedding_cache", queryEmbeddingCache.getStats());
+        stats.put("retrieval_cache", retrievalResultCache.getStats());
         return stats;
     }
 
@@ -236,15 +486,12 @@ public class DocumentService {
      */
     public String clearAllDocuments() {
         try {
-            // 注意：并非所有VectorStore实现都支持删除所有文档
-            // 这里假设有一个清空的方法，实际实现可能因向量数据库而异
             log.warn("正在清除所有文档...");
+            long estimatedChunks = documentDeletionService.clearAll();
+            documentStatsService.invalidate();
+            retrievalResultCache.invalidateAll();
 
-            // 由于VectorStore接口没有直接的清空方法，
-            // 这里可能需要根据具体的向量数据库实现来处理
-            // 例如，对于PGVector，可能需要直接执行SQL
-
-            return "文档清除操作已执行（请检查具体实现是否支持）";
+            return String.format("已清除知识库中的全部文档，约 %d 个文档块（估计值）", estimatedChunks);
 
         } catch (Exception e) {
             log.error("清除文档时发生错误", e);
@@ -264,39 +511,200 @@ public class DocumentService {
         return lastDotIndex > 0 ? filename.substring(lastDotIndex + 1) : "";
     }
 
-    private Path saveUploadedFile(MultipartFile file) throws IOException {
-        // 创建存储目录
-        Path uploadDir = Paths.get(documentStoragePath);
-        if (!Files.exists(uploadDir)) {
-            Files.createDirectories(uploadDir);
+    /**
+     * 校验、保存并分割上传的文件，返回待向量化的文档块
+     */
+    private PreparedDocument prepareUploadedDocument(MultipartFile file, String category, String documentId)
+            throws IOException {
+        if (file.isEmpty()) {
+            throw new IllegalArgumentException("上传文件为空");
         }
 
-        // 生成唯一文件名
-        String timestamp = String.valueOf(System.currentTimeMillis());
+        // 验证文件类型
         String originalFilename = file.getOriginalFilename();
-        String filename = timestamp + "_" + originalFilename;
+        validateDocumentType(originalFilename);
 
-        Path filePath = uploadDir.resolve(filename);
+        // 边保存边计算内容哈希，相同内容只保存一份
+        StoredFile stored;
+        try (InputStream content = file.getInputStream()) {
+            stored = documentStore.store(content, getFileExtension(originalFilename).toLowerCase());
+        }
 
-        // 保存文件
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+        return prepareStoredDocument(stored, originalFilename, category, documentId);
+    }
 
-        return filePath;
+    /**
+     * 根据内容哈希决定如何处理已保存的文件
+     * 同一文档内容未变化时直接跳过；其他文档已处理过相同内容时复制其文档块；否则解析并分割文件
+     */
+    private PreparedDocument prepareStoredDocument(StoredFile stored, String originalFilename, String category,
+                                                   String documentId) throws IOException {
+        try {
+            String documentKey = documentRegistry.resolveDocumentKey(documentId, originalFilename, category);
+
+            if (documentRegistry.isProcessedWithContent(documentKey, stored.contentHash())) {
+                log.info("文档 {} 内容未变化，跳过解析和向量化", originalFilename);
+                // 文档已引用该文件
+                documentStore.release(stored);
+                return PreparedDocument.unchanged(originalFilename);
+            }
+
+            String duplicateOf = documentRegistry.findProcessedDocumentWithContent(
+                    stored.contentHash(), stored.extension(), documentKey);
+            if (duplicateOf != null) {
+                log.info("文档 {} 与已有文档 {} 内容相同，复用其文档块", originalFilename, duplicateOf);
+                return beginIngestion(documentKey, originalFilename, stored.size(), category, stored, duplicateOf,
+                        consumer -> 0);
+            }
+
+            return beginIngestion(documentKey, originalFilename, stored.size(), category, stored, null,
+                    openChunkSource(stored.path(), originalFilename, category));
+        } catch (IOException | RuntimeException e) {
+            releaseStoredFile(stored, false);
+            throw e;
+        }
     }
 
-    private List<Document> loadAndSplitDocument(Path filePath, String category) throws IOException {
-        String filename = filePath.getFileName().toString();
-        String extension = getFileExtension(filename).toLowerCase();
+    /**
+     * 登记新版本并加载已有文档块用于增量比较
+     */
+    private PreparedDocument beginIngestion(String documentKey, String originalFilename, long fileSize, String category,
+                                            StoredFile stored, String duplicateOf, ChunkSource chunks) {
+        int version = documentRegistry.beginVersion(documentKey, stored != null ? stored.relativePath() : originalFilename,
+                originalFilename, getFileExtension(originalFilename).toLowerCase(), fileSize, category);
+        ChunkDiff diff = incrementalIngestionService.begin(documentKey, version, originalFilename, category);
+
+        return new PreparedDocument(originalFilename, chunks, diff, category, stored, duplicateOf);
+    }
+
+    /**
+     * 向量化并存储新增的文档块，完成增量比较
+     */
+    private String ingest(PreparedDocument prepared) throws IOException {
+        if (prepared.unchanged()) {
+            return completeIngestion(prepared);
+        }
+        boolean completed = false;
+        try {
+            try (EmbeddingBatcher.Session session = embeddingBatcher.openSession()) {
+                prepared.submitTo(session::add);
+                session.finish();
+            }
+            String summary = completeIngestion(prepared);
+            completed = true;
+            return summary;
+        } finally {
+            // 文档块已新增或删除（包括中途失败时的部分写入），新旧类别的检索结果缓存失效
+            affectedCategories(prepared).forEach(retrievalResultCache::invalidateCategory);
+            if (prepared.stored() != null) {
+                releaseStoredFile(prepared.stored(), completed);
+            }
+            prepared.close();
+        }
+    }
+
+    /**
+     * 文档新版本的类别及已存储文档块的原类别，复用的文档块会从原类别改为新类别
+     */
+    private Stream<String> affectedCategories(PreparedDocument prepared) {
+        return Stream.concat(Stream.of(prepared.category()), prepared.diff().getPreviousCategories().stream());
+    }
+
+    /**
+     * 释放存储文件；处理失败且文件是本次新写入的，没有其他文档引用时删除，避免成为孤立文件
+     *
+     * @param recorded 文档是否已登记对该文件的引用
+     */
+    private void releaseStoredFile(StoredFile stored, boolean recorded) {
+        documentStore.release(stored);
+        if (recorded || stored.existed()) {
+            return;
+        }
+        try {
+            documentStore.deleteIfUnreferenced(stored.contentHash(), stored.extension(),
+                    () -> documentRegistry.countContentReferences(stored.contentHash(), stored.extension()));
+        } catch (IOException e) {
+            log.warn("删除处理失败的文档文件失败: {}", stored.contentHash(), e);
+        }
+    }
+
+    /**
+     * 打开文档块来源
+     * 超过阈值的txt/md文件使用流式分割，超过阈值的PDF按页并行解析，文档块在读取过程中逐个产生；
+     * 其他文件一次性读取并分割
+     */
+    private ChunkSource openChunkSource(Path filePath, String sourceFile, String category) throws IOException {
+        String extension = getFileExtension(sourceFile).toLowerCase();
+        boolean textFile = "txt".equals(extension) || "md".equals(extension);
+
+        if (textFile && Files.size(filePath) >= textStreamingThreshold.toBytes()) {
+            log.debug("使用流式分割处理文本文件: {}", filePath);
+            return consumer -> streamTextDocument(filePath, sourceFile, category, consumer);
+        }
+        if ("pdf".equals(extension) && Files.size(filePath) >= pdfStreamingThreshold.toBytes()) {
+            log.debug("使用并行分页解析处理PDF文件: {}", filePath);
+            return consumer -> streamPdfDocument(filePath, sourceFile, category, consumer);
+        }
+
+        List<Document> documents = loadAndSplitDocument(filePath, sourceFile, category);
+        if (documents.isEmpty()) {
+            throw new RuntimeException("文档处理失败，未能提取到有效内容");
+        }
+        return consumer -> {
+            documents.forEach(consumer);
+            return documents.size();
+        };
+    }
+
+    /**
+     * 完成增量比较并登记文档，返回处理结果摘要
+     */
+    private String completeIngestion(PreparedDocument prepared) throws IOException {
+        if (prepared.unchanged()) {
+            return String.format("文档 '%s' 内容未变化，已跳过解析和向量化", prepared.originalFilename());
+        }
+
+        String documentKey = prepared.diff().getDocumentId();
+        if (prepared.duplicateOf() != null) {
+            incrementalIngestionService.copyChunks(prepared.duplicateOf(), prepared.diff(), prepared.category());
+        }
+        IngestionResult result = incrementalIngestionService.complete(prepared.diff());
+        documentRegistry.markProcessed(documentKey, result.totalChunks());
+        if (prepared.stored() != null) {
+            recordStoredFile(documentKey, prepared.stored());
+        }
+
+        log.info("成功处理文档: {}, 生成 {} 个文档块", prepared.originalFilename(), result.totalChunks());
+
+        String summary = String.format("文档 '%s' 处理成功，生成了 %d 个文档块并已存储到知识库（版本 %d：新增 %d，复用 %d，删除 %d）",
+                prepared.originalFilename(), result.totalChunks(), prepared.diff().getVersion(),
+                result.added(), result.kept(), result.removed());
+        return prepared.duplicateOf() != null ? summary + "，内容与已有文档相同，未重新解析和向量化" : summary;
+    }
+
+    /**
+     * 记录文档对应的存储文件，旧版本的文件不再被任何文档引用时删除
+     */
+    private void recordStoredFile(String documentKey, StoredFile stored) throws IOException {
+        String previousHash = documentRegistry.replaceStoredFile(documentKey, stored.contentHash(), stored.relativePath());
+        if (previousHash != null && !previousHash.equals(stored.contentHash())) {
+            documentStore.deleteIfUnreferenced(previousHash, stored.extension(),
+                    () -> documentRegistry.countContentReferences(previousHash, stored.extension()));
+        }
+    }
+
+    private List<Document> loadAndSplitDocument(Path filePath, String sourceFile, String category) throws IOException {
+        String extension = getFileExtension(sourceFile).toLowerCase();
 
         List<Document> documents = new ArrayList<>();
 
         switch (extension) {
             case "pdf":
-                documents = loadPdfDocument(filePath, category);
+                documents = loadPdfDocument(filePath, sourceFile, category);
                 break;
             case "txt":
             case "md":
-                documents = loadTextDocument(filePath, category);
+                documents = loadTextDocument(filePath, sourceFile, category);
                 break;
             default:
                 throw new UnsupportedOperationException("暂不支持的文件类型: " + extension);
@@ -310,7 +718,7 @@ public class DocumentService {
         return documents;
     }
 
-    private List<Document> loadPdfDocument(Path filePath, String category) throws IOException {
+    private List<Document> loadPdfDocument(Path filePath, String sourceFile, String category) throws IOException {
         try {
             PdfDocumentReaderConfig config = PdfDocumentReaderConfig.builder()
                     .withPageExtractedTextFormatter(new ExtractedTextFormatter.Builder()
@@ -330,7 +738,7 @@ public class DocumentService {
             // 添加元数据
             for (Document doc : documents) {
                 Map<String, Object> metadata = new HashMap<>(doc.getMetadata());
-                metadata.put("source_file", filePath.getFileName().toString());
+                metadata.put("source_file", sourceFile);
                 metadata.put("file_type", "pdf");
                 metadata.put("upload_time", new Date().toString());
                 if (category != null && !category.trim().isEmpty()) {
@@ -347,7 +755,55 @@ public class DocumentService {
         }
     }
 
-    private List<Document> loadTextDocument(Path filePath, String category) throws IOException {
+    /**
+     * 流式读取并分割文本文件，文档块产生后立即交给consumer，不会把整个文件读入内存
+     */
+    private int streamTextDocument(Path filePath, String sourceFile, String category, Consumer<Document> consumer)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            return streamTextDocument(sourceFile, channel, category, consumer);
+        }
+    }
+
+    private int streamTextDocument(String sourceFile, ReadableByteChannel channel, String category,
+                                   Consumer<Document> consumer) throws IOException {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("source_file", sourceFile);
+        metadata.put("file_type", getFileExtension(sourceFile));
+        metadata.put("upload_time", new Date().toString());
+        if (category != null && !category.trim().isEmpty()) {
+            metadata.put("category", category);
+        }
+
+        try {
+            return streamingTextSplitter.split(channel, StandardCharsets.UTF_8,
+                    chunk -> consumer.accept(new Document(chunk, new HashMap<>(metadata))));
+        } catch (IOException e) {
+            log.error("流式读取文本文档失败: {}", sourceFile, e);
+            throw new IOException("文本文档读取失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 按页并行解析并分割PDF，每页分割完成后立即交给consumer，不必等待整个文件解析完毕
+     */
+    private int streamPdfDocument(Path filePath, String sourceFile, String category, Consumer<Document> consumer)
+            throws IOException {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("source_file", sourceFile);
+        metadata.put("file_type", "pdf");
+        metadata.put("upload_time", new Date().toString());
+        if (category != null && !category.trim().isEmpty()) {
+            metadata.put("category", category);
+        }
+
+        return pdfPageReader.read(filePath, page -> {
+            page.getMetadata().putAll(metadata);
+            return textSplitter.apply(List.of(page));
+        }, consumer);
+    }
+
+    private List<Document> loadTextDocument(Path filePath, String sourceFile, String category) throws IOException {
         try {
             String content = Files.readString(filePath);
 
@@ -356,8 +812,8 @@ public class DocumentService {
             }
 
             Map<String, Object> metadata = new HashMap<>();
-            metadata.put("source_file", filePath.getFileName().toString());
-            metadata.put("file_type", getFileExtension(filePath.getFileName().toString()));
+            metadata.put("source_file", sourceFile);
+            metadata.put("file_type", getFileExtension(sourceFile));
             metadata.put("upload_time", new Date().toString());
             if (category != null && !category.trim().isEmpty()) {
                 metadata.put("category", category);
@@ -371,4 +827,61 @@ public class DocumentService {
             throw new IOException("文本文档读取失败: " + e.getMessage(), e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 已完成读取和分割、等待向量化的上传文档
+     *
+     * @param diff 增量比较状态，内容未变化时为null
+     * @param stored 内容寻址存储中的文件，边接收边处理时为null
+     * @param duplicateOf 内容相同、可以复用文档块的已有文档
+     */
+    private record PreparedDocument(String originalFilename, ChunkSource chunks, ChunkDiff diff, String category,
+                                    StoredFile stored, String duplicateOf) implements AutoCloseable {
+
+        static PreparedDocument unchanged(String originalFilename) {
+            return new PreparedDocument(originalFilename, null, null, null, null, null);
+        }
+
+        boolean unchanged() {
+            return diff == null;
+        }
+
+        /**
+         * 入库结束，释放文档锁
+         */
+        @Override
+        public void close() {
+            if (diff != null) {
+                diff.close();
+            }
+        }
+
+        void submitTo(Consumer<Document> sink) throws IOException {
+            if (unchanged() || duplicateOf != null) {
+                return;
+            }
+            int produced = chunks.forEachChunk(chunk -> {
+                if (diff.accept(chunk)) {
+                    sink.accept(chunk);
+                }
+            });
+            if (produced == 0) {
+                throw new IOException("文档内容为空");
+            }
+        }
+    }
+
+    /**
+     * 文档块来源，可能是已分割好的列表，也可能是边读边分割的流
+     */
+    @FunctionalInterface
+    private interface ChunkSource {
+
+        /**
+         * 依次产生文档块
+         *
+         * @return 产生的文档块数量
+         */
+        int forEachChunk(Consumer<Document> consumer) throws IOException;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.service;
+
+import com.example.vectorstore.VectorStoreShards;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 文档统计服务
+ * 从document_stats、category_stats和vector_store_stats视图读取精确的统计信息，不调用embedding模型、不做向量检索；
+ * 结果在cache-ttl内复用，频繁的状态检查只在缓存过期后查询一次数据库。
+ * 分片时vector_store_stats在每个分片上查询后汇总
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Service
+public class DocumentStatsService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VectorStoreShards vectorStoreShards;
+    private final long cacheTtlMillis;
+
+    private volatile Snapshot snapshot;
+
+    public DocumentStatsService(JdbcTemplate jdbcTemplate, VectorStoreShards vectorStoreShards,
+                                @Value("${app.stats.cache-ttl:10s}") Duration cacheTtl) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorStoreShards = vectorStoreShards;
+        this.cacheTtlMillis = cacheTtl.toMillis();
+    }
+
+    /**
+     * 获取统计信息，返回的Map可以由调用方修改
+     */
+    public Map<String, Object> getStats() {
+        Snapshot current = snapshot;
+        if (current == null || current.isExpired(cacheTtlMillis)) {
+            current = refresh();
+        }
+        return new HashMap<>(current.stats());
+    }
+
+    /**
+     * 使缓存失效，知识库被清空等大范围变化后调用
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    private synchronized Snapshot refresh() {
+        // 等待锁期间其他线程可能已经刷新
+        Snapshot current = snapshot;
+        if (current != null && !current.isExpired(cacheTtlMillis)) {
+            return current;
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+
+        Map<String, Object> documentStats = jdbcTemplate.queryForMap("SELECT * FROM document_stats");
+        stats.put("total_documents", toLong(documentStats.get("total_documents")));
+        stats.put("processed_documents", toLong(documentStats.get("processed_documents")));
+        stats.put("pending_documents", toLong(documentStats.get("pending_documents")));
+        stats.put("total_chunks", toLong(documentStats.get("total_chunks")));
+        stats.put("avg_chunks_per_document", toDouble(documentStats.get("avg_chunks_per_document")));
+
+        Map<String, Long> categories = new LinkedHashMap<>();
+        Map<String, Long> categoryChunks = new LinkedHashMap<>();
+        jdbcTemplate.query("SELECT category, document_count, total_chunks FROM category_stats", rs -> {
+            categories.put(rs.getString("category"), rs.getLong("document_count"));
+            categoryChunks.put(rs.getString("category"), rs.getLong("total_chunks"));
+        });
+        stats.put("categories", categories);
+        stats.put("category_chunks", categoryChunks);
+
+        // 同一来源文件只在不同类别下重复上传时才可能分布在多个分片，unique_source_files直接相加
+        long totalVectors = 0;
+        long categorizedVectors = 0;
+        long uniqueSourceFiles = 0;
+        double totalContentLength = 0;
+        for (JdbcTemplate shard : vectorStoreShards.getJdbcTemplates()) {
+            Map<String, Object> vectorStats = shard.queryForMap("SELECT * FROM vector_store_stats");
+            long shardVectors = toLong(vectorStats.get("total_vectors"));
+            totalVectors += shardVectors;
+            categorizedVectors += toLong(vectorStats.get("categorized_vectors"));
+            uniqueSourceFiles += toLong(vectorStats.get("unique_source_files"));
+            totalContentLength += toDouble(vectorStats.get("avg_content_length")) * shardVectors;
+        }
+        stats.put("total_vectors", totalVectors);
+        stats.put("categorized_vectors", categorizedVectors);
+        stats.put("unique_source_files", uniqueSourceFiles);
+        stats.put("avg_content_length", totalVectors == 0 ? 0.0 : totalContentLength / totalVectors);
+
+        stats.put("stats_time", new Date());
+
+        snapshot = new Snapshot(stats, System.currentTimeMillis());
+        log.debug("文档统计信息已刷新: {} 个文档, {} 个向量", stats.get("total_documents"), stats.get("total_vectors"));
+        return snapshot;
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number number ? number.longValue() : 0L;
+    }
+
+    private static double toDouble(Object value) {
+        return value instanceof Number number ? number.doubleValue() : 0.0;
+    }
+
+    private record Snapshot(Map<String, Object> stats, long createdAt) {
+
+        boolean isExpired(long ttlMillis) {
+            return System.currentTimeMillis() - createdAt > ttlMillis;
+        }
+    }
+}
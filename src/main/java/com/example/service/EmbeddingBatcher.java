@@ -0,0 +1,356 @@
+package com.example.service;
+
+import com.example.vectorstore.PgVectorWriter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 向量化批处理服务
+ * 跨文档收集文档块，按token数打包成embedding请求，在并发上限内并行发送，
+ * 并按max-document-batch-size分组写入PGVector，使吞吐量不再取决于单个文档的大小。
+ * 会话中任一批次失败时不再发送后续批次，并删除本会话已写入的文档块，失败的会话不留下部分写入
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Service
+public class EmbeddingBatcher {
+
+    private final EmbeddingModel embeddingModel;
+    private final PgVectorWriter vectorWriter;
+    private final EmbeddingCache embeddingCache;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    private final int maxBatchTokens;
+    private final int maxBatchInputs;
+    private final int concurrency;
+
+    private final ExecutorService executor;
+    private final Semaphore inFlightPermits;
+
+    // 统计信息
+    private final AtomicLong totalRequests = new AtomicLong();
+    private final AtomicLong totalChunks = new AtomicLong();
+    private final AtomicLong totalTokens = new AtomicLong();
+
+    public EmbeddingBatcher(EmbeddingModel embeddingModel,
+                            PgVectorWriter vectorWriter,
+                            EmbeddingCache embeddingCache,
+                            @Value("${app.embedding.batch.max-tokens:100000}") int maxBatchTokens,
+                            @Value("${app.embedding.batch.max-inputs:2048}") int maxBatchInputs,
+                            @Value("${app.embedding.batch.concurrency:4}") int concurrency) {
+        this.embeddingModel = embeddingModel;
+        this.vectorWriter = vectorWriter;
+        this.embeddingCache = embeddingCache;
+        this.maxBatchTokens = maxBatchTokens;
+        this.maxBatchInputs = maxBatchInputs;
+        this.concurrency = concurrency;
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "embedding-batch-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 所有会话共享同一个并发上限，因为服务商的速率限制是全局的
+        this.inFlightPermits = new Semaphore(concurrency);
+    }
+
+    /**
+     * 向量化并存储一组文档块（可以来自多个文档）
+     *
+     * @param chunks 已分割的文档块
+     * @return 写入的文档块数量
+     */
+    public int embedAndStore(List<Document> chunks) {
+        try (Session session = openSession()) {
+            chunks.forEach(session::add);
+            return session.finish();
+        }
+    }
+
+    /**
+     * 打开一个批处理会话，调用方可以边产生文档块边提交
+     */
+    public Session openSession() {
+        return new Session(false);
+    }
+
+    /**
+     * 打开一个批量导入会话，文档块以二进制COPY写入
+     * 只用于全新的文档块：COPY不做upsert，ID重复时整组写入失败
+     */
+    public Session openBulkLoadSession() {
+        return new Session(true);
+    }
+
+    /**
+     * 获取批处理统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("embedding_requests", totalRequests.get());
+        stats.put("embedded_chunks", totalChunks.get());
+        stats.put("embedded_tokens", totalTokens.get());
+        stats.put("avg_chunks_per_request", totalRequests.get() == 0 ? 0 : totalChunks.get() / totalRequests.get());
+        stats.put("max_batch_tokens", maxBatchTokens);
+        stats.put("concurrency", concurrency);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private List<float[]> embed(List<Document> batch) {
+        List<String> texts = batch.stream().map(Document::getText).toList();
+        // 先查询embedding缓存，只有未命中的文本才会发送给模型
+        return embeddingCache.embed(texts, embeddingModel::embed);
+    }
+
+    /**
+     * 批处理会话
+     * add方法在当前批次的token预算用尽时发送请求；在途请求达到并发上限时阻塞调用方，形成背压。
+     * 会话只写入新的文档块，第一个失败的批次使后续add和finish抛出异常：尚未开始的批次不再发送请求，
+     * 等在途批次结束后删除本会话已写入的文档块，会话结束后add和finish仍然抛出最初的失败原因
+     */
+    public class Session implements AutoCloseable {
+
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        private final List<Document> pendingWrites = new ArrayList<>();
+        private final List<float[]> pendingEmbeddings = new ArrayList<>();
+        private final List<Document> writtenDocuments = new ArrayList<>();
+        private final List<Document> discardedDocuments = new ArrayList<>();
+        private final boolean bulkLoad;
+
+        private List<Document> currentBatch = new ArrayList<>();
+        private int currentTokens;
+        private int submittedChunks;
+        private boolean closed;
+        private volatile Throwable failure;
+
+        private Session(boolean bulkLoad) {
+            this.bulkLoad = bulkLoad;
+        }
+
+        /**
+         * 提交一个文档块
+         */
+        public void add(Document chunk) {
+            if (closed) {
+                if (failure != null) {
+                    throw failed();
+                }
+                throw new IllegalStateException("批处理会话已关闭");
+            }
+            if (failure != null) {
+                // 已有批次失败，不再提交，结束会话并撤销已写入的文档块
+                finish();
+            }
+
+            int tokens = tokenCountEstimator.estimate(chunk.getText());
+            if (!currentBatch.isEmpty()
+                    && (currentTokens + tokens > maxBatchTokens || currentBatch.size() >= maxBatchInputs)) {
+                dispatch();
+            }
+
+            currentBatch.add(chunk);
+            currentTokens += tokens;
+            submittedChunks++;
+        }
+
+        /**
+         * 撤销本会话已提交的文档块，例如批量上传中某个文件读到一半失败
+         * 还在当前批次中的文档块直接移除，已经发送的在finish写入剩余分组后删除；会话已结束时不做处理
+         */
+        public void discard(List<Document> chunks) {
+            if (closed || chunks.isEmpty()) {
+                return;
+            }
+            Set<String> ids = chunks.stream().map(Document::getId).collect(Collectors.toSet());
+            Set<String> removed = new HashSet<>();
+            currentBatch.removeIf(chunk -> ids.contains(chunk.getId()) && removed.add(chunk.getId()));
+            if (!removed.isEmpty()) {
+                currentTokens = currentBatch.stream().mapToInt(chunk -> tokenCountEstimator.estimate(chunk.getText())).sum();
+            }
+            submittedChunks -= chunks.size();
+            chunks.stream().filter(chunk -> !removed.contains(chunk.getId())).forEach(discardedDocuments::add);
+        }
+
+        /**
+         * 发送剩余批次，等待所有请求完成并写入剩余分组
+         *
+         * @return 本会话写入的文档块数量
+         */
+        public int finish() {
+            if (closed) {
+                if (failure != null) {
+                    throw failed();
+                }
+                return submittedChunks;
+            }
+            closed = true;
+
+            if (failure == null && !currentBatch.isEmpty()) {
+                dispatch();
+            }
+
+            // 失败时也要等所有批次结束，之后不会再有写入
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException e) {
+                recordFailure(e.getCause() != null ? e.getCause() : e);
+            }
+
+            if (failure == null) {
+                try {
+                    flushWrites(true);
+                    if (!discardedDocuments.isEmpty()) {
+                        vectorWriter.delete(discardedDocuments);
+                        log.info("已删除撤销的 {} 个文档块", discardedDocuments.size());
+                    }
+                } catch (RuntimeException e) {
+                    recordFailure(e);
+                }
+            }
+            if (failure != null) {
+                rollback();
+                throw failed();
+            }
+            return submittedChunks;
+        }
+
+        @Override
+        public void close() {
+            finish();
+        }
+
+        private void dispatch() {
+            List<Document> batch = currentBatch;
+            int tokens = currentTokens;
+            currentBatch = new ArrayList<>();
+            currentTokens = 0;
+
+            try {
+                inFlightPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("等待向量化请求时被中断", e);
+            }
+
+            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                try {
+                    if (failure != null) {
+                        // 其他批次已经失败，本批次不再发送请求
+                        return;
+                    }
+                    List<float[]> embeddings = embed(batch);
+                    totalRequests.incrementAndGet();
+                    totalChunks.addAndGet(batch.size());
+                    totalTokens.addAndGet(tokens);
+                    log.debug("完成embedding请求: {} 个文档块, 约 {} tokens", batch.size(), tokens);
+                    collect(batch, embeddings);
+                } catch (RuntimeException e) {
+                    recordFailure(e);
+                    throw e;
+                } finally {
+                    inFlightPermits.release();
+                }
+            }, executor);
+            futures.add(future);
+        }
+
+        private void recordFailure(Throwable e) {
+            synchronized (pendingWrites) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        private RuntimeException failed() {
+            return new RuntimeException("文档块向量化失败: " + failure.getMessage(), failure);
+        }
+
+        /**
+         * 删除本会话已写入的文档块，只在所有批次结束后调用
+         */
+        private void rollback() {
+            List<Document> written;
+            synchronized (pendingWrites) {
+                written = new ArrayList<>(writtenDocuments);
+                writtenDocuments.clear();
+            }
+            if (written.isEmpty()) {
+                return;
+            }
+            try {
+                vectorWriter.delete(written);
+                log.warn("向量化失败，已删除本会话写入的 {} 个文档块", written.size());
+            } catch (RuntimeException e) {
+                log.error("向量化失败后删除本会话写入的 {} 个文档块失败", written.size(), e);
+                failure.addSuppressed(e);
+            }
+        }
+
+        private void collect(List<Document> batch, List<float[]> embeddings) {
+            synchronized (pendingWrites) {
+                pendingWrites.addAll(batch);
+                pendingEmbeddings.addAll(embeddings);
+            }
+            flushWrites(false);
+        }
+
+        /**
+         * 攒满max-document-batch-size后写入一组；force为true时写入剩余全部
+         */
+        private void flushWrites(boolean force) {
+            int groupSize = vectorWriter.getMaxDocumentBatchSize();
+            while (true) {
+                List<Document> documents;
+                List<float[]> embeddings;
+                synchronized (pendingWrites) {
+                    if (pendingWrites.isEmpty() || (!force && pendingWrites.size() < groupSize)) {
+                        return;
+                    }
+                    int size = Math.min(groupSize, pendingWrites.size());
+                    documents = new ArrayList<>(pendingWrites.subList(0, size));
+                    embeddings = new ArrayList<>(pendingEmbeddings.subList(0, size));
+                    pendingWrites.subList(0, size).clear();
+                    pendingEmbeddings.subList(0, size).clear();
+                }
+                // 写入前登记，分片写入中途失败时已写入分片的部分也会被撤销
+                synchronized (pendingWrites) {
+                    writtenDocuments.addAll(documents);
+                }
+                if (bulkLoad) {
+                    vectorWriter.copy(documents, embeddings);
+                } else {
+                    vectorWriter.write(documents, embeddings);
+                }
+            }
+        }
+    }
+}
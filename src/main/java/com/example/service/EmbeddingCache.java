@@ -0,0 +1,237 @@
+package com.example.service;
+
+import com.pgvector.PGvector;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Embedding缓存服务
+ * 以"内容哈希 + 模型名 + 维度"为键缓存文档块向量：进程内LRU在前，PostgreSQL表持久化在后，
+ * 重复上传相同文件或共享模板页面时无需再次调用embedding模型
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Service
+public class EmbeddingCache {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    private final String modelName;
+    private final int dimensions;
+    private final boolean enabled;
+    private final boolean initializeSchema;
+    private final Map<String, CachedEmbedding> lruCache;
+
+    // 统计信息
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong databaseHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong avoidedTokens = new AtomicLong();
+
+    public EmbeddingCache(JdbcTemplate jdbcTemplate,
+                          @Value("${spring.ai.openai.embedding.options.model:text-embedding-3-small}") String modelName,
+                          @Value("${spring.ai.openai.embedding.options.dimensions:1536}") int dimensions,
+                          @Value("${app.embedding.cache.enabled:true}") boolean enabled,
+                          @Value("${app.embedding.cache.initialize-schema:true}") boolean initializeSchema,
+                          @Value("${app.embedding.cache.max-entries:10000}") int maxEntries) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.modelName = modelName;
+        this.dimensions = dimensions;
+        this.enabled = enabled;
+        this.initializeSchema = initializeSchema;
+        this.lruCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedEmbedding> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @PostConstruct
+    public void initSchema() {
+        if (!enabled || !initializeSchema) {
+            return;
+        }
+        jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS embedding_cache (
+                    content_hash char(64) NOT NULL,
+                    model varchar(100) NOT NULL,
+                    dimensions integer NOT NULL,
+                    embedding vector NOT NULL,
+                    token_count integer NOT NULL,
+                    created_at timestamp DEFAULT CURRENT_TIMESTAMP,
+                    PRIMARY KEY (content_hash, model, dimensions)
+                )
+                """);
+    }
+
+    /**
+     * 为一组文本获取向量，未命中缓存的文本交给loader批量计算后写回缓存
+     *
+     * @param texts 待向量化的文本
+     * @param loader 实际调用embedding模型的函数，只会收到未命中的（去重后的）文本
+     * @return 与texts一一对应的向量（副本）
+     */
+    public List<float[]> embed(List<String> texts, Function<List<String>, List<float[]>> loader) {
+        if (!enabled) {
+            return loader.apply(texts);
+        }
+
+        List<String> hashes = texts.stream().map(EmbeddingCache::contentHash).toList();
+        Map<String, CachedEmbedding> found = new HashMap<>();
+
+        // 1. 进程内LRU
+        synchronized (lruCache) {
+            for (String hash : hashes) {
+                CachedEmbedding cached = lruCache.get(hash);
+                if (cached != null) {
+                    found.put(hash, cached);
+                }
+            }
+        }
+        countHits(hashes, found, memoryHits);
+
+        // 2. PostgreSQL持久化缓存
+        List<String> remaining = hashes.stream().filter(hash -> !found.containsKey(hash)).distinct().toList();
+        if (!remaining.isEmpty()) {
+            Map<String, CachedEmbedding> loaded = loadFromDatabase(remaining);
+            found.putAll(loaded);
+            remember(loaded);
+            countHits(hashes, loaded, databaseHits);
+        }
+
+        // 3. 调用embedding模型计算未命中的文本
+        Map<String, String> missingTexts = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (!found.containsKey(hashes.get(i))) {
+                missingTexts.putIfAbsent(hashes.get(i), texts.get(i));
+            }
+        }
+
+        if (!missingTexts.isEmpty()) {
+            List<String> missingHashes = new ArrayList<>(missingTexts.keySet());
+            List<float[]> computed = loader.apply(new ArrayList<>(missingTexts.values()));
+
+            Map<String, CachedEmbedding> fresh = new LinkedHashMap<>();
+            for (int i = 0; i < missingHashes.size(); i++) {
+                String hash = missingHashes.get(i);
+                fresh.put(hash, new CachedEmbedding(computed.get(i), tokenCountEstimator.estimate(missingTexts.get(hash))));
+            }
+            saveToDatabase(fresh);
+            remember(fresh);
+            found.putAll(fresh);
+            misses.addAndGet(missingHashes.size());
+        }
+
+        // 缓存中的数组是共享的，返回副本，调用方修改结果不影响缓存
+        return hashes.stream().map(hash -> found.get(hash).embedding().clone()).toList();
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        long hits = memoryHits.get() + databaseHits.get();
+        long total = hits + misses.get();
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("memory_hits", memoryHits.get());
+        stats.put("database_hits", databaseHits.get());
+        stats.put("misses", misses.get());
+        stats.put("hit_ratio", total == 0 ? 0.0 : (double) hits / total);
+        stats.put("avoided_embedding_tokens", avoidedTokens.get());
+        synchronized (lruCache) {
+            stats.put("memory_entries", lruCache.size());
+        }
+        return stats;
+    }
+
+    static String contentHash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    private void countHits(List<String> hashes, Map<String, CachedEmbedding> hitSet, AtomicLong counter) {
+        for (String hash : hashes) {
+            CachedEmbedding cached = hitSet.get(hash);
+            if (cached != null) {
+                counter.incrementAndGet();
+                avoidedTokens.addAndGet(cached.tokenCount());
+            }
+        }
+    }
+
+    private void remember(Map<String, CachedEmbedding> entries) {
+        synchronized (lruCache) {
+            lruCache.putAll(entries);
+        }
+    }
+
+    private Map<String, CachedEmbedding> loadFromDatabase(List<String> hashes) {
+        Map<String, CachedEmbedding> loaded = new HashMap<>();
+        try {
+            jdbcTemplate.query(connection -> {
+                // 注册vector类型后驱动直接返回PGvector，不需要把向量转成文本再解析
+                PGvector.addVectorType(connection);
+                var ps = connection.prepareStatement("""
+                        SELECT content_hash, embedding, token_count FROM embedding_cache
+                        WHERE model = ? AND dimensions = ? AND content_hash = ANY (?)
+                        """);
+                Array hashArray = connection.createArrayOf("bpchar", hashes.toArray());
+                ps.setString(1, modelName);
+                ps.setInt(2, dimensions);
+                ps.setArray(3, hashArray);
+                return ps;
+            }, rs -> {
+                loaded.put(rs.getString("content_hash"), new CachedEmbedding(
+                        ((PGvector) rs.getObject("embedding")).toArray(), rs.getInt("token_count")));
+            });
+        } catch (Exception e) {
+            // 缓存不可用时退化为直接调用模型
+            log.warn("读取embedding缓存失败: {}", e.getMessage());
+        }
+        return loaded;
+    }
+
+    private void saveToDatabase(Map<String, CachedEmbedding> entries) {
+        List<Object[]> rows = new ArrayList<>(entries.size());
+        entries.forEach((hash, cached) -> rows.add(new Object[]{
+                hash, modelName, dimensions, new PGvector(cached.embedding()), cached.tokenCount()}));
+        try {
+            jdbcTemplate.batchUpdate("""
+                    INSERT INTO embedding_cache (content_hash, model, dimensions, embedding, token_count)
+                    VALUES (?, ?, ?, ?, ?) ON CONFLICT DO NOTHING
+                    """, rows);
+        } catch (Exception e) {
+            log.warn("写入embedding缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private record CachedEmbedding(float[] embedding, int tokenCount) {
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+import org.springframework.util.StringUtils;
+
+import java.util.List;
+
+/**
+ * 基于混合检索的文档检索器，供RetrievalAugmentationAdvisor使用
+ * 与VectorStoreDocumentRetriever一样从查询上下文的FILTER_EXPRESSION读取过滤条件
+ *
+ * @author AI Assistant
+ */
+public class HybridDocumentRetriever implements DocumentRetriever {
+
+    private final HybridSearchService hybridSearchService;
+    private final double similarityThreshold;
+    private final int topK;
+
+    public HybridDocumentRetriever(HybridSearchService hybridSearchService, double similarityThreshold, int topK) {
+        this.hybridSearchService = hybridSearchService;
+        this.similarityThreshold = similarityThreshold;
+        this.topK = topK;
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        return hybridSearchService.search(query.text(), topK, similarityThreshold, filterExpression(query));
+    }
+
+    /**
+     * 读取查询上下文中的过滤条件，可以是Filter.Expression或过滤表达式文本
+     */
+    static Filter.Expression filterExpression(Query query) {
+        Object filter = query.context().get(VectorStoreDocumentRetriever.FILTER_EXPRESSION);
+        if (filter instanceof Filter.Expression expression) {
+            return expression;
+        }
+        if (filter instanceof String text && StringUtils.hasText(text)) {
+            return new FilterExpressionTextParser().parse(text);
+        }
+        return null;
+    }
+}
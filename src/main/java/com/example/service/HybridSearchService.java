@@ -0,0 +1,298 @@
+package com.example.service;
+
+import com.example.datasource.ReadReplicaRouter;
+import com.example.vectorstore.JsonPathFilterConverter;
+import com.example.vectorstore.PgVectorWriter;
+import com.example.vectorstore.VectorStoreSchema;
+import com.example.vectorstore.VectorStoreShards;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 混合检索服务
+ * 全文检索与向量检索并行执行，结果按倒数排名融合（RRF）：每个文档块的得分为 Σ 1/(rrf-k + 排名)。
+ * 全文检索使用content上的GIN表达式索引，中文按单字切分建立带位置的tsvector，
+ * 查询时中文切成相邻两字的短语、英文单词和编号（如错误码）整体作为短语，各短语之间为或关系，
+ * 因此精确的标识符、错误码以及向量检索容易漏掉的专有名词都能被召回。
+ * 分片时全文检索并行发往所有分片，各分片的结果按ts_rank_cd归并。
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Service
+public class HybridSearchService {
+
+    // 单次查询最多使用的短语数
+    private static final int MAX_QUERY_TERMS = 32;
+
+    private static final String CONTENT_TSVECTOR = VectorStoreSchema.CONTENT_TSVECTOR;
+
+    private final VectorStore vectorStore;
+    private final VectorStoreShards vectorStoreShards;
+    private final PgVectorWriter vectorWriter;
+    private final ObjectMapper objectMapper;
+
+    private final boolean enabled;
+    private final int candidates;
+    private final int rrfK;
+    private final ExecutorService lexicalExecutor;
+
+    public HybridSearchService(VectorStore vectorStore, VectorStoreShards vectorStoreShards, PgVectorWriter vectorWriter,
+                               ObjectMapper objectMapper,
+                               @Value("${app.rag.hybrid.enabled:true}") boolean enabled,
+                               @Value("${app.rag.hybrid.candidates:20}") int candidates,
+                               @Value("${app.rag.hybrid.rrf-k:60}") int rrfK,
+                               @Value("${app.rag.hybrid.parallelism:4}") int parallelism) {
+        this.vectorStore = vectorStore;
+        this.vectorStoreShards = vectorStoreShards;
+        this.vectorWriter = vectorWriter;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.candidates = candidates;
+        this.rrfK = rrfK;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.lexicalExecutor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "hybrid-search-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 混合检索
+     * 未启用全文检索时只返回向量检索的结果
+     *
+     * @param query 查询文本
+     * @param topK 返回数量
+     * @param similarityThreshold 向量检索的相似度阈值，全文检索只要求命中
+     * @param filter 元数据过滤条件，可以为null
+     * @return 按融合得分从高到低排列的文档块，元数据中附带rrf_score、vector_rank和lexical_rank
+     */
+    public List<Document> search(String query, int topK, double similarityThreshold, Filter.Expression filter) {
+        int candidateCount = Math.max(candidates, topK);
+
+        CompletableFuture<List<Document>> lexical = enabled
+                ? lexicalSearch(query, candidateCount, filter)
+                : CompletableFuture.completedFuture(List.of());
+
+        List<Document> vector = vectorStore.similaritySearch(SearchRequest.builder()
+                .query(query)
+                .topK(candidateCount)
+                .similarityThreshold(similarityThreshold)
+                .filterExpression(filter)
+                .build());
+
+        List<Document> lexicalResults;
+        try {
+            lexicalResults = lexical.join();
+        } catch (CompletionException e) {
+            // 全文检索失败时仍然返回向量检索的结果
+            log.warn("全文检索失败，只使用向量检索结果: {}", e.getCause().getMessage());
+            lexicalResults = List.of();
+        }
+
+        List<Document> fused = fuse(vector, lexicalResults, topK);
+        log.debug("混合检索 '{}': 向量 {} 个, 全文 {} 个, 融合后返回 {} 个", query, vector.size(), lexicalResults.size(), fused.size());
+        return fused;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lexicalExecutor.shutdown();
+    }
+
+    /**
+     * 全文检索，按ts_rank_cd排序，文档块的score为ts_rank_cd
+     * 每个分片取前limit个，归并后保留全局前limit个
+     */
+    CompletableFuture<List<Document>> lexicalSearch(String query, int limit, Filter.Expression filter) {
+        List<String> terms = queryTerms(query);
+        if (terms.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+
+        String tsquery = terms.stream()
+                .map(term -> "phraseto_tsquery('simple', rag_cjk_segment(?))")
+                .collect(Collectors.joining(" || "));
+        // 类别等过滤条件来自请求参数，作为参数绑定，不拼接进SQL
+        String jsonPathFilter = JsonPathFilterConverter.toJsonPath(filter);
+        String sql = "SELECT id, content, metadata, ts_rank_cd(" + CONTENT_TSVECTOR + ", q) AS rank FROM "
+                + vectorWriter.getQualifiedTableName() + ", (SELECT " + tsquery + " AS q) tsquery WHERE "
+                + CONTENT_TSVECTOR + " @@ q" + (jsonPathFilter != null ? JsonPathFilterConverter.CONDITION : "")
+                + " ORDER BY rank DESC LIMIT ?";
+
+        List<Object> params = new ArrayList<>(terms);
+        if (jsonPathFilter != null) {
+            params.add(jsonPathFilter);
+        }
+        params.add(limit);
+        List<CompletableFuture<List<Document>>> shardResults = vectorStoreShards.getJdbcTemplates().stream()
+                .map(jdbcTemplate -> CompletableFuture.supplyAsync(ReadReplicaRouter.propagate(
+                        () -> jdbcTemplate.query(sql, (rs, rowNum) -> toDocument(rs), params.toArray())), lexicalExecutor))
+                .toList();
+        if (shardResults.size() == 1) {
+            return shardResults.get(0);
+        }
+        return CompletableFuture.allOf(shardResults.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> shardResults.stream()
+                        .flatMap(shardResult -> shardResult.join().stream())
+                        .sorted(Comparator.comparingDouble(Document::getScore).reversed())
+                        .limit(limit)
+                        .toList());
+    }
+
+    /**
+     * 把查询切分为全文检索短语：连续的中文切成相邻两字（只有一个字时保留单字），
+     * 英文单词、数字和带 _ - . / : 的编号整体保留，其他字符作为分隔
+     */
+    static List<String> queryTerms(String query) {
+        Set<String> terms = new LinkedHashSet<>();
+        StringBuilder cjk = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+
+        query.codePoints().forEach(codePoint -> {
+            if (isCjk(codePoint)) {
+                flushWord(word, terms);
+                cjk.appendCodePoint(codePoint);
+            } else if (Character.isLetterOrDigit(codePoint) || "_-./:".indexOf(codePoint) >= 0) {
+                flushCjk(cjk, terms);
+                word.appendCodePoint(codePoint);
+            } else {
+                flushCjk(cjk, terms);
+                flushWord(word, terms);
+            }
+        });
+        flushCjk(cjk, terms);
+        flushWord(word, terms);
+
+        return terms.stream().limit(MAX_QUERY_TERMS).toList();
+    }
+
+    /**
+     * 与数据库函数rag_cjk_segment使用相同的字符范围
+     */
+    static boolean isCjk(int codePoint) {
+        return codePoint >= 0x3400 && codePoint <= 0x9FFF || codePoint >= 0xF900 && codePoint <= 0xFAFF;
+    }
+
+    private static void flushCjk(StringBuilder cjk, Set<String> terms) {
+        int[] codePoints = cjk.codePoints().toArray();
+        if (codePoints.length == 1) {
+            terms.add(cjk.toString());
+        }
+        for (int i = 0; i + 1 < codePoints.length; i++) {
+            terms.add(new String(codePoints, i, 2));
+        }
+        cjk.setLength(0);
+    }
+
+    private static void flushWord(StringBuilder word, Set<String> terms) {
+        // 去掉首尾的分隔符号，如句末的句点
+        String token = word.toString().replaceAll("^[_\\-./:]+|[_\\-./:]+$", "");
+        if (!token.isEmpty()) {
+            terms.add(token);
+        }
+        word.setLength(0);
+    }
+
+    /**
+     * 倒数排名融合，两路都命中的文档块使用向量检索返回的文档（带distance）
+     */
+    private List<Document> fuse(List<Document> vector, List<Document> lexical, int topK) {
+        Map<String, FusedDocument> fused = new LinkedHashMap<>();
+        for (int i = 0; i < vector.size(); i++) {
+            Document document = vector.get(i);
+            FusedDocument entry = fused.computeIfAbsent(document.getId(), id -> new FusedDocument(document));
+            entry.vectorRank = i + 1;
+            entry.score += 1.0 / (rrfK + i + 1);
+        }
+        for (int i = 0; i < lexical.size(); i++) {
+            Document document = lexical.get(i);
+            FusedDocument entry = fused.computeIfAbsent(document.getId(), id -> new FusedDocument(document));
+            entry.lexicalRank = i + 1;
+            entry.score += 1.0 / (rrfK + i + 1);
+        }
+
+        List<FusedDocument> ranked = new ArrayList<>(fused.values());
+        ranked.sort(Collections.reverseOrder((a, b) -> Double.compare(a.score, b.score)));
+
+        List<Document> results = new ArrayList<>(Math.min(topK, ranked.size()));
+        for (FusedDocument entry : ranked.subList(0, Math.min(topK, ranked.size()))) {
+            Map<String, Object> metadata = new HashMap<>(entry.document.getMetadata());
+            metadata.put("rrf_score", entry.score);
+            if (entry.vectorRank > 0) {
+                metadata.put("vector_rank", entry.vectorRank);
+            }
+            if (entry.lexicalRank > 0) {
+                metadata.put("lexical_rank", entry.lexicalRank);
+            }
+            results.add(Document.builder()
+                    .id(entry.document.getId())
+                    .text(entry.document.getText())
+                    .metadata(metadata)
+                    .score(entry.score)
+                    .build());
+        }
+        return results;
+    }
+
+    private Document toDocument(ResultSet rs) throws SQLException {
+        Map<String, Object> metadata = new HashMap<>();
+        String metadataJson = rs.getString("metadata");
+        if (metadataJson != null) {
+            try {
+                metadata.putAll(objectMapper.readValue(metadataJson, new TypeReference<Map<String, Object>>() { }));
+            } catch (Exception e) {
+                throw new SQLException("解析文档块元数据失败: " + e.getMessage(), e);
+            }
+        }
+        return Document.builder()
+                .id(rs.getString("id"))
+                .text(rs.getString("content"))
+                .metadata(metadata)
+                .score(rs.getDouble("rank"))
+                .build();
+    }
+
+    /**
+     * 融合过程中的文档块得分
+     */
+    private static class FusedDocument {
+
+        private final Document document;
+        private double score;
+        private int vectorRank;
+        private int lexicalRank;
+
+        FusedDocument(Document document) {
+            this.document = document;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.example.service;
+
+import com.example.vectorstore.PgVectorWriter;
+import com.example.vectorstore.VectorStoreShards;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 增量入库服务
+ * 按内容哈希把新版本的文档块与已存储的文档块做差异比较：
+ * 未变化的文档块直接复用，只有新增的文档块需要向量化，被移除的文档块最后删除；
+ * 配置分片时同一文档的文档块都在该文档所在的分片上，比较和更新只访问这一个分片。
+ * 同一文档从begin到ChunkDiff关闭只能有一次入库在进行，否则两次入库都会把对方的新文档块当作旧文档块删除
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IncrementalIngestionService {
+
+    public static final String DOCUMENT_ID = "document_id";
+    public static final String DOCUMENT_VERSION = "document_version";
+    public static final String CHUNK_HASH = "chunk_hash";
+
+    private final VectorStoreShards vectorStoreShards;
+    private final VectorStore vectorStore;
+    private final PgVectorWriter vectorWriter;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 开始一次增量比较，加载该文档已存储的文档块哈希及其类别
+     * 首次登记（版本1）的文档不复用已有文档块：这些文档块属于已被删除的登记，可能正由后台删除任务按ID删除，
+     * 它们作为旧文档块在complete时删除。
+     * 开始前在文档所在分片上获取该文档的advisory锁，直到调用方关闭ChunkDiff；锁属于数据库会话，
+     * 期间占用一个连接。同一文档已有入库在进行时立即失败而不是等待，批量上传中同一文档出现两次时不会互相等待
+     *
+     * @param category 新版本的类别，复用的文档块在complete时改为该类别
+     * @return 增量比较状态，调用方在入库结束（无论成功与否）后必须关闭
+     */
+    public ChunkDiff begin(String documentId, int version, String sourceFile, String category) {
+        JdbcTemplate shard = vectorStoreShards.forDocument(documentId);
+        Connection lockConnection = lockDocument(shard.getDataSource(), documentId);
+        try {
+            return begin(shard, lockConnection, documentId, version, sourceFile, category);
+        } catch (RuntimeException e) {
+            unlockDocument(lockConnection, documentId);
+            throw e;
+        }
+    }
+
+    private ChunkDiff begin(JdbcTemplate shard, Connection lockConnection, String documentId, int version,
+                            String sourceFile, String category) {
+        Map<String, Deque<String>> existing = new HashMap<>();
+        Set<String> previousCategories = new HashSet<>();
+        shard.query("SELECT id::text AS id, metadata->>'" + CHUNK_HASH
+                        + "' AS chunk_hash, category FROM " + vectorWriter.getQualifiedTableName()
+                        + " WHERE metadata->>'" + DOCUMENT_ID + "' = ?",
+                rs -> {
+                    String hash = rs.getString("chunk_hash");
+                    existing.computeIfAbsent(hash != null ? hash : "", key -> new ArrayDeque<>())
+                            .add(rs.getString("id"));
+                    previousCategories.add(rs.getString("category"));
+                }, documentId);
+
+        return new ChunkDiff(documentId, version, sourceFile, category, existing, previousCategories, version > 1,
+                lockConnection);
+    }
+
+    /**
+     * 获取文档的会话级advisory锁，返回持有锁的连接
+     */
+    private static Connection lockDocument(DataSource dataSource, String documentId) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            boolean locked;
+            try (PreparedStatement ps = connection.prepareStatement("SELECT pg_try_advisory_lock(hashtext(?))")) {
+                ps.setString(1, documentId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    locked = rs.next() && rs.getBoolean(1);
+                }
+            }
+            if (!locked) {
+                connection.close();
+                throw new IllegalStateException("文档 " + documentId + " 正在由另一个请求处理，请稍后重试");
+            }
+            return connection;
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            throw new RuntimeException("获取文档锁失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 释放advisory锁并归还连接；连接池不会结束会话，必须显式释放
+     */
+    private static void unlockDocument(Connection connection, String documentId) {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT pg_advisory_unlock(hashtext(?))")) {
+            ps.setString(1, documentId);
+            ps.execute();
+        } catch (SQLException e) {
+            log.error("释放文档 {} 的锁失败", documentId, e);
+        } finally {
+            closeQuietly(connection);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.warn("关闭数据库连接失败", e);
+        }
+    }
+
+    /**
+     * 从内容完全相同的另一个文档复制文档块及其向量，不需要解析和向量化
+     * 复制结果同样参与增量比较，目标文档中已有的相同文档块直接复用；
+     * 两个文档不在同一分片时读出文档块和向量，写入目标文档所在的分片
+     *
+     * @param sourceDocumentId 提供文档块的文档
+     * @param diff 目标文档的增量比较状态
+     * @param category 目标文档的类别
+     * @return 复制的文档块数量
+     */
+    public int copyChunks(String sourceDocumentId, ChunkDiff diff, String category) {
+        JdbcTemplate source = vectorStoreShards.forDocument(sourceDocumentId);
+        JdbcTemplate target = vectorStoreShards.forDocument(diff.documentId);
+        List<String> copyIds = new ArrayList<>();
+        source.query("SELECT id::text AS id, metadata->>'" + CHUNK_HASH + "' AS chunk_hash FROM "
+                        + vectorWriter.getQualifiedTableName() + " WHERE metadata->>'" + DOCUMENT_ID + "' = ?",
+                rs -> {
+                    String hash = rs.getString("chunk_hash");
+                    if (diff.acceptHash(hash != null ? hash : "")) {
+                        copyIds.add(rs.getString("id"));
+                    }
+                }, sourceDocumentId);
+
+        if (copyIds.isEmpty()) {
+            return 0;
+        }
+
+        boolean hasCategory = category != null && !category.trim().isEmpty();
+        String categoryUpdate = hasCategory ? ", 'category', ?::text)" : ") - 'category'";
+        String metadata = "(metadata::jsonb || jsonb_build_object('" + DOCUMENT_ID + "', ?::text, '" + DOCUMENT_VERSION
+                + "', ?::int, 'source_file', ?::text, 'upload_time', ?::text" + categoryUpdate + ")";
+        PreparedStatementCreator copyStatement = connection -> {
+            var ps = connection.prepareStatement(source == target
+                    ? "INSERT INTO " + vectorWriter.getQualifiedTableName()
+                            + " (id, content, metadata, embedding) SELECT gen_random_uuid(), content, " + metadata
+                            + "::json, embedding FROM " + vectorWriter.getQualifiedTableName() + " WHERE id = ANY (?)"
+                    : "SELECT content, " + metadata + "::text AS metadata, embedding::text AS embedding FROM "
+                            + vectorWriter.getQualifiedTableName() + " WHERE id = ANY (?)");
+            int index = 1;
+            ps.setString(index++, diff.documentId);
+            ps.setInt(index++, diff.version);
+            ps.setString(index++, diff.sourceFile);
+            ps.setString(index++, new Date().toString());
+            if (hasCategory) {
+                ps.setString(index++, category.trim());
+            }
+            ps.setArray(index, connection.createArrayOf("uuid", copyIds.stream().map(UUID::fromString).toArray()));
+            return ps;
+        };
+        int copied = source == target ? target.update(copyStatement) : copyAcrossShards(source, copyStatement);
+
+        log.info("文档 {} 与文档 {} 内容相同，复制了 {} 个文档块", diff.documentId, sourceDocumentId, copied);
+        return copied;
+    }
+
+    /**
+     * 从源分片读出文档块和向量，以新的ID写入目标文档所在的分片
+     */
+    private int copyAcrossShards(JdbcTemplate source, PreparedStatementCreator selectStatement) {
+        List<Document> documents = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        source.query(selectStatement, rs -> {
+            try {
+                documents.add(Document.builder()
+                        .id(UUID.randomUUID().toString())
+                        .text(rs.getString("content"))
+                        .metadata(objectMapper.readValue(rs.getString("metadata"), new TypeReference<Map<String, Object>>() {
+                        }))
+                        .build());
+            } catch (JsonProcessingException e) {
+                throw new SQLException("文档块元数据解析失败", e);
+            }
+            embeddings.add(new PGvector(rs.getString("embedding")).toArray());
+        });
+        vectorWriter.write(documents, embeddings);
+        return documents.size();
+    }
+
+    /**
+     * 完成增量比较：刷新复用文档块的版本信息和类别，并删除新版本中已不存在的文档块
+     * 必须在新增文档块写入之后调用，保证检索过程中始终有可用内容
+     */
+    public IngestionResult complete(ChunkDiff diff) {
+        if (!diff.keptIds.isEmpty()) {
+            boolean hasCategory = diff.category != null && !diff.category.trim().isEmpty();
+            String categoryUpdate = hasCategory ? ", 'category', ?::text)" : ") - 'category'";
+            vectorStoreShards.forDocument(diff.documentId).update(connection -> {
+                var ps = connection.prepareStatement("UPDATE " + vectorWriter.getQualifiedTableName()
+                        + " SET metadata = (metadata::jsonb || jsonb_build_object('" + DOCUMENT_VERSION
+                        + "', ?::int, 'source_file', ?::text" + categoryUpdate + ")::json WHERE id = ANY (?)");
+                Array ids = connection.createArrayOf("uuid", diff.keptIds.stream().map(UUID::fromString).toArray());
+                int index = 1;
+                ps.setInt(index++, diff.version);
+                ps.setString(index++, diff.sourceFile);
+                if (hasCategory) {
+                    ps.setString(index++, diff.category.trim());
+                }
+                ps.setArray(index, ids);
+                return ps;
+            });
+        }
+
+        List<String> removedIds = diff.removedIds();
+        if (!removedIds.isEmpty()) {
+            vectorStore.delete(removedIds);
+        }
+
+        IngestionResult result = new IngestionResult(diff.addedCount, diff.keptIds.size(), removedIds.size());
+        log.info("文档 {} 版本 {} 增量入库完成: 新增 {}, 复用 {}, 删除 {}",
+                diff.documentId, diff.version, result.added(), result.kept(), result.removed());
+        return result;
+    }
+
+    /**
+     * 单个文档的差异比较状态，可以逐个接收文档块，适用于流式处理
+     * 关闭时释放begin获取的文档锁
+     */
+    public static class ChunkDiff implements AutoCloseable {
+
+        private final String documentId;
+        private final int version;
+        private final String sourceFile;
+        private final String category;
+        private final Map<String, Deque<String>> existing;
+        private final Set<String> previousCategories;
+        private final boolean reuseExisting;
+        private final List<String> keptIds = new ArrayList<>();
+        private Connection lockConnection;
+        private int addedCount;
+
+        private ChunkDiff(String documentId, int version, String sourceFile, String category,
+                          Map<String, Deque<String>> existing, Set<String> previousCategories, boolean reuseExisting,
+                          Connection lockConnection) {
+            this.documentId = documentId;
+            this.version = version;
+            this.sourceFile = sourceFile;
+            this.category = category;
+            this.existing = existing;
+            this.previousCategories = previousCategories;
+            this.reuseExisting = reuseExisting;
+            this.lockConnection = lockConnection;
+        }
+
+        /**
+         * 为文档块写入身份元数据并判断是否需要向量化
+         *
+         * @return true表示这是新的文档块，需要向量化并写入
+         */
+        public boolean accept(Document chunk) {
+            String hash = EmbeddingCache.contentHash(chunk.getText());
+            chunk.getMetadata().put(DOCUMENT_ID, documentId);
+            chunk.getMetadata().put(DOCUMENT_VERSION, version);
+            chunk.getMetadata().put(CHUNK_HASH, hash);
+            return acceptHash(hash);
+        }
+
+        /**
+         * 按内容哈希判断文档块是否需要写入
+         *
+         * @return true表示这是新的文档块
+         */
+        private boolean acceptHash(String hash) {
+            // 相同内容可能出现多次，每次复用一个已有文档块
+            Deque<String> candidates = reuseExisting ? existing.get(hash) : null;
+            if (candidates != null && !candidates.isEmpty()) {
+                keptIds.add(candidates.poll());
+                return false;
+            }
+
+            addedCount++;
+            return true;
+        }
+
+        public String getDocumentId() {
+            return documentId;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * 已存储文档块的类别（未分类为null），更换类别后这些类别的检索结果同样需要失效
+         */
+        public Set<String> getPreviousCategories() {
+            return previousCategories;
+        }
+
+        /**
+         * 结束入库，释放文档锁；可以重复调用
+         */
+        @Override
+        public synchronized void close() {
+            if (lockConnection != null) {
+                unlockDocument(lockConnection, documentId);
+                lockConnection = null;
+            }
+        }
+
+        private List<String> removedIds() {
+            List<String> removed = new ArrayList<>();
+            existing.values().forEach(removed::addAll);
+            return removed;
+        }
+    }
+
+    /**
+     * 增量入库结果
+     */
+    public record IngestionResult(int added, int kept, int removed) {
+
+        public int totalChunks() {
+            return added + kept;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+
+import java.util.List;
+
+/**
+ * 对另一个检索器的结果做MMR重排的文档检索器
+ * delegate需按MmrReranker.fetchSize多取候选
+ *
+ * @author AI Assistant
+ */
+public class MmrDocumentRetriever implements DocumentRetriever {
+
+    private final DocumentRetriever delegate;
+    private final MmrReranker mmrReranker;
+    private final int topK;
+
+    public MmrDocumentRetriever(DocumentRetriever delegate, MmrReranker mmrReranker, int topK) {
+        this.delegate = delegate;
+        this.mmrReranker = mmrReranker;
+        this.topK = topK;
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        return mmrReranker.rerank(query.text(), delegate.retrieve(query), topK);
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.service;
+
+import com.example.vectorstore.PgVectorWriter;
+import com.example.vectorstore.VectorStoreShards;
+import com.pgvector.PGvector;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 最大边际相关性（MMR）重排
+ * 从向量库多取 topK × fetch-multiplier 个候选，按 λ·相关性 − (1−λ)·与已选文档块的最大相似度 依次选出topK个，
+ * 减少分块重叠造成的相邻重复文档块。相关性取上游检索给出的得分除以最高得分，混合检索和多查询检索的RRF融合顺序得以保留，
+ * 只被全文检索命中的文档块不会因为与查询向量不相似而被挤掉；候选没有得分时才退回到与查询向量的余弦相似度。候选的向量从vector_store按ID一次读出（不调用embedding模型，
+ * 分片时按文档块所在分片分组，每个分片读一次），
+ * 归一化后连续存放在一个float[]中，相似度计算是对连续内存的批量点积
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Service
+public class MmrReranker {
+
+    private final VectorStoreShards vectorStoreShards;
+    private final PgVectorWriter vectorWriter;
+    private final EmbeddingModel embeddingModel;
+
+    private final boolean enabled;
+    private final double lambda;
+    private final int fetchMultiplier;
+
+    public MmrReranker(VectorStoreShards vectorStoreShards, PgVectorWriter vectorWriter, EmbeddingModel embeddingModel,
+                       @Value("${app.rag.mmr.enabled:true}") boolean enabled,
+                       @Value("${app.rag.mmr.lambda:0.7}") double lambda,
+                       @Value("${app.rag.mmr.fetch-multiplier:4}") int fetchMultiplier) {
+        if (lambda < 0 || lambda > 1) {
+            throw new IllegalArgumentException("app.rag.mmr.lambda需在0-1之间");
+        }
+        this.vectorStoreShards = vectorStoreShards;
+        this.vectorWriter = vectorWriter;
+        this.embeddingModel = embeddingModel;
+        this.enabled = enabled;
+        this.lambda = lambda;
+        this.fetchMultiplier = Math.max(1, fetchMultiplier);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 启用MMR时需要从向量库取回的候选数
+     */
+    public int fetchSize(int topK) {
+        return enabled ? topK * fetchMultiplier : topK;
+    }
+
+    /**
+     * 从候选中选出topK个兼顾相关性和多样性的文档块
+     * 读不到向量的候选（如刚被删除）排在最后
+     *
+     * @param candidates 按相关性从高到低排列的候选，score为向量相似度或RRF融合得分
+     */
+    public List<Document> rerank(String query, List<Document> candidates, int topK) {
+        if (!enabled || candidates.size() <= 1) {
+            return candidates.subList(0, Math.min(topK, candidates.size()));
+        }
+
+        Map<String, float[]> embeddings = loadEmbeddings(candidates);
+        List<Document> withEmbedding = new ArrayList<>(candidates.size());
+        List<Document> withoutEmbedding = new ArrayList<>();
+        for (Document candidate : candidates) {
+            (embeddings.containsKey(candidate.getId()) ? withEmbedding : withoutEmbedding).add(candidate);
+        }
+        if (withEmbedding.isEmpty()) {
+            return candidates.subList(0, Math.min(topK, candidates.size()));
+        }
+
+        float[] relevance = upstreamRelevance(withEmbedding);
+        // 没有上游得分时才需要查询向量，通常已在查询向量缓存中
+        float[] queryVector = relevance == null ? normalize(embeddingModel.embed(query)) : null;
+        int dimensions = queryVector != null ? queryVector.length : embeddings.get(withEmbedding.get(0).getId()).length;
+        float[] matrix = new float[withEmbedding.size() * dimensions];
+        for (int i = 0; i < withEmbedding.size(); i++) {
+            float[] embedding = embeddings.get(withEmbedding.get(i).getId());
+            if (embedding.length != dimensions) {
+                throw new IllegalStateException("文档块向量维度 " + embedding.length + " 与期望维度 " + dimensions + " 不一致");
+            }
+            System.arraycopy(normalize(embedding), 0, matrix, i * dimensions, dimensions);
+        }
+        if (relevance == null) {
+            relevance = new float[withEmbedding.size()];
+            for (int i = 0; i < relevance.length; i++) {
+                relevance[i] = dot(queryVector, 0, matrix, i * dimensions, dimensions);
+            }
+        }
+
+        List<Document> selected = new ArrayList<>(topK);
+        for (int index : select(relevance, matrix, dimensions, topK, lambda)) {
+            selected.add(withEmbedding.get(index));
+        }
+        for (int i = 0; selected.size() < topK && i < withoutEmbedding.size(); i++) {
+            selected.add(withoutEmbedding.get(i));
+        }
+        log.debug("MMR从 {} 个候选中选出 {} 个文档块 (lambda={})", candidates.size(), selected.size(), lambda);
+        return selected;
+    }
+
+    /**
+     * 上游得分除以最高得分，缩放到与余弦相似度可比的0-1区间；有候选没有正的得分时返回null
+     */
+    private static float[] upstreamRelevance(List<Document> candidates) {
+        double maxScore = 0;
+        for (Document candidate : candidates) {
+            Double score = candidate.getScore();
+            if (score == null || score <= 0) {
+                return null;
+            }
+            maxScore = Math.max(maxScore, score);
+        }
+        float[] relevance = new float[candidates.size()];
+        for (int i = 0; i < relevance.length; i++) {
+            relevance[i] = (float) (candidates.get(i).getScore() / maxScore);
+        }
+        return relevance;
+    }
+
+    /**
+     * MMR选择
+     *
+     * @param relevance 每个候选的相关性
+     * @param matrix relevance.length行归一化向量，每行dimensions维
+     * @return 被选中的行号，按选择顺序排列
+     */
+    static int[] select(float[] relevance, float[] matrix, int dimensions, int topK, double lambda) {
+        int count = relevance.length;
+        int selectCount = Math.min(topK, count);
+
+        float[] redundancy = new float[count];
+        boolean[] chosen = new boolean[count];
+        Arrays.fill(redundancy, Float.NEGATIVE_INFINITY);
+
+        int[] order = new int[selectCount];
+        for (int k = 0; k < selectCount; k++) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                if (chosen[i]) {
+                    continue;
+                }
+                // 第一个文档块只看相关性
+                double score = k == 0 ? relevance[i] : lambda * relevance[i] - (1 - lambda) * redundancy[i];
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            chosen[best] = true;
+            order[k] = best;
+
+            // 只需更新未选中的候选与新选中文档块的相似度
+            for (int i = 0; i < count; i++) {
+                if (!chosen[i]) {
+                    redundancy[i] = Math.max(redundancy[i], dot(matrix, best * dimensions, matrix, i * dimensions, dimensions));
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * 点积，4路独立累加使循环可以并行执行
+     */
+    static float dot(float[] a, int offsetA, float[] b, int offsetB, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[offsetA + i] * b[offsetB + i];
+            s1 += a[offsetA + i + 1] * b[offsetB + i + 1];
+            s2 += a[offsetA + i + 2] * b[offsetB + i + 2];
+            s3 += a[offsetA + i + 3] * b[offsetB + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[offsetA + i] * b[offsetB + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * 同一文档的文档块写在同一分片上，按文档块所在分片分组读取
+     */
+    private Map<String, float[]> loadEmbeddings(List<Document> candidates) {
+        Map<Integer, List<Document>> byShard = candidates.stream()
+                .collect(Collectors.groupingBy(vectorStoreShards::shardOf, LinkedHashMap::new, Collectors.toList()));
+        Map<String, float[]> embeddings = new HashMap<>();
+        byShard.forEach((shard, shardCandidates) -> {
+            String placeholders = String.join(", ", Collections.nCopies(shardCandidates.size(), "?::uuid"));
+            vectorStoreShards.getJdbcTemplate(shard).query(connection -> {
+                // 注册vector类型后驱动直接返回PGvector，不需要把向量转成文本再解析
+                PGvector.addVectorType(connection);
+                var ps = connection.prepareStatement("SELECT id, embedding FROM " + vectorWriter.getQualifiedTableName()
+                        + " WHERE id IN (" + placeholders + ")");
+                for (int i = 0; i < shardCandidates.size(); i++) {
+                    ps.setString(i + 1, shardCandidates.get(i).getId());
+                }
+                return ps;
+            }, rs -> {
+                embeddings.put(rs.getString("id"), ((PGvector) rs.getObject("embedding")).toArray());
+            });
+        });
+        return embeddings;
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        float scale = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+}
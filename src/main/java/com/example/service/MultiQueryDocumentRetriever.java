@@ -0,0 +1,33 @@
+package com.example.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+
+import java.util.List;
+
+/**
+ * 基于多查询并行检索的文档检索器，供RetrievalAugmentationAdvisor使用
+ * 与HybridDocumentRetriever一样从查询上下文的FILTER_EXPRESSION读取过滤条件
+ *
+ * @author AI Assistant
+ */
+public class MultiQueryDocumentRetriever implements DocumentRetriever {
+
+    private final MultiQueryRetrievalService multiQueryRetrievalService;
+    private final double similarityThreshold;
+    private final int topK;
+
+    public MultiQueryDocumentRetriever(MultiQueryRetrievalService multiQueryRetrievalService,
+                                       double similarityThreshold, int topK) {
+        this.multiQueryRetrievalService = multiQueryRetrievalService;
+        this.similarityThreshold = similarityThreshold;
+        this.topK = topK;
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        return multiQueryRetrievalService.search(query.text(), topK, similarityThreshold,
+                HybridDocumentRetriever.filterExpression(query));
+    }
+}
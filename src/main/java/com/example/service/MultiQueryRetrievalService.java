@@ -0,0 +1,244 @@
+package com.example.service;
+
+import com.example.datasource.ReadReplicaRouter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.preretrieval.query.expansion.MultiQueryExpander;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * 多查询检索服务
+ * 把查询扩展为多个变体（本地规则或LLM），所有变体的向量通过一次批量embedding请求计算并写入查询向量缓存，
+ * 各变体的向量检索随后在线程池中并行执行（每个检索从连接池取各自的连接，embed时命中缓存），
+ * 结果按倒数排名融合（RRF）。增加的延迟约为一次检索加一次批量embedding，而不是变体数倍。
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Service
+public class MultiQueryRetrievalService {
+
+    // 去掉疑问词和语气词后得到陈述式的关键词查询，较长的词放在前面；
+    // 单字的"请"只在句首、语气词只在句末或标点前去掉，避免破坏"申请"等词
+    private static final Pattern QUESTION_WORDS = Pattern.compile(
+            "请问|^请|什么是|是什么|有哪些|为什么|怎么样|可以吗|什么|哪些|哪个|如何|怎么|怎样|多少|是否|能否|一下"
+                    + "|[吗呢吧](?=[\\p{P}\\s]|$)");
+
+    // 拆分复合问题的分隔符
+    private static final Pattern CLAUSE_SEPARATORS = Pattern.compile(
+            "[，,；;？?！!。\\n]|以及|还有|并且|或者|\\s+(?i:and|or)\\s+");
+
+    // 编号中的 - _ . / 保留，如错误码ERR-CONN-42
+    private static final Pattern PUNCTUATION = Pattern.compile("[\\p{P}\\p{S}\\s&&[^\\-_./]]+");
+
+    private final VectorStore vectorStore;
+    private final EmbeddingModel embeddingModel;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final MultiQueryExpander llmExpander;
+
+    private final int maxQueries;
+    private final int rrfK;
+    private final ExecutorService searchExecutor;
+
+    public MultiQueryRetrievalService(VectorStore vectorStore, EmbeddingModel embeddingModel,
+                                      QueryEmbeddingCache queryEmbeddingCache, ChatClient.Builder chatClientBuilder,
+                                      @Value("${app.rag.multi-query.expander:rules}") String expander,
+                                      @Value("${app.rag.multi-query.max-queries:4}") int maxQueries,
+                                      @Value("${app.rag.multi-query.rrf-k:60}") int rrfK,
+                                      @Value("${app.rag.multi-query.parallelism:4}") int parallelism) {
+        if (!"rules".equalsIgnoreCase(expander) && !"llm".equalsIgnoreCase(expander)) {
+            throw new IllegalArgumentException("app.rag.multi-query.expander只支持 rules、llm: " + expander);
+        }
+        this.vectorStore = vectorStore;
+        this.embeddingModel = embeddingModel;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+        this.maxQueries = Math.max(1, maxQueries);
+        this.rrfK = rrfK;
+        this.llmExpander = "llm".equalsIgnoreCase(expander) && this.maxQueries > 1
+                ? MultiQueryExpander.builder()
+                        .chatClientBuilder(chatClientBuilder)
+                        .numberOfQueries(this.maxQueries - 1)
+                        .includeOriginal(true)
+                        .build()
+                : null;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.searchExecutor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "multi-query-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 多查询检索
+     * 原查询在调用线程上检索，其余变体在线程池中并行检索；变体检索失败时只使用其余结果
+     *
+     * @param query 查询文本
+     * @param topK 每个变体取回的数量，也是融合后的返回数量
+     * @param similarityThreshold 相似度阈值
+     * @param filter 元数据过滤条件，可以为null
+     * @return 按融合得分从高到低排列的文档块，元数据中附带rrf_score和matched_queries（命中的变体数）
+     */
+    public List<Document> search(String query, int topK, double similarityThreshold, Filter.Expression filter) {
+        long start = System.nanoTime();
+        List<String> queries = expand(query);
+        if (queries.size() > 1) {
+            // 一次批量请求计算所有变体的向量，各检索embed时命中缓存
+            queryEmbeddingCache.embedAll(queries, embeddingModel::embed);
+        }
+
+        List<CompletableFuture<List<Document>>> variants = queries.subList(1, queries.size()).stream()
+                .map(variant -> CompletableFuture.supplyAsync(ReadReplicaRouter.propagate(
+                        () -> similaritySearch(variant, topK, similarityThreshold, filter)), searchExecutor))
+                .toList();
+
+        List<List<Document>> rankings = new ArrayList<>(queries.size());
+        rankings.add(similaritySearch(queries.get(0), topK, similarityThreshold, filter));
+        for (int i = 0; i < variants.size(); i++) {
+            try {
+                rankings.add(variants.get(i).join());
+            } catch (CompletionException e) {
+                log.warn("查询变体 '{}' 检索失败，忽略该变体: {}", queries.get(i + 1), e.getCause().getMessage());
+            }
+        }
+
+        List<Document> fused = fuse(rankings, topK);
+        log.debug("多查询检索 '{}': {} 个变体 {}, 融合后返回 {} 个, 耗时 {} ms", query, queries.size(), queries,
+                fused.size(), (System.nanoTime() - start) / 1_000_000);
+        return fused;
+    }
+
+    /**
+     * 扩展查询，第一个始终是原查询；LLM扩展失败时使用本地规则
+     */
+    List<String> expand(String query) {
+        if (llmExpander != null) {
+            try {
+                List<String> expanded = new ArrayList<>();
+                expanded.add(query);
+                llmExpander.expand(new Query(query)).forEach(variant -> expanded.add(variant.text()));
+                return distinct(expanded, maxQueries);
+            } catch (Exception e) {
+                log.warn("LLM查询扩展失败，使用本地规则: {}", e.getMessage());
+            }
+        }
+        return ruleVariants(query, maxQueries);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        searchExecutor.shutdown();
+    }
+
+    /**
+     * 本地规则扩展：原查询、去掉疑问词和标点后的关键词查询，以及复合问题拆出的各个子问题
+     */
+    static List<String> ruleVariants(String query, int maxQueries) {
+        List<String> variants = new ArrayList<>();
+        variants.add(query);
+        variants.add(keywords(query));
+
+        String[] clauses = CLAUSE_SEPARATORS.split(query);
+        List<String> subQuestions = new ArrayList<>();
+        for (String clause : clauses) {
+            String keywords = keywords(clause);
+            if (keywords.codePointCount(0, keywords.length()) >= 2) {
+                subQuestions.add(keywords);
+            }
+        }
+        if (subQuestions.size() > 1) {
+            variants.addAll(subQuestions);
+        }
+        return distinct(variants, maxQueries);
+    }
+
+    private static String keywords(String text) {
+        String stripped = QUESTION_WORDS.matcher(text).replaceAll(" ");
+        return PUNCTUATION.matcher(stripped).replaceAll(" ").replaceAll("^[\\-_./\\s]+|[\\-_./\\s]+$", "");
+    }
+
+    /**
+     * 按规范化后的文本去重，保留顺序，去掉空查询
+     */
+    private static List<String> distinct(List<String> queries, int maxQueries) {
+        Set<String> seen = new LinkedHashSet<>();
+        List<String> distinct = new ArrayList<>();
+        for (String query : queries) {
+            if (query == null || query.isBlank()) {
+                continue;
+            }
+            if (seen.add(QueryEmbeddingCache.normalize(query)) && distinct.size() < maxQueries) {
+                distinct.add(query);
+            }
+        }
+        return distinct;
+    }
+
+    private List<Document> similaritySearch(String query, int topK, double similarityThreshold, Filter.Expression filter) {
+        return vectorStore.similaritySearch(SearchRequest.builder()
+                .query(query)
+                .topK(topK)
+                .similarityThreshold(similarityThreshold)
+                .filterExpression(filter)
+                .build());
+    }
+
+    /**
+     * 倒数排名融合，同一文档块保留最先出现（原查询优先）的文档（带distance）
+     */
+    private List<Document> fuse(List<List<Document>> rankings, int topK) {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, Double> scores = new HashMap<>();
+        Map<String, Integer> matches = new HashMap<>();
+        for (List<Document> ranking : rankings) {
+            for (int i = 0; i < ranking.size(); i++) {
+                Document document = ranking.get(i);
+                documents.putIfAbsent(document.getId(), document);
+                scores.merge(document.getId(), 1.0 / (rrfK + i + 1), Double::sum);
+                matches.merge(document.getId(), 1, Integer::sum);
+            }
+        }
+
+        List<String> ranked = new ArrayList<>(documents.keySet());
+        ranked.sort(Collections.reverseOrder((a, b) -> Double.compare(scores.get(a), scores.get(b))));
+
+        List<Document> results = new ArrayList<>(Math.min(topK, ranked.size()));
+        for (String id : ranked.subList(0, Math.min(topK, ranked.size()))) {
+            Document document = documents.get(id);
+            Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+            metadata.put("rrf_score", scores.get(id));
+            metadata.put("matched_queries", matches.get(id));
+            results.add(Document.builder()
+                    .id(id)
+                    .text(document.getText())
+                    .metadata(metadata)
+                    .score(scores.get(id))
+                    .build());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * 查询向量缓存服务
+ * 检索时查询文本通过EmbeddingModel.embed(String)向量化，相同的查询（智能对话、按类别重试、监控面板）
+ * 频繁出现；以"模型名 + 维度 + 规范化后的查询文本"为键在进程内LRU中保存float[]向量，命中时省去一次远程调用。
+ * 规范化只用于缓存键，向量始终由原始查询文本计算；缓存的数组不交给调用方，每次返回副本。
+ * 文档块入库走批量embed(List)，不经过该缓存。
+ *
+ * @author AI Assistant
+ */
+@Service
+public class QueryEmbeddingCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final String modelName;
+    private final int dimensions;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final Map<String, float[]> lruCache;
+
+    // 统计信息
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong missNanos = new AtomicLong();
+
+    public QueryEmbeddingCache(@Value("${spring.ai.openai.embedding.options.model:text-embedding-3-small}") String modelName,
+                               @Value("${spring.ai.openai.embedding.options.dimensions:1536}") int dimensions,
+                               @Value("${app.embedding.query-cache.enabled:true}") boolean enabled,
+                               @Value("${app.embedding.query-cache.max-entries:2000}") int maxEntries) {
+        this.modelName = modelName;
+        this.dimensions = dimensions;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.lruCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                if (size() > QueryEmbeddingCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 获取查询文本的向量，未命中时由loader计算原始查询文本并写入缓存
+     *
+     * @param query 查询文本
+     * @param loader 实际调用embedding模型的函数
+     */
+    public float[] embed(String query, Function<String, float[]> loader) {
+        if (!enabled || query == null) {
+            return loader.apply(query);
+        }
+
+        String normalized = normalize(query);
+        String key = modelName + ':' + dimensions + ':' + normalized;
+        synchronized (lruCache) {
+            float[] cached = lruCache.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached.clone();
+            }
+        }
+
+        // 不持有锁调用模型，并发的相同查询可能各自计算一次
+        long start = System.nanoTime();
+        float[] embedding = loader.apply(query);
+        missNanos.addAndGet(System.nanoTime() - start);
+        misses.incrementAndGet();
+
+        synchronized (lruCache) {
+            lruCache.put(key, embedding.clone());
+        }
+        return embedding;
+    }
+
+    /**
+     * 批量获取多个查询文本的向量：已缓存的直接返回，未命中的通过loader一次批量计算并写入缓存，
+     * 之后这些查询经过embed(String)检索时都会命中缓存
+     *
+     * @param queries 查询文本
+     * @param loader 实际调用embedding模型批量接口的函数
+     */
+    public List<float[]> embedAll(List<String> queries, Function<List<String>, List<float[]>> loader) {
+        if (!enabled) {
+            return loader.apply(queries);
+        }
+
+        float[][] embeddings = new float[queries.size()][];
+        List<String> missingKeys = new ArrayList<>();
+        List<String> missingTexts = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        synchronized (lruCache) {
+            for (int i = 0; i < queries.size(); i++) {
+                String key = modelName + ':' + dimensions + ':' + normalize(queries.get(i));
+                float[] cached = lruCache.get(key);
+                if (cached != null) {
+                    embeddings[i] = cached.clone();
+                    hits.incrementAndGet();
+                } else {
+                    missingKeys.add(key);
+                    missingTexts.add(queries.get(i));
+                    missingIndexes.add(i);
+                }
+            }
+        }
+
+        if (!missingTexts.isEmpty()) {
+            long start = System.nanoTime();
+            List<float[]> loaded = loader.apply(missingTexts);
+            missNanos.addAndGet(System.nanoTime() - start);
+            misses.addAndGet(missingTexts.size());
+
+            synchronized (lruCache) {
+                for (int i = 0; i < loaded.size(); i++) {
+                    lruCache.put(missingKeys.get(i), loaded.get(i).clone());
+                    embeddings[missingIndexes.get(i)] = loaded.get(i);
+                }
+            }
+        }
+        return Arrays.asList(embeddings);
+    }
+
+    /**
+     * 包装EmbeddingModel，只有单条文本的embed(String)经过缓存，其余调用直接转发
+     */
+    public EmbeddingModel decorate(EmbeddingModel delegate) {
+        return new CachingEmbeddingModel(delegate, this);
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long total = hitCount + missCount;
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("evictions", evictions.get());
+        stats.put("hit_ratio", total == 0 ? 0.0 : (double) hitCount / total);
+        stats.put("avg_miss_millis", missCount == 0 ? 0 : missNanos.get() / missCount / 1_000_000);
+        stats.put("max_entries", maxEntries);
+        synchronized (lruCache) {
+            stats.put("entries", lruCache.size());
+        }
+        return stats;
+    }
+
+    /**
+     * 规范化查询文本：Unicode NFKC（全角字母数字转半角）、去除首尾空白、连续空白合并为一个空格
+     */
+    static String normalize(String query) {
+        String normalized = Normalizer.normalize(query, Normalizer.Form.NFKC);
+        return WHITESPACE.matcher(normalized.strip()).replaceAll(" ");
+    }
+
+    /**
+     * 带查询向量缓存的EmbeddingModel
+     */
+    private static class CachingEmbeddingModel implements EmbeddingModel {
+
+        private final EmbeddingModel delegate;
+        private final QueryEmbeddingCache cache;
+
+        CachingEmbeddingModel(EmbeddingModel delegate, QueryEmbeddingCache cache) {
+            this.delegate = delegate;
+            this.cache = cache;
+        }
+
+        @Override
+        public float[] embed(String text) {
+            return cache.embed(text, delegate::embed);
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            return delegate.call(request);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return delegate.embed(document);
+        }
+
+        @Override
+        public List<float[]> embed(List<String> texts) {
+            return delegate.embed(texts);
+        }
+
+        @Override
+        public List<float[]> embed(List<Document> documents, EmbeddingOptions options, BatchingStrategy batchingStrategy) {
+            return delegate.embed(documents, options, batchingStrategy);
+        }
+
+        @Override
+        public EmbeddingResponse embedForResponse(List<String> texts) {
+            return delegate.embedForResponse(texts);
+        }
+
+        @Override
+        public int dimensions() {
+            return delegate.dimensions();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 检索结果缓存服务
+ * 以"检索方式 + 规范化后的查询 + 类别/过滤条件 + topK + 阈值 + 知识库版本号"为键在进程内LRU中保存检索结果。
+ * 知识库版本号（epoch）在文档新增、更新和删除时递增：不带类别的检索使用全局版本号，任何变化都使其失效；
+ * 按类别的检索使用该类别的版本号，只有该类别的文档变化（或无法确定类别的删除）才使其失效。
+ * 版本号在检索前读取，检索过程中知识库发生变化时结果写入旧版本号的键，不会被之后的检索读到，因此不需要TTL。
+ * 版本号只在本进程内递增，多实例部署时其他实例的写入不会使本实例的缓存失效。
+ * 版本号递增前先通知监听器（如只读副本路由记录主库WAL位置），保证新版本号下的检索读到的是变化后的数据。
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Service
+public class RetrievalResultCache {
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final Map<CacheKey, List<Document>> lruCache;
+
+    // 全局版本号：任何变化都递增
+    private final AtomicLong globalEpoch = new AtomicLong();
+    // 所有类别共同的版本号：无法确定类别的变化（如按文件名删除、清空知识库）时递增
+    private final AtomicLong allCategoriesEpoch = new AtomicLong();
+    private final Map<String, Long> categoryEpochs = new ConcurrentHashMap<>();
+    private final List<Runnable> invalidationListeners = new CopyOnWriteArrayList<>();
+
+    // 统计信息
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public RetrievalResultCache(@Value("${app.rag.result-cache.enabled:true}") boolean enabled,
+                                @Value("${app.rag.result-cache.max-entries:1000}") int maxEntries) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.lruCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, List<Document>> eldest) {
+                if (size() > RetrievalResultCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 获取检索结果，未命中时由loader检索并写入缓存；检索失败时不缓存
+     *
+     * @param request 检索参数
+     * @param loader 实际执行检索的函数
+     */
+    public List<Document> get(RetrievalKey request, Supplier<List<Document>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+
+        CacheKey key = new CacheKey(request.mode(), QueryEmbeddingCache.normalize(request.query()), request.category(),
+                request.filter(), request.topK(), request.similarityThreshold(), epochOf(request));
+        synchronized (lruCache) {
+            List<Document> cached = lruCache.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        // 不持有锁执行检索，并发的相同检索可能各自执行一次
+        List<Document> results = List.copyOf(loader.get());
+        misses.incrementAndGet();
+        synchronized (lruCache) {
+            lruCache.put(key, results);
+        }
+        return results;
+    }
+
+    /**
+     * 注册知识库变化监听器，在版本号递增之前调用
+     */
+    public void addInvalidationListener(Runnable listener) {
+        invalidationListeners.add(listener);
+    }
+
+    /**
+     * 某个类别的文档发生变化
+     * 不带类别的检索和该类别的检索失效；category为空时表示变化的文档块没有类别，只影响不带类别的检索
+     */
+    public void invalidateCategory(String category) {
+        invalidationListeners.forEach(Runnable::run);
+        globalEpoch.incrementAndGet();
+        if (StringUtils.hasText(category)) {
+            categoryEpochs.merge(category, 1L, Long::sum);
+        }
+        invalidations.incrementAndGet();
+        synchronized (lruCache) {
+            lruCache.keySet().removeIf(key -> key.category() == null || key.category().equals(category));
+        }
+        log.debug("类别 '{}' 的文档发生变化，知识库版本号递增为 {}", category, globalEpoch.get());
+    }
+
+    /**
+     * 无法确定类别的变化，所有检索结果失效
+     */
+    public void invalidateAll() {
+        invalidationListeners.forEach(Runnable::run);
+        globalEpoch.incrementAndGet();
+        allCategoriesEpoch.incrementAndGet();
+        invalidations.incrementAndGet();
+        synchronized (lruCache) {
+            lruCache.clear();
+        }
+        log.debug("知识库发生变化，所有检索结果缓存失效，版本号递增为 {}", globalEpoch.get());
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long total = hitCount + missCount;
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        stats.put("hit_ratio", total == 0 ? 0.0 : (double) hitCount / total);
+        stats.put("epoch", globalEpoch.get());
+        stats.put("category_epochs", new HashMap<>(categoryEpochs));
+        stats.put("max_entries", maxEntries);
+        synchronized (lruCache) {
+            stats.put("entries", lruCache.size());
+        }
+        return stats;
+    }
+
+    /**
+     * 只按类别过滤的检索使用类别版本号，其余使用全局版本号
+     */
+    private String epochOf(RetrievalKey request) {
+        if (request.category() != null && request.filter() == null) {
+            return allCategoriesEpoch.get() + "." + categoryEpochs.getOrDefault(request.category(), 0L);
+        }
+        return String.valueOf(globalEpoch.get());
+    }
+
+    /**
+     * 检索参数
+     *
+     * @param mode 检索方式，如vector、hybrid、multi、rag
+     * @param category 类别，为null时不按类别过滤
+     * @param filter 其他过滤条件的文本形式，为null时没有其他过滤条件
+     */
+    public record RetrievalKey(String mode, String query, String category, String filter, int topK,
+                               double similarityThreshold) {
+    }
+
+    private record CacheKey(String mode, String query, String category, String filter, int topK,
+                            double similarityThreshold, String epoch) {
+    }
+}
@@ -0,0 +1,380 @@
+package com.example.service;
+
+import com.example.service.DocumentRegistry.SourceFileState;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 监控目录批量入库服务
+ * 启动时扫描配置的目录，之后通过WatchService监听新增和修改的文件，按子目录映射类别后交给DocumentService处理。
+ * 文件在一段时间内不再变化后才会处理，避免读取到尚在复制中的文件；
+ * 并发处理数和等待处理的文件数都有上限，达到上限时扫描和事件处理暂停，直到有文件处理完成。
+ * 处理完成的文件连同修改时间记录在documents表中，服务重启后只处理新增、修改或上次未处理完成的文件。
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Service
+public class WatchFolderIngestionService {
+
+    private static final String DOCUMENT_ID_PREFIX = "watch:";
+
+    private final DocumentService documentService;
+    private final DocumentRegistry documentRegistry;
+    private final boolean enabled;
+    private final Path watchDirectory;
+    private final Map<String, String> categoryMapping;
+    private final String defaultCategory;
+    private final int concurrency;
+    private final long settleMillis;
+
+    // 已提交但尚未处理完成的文件数上限，获取不到许可时扫描线程阻塞
+    private final Semaphore pendingPermits;
+    private final int maxPending;
+
+    // 正在排队或处理中的文件，值表示处理期间文件是否再次发生变化
+    private final Map<Path, Boolean> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong processedFiles = new AtomicLong();
+    private final AtomicLong skippedFiles = new AtomicLong();
+    private final AtomicLong failedFiles = new AtomicLong();
+    private volatile Date lastScanTime;
+    private volatile boolean rescanRequested;
+    private volatile boolean running;
+
+    private ExecutorService ingestionExecutor;
+    private WatchService watchService;
+    private Thread watchThread;
+
+    public WatchFolderIngestionService(DocumentService documentService, DocumentRegistry documentRegistry,
+                                       @Value("${app.ingestion.watch.enabled:false}") boolean enabled,
+                                       @Value("${app.ingestion.watch.directory:watch/}") String directory,
+                                       @Value("${app.ingestion.watch.category-mapping:}") String categoryMapping,
+                                       @Value("${app.ingestion.watch.default-category:}") String defaultCategory,
+                                       @Value("${app.ingestion.watch.concurrency:2}") int concurrency,
+                                       @Value("${app.ingestion.watch.max-pending:16}") int maxPending,
+                                       @Value("${app.ingestion.watch.settle-millis:2000}") long settleMillis) {
+        this.documentService = documentService;
+        this.documentRegistry = documentRegistry;
+        this.enabled = enabled;
+        this.watchDirectory = Paths.get(directory).toAbsolutePath().normalize();
+        this.categoryMapping = parseCategoryMapping(categoryMapping);
+        this.defaultCategory = defaultCategory == null || defaultCategory.isBlank() ? null : defaultCategory.trim();
+        this.concurrency = Math.max(1, concurrency);
+        this.maxPending = Math.max(this.concurrency, maxPending);
+        this.pendingPermits = new Semaphore(this.maxPending);
+        this.settleMillis = settleMillis;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        Files.createDirectories(watchDirectory);
+        watchService = watchDirectory.getFileSystem().newWatchService();
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        ingestionExecutor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "watch-ingest-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        running = true;
+        watchThread = new Thread(this::watchLoop, "watch-folder");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        log.info("开始监控目录: {} (并发数 {}, 等待上限 {})", watchDirectory, concurrency, maxPending);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.warn("关闭目录监控失败", e);
+            }
+        }
+        if (watchThread != null) {
+            watchThread.interrupt();
+        }
+        if (ingestionExecutor != null) {
+            ingestionExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 请求重新扫描整个目录，例如目录内容在服务之外被批量替换后
+     */
+    public void requestRescan() {
+        if (!running) {
+            throw new IllegalStateException("目录监控未启用");
+        }
+        rescanRequested = true;
+    }
+
+    /**
+     * 获取监控状态
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("enabled", enabled);
+        status.put("running", running);
+        status.put("directory", watchDirectory.toString());
+        status.put("categoryMapping", categoryMapping);
+        status.put("concurrency", concurrency);
+        status.put("maxPending", maxPending);
+        status.put("inFlightFiles", inFlight.size());
+        status.put("processedFiles", processedFiles.get());
+        status.put("skippedFiles", skippedFiles.get());
+        status.put("failedFiles", failedFiles.get());
+        status.put("lastScanTime", lastScanTime);
+        return status;
+    }
+
+    private void watchLoop() {
+        // 文件最近一次发生变化的时间，超过settleMillis未再变化后才提交处理
+        Map<Path, Long> changedFiles = new LinkedHashMap<>();
+
+        try {
+            registerAll(watchDirectory);
+            scan();
+
+            while (running) {
+                WatchKey key = watchService.poll(settleMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    handleEvents(key, changedFiles);
+                }
+                if (rescanRequested) {
+                    rescanRequested = false;
+                    scan();
+                }
+                dispatchSettled(changedFiles);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("目录监控异常终止: {}", watchDirectory, e);
+        } finally {
+            running = false;
+        }
+    }
+
+    private void handleEvents(WatchKey key, Map<Path, Long> changedFiles) throws IOException {
+        Path directory = (Path) key.watchable();
+        long now = System.currentTimeMillis();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // 事件丢失，通过重新扫描补齐
+                log.warn("目录监控事件溢出，将重新扫描: {}", watchDirectory);
+                rescanRequested = true;
+                continue;
+            }
+
+            Path path = directory.resolve((Path) event.context());
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    // 新建或移入的子目录，注册监听并处理其中已有的文件
+                    registerAll(path);
+                    try (Stream<Path> files = Files.walk(path)) {
+                        files.filter(this::isCandidate).forEach(file -> changedFiles.put(file, now));
+                    }
+                }
+            } else if (event.kind() != StandardWatchEventKinds.ENTRY_DELETE && isCandidate(path)) {
+                changedFiles.put(path, now);
+            }
+        }
+        key.reset();
+    }
+
+    private void dispatchSettled(Map<Path, Long> changedFiles) throws InterruptedException {
+        long settledBefore = System.currentTimeMillis() - settleMillis;
+        for (Iterator<Map.Entry<Path, Long>> iterator = changedFiles.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Path, Long> entry = iterator.next();
+            if (entry.getValue() <= settledBefore) {
+                iterator.remove();
+                if (Files.isRegularFile(entry.getKey())) {
+                    submit(entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * 扫描整个目录，提交新增、修改或上次未处理完成的文件
+     */
+    private void scan() throws IOException, InterruptedException {
+        Map<String, SourceFileState> processedSources = documentRegistry.findProcessedSourceFiles();
+        int submitted = 0;
+        int unchanged = 0;
+
+        try (Stream<Path> files = Files.walk(watchDirectory)) {
+            for (Iterator<Path> iterator = files.filter(this::isCandidate).iterator(); iterator.hasNext(); ) {
+                Path file = iterator.next();
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                SourceFileState state = processedSources.get(sourcePath(file));
+                if (state != null && state.fileSize() == attributes.size()
+                        && state.lastModified() == attributes.lastModifiedTime().toMillis()) {
+                    unchanged++;
+                    continue;
+                }
+                submit(file);
+                submitted++;
+            }
+        }
+
+        skippedFiles.addAndGet(unchanged);
+        lastScanTime = new Date();
+        log.info("扫描监控目录完成: 提交 {} 个文件, 跳过 {} 个未变化的文件", submitted, unchanged);
+    }
+
+    /**
+     * 提交文件处理，等待处理的文件达到上限时阻塞
+     * 文件正在处理时只做标记，处理完成后再处理一次
+     */
+    private void submit(Path file) throws InterruptedException {
+        boolean[] queued = new boolean[1];
+        inFlight.compute(file, (path, rerun) -> {
+            queued[0] = rerun == null;
+            return rerun != null;
+        });
+        if (!queued[0]) {
+            return;
+        }
+
+        pendingPermits.acquire();
+        try {
+            ingestionExecutor.execute(() -> {
+                try {
+                    do {
+                        process(file);
+                    } while (inFlight.computeIfPresent(file, (path, rerun) -> rerun ? false : null) != null);
+                } finally {
+                    pendingPermits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(file);
+            pendingPermits.release();
+            throw e;
+        }
+    }
+
+    private void process(Path file) {
+        String sourcePath = sourcePath(file);
+        try {
+            if (!Files.isRegularFile(file)) {
+                return;
+            }
+            // 先记录修改时间，处理期间文件再次修改时重启后仍会重新处理
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            String documentId = documentIdFor(sourcePath);
+
+            String message = documentService.processLocalFile(file, resolveCategory(sourcePath), documentId);
+            documentRegistry.recordSourceFile(documentId, sourcePath, lastModified);
+            processedFiles.incrementAndGet();
+            log.info("监控目录文件处理完成: {} - {}", sourcePath, message);
+
+        } catch (Exception e) {
+            failedFiles.incrementAndGet();
+            log.error("监控目录文件处理失败: {}", sourcePath, e);
+        }
+    }
+
+    private void registerAll(Path root) throws IOException {
+        try (Stream<Path> directories = Files.walk(root)) {
+            for (Iterator<Path> iterator = directories.filter(Files::isDirectory).iterator(); iterator.hasNext(); ) {
+                iterator.next().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+    }
+
+    /**
+     * 是否是需要处理的文件，忽略隐藏文件（编辑器和复制工具的临时文件通常以.开头）和不支持的类型
+     */
+    private boolean isCandidate(Path path) {
+        String filename = path.getFileName().toString();
+        return !filename.startsWith(".") && documentService.isSupportedDocumentType(filename)
+                && Files.isRegularFile(path);
+    }
+
+    /**
+     * 相对于监控目录的路径，统一使用/分隔
+     */
+    private String sourcePath(Path file) {
+        return watchDirectory.relativize(file.toAbsolutePath().normalize()).toString()
+                .replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * 按一级子目录确定类别：已配置映射的使用映射的类别，否则使用目录名；根目录下的文件使用默认类别
+     */
+    private String resolveCategory(String sourcePath) {
+        int separator = sourcePath.indexOf('/');
+        if (separator < 0) {
+            return defaultCategory;
+        }
+        String directory = sourcePath.substring(0, separator);
+        return categoryMapping.getOrDefault(directory, directory);
+    }
+
+    /**
+     * 监控目录中的文件以相对路径作为身份，不同子目录下的同名文件是不同的文档
+     */
+    private static String documentIdFor(String sourcePath) {
+        return UUID.nameUUIDFromBytes((DOCUMENT_ID_PREFIX + sourcePath).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * 解析"目录=类别"形式、逗号分隔的类别映射
+     */
+    private static Map<String, String> parseCategoryMapping(String mapping) {
+        Map<String, String> result = new LinkedHashMap<>();
+        if (mapping == null || mapping.isBlank()) {
+            return result;
+        }
+        for (String entry : mapping.split(",")) {
+            int separator = entry.indexOf('=');
+            if (separator <= 0 || separator == entry.length() - 1) {
+                throw new IllegalArgumentException("类别映射格式错误，应为 目录=类别: " + entry);
+            }
+            result.put(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.splitter;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.knuddels.jtokkit.api.IntArrayList;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 低分配、可并行的Token文本分割器
+ * 分块边界与TokenTextSplitter完全一致，但避免了原实现中的主要开销：
+ * 整篇文本只编码一次并以int数组保存（不装箱为List&lt;Integer&gt;），分块解码复用线程内缓冲区，
+ * 截断后的分块只计数不再生成token列表，句末标点通过一次反向扫描查找；
+ * 多个文档（如PDF的各页）在ForkJoin线程池中并行分割，结果保持输入顺序。
+ *
+ * @author AI Assistant
+ */
+public class FastTokenTextSplitter extends TokenTextSplitter {
+
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private final int chunkSize;
+    private final int minChunkSizeChars;
+    private final int minChunkLengthToEmbed;
+    private final int maxNumChunks;
+    private final boolean keepSeparator;
+    private final ForkJoinPool pool;
+
+    // 每个线程复用的分块token缓冲区
+    private final ThreadLocal<IntArrayList> chunkBuffer;
+
+    public FastTokenTextSplitter(int chunkSize, int minChunkSizeChars, int minChunkLengthToEmbed,
+                                 int maxNumChunks, boolean keepSeparator) {
+        this(chunkSize, minChunkSizeChars, minChunkLengthToEmbed, maxNumChunks, keepSeparator,
+                ForkJoinPool.commonPool());
+    }
+
+    public FastTokenTextSplitter(int chunkSize, int minChunkSizeChars, int minChunkLengthToEmbed,
+                                 int maxNumChunks, boolean keepSeparator, ForkJoinPool pool) {
+        super(chunkSize, minChunkSizeChars, minChunkLengthToEmbed, maxNumChunks, keepSeparator);
+        this.chunkSize = chunkSize;
+        this.minChunkSizeChars = minChunkSizeChars;
+        this.minChunkLengthToEmbed = minChunkLengthToEmbed;
+        this.maxNumChunks = maxNumChunks;
+        this.keepSeparator = keepSeparator;
+        this.pool = pool;
+        this.chunkBuffer = ThreadLocal.withInitial(() -> new IntArrayList(chunkSize));
+    }
+
+    @Override
+    public List<Document> apply(List<Document> documents) {
+        return split(documents);
+    }
+
+    /**
+     * 并行分割多个文档，每个文档内部的分割是顺序的
+     */
+    @Override
+    public List<Document> split(List<Document> documents) {
+        if (documents.size() < 2) {
+            return documents.isEmpty() ? new ArrayList<>() : splitDocument(documents.get(0));
+        }
+
+        List<List<Document>> splitDocuments = pool.submit(() -> documents.parallelStream()
+                .map(this::splitDocument)
+                .toList()).join();
+
+        List<Document> result = new ArrayList<>();
+        splitDocuments.forEach(result::addAll);
+        return result;
+    }
+
+    @Override
+    protected List<String> doSplit(String text, int chunkSize) {
+        if (text == null || isBlank(text)) {
+            return new ArrayList<>();
+        }
+
+        IntArrayList tokens = encoding.encode(text);
+        IntArrayList window = chunkBuffer.get();
+        List<String> chunks = new ArrayList<>();
+        int size = tokens.size();
+        int start = 0;
+        int numChunks = 0;
+
+        while (start < size && numChunks < maxNumChunks) {
+            int end = Math.min(start + chunkSize, size);
+            copyRange(tokens, start, end, window);
+            String chunkText = encoding.decode(window);
+
+            // 跳过空白分块
+            if (isBlank(chunkText)) {
+                start = end;
+                continue;
+            }
+
+            // 在最后一个句末标点或换行处截断
+            int lastPunctuation = lastPunctuation(chunkText);
+            if (lastPunctuation != -1 && lastPunctuation > minChunkSizeChars) {
+                chunkText = chunkText.substring(0, lastPunctuation + 1);
+            }
+
+            String chunkTextToAppend = keepSeparator ? chunkText.trim()
+                    : chunkText.replace(System.lineSeparator(), " ").trim();
+            if (chunkTextToAppend.length() > minChunkLengthToEmbed) {
+                chunks.add(chunkTextToAppend);
+            }
+
+            // 与原实现一样以分块文本重新分词后的长度前进，只计数不生成token列表
+            start += Math.min(encoding.countTokens(chunkText), size - start);
+            numChunks++;
+        }
+
+        // 超过最大分块数后剩余的内容合并为最后一个分块
+        if (start < size) {
+            copyRange(tokens, start, size, window);
+            String remainingText = encoding.decode(window).replace(System.lineSeparator(), " ").trim();
+            if (remainingText.length() > minChunkLengthToEmbed) {
+                chunks.add(remainingText);
+            }
+        }
+
+        return chunks;
+    }
+
+    /**
+     * 分割单个文档，元数据和内容格式化器的复制规则与TextSplitter一致
+     */
+    private List<Document> splitDocument(Document document) {
+        List<String> chunks = splitText(document.getText());
+        List<Document> result = new ArrayList<>(chunks.size());
+        for (String chunk : chunks) {
+            Map<String, Object> metadata = new HashMap<>();
+            document.getMetadata().forEach((key, value) -> {
+                if (key != null && value != null) {
+                    metadata.put(key, value);
+                }
+            });
+            Document chunkDocument = new Document(chunk, metadata);
+            if (isCopyContentFormatter()) {
+                chunkDocument.setContentFormatter(document.getContentFormatter());
+            }
+            result.add(chunkDocument);
+        }
+        return result;
+    }
+
+    private static void copyRange(IntArrayList source, int start, int end, IntArrayList target) {
+        target.clear();
+        for (int i = start; i < end; i++) {
+            target.add(source.get(i));
+        }
+    }
+
+    /**
+     * 与String.trim().isEmpty()等价，但不创建新字符串
+     */
+    private static boolean isBlank(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 一次反向扫描找出'.'、'?'、'!'、'\n'中最后出现的位置
+     */
+    private static int lastPunctuation(String text) {
+        for (int i = text.length() - 1; i >= 0; i--) {
+            char c = text.charAt(i);
+            if (c == '.' || c == '?' || c == '!' || c == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.splitter;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.knuddels.jtokkit.api.IntArrayList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * 流式Token文本分割器
+ * 通过NIO按固定大小的缓冲区增量读取文本，边读边分词边分块，峰值内存与文件大小无关。
+ * 分块规则与TokenTextSplitter一致：每次取chunkSize个token，在最后一个句末标点或换行处截断，
+ * 未被当前分块消费的token保留到下一轮，因此跨缓冲区边界的内容也能正确衔接。
+ *
+ * @author AI Assistant
+ */
+public class StreamingTextSplitter {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private final int chunkSize;
+    private final int minChunkSizeChars;
+    private final int minChunkLengthToEmbed;
+    private final boolean keepSeparator;
+    private final int bufferSize;
+
+    public StreamingTextSplitter(int chunkSize, int minChunkSizeChars, int minChunkLengthToEmbed, boolean keepSeparator) {
+        this(chunkSize, minChunkSizeChars, minChunkLengthToEmbed, keepSeparator, DEFAULT_BUFFER_SIZE);
+    }
+
+    public StreamingTextSplitter(int chunkSize, int minChunkSizeChars, int minChunkLengthToEmbed,
+                                 boolean keepSeparator, int bufferSize) {
+        this.chunkSize = chunkSize;
+        this.minChunkSizeChars = minChunkSizeChars;
+        this.minChunkLengthToEmbed = minChunkLengthToEmbed;
+        this.keepSeparator = keepSeparator;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * 流式分割文件
+     *
+     * @param file 文本文件
+     * @param charset 文件编码
+     * @param chunkConsumer 每产生一个分块就回调一次
+     * @return 产生的分块数量
+     */
+    public int split(Path file, Charset charset, Consumer<String> chunkConsumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return split(channel, charset, chunkConsumer);
+        }
+    }
+
+    /**
+     * 流式分割任意字节通道
+     */
+    public int split(ReadableByteChannel channel, Charset charset, Consumer<String> chunkConsumer) throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        ByteBuffer bytes = ByteBuffer.allocate(bufferSize);
+        CharBuffer chars = CharBuffer.allocate(bufferSize);
+        StringBuilder pendingText = new StringBuilder();
+        TokenWindow window = new TokenWindow();
+        int emitted = 0;
+
+        boolean eof = false;
+        while (!eof) {
+            eof = channel.read(bytes) < 0;
+            bytes.flip();
+            decoder.decode(bytes, chars, eof);
+            if (eof) {
+                decoder.flush(chars);
+            }
+            bytes.compact();
+
+            chars.flip();
+            pendingText.append(chars);
+            chars.clear();
+
+            // 只对能安全断开的前缀分词，保证与整体分词的结果一致
+            int cut = eof ? pendingText.length() : findSafeCut(pendingText);
+            if (cut > 0) {
+                window.append(encoding.encode(pendingText.substring(0, cut)));
+                pendingText.delete(0, cut);
+            }
+
+            emitted += emitChunks(window, eof, chunkConsumer);
+        }
+
+        return emitted;
+    }
+
+    /**
+     * 在窗口内有足够token时持续产生分块；到达文件末尾时处理剩余全部token
+     */
+    private int emitChunks(TokenWindow window, boolean eof, Consumer<String> chunkConsumer) {
+        int emitted = 0;
+        IntArrayList chunkTokens = new IntArrayList(chunkSize);
+
+        while (window.available() >= chunkSize || (eof && window.available() > 0)) {
+            int size = Math.min(chunkSize, window.available());
+            window.copyTo(chunkTokens, size);
+            String chunkText = encoding.decode(chunkTokens);
+
+            // 跳过空白分块
+            if (chunkText.trim().isEmpty()) {
+                window.consume(size);
+                continue;
+            }
+
+            // 在最后一个句末标点或换行处截断
+            int lastPunctuation = Math.max(chunkText.lastIndexOf('.'), Math.max(chunkText.lastIndexOf('?'),
+                    Math.max(chunkText.lastIndexOf('!'), chunkText.lastIndexOf('\n'))));
+            if (lastPunctuation != -1 && lastPunctuation > minChunkSizeChars) {
+                chunkText = chunkText.substring(0, lastPunctuation + 1);
+            }
+
+            String chunkTextToEmit = keepSeparator ? chunkText.trim()
+                    : chunkText.replace(System.lineSeparator(), " ").trim();
+            if (chunkTextToEmit.length() > minChunkLengthToEmbed) {
+                chunkConsumer.accept(chunkTextToEmit);
+                emitted++;
+            }
+
+            // 截断后剩余的token留给下一个分块
+            window.consume(Math.min(encoding.countTokens(chunkText), window.available()));
+        }
+
+        window.compact();
+        return emitted;
+    }
+
+    /**
+     * 寻找可以安全断开分词的位置：断开前后的分词结果与不断开时一致
+     * 优先在换行之后断开，其次在单词或汉字与标点之间断开，都找不到时才在缓冲区末尾强制断开
+     */
+    private int findSafeCut(CharSequence text) {
+        int length = text.length();
+        // 保留最后一个字符作为前瞻
+        for (int i = length - 1; i > 0; i--) {
+            if (text.charAt(i - 1) == '\n' && !Character.isWhitespace(text.charAt(i))) {
+                return i;
+            }
+        }
+        for (int i = length - 1; i > 0; i--) {
+            char previous = text.charAt(i - 1);
+            char current = text.charAt(i);
+            if (Character.isLetter(previous) && !Character.isLetterOrDigit(current)
+                    && !Character.isWhitespace(current) && !Character.isSurrogate(current)) {
+                return i;
+            }
+        }
+        // 文本中没有任何边界时，避免无限累积，保留尾部避免拆分代理对
+        if (length > bufferSize * 4) {
+            int cut = length - 1;
+            return Character.isLowSurrogate(text.charAt(cut)) ? cut - 1 : cut;
+        }
+        return 0;
+    }
+
+    /**
+     * 可复用的token滑动窗口，避免对未消费token反复装箱和拷贝
+     */
+    private static final class TokenWindow {
+
+        private IntArrayList tokens = new IntArrayList();
+        private int start;
+
+        void append(IntArrayList newTokens) {
+            for (int i = 0; i < newTokens.size(); i++) {
+                tokens.add(newTokens.get(i));
+            }
+        }
+
+        int available() {
+            return tokens.size() - start;
+        }
+
+        void copyTo(IntArrayList target, int count) {
+            target.clear();
+            for (int i = 0; i < count; i++) {
+                target.add(tokens.get(start + i));
+            }
+        }
+
+        void consume(int count) {
+            start += count;
+        }
+
+        void compact() {
+            if (start == 0) {
+                return;
+            }
+            IntArrayList remaining = new IntArrayList(Math.max(16, available()));
+            for (int i = start; i < tokens.size(); i++) {
+                remaining.add(tokens.get(i));
+            }
+            tokens = remaining;
+            start = 0;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+
+/**
+ * 内容寻址的本地文档存储
+ * 文件以SHA-256内容哈希命名，按哈希前缀分两级目录存放（objects/ab/cd/abcd....pdf），
+ * 哈希在写入过程中流式计算，相同内容的文件只保存一份。
+ * 文件的引用关系记录在documents表中，由调用方在没有引用时删除文件。
+ * 同一哈希的保存和删除按哈希分段加锁串行执行；保存后到调用方登记引用之前文件处于待登记状态，
+ * 调用方登记引用（或放弃）后调用{@link #release(StoredFile)}，待登记的文件不会被删除。
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Component
+public class ContentAddressedDocumentStore {
+
+    private static final String OBJECT_DIRECTORY = "objects";
+    private static final String TEMP_DIRECTORY = "tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int LOCK_STRIPES = 64;
+
+    private final Path objectRoot;
+    private final Path tempRoot;
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+    /**
+     * 已保存、调用方尚未登记引用的文件及其未释放次数，键为相对路径
+     */
+    private final Map<String, Integer> pendingReferences = new ConcurrentHashMap<>();
+
+    public ContentAddressedDocumentStore(@Value("${app.document-storage-path:documents/}") String documentStoragePath) {
+        Path storageRoot = Paths.get(documentStoragePath);
+        this.objectRoot = storageRoot.resolve(OBJECT_DIRECTORY);
+        this.tempRoot = storageRoot.resolve(TEMP_DIRECTORY);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * 保存上传内容，边写入临时文件边计算哈希
+     *
+     * @param content 文件内容
+     * @param extension 文件扩展名（小写），保留在文件名中以便按类型解析
+     */
+    public StoredFile store(InputStream content, String extension) throws IOException {
+        Files.createDirectories(tempRoot);
+        Path tempFile = tempRoot.resolve(UUID.randomUUID() + ".tmp");
+        MessageDigest digest = newDigest();
+
+        long size = 0;
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                size += read;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+
+        return moveIntoStore(tempFile, HexFormat.of().formatHex(digest.digest()), extension, size);
+    }
+
+    /**
+     * 把已写好的文件（例如分片上传合并后的文件）加入存储，哈希通过顺序读取文件计算
+     * 文件以硬链接（不支持时复制）加入存储，原文件保持不变，处理失败后可以用它重试，由调用方在处理成功后删除
+     */
+    public StoredFile store(Path file, String extension) throws IOException {
+        MessageDigest digest = newDigest();
+        long size = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+                size += read;
+            }
+        }
+
+        Files.createDirectories(tempRoot);
+        Path tempFile = tempRoot.resolve(UUID.randomUUID() + ".tmp");
+        try {
+            Files.createLink(tempFile, file);
+        } catch (UnsupportedOperationException | IOException e) {
+            // 跨文件系统或不支持硬链接时复制
+            Files.copy(file, tempFile);
+        }
+
+        return moveIntoStore(tempFile, HexFormat.of().formatHex(digest.digest()), extension, size);
+    }
+
+    /**
+     * 获取内容对应的存储路径
+     */
+    public Path resolve(String contentHash, String extension) {
+        return objectRoot.resolve(relativePath(contentHash, extension));
+    }
+
+    /**
+     * 调用方已登记对文件的引用，或不再使用刚保存的文件
+     */
+    public void release(StoredFile stored) {
+        Lock lock = lockFor(stored.contentHash());
+        lock.lock();
+        try {
+            pendingReferences.computeIfPresent(relativePath(stored.contentHash(), stored.extension()),
+                    (path, count) -> count > 1 ? count - 1 : null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 文件没有待登记的保存且引用数为0时删除
+     * 引用数在哈希锁内统计，统计和删除期间相同内容的保存会等待，删除后重新写入文件
+     *
+     * @param referenceCount 统计documents表中对该文件的引用
+     * @return 是否删除了文件
+     */
+    public boolean deleteIfUnreferenced(String contentHash, String extension, IntSupplier referenceCount)
+            throws IOException {
+        Lock lock = lockFor(contentHash);
+        lock.lock();
+        try {
+            if (pendingReferences.containsKey(relativePath(contentHash, extension)) || referenceCount.getAsInt() > 0) {
+                return false;
+            }
+            return delete(contentHash, extension);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除文件，不检查引用
+     */
+    public boolean delete(String contentHash, String extension) throws IOException {
+        Lock lock = lockFor(contentHash);
+        lock.lock();
+        try {
+            boolean deleted = Files.deleteIfExists(resolve(contentHash, extension));
+            if (deleted) {
+                log.info("已删除未被引用的文档文件: {}", contentHash);
+            }
+            return deleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除全部已存储的文件，用于清空知识库
+     *
+     * @return 删除的文件数
+     */
+    public int deleteAll() throws IOException {
+        if (!Files.exists(objectRoot)) {
+            return 0;
+        }
+        int deleted = 0;
+        try (Stream<Path> paths = Files.walk(objectRoot)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                if (Files.isRegularFile(path)) {
+                    deleted++;
+                }
+                Files.deleteIfExists(path);
+            }
+        }
+        log.warn("已删除全部存储的文档文件: {} 个", deleted);
+        return deleted;
+    }
+
+    private StoredFile moveIntoStore(Path source, String contentHash, String extension, long size) throws IOException {
+        Path target = resolve(contentHash, extension);
+        Lock lock = lockFor(contentHash);
+        lock.lock();
+        try {
+            boolean existed = Files.exists(target);
+
+            if (existed) {
+                // 相同内容已存在，丢弃新写入的副本
+                Files.delete(source);
+                log.info("文档内容已存在，复用已存储的文件: {}", contentHash);
+            } else {
+                Files.createDirectories(target.getParent());
+                // 并发写入相同内容时原子替换，内容一致不影响结果
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                log.info("文档已保存到: {}", target);
+            }
+            pendingReferences.merge(relativePath(contentHash, extension), 1, Integer::sum);
+
+            return new StoredFile(contentHash, extension, target, size, existed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Lock lockFor(String contentHash) {
+        return locks[Math.floorMod(contentHash.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static String relativePath(String contentHash, String extension) {
+        String filename = extension.isEmpty() ? contentHash : contentHash + "." + extension;
+        return contentHash.substring(0, 2) + "/" + contentHash.substring(2, 4) + "/" + filename;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    /**
+     * 已保存的文件
+     *
+     * @param existed 保存前是否已存在相同内容的文件
+     */
+    public record StoredFile(String contentHash, String extension, Path path, long size, boolean existed) {
+
+        /**
+         * 相对于存储根目录的路径，记录在documents表中
+         */
+        public String relativePath() {
+            return OBJECT_DIRECTORY + "/" + ContentAddressedDocumentStore.relativePath(contentHash, extension);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.example.vectorstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore.PgDistanceType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * 按类别的向量检索
+ * vector_store的category是由metadata生成的列，写入路径不需要改动；文档块数达到min-chunks的类别建立部分HNSW索引
+ * （WHERE category = '...'），检索只在该类别的图中进行，不会因为全局索引的后过滤而返回不足topK个结果；
+ * 较小的类别关闭索引扫描，通过category上的B树索引取出该类别全部文档块后精确排序。类别始终作为参数绑定
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Component
+public class CategoryVectorSearch {
+
+    static final String INDEX_PREFIX = "vector_store_category_hnsw_";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final PgVectorWriter vectorWriter;
+    private final EmbeddingModel embeddingModel;
+    private final SearchPlanner searchPlanner;
+
+    private final boolean enabled;
+    private final long minChunks;
+    private final PgDistanceType distanceType;
+    private final boolean initializeSchema;
+
+    // 已建立有效部分索引的类别
+    private volatile Set<String> indexedCategories = Set.of();
+
+    public CategoryVectorSearch(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper, PgVectorWriter vectorWriter,
+                                EmbeddingModel embeddingModel, SearchPlanner searchPlanner,
+                                @Value("${app.vectorstore.category-index.enabled:true}") boolean enabled,
+                                @Value("${app.vectorstore.category-index.min-chunks:10000}") long minChunks,
+                                @Value("${spring.ai.vectorstore.pgvector.distance-type:COSINE_DISTANCE}") PgDistanceType distanceType,
+                                @Value("${spring.ai.vectorstore.pgvector.initialize-schema:false}") boolean initializeSchema) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.vectorWriter = vectorWriter;
+        this.embeddingModel = embeddingModel;
+        this.searchPlanner = searchPlanner;
+        this.enabled = enabled;
+        this.minChunks = minChunks;
+        this.distanceType = distanceType;
+        this.initializeSchema = initializeSchema;
+    }
+
+    /**
+     * 应用启动完成后（VectorStoreSchema已创建category列）读取已有的部分索引；
+     * 开启initialize-schema时在后台为达到阈值的类别建立索引，不阻塞启动。启动完成前的检索都走精确路径
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        refreshIndexedCategories();
+        if (initializeSchema) {
+            Thread thread = new Thread(() -> {
+                try {
+                    syncIndexes();
+                } catch (Exception e) {
+                    log.warn("建立类别向量索引失败: {}", e.getMessage());
+                }
+            }, "category-index");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * 包装VectorStore，过滤条件包含 category == '...' 时按类别检索，其他请求交给delegate
+     */
+    public VectorStore decorate(VectorStore delegate) {
+        return enabled ? new CategoryVectorStore(delegate) : delegate;
+    }
+
+    /**
+     * 为文档块数达到min-chunks且还没有部分索引的类别建立索引
+     * 使用CONCURRENTLY建立，不阻塞写入；建立失败留下的无效索引会被删除，下次重试
+     *
+     * @return 新建索引的类别
+     */
+    public synchronized List<String> syncIndexes() {
+        if (!enabled) {
+            return List.of();
+        }
+        String table = vectorWriter.getQualifiedTableName();
+        List<String> candidates = jdbcTemplate.queryForList("SELECT category FROM " + table
+                + " WHERE category IS NOT NULL GROUP BY category HAVING count(*) >= ? ORDER BY count(*) DESC",
+                String.class, minChunks);
+
+        List<String> created = new ArrayList<>();
+        for (String category : candidates) {
+            if (indexedCategories.contains(category)) {
+                continue;
+            }
+            String indexName = indexName(category);
+            log.info("为类别 '{}' 建立部分向量索引 {}", category, indexName);
+            try {
+                jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + schemaQualified(indexName));
+                jdbcTemplate.execute(createIndexSql(table, indexName, category));
+                jdbcTemplate.execute("COMMENT ON INDEX " + schemaQualified(indexName) + " IS " + literal(category));
+                created.add(category);
+            } catch (Exception e) {
+                log.warn("为类别 '{}' 建立部分向量索引失败: {}", category, e.getMessage());
+                jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + schemaQualified(indexName));
+            }
+        }
+        refreshIndexedCategories();
+        return created;
+    }
+
+    /**
+     * 在一个类别中检索
+     *
+     * @param filter 类别之外的其他过滤条件，可以为null
+     * @return 按距离从小到大排列的文档块，score和distance与PgVectorStore的结果一致
+     */
+    public List<Document> search(String category, float[] query, int topK, double similarityThreshold,
+                                 Filter.Expression filter) {
+        boolean indexed = indexedCategories.contains(category);
+        SearchPlanner.SearchPlan plan = searchPlanner.planCategory(indexed, topK);
+        // 过滤条件作为参数绑定，不拼接进SQL
+        String jsonPathFilter = JsonPathFilterConverter.toJsonPath(filter);
+        String distance = QuantizedVectorSearch.distanceExpression(distanceType);
+        String sql = "SELECT id, content, metadata, " + distance + " AS distance FROM " + vectorWriter.getQualifiedTableName()
+                + " WHERE category = ? AND " + distance + " < ?"
+                + (jsonPathFilter != null ? JsonPathFilterConverter.CONDITION : "") + " ORDER BY distance LIMIT ?";
+        PGvector vector = new PGvector(query);
+
+        return jdbcTemplate.execute((ConnectionCallback<List<Document>>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement();
+                 PreparedStatement ps = connection.prepareStatement(sql)) {
+                if (indexed) {
+                    // 部分索引的条件是常量，通用执行计划无法匹配参数化的category，需要按实际参数生成计划
+                    statement.execute("SET LOCAL plan_cache_mode = force_custom_plan");
+                }
+                // 小类别不使用全局HNSW索引（后过滤会丢结果），计划为关闭索引扫描，通过category的位图扫描精确排序
+                searchPlanner.apply(statement, plan);
+                int index = 1;
+                ps.setObject(index++, vector);
+                ps.setString(index++, category);
+                ps.setObject(index++, vector);
+                ps.setDouble(index++, 1 - similarityThreshold);
+                if (jsonPathFilter != null) {
+                    ps.setString(index++, jsonPathFilter);
+                }
+                ps.setInt(index, topK);
+
+                List<Document> documents = new ArrayList<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        documents.add(QuantizedVectorSearch.toDocument(rs, objectMapper));
+                    }
+                }
+                connection.commit();
+                return documents;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+    /**
+     * 各类别的文档块数以及是否已有部分索引
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> categories = new LinkedHashMap<>();
+        jdbcTemplate.query("SELECT category, count(*) AS chunks FROM " + vectorWriter.getQualifiedTableName()
+                + " WHERE category IS NOT NULL GROUP BY category ORDER BY count(*) DESC", rs -> {
+            Map<String, Object> category = new LinkedHashMap<>();
+            category.put("chunks", rs.getLong("chunks"));
+            category.put("indexed", indexedCategories.contains(rs.getString("category")));
+            categories.put(rs.getString("category"), category);
+        });
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("min_chunks", minChunks);
+        status.put("indexed_categories", indexedCategories.size());
+        status.put("categories", categories);
+        return status;
+    }
+
+    private void refreshIndexedCategories() {
+        // 类别名保存在索引注释中，只统计建立完成的有效索引
+        List<String> categories = jdbcTemplate.queryForList("""
+                SELECT obj_description(x.indexrelid, 'pg_class')
+                FROM pg_index x
+                JOIN pg_class i ON i.oid = x.indexrelid
+                WHERE x.indrelid = ?::regclass AND x.indisvalid AND starts_with(i.relname, ?)
+                """, String.class, vectorWriter.getQualifiedTableName(), INDEX_PREFIX);
+        Set<String> indexed = new HashSet<>();
+        categories.stream().filter(category -> category != null).forEach(indexed::add);
+        indexedCategories = Set.copyOf(indexed);
+    }
+
+    String createIndexSql(String table, String indexName, String category) {
+        return "CREATE INDEX CONCURRENTLY IF NOT EXISTS " + indexName + " ON " + table + " USING hnsw (embedding vector_"
+                + QuantizedVectorSearch.operatorClassSuffix(distanceType) + "_ops) WHERE category = " + literal(category);
+    }
+
+    /**
+     * 类别名可能包含中文和任意字符，索引名使用类别名的摘要
+     */
+    static String indexName(String category) {
+        return INDEX_PREFIX + DigestUtils.md5DigestAsHex(category.getBytes(StandardCharsets.UTF_8)).substring(0, 12);
+    }
+
+    /**
+     * 部分索引的条件和注释只能使用常量，按SQL标准转义单引号
+     */
+    static String literal(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    /**
+     * 从过滤条件中拆出 category == '...'，支持单独的类别条件或与其他条件的AND组合
+     *
+     * @return 类别和剩余的过滤条件（可以为null）；不包含类别条件时为空
+     */
+    static Optional<CategoryFilter> splitCategory(Filter.Expression filter) {
+        if (filter == null) {
+            return Optional.empty();
+        }
+        String category = categoryOf(filter);
+        if (category != null) {
+            return Optional.of(new CategoryFilter(category, null));
+        }
+        if (filter.type() == Filter.ExpressionType.AND
+                && filter.left() instanceof Filter.Expression left && filter.right() instanceof Filter.Expression right) {
+            if ((category = categoryOf(left)) != null) {
+                return Optional.of(new CategoryFilter(category, right));
+            }
+            if ((category = categoryOf(right)) != null) {
+                return Optional.of(new CategoryFilter(category, left));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static String categoryOf(Filter.Expression expression) {
+        if (expression.type() == Filter.ExpressionType.EQ
+                && expression.left() instanceof Filter.Key key && "category".equals(key.key())
+                && expression.right() instanceof Filter.Value value && value.value() instanceof String category) {
+            return category;
+        }
+        return null;
+    }
+
+    private String schemaQualified(String indexName) {
+        String table = vectorWriter.getQualifiedTableName();
+        int dot = table.indexOf('.');
+        return (dot > 0 ? table.substring(0, dot) : "public") + "." + indexName;
+    }
+
+    record CategoryFilter(String category, Filter.Expression rest) {
+    }
+
+    /**
+     * 按类别检索的VectorStore
+     */
+    private class CategoryVectorStore implements VectorStore {
+
+        private final VectorStore delegate;
+
+        CategoryVectorStore(VectorStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void add(List<Document> documents) {
+            delegate.add(documents);
+        }
+
+        @Override
+        public void delete(List<String> idList) {
+            delegate.delete(idList);
+        }
+
+        @Override
+        public void delete(Filter.Expression filterExpression) {
+            delegate.delete(filterExpression);
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            Optional<CategoryFilter> categoryFilter = splitCategory(request.getFilterExpression());
+            if (categoryFilter.isEmpty()) {
+                return delegate.similaritySearch(request);
+            }
+            float[] query = embeddingModel.embed(request.getQuery());
+            return search(categoryFilter.get().category(), query, request.getTopK(), request.getSimilarityThreshold(),
+                    categoryFilter.get().rest());
+        }
+
+        @Override
+        public String getName() {
+            return delegate.getName();
+        }
+
+        @Override
+        public <T> Optional<T> getNativeClient() {
+            return delegate.getNativeClient();
+        }
+    }
+}
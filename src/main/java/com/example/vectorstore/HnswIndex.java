@@ -0,0 +1,411 @@
+package com.example.vectorstore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 进程内HNSW索引（余弦相似度）
+ * 向量归一化后按块存放在float[]中，邻接表是int[]，不为每个向量创建对象；
+ * 写入（单个写线程）持有写锁，检索持有读锁可以并发进行。删除只做标记，被删除的节点仍参与图的遍历但不会出现在结果中。
+ *
+ * @author AI Assistant
+ */
+public final class HnswIndex {
+
+    // 每个向量块存放的向量数
+    private static final int BLOCK_SHIFT = 10;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private static final Comparator<Neighbor> BEST_FIRST = Comparator.comparingDouble(Neighbor::similarity).reversed();
+    private static final Comparator<Neighbor> WORST_FIRST = Comparator.comparingDouble(Neighbor::similarity);
+
+    private final int dimensions;
+    private final int m;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<VisitedSet> visitedSets = ThreadLocal.withInitial(VisitedSet::new);
+
+    private float[][] vectorBlocks = new float[0][];
+    // links[node][level] = [邻居数, 邻居1, 邻居2, ...]
+    private int[][][] links = new int[BLOCK_SIZE][][];
+    private final BitSet deleted = new BitSet();
+    private int size;
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    /**
+     * @param dimensions 向量维度
+     * @param m 每个节点在上层的最大邻居数，第0层为2m
+     * @param efConstruction 构建时的候选列表大小
+     * @param seed 层数随机数种子
+     */
+    public HnswIndex(int dimensions, int m, int efConstruction, long seed) {
+        if (dimensions <= 0 || m < 2 || efConstruction < 1) {
+            throw new IllegalArgumentException("HNSW参数无效");
+        }
+        this.dimensions = dimensions;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.random = new Random(seed);
+    }
+
+    /**
+     * 添加向量
+     *
+     * @return 节点编号，从0开始连续分配
+     */
+    public int add(float[] vector) {
+        float[] normalized = normalize(vector);
+
+        lock.writeLock().lock();
+        try {
+            int node = size;
+            ensureCapacity(node + 1);
+            System.arraycopy(normalized, 0, vectorBlocks[node >> BLOCK_SHIFT], (node & BLOCK_MASK) * dimensions, dimensions);
+
+            int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+            int[][] nodeLinks = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                nodeLinks[l] = new int[1 + maxConnections(l)];
+            }
+            links[node] = nodeLinks;
+            size++;
+
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return node;
+            }
+
+            Neighbor current = greedyDescend(normalized, level);
+            List<Neighbor> entryPoints = List.of(current);
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                List<Neighbor> candidates = sortBestFirst(searchLayer(normalized, entryPoints, efConstruction, l));
+                for (Neighbor neighbor : selectNeighbors(candidates, m)) {
+                    appendLink(nodeLinks[l], neighbor.node());
+                    connect(neighbor.node(), node, neighbor.similarity(), l);
+                }
+                entryPoints = candidates;
+            }
+
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = node;
+            }
+            return node;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 标记节点已删除
+     */
+    public void markDeleted(int node) {
+        lock.writeLock().lock();
+        try {
+            if (node >= 0 && node < size && !deleted.get(node)) {
+                deleted.set(node);
+                deletedCount++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 检索与查询向量最相似的k个节点
+     *
+     * @param query 查询向量，不要求已归一化
+     * @param k 返回数量
+     * @param ef 第0层候选列表大小，越大召回率越高、耗时越长
+     * @param accept 过滤条件，只有通过的节点会出现在结果中
+     * @return 按相似度从高到低排列的结果，可能少于k个
+     */
+    public List<Neighbor> search(float[] query, int k, int ef, IntPredicate accept) {
+        float[] normalized = normalize(query);
+
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return List.of();
+            }
+            Neighbor current = greedyDescend(normalized, 0);
+            List<Neighbor> candidates = sortBestFirst(searchLayer(normalized, List.of(current), Math.max(ef, k), 0));
+
+            List<Neighbor> results = new ArrayList<>(k);
+            for (Neighbor candidate : candidates) {
+                if (!deleted.get(candidate.node()) && accept.test(candidate.node())) {
+                    results.add(candidate);
+                    if (results.size() == k) {
+                        break;
+                    }
+                }
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 节点总数（包括已删除的节点）
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int deletedCount() {
+        lock.readLock().lock();
+        try {
+            return deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * 从最高层贪心下降到targetLevel的上一层，返回下降终点
+     */
+    private Neighbor greedyDescend(float[] query, int targetLevel) {
+        int current = entryPoint;
+        float currentSimilarity = similarity(query, current);
+        for (int l = maxLevel; l > targetLevel; l--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                int[] neighbors = links[current][l];
+                for (int i = 1; i <= neighbors[0]; i++) {
+                    float s = similarity(query, neighbors[i]);
+                    if (s > currentSimilarity) {
+                        current = neighbors[i];
+                        currentSimilarity = s;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return new Neighbor(current, currentSimilarity);
+    }
+
+    /**
+     * 在指定层做best-first搜索，返回最多ef个最相似的节点（堆顶为最不相似的节点）
+     */
+    private PriorityQueue<Neighbor> searchLayer(float[] query, List<Neighbor> entryPoints, int ef, int level) {
+        VisitedSet visited = visitedSets.get();
+        visited.reset(size);
+
+        PriorityQueue<Neighbor> candidates = new PriorityQueue<>(BEST_FIRST);
+        PriorityQueue<Neighbor> results = new PriorityQueue<>(WORST_FIRST);
+        for (Neighbor entry : entryPoints) {
+            if (visited.visit(entry.node())) {
+                candidates.add(entry);
+                results.add(entry);
+                if (results.size() > ef) {
+                    results.poll();
+                }
+            }
+        }
+
+        while (!candidates.isEmpty()) {
+            Neighbor candidate = candidates.poll();
+            if (results.size() >= ef && candidate.similarity() < results.peek().similarity()) {
+                break;
+            }
+            int[] neighbors = links[candidate.node()][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int neighbor = neighbors[i];
+                if (!visited.visit(neighbor)) {
+                    continue;
+                }
+                float s = similarity(query, neighbor);
+                if (results.size() < ef || s > results.peek().similarity()) {
+                    Neighbor next = new Neighbor(neighbor, s);
+                    candidates.add(next);
+                    results.add(next);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 启发式邻居选择：候选只有比已选中的邻居更接近基准节点时才被选中，使邻居分布在不同方向；
+     * 不足max个时用被跳过的候选补齐
+     *
+     * @param candidates 按与基准节点的相似度从高到低排列的候选
+     */
+    private List<Neighbor> selectNeighbors(List<Neighbor> candidates, int max) {
+        List<Neighbor> selected = new ArrayList<>(max);
+        List<Neighbor> skipped = new ArrayList<>();
+        for (Neighbor candidate : candidates) {
+            if (selected.size() >= max) {
+                break;
+            }
+            boolean diverse = true;
+            for (Neighbor chosen : selected) {
+                if (similarity(candidate.node(), chosen.node()) > candidate.similarity()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            } else {
+                skipped.add(candidate);
+            }
+        }
+        for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+            selected.add(skipped.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * 为已有节点添加反向连接，超过上限时重新选择邻居
+     */
+    private void connect(int node, int newNeighbor, float similarity, int level) {
+        int[] nodeLinks = links[node][level];
+        int count = nodeLinks[0];
+        if (count < nodeLinks.length - 1) {
+            appendLink(nodeLinks, newNeighbor);
+            return;
+        }
+
+        List<Neighbor> candidates = new ArrayList<>(count + 1);
+        candidates.add(new Neighbor(newNeighbor, similarity));
+        for (int i = 1; i <= count; i++) {
+            candidates.add(new Neighbor(nodeLinks[i], similarity(node, nodeLinks[i])));
+        }
+        candidates.sort(BEST_FIRST);
+
+        List<Neighbor> selected = selectNeighbors(candidates, count);
+        Arrays.fill(nodeLinks, 0);
+        for (Neighbor neighbor : selected) {
+            appendLink(nodeLinks, neighbor.node());
+        }
+    }
+
+    private static void appendLink(int[] nodeLinks, int neighbor) {
+        nodeLinks[0]++;
+        nodeLinks[nodeLinks[0]] = neighbor;
+    }
+
+    private int maxConnections(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    private float similarity(float[] query, int node) {
+        float[] block = vectorBlocks[node >> BLOCK_SHIFT];
+        int offset = (node & BLOCK_MASK) * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += query[i] * block[offset + i];
+        }
+        return sum;
+    }
+
+    private float similarity(int a, int b) {
+        float[] blockA = vectorBlocks[a >> BLOCK_SHIFT];
+        float[] blockB = vectorBlocks[b >> BLOCK_SHIFT];
+        int offsetA = (a & BLOCK_MASK) * dimensions;
+        int offsetB = (b & BLOCK_MASK) * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += blockA[offsetA + i] * blockB[offsetB + i];
+        }
+        return sum;
+    }
+
+    private void ensureCapacity(int nodes) {
+        int blocks = (nodes + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        if (vectorBlocks.length < blocks) {
+            vectorBlocks = Arrays.copyOf(vectorBlocks, blocks);
+            vectorBlocks[blocks - 1] = new float[BLOCK_SIZE * dimensions];
+        }
+        if (links.length < nodes) {
+            links = Arrays.copyOf(links, Math.max(nodes, links.length * 2));
+        }
+    }
+
+    private float[] normalize(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("向量维度不一致: 期望 " + dimensions + ", 实际 " + vector.length);
+        }
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        float[] normalized = new float[dimensions];
+        float scale = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    private static List<Neighbor> sortBestFirst(PriorityQueue<Neighbor> queue) {
+        List<Neighbor> sorted = new ArrayList<>(queue);
+        sorted.sort(BEST_FIRST);
+        return sorted;
+    }
+
+    /**
+     * 检索结果：节点编号和余弦相似度
+     */
+    public record Neighbor(int node, float similarity) {
+    }
+
+    /**
+     * 每个线程复用的访问标记，用递增的代数代替每次清空数组
+     */
+    private static class VisitedSet {
+
+        private int[] marks = new int[0];
+        private int generation;
+
+        void reset(int size) {
+            if (marks.length < size) {
+                marks = new int[Math.max(size, marks.length * 2)];
+                generation = 0;
+            }
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        boolean visit(int node) {
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+    }
+}
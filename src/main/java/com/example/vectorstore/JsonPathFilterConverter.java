@@ -0,0 +1,34 @@
+package com.example.vectorstore;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorFilterExpressionConverter;
+
+/**
+ * 把过滤表达式转换为jsonpath条件，作为参数绑定到 metadata::jsonb @@ ?::jsonpath
+ * PgVectorFilterExpressionConverter只在字符串值两侧加双引号，这里先按jsonpath字符串字面量转义反斜杠和双引号；
+ * 转换结果不拼接进SQL，类别等来自请求参数的值中含有引号时既不会破坏语句也不会被当作SQL执行
+ *
+ * @author AI Assistant
+ */
+public class JsonPathFilterConverter extends PgVectorFilterExpressionConverter {
+
+    /**
+     * 过滤条件SQL，唯一的参数是{@link #toJsonPath(Filter.Expression)}的结果
+     */
+    public static final String CONDITION = " AND metadata::jsonb @@ ?::jsonpath";
+
+    private static final JsonPathFilterConverter INSTANCE = new JsonPathFilterConverter();
+
+    /**
+     * 转换过滤表达式，没有过滤条件时返回null
+     */
+    public static String toJsonPath(Filter.Expression filter) {
+        return filter != null ? INSTANCE.convertExpression(filter) : null;
+    }
+
+    @Override
+    protected void doSingleValue(Object value, StringBuilder context) {
+        super.doSingleValue(value instanceof String text ? text.replace("\\", "\\\\").replace("\"", "\\\"") : value,
+                context);
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.vectorstore;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 在内存中对文档块元数据求值过滤表达式
+ * 语义与PgVectorStore生成的jsonpath条件一致：字段不存在时比较结果为false，数字按数值比较，其余按字符串比较
+ *
+ * @author AI Assistant
+ */
+final class MetadataFilterEvaluator {
+
+    private MetadataFilterEvaluator() {
+    }
+
+    static boolean matches(Filter.Operand operand, Map<String, Object> metadata) {
+        if (operand instanceof Filter.Group group) {
+            return matches(group.content(), metadata);
+        }
+        if (!(operand instanceof Filter.Expression expression)) {
+            throw new IllegalArgumentException("不支持的过滤条件: " + operand);
+        }
+
+        return switch (expression.type()) {
+            case AND -> matches(expression.left(), metadata) && matches(expression.right(), metadata);
+            case OR -> matches(expression.left(), metadata) || matches(expression.right(), metadata);
+            case NOT -> !matches(expression.left(), metadata);
+            default -> compare(expression, metadata);
+        };
+    }
+
+    private static boolean compare(Filter.Expression expression, Map<String, Object> metadata) {
+        String key = unquote(((Filter.Key) expression.left()).key());
+        Object actual = metadata.get(key);
+        Object expected = ((Filter.Value) expression.right()).value();
+        if (actual == null) {
+            return false;
+        }
+
+        return switch (expression.type()) {
+            case EQ -> valueEquals(actual, expected);
+            case NE -> !valueEquals(actual, expected);
+            case IN -> contains(expected, actual);
+            case NIN -> !contains(expected, actual);
+            case GT -> compareValues(actual, expected) > 0;
+            case GTE -> compareValues(actual, expected) >= 0;
+            case LT -> compareValues(actual, expected) < 0;
+            case LTE -> compareValues(actual, expected) <= 0;
+            default -> throw new IllegalArgumentException("不支持的过滤操作: " + expression.type());
+        };
+    }
+
+    private static boolean contains(Object expected, Object actual) {
+        if (expected instanceof Collection<?> values) {
+            return values.stream().anyMatch(value -> valueEquals(actual, value));
+        }
+        return valueEquals(actual, expected);
+    }
+
+    private static boolean valueEquals(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return Double.compare(a.doubleValue(), b.doubleValue()) == 0;
+        }
+        return String.valueOf(actual).equals(String.valueOf(expected));
+    }
+
+    private static int compareValues(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return Double.compare(a.doubleValue(), b.doubleValue());
+        }
+        return String.valueOf(actual).compareTo(String.valueOf(expected));
+    }
+
+    private static String unquote(String key) {
+        if (key.length() >= 2 && (key.startsWith("\"") && key.endsWith("\"") || key.startsWith("'") && key.endsWith("'"))) {
+            return key.substring(1, key.length() - 1);
+        }
+        return key;
+    }
+}
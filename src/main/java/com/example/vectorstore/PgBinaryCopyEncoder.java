@@ -0,0 +1,80 @@
+package com.example.vectorstore;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * PostgreSQL二进制COPY格式编码器
+ * 按 COPY ... FROM STDIN (FORMAT binary) 的格式输出vector_store的 (id, content, metadata, embedding) 行：
+ * 文件头、每行的字段数和各字段的长度前缀，以及结束标记；所有整数和浮点数均为大端序。
+ * pgvector的vector类型二进制格式为 int16维度 + int16保留位 + 维度个float4，
+ * 相比文本格式避免了1536个浮点数的格式化和解析。
+ *
+ * @author AI Assistant
+ */
+public final class PgBinaryCopyEncoder {
+
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    private static final short FIELD_COUNT = 4;
+    private static final int UUID_LENGTH = 16;
+    private static final byte JSONB_VERSION = 1;
+
+    private PgBinaryCopyEncoder() {
+    }
+
+    /**
+     * 写入文件头：签名、标志位和头部扩展长度
+     */
+    public static void writeHeader(DataOutput output) throws IOException {
+        output.write(SIGNATURE);
+        output.writeInt(0);
+        output.writeInt(0);
+    }
+
+    /**
+     * 写入一行
+     *
+     * @param metadataJson 元数据的JSON文本（UTF-8）
+     * @param jsonb metadata列是否为jsonb类型，jsonb的二进制格式需要在文本前加版本号
+     */
+    public static void writeRow(DataOutput output, UUID id, String content, byte[] metadataJson, boolean jsonb,
+                                float[] embedding) throws IOException {
+        output.writeShort(FIELD_COUNT);
+
+        output.writeInt(UUID_LENGTH);
+        output.writeLong(id.getMostSignificantBits());
+        output.writeLong(id.getLeastSignificantBits());
+
+        if (content == null) {
+            output.writeInt(-1);
+        } else {
+            byte[] text = content.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(text.length);
+            output.write(text);
+        }
+
+        if (jsonb) {
+            output.writeInt(metadataJson.length + 1);
+            output.writeByte(JSONB_VERSION);
+        } else {
+            output.writeInt(metadataJson.length);
+        }
+        output.write(metadataJson);
+
+        output.writeInt(4 + embedding.length * 4);
+        output.writeShort(embedding.length);
+        output.writeShort(0);
+        for (float value : embedding) {
+            output.writeFloat(value);
+        }
+    }
+
+    /**
+     * 写入结束标记
+     */
+    public static void writeTrailer(DataOutput output) throws IOException {
+        output.writeShort(-1);
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.vectorstore;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * PGVector写入器
+ * 将已经计算好向量的文档块直接写入vector_store表，避免VectorStore.add再次调用embedding模型。
+ * 批量导入新文档块时可以使用二进制COPY写入，向量以二进制传输，不经过文本格式化和解析；
+ * 配置分片时文档块按VectorStoreShards的分配规则写入各分片
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PgVectorWriter {
+
+    // COPY数据流的发送缓冲区大小
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    private final VectorStoreShards vectorStoreShards;
+    private final ObjectMapper objectMapper;
+
+    @Value("${spring.ai.vectorstore.pgvector.schema-name:public}")
+    private String schemaName;
+
+    @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}")
+    private String tableName;
+
+    @Value("${spring.ai.vectorstore.pgvector.max-document-batch-size:1000}")
+    private int maxDocumentBatchSize;
+
+    // metadata列是否为jsonb类型，首次COPY时从数据库读取
+    private volatile Boolean jsonbMetadata;
+
+    /**
+     * 每组写入的最大文档数，与PgVectorStore保持一致
+     */
+    public int getMaxDocumentBatchSize() {
+        return maxDocumentBatchSize;
+    }
+
+    public String getQualifiedTableName() {
+        return schemaName + "." + tableName;
+    }
+
+    /**
+     * 写入文档块及其向量，按max-document-batch-size分组批量提交
+     *
+     * @param documents 文档块
+     * @param embeddings 与文档块一一对应的向量
+     */
+    public void write(List<Document> documents, List<float[]> embeddings) {
+        if (documents.size() != embeddings.size()) {
+            throw new IllegalArgumentException("文档数量与向量数量不一致");
+        }
+        if (!vectorStoreShards.isSharded()) {
+            write(vectorStoreShards.getJdbcTemplate(0), documents, embeddings);
+            return;
+        }
+        vectorStoreShards.partition(documents, embeddings).forEach((shard, batch) ->
+                write(vectorStoreShards.getJdbcTemplate(shard), batch.documents(), batch.embeddings()));
+    }
+
+    private void write(JdbcTemplate jdbcTemplate, List<Document> documents, List<float[]> embeddings) {
+        // 与PgVectorStore使用相同的upsert语句，保证重复写入时幂等
+        String sql = "INSERT INTO " + getQualifiedTableName()
+                + " (id, content, metadata, embedding) VALUES (?, ?, ?::jsonb, ?) "
+                + "ON CONFLICT (id) DO UPDATE SET content = ? , metadata = ?::jsonb , embedding = ? ";
+
+        for (int from = 0; from < documents.size(); from += maxDocumentBatchSize) {
+            int to = Math.min(from + maxDocumentBatchSize, documents.size());
+            List<Document> group = documents.subList(from, to);
+            List<float[]> groupEmbeddings = embeddings.subList(from, to);
+
+            jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    Document document = group.get(i);
+                    String metadata = toJson(document);
+                    PGvector embedding = new PGvector(groupEmbeddings.get(i));
+
+                    ps.setObject(1, UUID.fromString(document.getId()), Types.OTHER);
+                    ps.setString(2, document.getText());
+                    ps.setString(3, metadata);
+                    ps.setObject(4, embedding);
+                    ps.setString(5, document.getText());
+                    ps.setString(6, metadata);
+                    ps.setObject(7, embedding);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return group.size();
+                }
+            });
+
+            log.debug("已写入 {} 个文档块到 {}", group.size(), getQualifiedTableName());
+        }
+    }
+
+    /**
+     * 按ID删除文档块，用于撤销失败的写入；配置分片时在文档块所在的分片上删除
+     *
+     * @return 删除的行数
+     */
+    public int delete(List<Document> documents) {
+        Map<Integer, List<String>> idsByShard = documents.stream().collect(Collectors.groupingBy(
+                vectorStoreShards::shardOf, LinkedHashMap::new, Collectors.mapping(Document::getId, Collectors.toList())));
+        int deleted = 0;
+        for (Map.Entry<Integer, List<String>> entry : idsByShard.entrySet()) {
+            List<String> ids = entry.getValue();
+            for (int from = 0; from < ids.size(); from += maxDocumentBatchSize) {
+                List<String> group = ids.subList(from, Math.min(from + maxDocumentBatchSize, ids.size()));
+                deleted += vectorStoreShards.getJdbcTemplate(entry.getKey()).update(connection -> {
+                    PreparedStatement ps = connection.prepareStatement("DELETE FROM " + getQualifiedTableName() + " WHERE id = ANY (?)");
+                    ps.setArray(1, connection.createArrayOf("uuid", group.stream().map(UUID::fromString).toArray()));
+                    return ps;
+                });
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 以二进制COPY写入全新的文档块
+     * COPY不支持ON CONFLICT，只用于ID不会与已有文档块重复的批量导入；整组在一条COPY中写入，失败时整组回滚
+     *
+     * @param documents 文档块
+     * @param embeddings 与文档块一一对应的向量
+     * @return 写入的行数
+     */
+    public long copy(List<Document> documents, List<float[]> embeddings) {
+        if (documents.size() != embeddings.size()) {
+            throw new IllegalArgumentException("文档数量与向量数量不一致");
+        }
+        if (documents.isEmpty()) {
+            return 0;
+        }
+        if (!vectorStoreShards.isSharded()) {
+            return copy(vectorStoreShards.getJdbcTemplate(0), documents, embeddings);
+        }
+        long rows = 0;
+        for (Map.Entry<Integer, VectorStoreShards.ShardBatch> entry : vectorStoreShards.partition(documents, embeddings).entrySet()) {
+            rows += copy(vectorStoreShards.getJdbcTemplate(entry.getKey()), entry.getValue().documents(),
+                    entry.getValue().embeddings());
+        }
+        return rows;
+    }
+
+    private long copy(JdbcTemplate jdbcTemplate, List<Document> documents, List<float[]> embeddings) {
+        boolean jsonb = isJsonbMetadata();
+        String sql = "COPY " + getQualifiedTableName()
+                + " (id, content, metadata, embedding) FROM STDIN (FORMAT binary)";
+
+        Long rows = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            PGCopyOutputStream copyStream = new PGCopyOutputStream(
+                    connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql), COPY_BUFFER_SIZE);
+            try {
+                DataOutputStream output = new DataOutputStream(copyStream);
+                PgBinaryCopyEncoder.writeHeader(output);
+                for (int i = 0; i < documents.size(); i++) {
+                    Document document = documents.get(i);
+                    PgBinaryCopyEncoder.writeRow(output, UUID.fromString(document.getId()), document.getText(),
+                            objectMapper.writeValueAsBytes(document.getMetadata()), jsonb, embeddings.get(i));
+                }
+                PgBinaryCopyEncoder.writeTrailer(output);
+                output.flush();
+                return copyStream.endCopy();
+            } catch (IOException e) {
+                throw new SQLException("COPY写入失败: " + e.getMessage(), e);
+            } finally {
+                if (copyStream.isActive()) {
+                    copyStream.cancelCopy();
+                }
+            }
+        });
+
+        log.debug("已通过COPY写入 {} 个文档块到 {}", rows, getQualifiedTableName());
+        return rows != null ? rows : 0;
+    }
+
+    private boolean isJsonbMetadata() {
+        if (jsonbMetadata == null) {
+            // 各分片由相同的配置建表，只检查第一个分片
+            String type = vectorStoreShards.getJdbcTemplate(0).queryForObject("""
+                    SELECT format_type(atttypid, atttypmod) FROM pg_attribute
+                    WHERE attrelid = ?::regclass AND attname = 'metadata'
+                    """, String.class, getQualifiedTableName());
+            jsonbMetadata = "jsonb".equals(type);
+        }
+        return jsonbMetadata;
+    }
+
+    private String toJson(Document document) throws SQLException {
+        try {
+            return objectMapper.writeValueAsString(document.getMetadata());
+        } catch (JsonProcessingException e) {
+            throw new SQLException("文档元数据序列化失败: " + document.getId(), e);
+        }
+    }
+}
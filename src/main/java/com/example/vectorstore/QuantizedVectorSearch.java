@@ -0,0 +1,388 @@
+package com.example.vectorstore;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore.PgDistanceType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * 量化向量检索
+ * 在embedding列上建立halfvec（半精度，索引约为原来的一半）、二值量化（每维1位，约为原来的1/32）
+ * 或Matryoshka截断（取前truncated-dimensions维并归一化，text-embedding-3系列模型的前若干维本身就是有效的embedding）的表达式HNSW索引，
+ * 第一阶段用量化索引取出 topK × rerank-multiplier 个候选，第二阶段在数据库中用原始精度的向量精确重排后返回topK；
+ * vector_store表结构不变，原始向量仍用于重排和写入路径。
+ * 不使用量化（NONE）但开启检索调优时，同样由这里执行检索，以便在事务中应用SearchPlanner的计划
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Component
+public class QuantizedVectorSearch {
+
+    // 与PgVectorStore的默认索引名保持一致的前缀
+    static final String INDEX_PREFIX = "spring_ai_vector_index";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final PgVectorWriter vectorWriter;
+    private final EmbeddingModel embeddingModel;
+    private final SearchPlanner searchPlanner;
+
+    private final Quantization quantization;
+    private final PgDistanceType distanceType;
+    private final int dimensions;
+    private final int truncatedDimensions;
+    private final int rerankMultiplier;
+    private final boolean initializeSchema;
+
+    public QuantizedVectorSearch(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper, PgVectorWriter vectorWriter,
+                                 EmbeddingModel embeddingModel, SearchPlanner searchPlanner,
+                                 @Value("${spring.ai.vectorstore.pgvector.quantization:NONE}") Quantization quantization,
+                                 @Value("${spring.ai.vectorstore.pgvector.distance-type:COSINE_DISTANCE}") PgDistanceType distanceType,
+                                 @Value("${spring.ai.vectorstore.pgvector.dimensions:1536}") int dimensions,
+                                 @Value("${spring.ai.vectorstore.pgvector.truncated-dimensions:256}") int truncatedDimensions,
+                                 @Value("${spring.ai.vectorstore.pgvector.rerank-multiplier:4}") int rerankMultiplier,
+                                 @Value("${spring.ai.vectorstore.pgvector.initialize-schema:false}") boolean initializeSchema) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.vectorWriter = vectorWriter;
+        this.embeddingModel = embeddingModel;
+        this.searchPlanner = searchPlanner;
+        this.quantization = quantization;
+        this.distanceType = distanceType;
+        this.dimensions = dimensions;
+        if (quantization == Quantization.MATRYOSHKA && (truncatedDimensions <= 0 || truncatedDimensions >= dimensions)) {
+            throw new IllegalArgumentException("truncated-dimensions需大于0且小于向量维度 " + dimensions);
+        }
+        this.truncatedDimensions = truncatedDimensions;
+        this.rerankMultiplier = Math.max(1, rerankMultiplier);
+        this.initializeSchema = initializeSchema;
+    }
+
+    /**
+     * 创建量化表达式索引；原始精度的向量索引仍然存在时提示删除，否则占用的内存不会减少
+     */
+    @PostConstruct
+    public void initSchema() {
+        if (quantization == Quantization.NONE || !initializeSchema) {
+            return;
+        }
+
+        String indexName = indexName(quantization);
+        log.info("创建量化向量索引 {}，数据量较大时需要较长时间", indexName);
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + indexName + " ON " + vectorWriter.getQualifiedTableName()
+                + " USING hnsw (" + indexExpression(quantization) + ")");
+
+        if (indexExists(INDEX_PREFIX)) {
+            log.warn("原始精度的向量索引 {} 仍然存在，请将spring.ai.vectorstore.pgvector.index-type设置为NONE并删除该索引以释放内存",
+                    INDEX_PREFIX);
+        }
+    }
+
+    /**
+     * 包装VectorStore，检索使用量化索引加精确重排，并按SearchPlanner的计划设置索引扫描参数；
+     * 不使用量化且关闭检索调优时保持pgvector原有的检索。写入和删除直接交给pgvector
+     */
+    public VectorStore decorate(VectorStore delegate) {
+        return quantization == Quantization.NONE && !searchPlanner.isEnabled() ? delegate : new QuantizedVectorStore(delegate);
+    }
+
+    public Quantization getQuantization() {
+        return quantization;
+    }
+
+    /**
+     * 按指定的量化方式检索
+     *
+     * @param mode 第一阶段使用的索引，NONE表示直接按原始精度排序
+     * @return 按距离从小到大排列的文档块，score和distance与PgVectorStore的结果一致
+     */
+    public List<Document> search(Quantization mode, float[] query, int topK, double similarityThreshold,
+                                 Filter.Expression filter) {
+        String table = vectorWriter.getQualifiedTableName();
+        // 过滤条件作为参数绑定，不拼接进SQL
+        String jsonPathFilter = JsonPathFilterConverter.toJsonPath(filter);
+        int candidates = mode == Quantization.NONE ? topK : topK * rerankMultiplier;
+
+        SearchPlanner.SearchPlan plan = searchPlanner.plan(topK, candidates, jsonPathFilter);
+
+        String sql = "SELECT id, content, metadata, " + distanceExpression() + " AS distance FROM ("
+                + "SELECT id, content, metadata, embedding FROM " + table + " WHERE true"
+                + (jsonPathFilter != null ? JsonPathFilterConverter.CONDITION : "")
+                + " ORDER BY " + candidateOrder(mode) + " LIMIT ?) candidates"
+                + " WHERE " + distanceExpression() + " < ? ORDER BY distance LIMIT ?";
+        PGvector vector = new PGvector(query);
+
+        return jdbcTemplate.execute((ConnectionCallback<List<Document>>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement();
+                 PreparedStatement ps = connection.prepareStatement(sql)) {
+                // HNSW扫描最多返回ef_search个结果，过滤条件选择性较低时还需要迭代扫描或精确排序
+                searchPlanner.apply(statement, plan);
+                int index = 1;
+                ps.setObject(index++, vector);
+                if (jsonPathFilter != null) {
+                    ps.setString(index++, jsonPathFilter);
+                }
+                ps.setObject(index++, vector);
+                ps.setInt(index++, candidates);
+                ps.setObject(index++, vector);
+                ps.setDouble(index++, 1 - similarityThreshold);
+                ps.setInt(index, topK);
+
+                List<Document> documents = new ArrayList<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        documents.add(toDocument(rs, objectMapper));
+                    }
+                }
+                connection.commit();
+                return documents;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+    /**
+     * 对比原始精度与各量化索引的召回率、延迟和索引大小
+     * 以顺序扫描的精确结果为基准，只对比已经建立索引的量化方式
+     */
+    public Map<String, Object> compare(int samples, int topK) {
+        String table = vectorWriter.getQualifiedTableName();
+        List<float[]> queries = SearchQualityMeter.sampleQueries(jdbcTemplate, table, samples);
+
+        Set<Quantization> modes = EnumSet.of(Quantization.NONE);
+        for (Quantization mode : EnumSet.complementOf(EnumSet.of(Quantization.NONE))) {
+            if (indexExists(indexName(mode))) {
+                modes.add(mode);
+            }
+        }
+
+        List<Set<String>> exactResults = new ArrayList<>(queries.size());
+        for (float[] query : queries) {
+            exactResults.add(new HashSet<>(SearchQualityMeter.exactSearch(jdbcTemplate, table, operator(), query, topK)));
+        }
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        for (Quantization mode : modes) {
+            long[] nanos = new long[queries.size()];
+            double recall = 0;
+            for (int i = 0; i < queries.size(); i++) {
+                long start = System.nanoTime();
+                List<Document> found = search(mode, queries.get(i), topK, SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL, null);
+                nanos[i] = System.nanoTime() - start;
+                recall += SearchQualityMeter.recall(exactResults.get(i), found.stream().map(Document::getId).toList());
+            }
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("recall", recall / queries.size());
+            result.put("p50_micros", SearchQualityMeter.percentileMicros(nanos, 50));
+            result.put("p99_micros", SearchQualityMeter.percentileMicros(nanos, 99));
+            results.put(mode.name(), result);
+        }
+
+        Map<String, Object> comparison = new LinkedHashMap<>();
+        comparison.put("samples", queries.size());
+        comparison.put("topK", topK);
+        comparison.put("rerank_multiplier", rerankMultiplier);
+        comparison.put("truncated_dimensions", truncatedDimensions);
+        comparison.put("active_quantization", quantization.name());
+        comparison.put("modes", results);
+        comparison.put("indexes", jdbcTemplate.queryForList("""
+                SELECT c.relname AS name, pg_relation_size(c.oid) AS size_bytes,
+                       pg_size_pretty(pg_relation_size(c.oid)) AS size
+                FROM pg_index i
+                JOIN pg_class c ON c.oid = i.indexrelid
+                JOIN pg_am a ON a.oid = c.relam
+                WHERE i.indrelid = ?::regclass AND a.amname IN ('hnsw', 'ivfflat')
+                ORDER BY c.relname
+                """, table));
+        return comparison;
+    }
+
+    private boolean indexExists(String indexName) {
+        Boolean exists = jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class,
+                schemaOf(vectorWriter.getQualifiedTableName()) + "." + indexName);
+        return Boolean.TRUE.equals(exists);
+    }
+
+    /**
+     * 第一阶段的排序表达式，与索引表达式一致才能使用索引
+     */
+    private String candidateOrder(Quantization mode) {
+        return switch (mode) {
+            case HALFVEC -> "embedding::halfvec(" + dimensions + ") " + operator() + " ?::halfvec(" + dimensions + ")";
+            case BINARY -> "binary_quantize(embedding)::bit(" + dimensions + ") <~> binary_quantize(?::vector)";
+            // 截断后归一化，内积即为余弦相似度
+            case MATRYOSHKA -> truncatedExpression("embedding") + " <#> " + truncatedExpression("?::vector");
+            case NONE -> "embedding " + operator() + " ?";
+        };
+    }
+
+    private String indexExpression(Quantization mode) {
+        return switch (mode) {
+            case HALFVEC -> "(embedding::halfvec(" + dimensions + ")) halfvec_" + operatorClassSuffix() + "_ops";
+            case BINARY -> "(binary_quantize(embedding)::bit(" + dimensions + ")) bit_hamming_ops";
+            case MATRYOSHKA -> "(" + truncatedExpression("embedding") + ") vector_ip_ops";
+            case NONE -> throw new IllegalArgumentException("NONE不需要量化索引");
+        };
+    }
+
+    /**
+     * Matryoshka索引名包含截断维度，修改维度后会建立新索引
+     */
+    private String indexName(Quantization mode) {
+        String name = INDEX_PREFIX + "_" + mode.name().toLowerCase();
+        return mode == Quantization.MATRYOSHKA ? name + "_" + truncatedDimensions : name;
+    }
+
+    private String truncatedExpression(String vector) {
+        return "l2_normalize(subvector(" + vector + ", 1, " + truncatedDimensions + "))::vector(" + truncatedDimensions + ")";
+    }
+
+    /**
+     * 重排使用的距离表达式，与PgVectorStore相同
+     */
+    private String distanceExpression() {
+        return distanceExpression(distanceType);
+    }
+
+    static String distanceExpression(PgDistanceType distanceType) {
+        return distanceType == PgDistanceType.NEGATIVE_INNER_PRODUCT
+                ? "(1 + (embedding <#> ?))" : "embedding " + operator(distanceType) + " ?";
+    }
+
+    private String operator() {
+        return operator(distanceType);
+    }
+
+    private String operatorClassSuffix() {
+        return operatorClassSuffix(distanceType);
+    }
+
+    static String operator(PgDistanceType distanceType) {
+        return switch (distanceType) {
+            case COSINE_DISTANCE -> "<=>";
+            case EUCLIDEAN_DISTANCE -> "<->";
+            case NEGATIVE_INNER_PRODUCT -> "<#>";
+        };
+    }
+
+    static String operatorClassSuffix(PgDistanceType distanceType) {
+        return switch (distanceType) {
+            case COSINE_DISTANCE -> "cosine";
+            case EUCLIDEAN_DISTANCE -> "l2";
+            case NEGATIVE_INNER_PRODUCT -> "ip";
+        };
+    }
+
+    /**
+     * 把带distance列的查询结果转换为文档块，score和distance与PgVectorStore的结果一致
+     */
+    static Document toDocument(ResultSet rs, ObjectMapper objectMapper) throws SQLException {
+        Map<String, Object> metadata = new HashMap<>();
+        String metadataJson = rs.getString("metadata");
+        if (metadataJson != null) {
+            try {
+                metadata.putAll(objectMapper.readValue(metadataJson, new TypeReference<Map<String, Object>>() { }));
+            } catch (Exception e) {
+                throw new SQLException("解析文档块元数据失败: " + e.getMessage(), e);
+            }
+        }
+        float distance = rs.getFloat("distance");
+        metadata.put(DocumentMetadata.DISTANCE.value(), distance);
+        return Document.builder()
+                .id(rs.getString("id"))
+                .text(rs.getString("content"))
+                .metadata(metadata)
+                .score(1.0 - distance)
+                .build();
+    }
+
+    private static String schemaOf(String qualifiedTableName) {
+        int dot = qualifiedTableName.indexOf('.');
+        return dot > 0 ? qualifiedTableName.substring(0, dot) : "public";
+    }
+
+    /**
+     * 第一阶段使用的向量表示
+     */
+    public enum Quantization {
+        NONE,
+        HALFVEC,
+        BINARY,
+        MATRYOSHKA
+    }
+
+    /**
+     * 检索使用量化索引的VectorStore
+     */
+    private class QuantizedVectorStore implements VectorStore {
+
+        private final VectorStore delegate;
+
+        QuantizedVectorStore(VectorStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void add(List<Document> documents) {
+            delegate.add(documents);
+        }
+
+        @Override
+        public void delete(List<String> idList) {
+            delegate.delete(idList);
+        }
+
+        @Override
+        public void delete(Filter.Expression filterExpression) {
+            delegate.delete(filterExpression);
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            float[] query = embeddingModel.embed(request.getQuery());
+            return search(quantization, query, request.getTopK(), request.getSimilarityThreshold(),
+                    request.getFilterExpression());
+        }
+
+        @Override
+        public String getName() {
+            return delegate.getName();
+        }
+
+        @Override
+        public <T> Optional<T> getNativeClient() {
+            return delegate.getNativeClient();
+        }
+    }
+}
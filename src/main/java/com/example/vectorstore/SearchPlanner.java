@@ -0,0 +1,297 @@
+package com.example.vectorstore;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 向量检索的执行计划
+ * 按topK和过滤条件的选择性为每次检索设置hnsw.ef_search和pgvector 0.8的迭代扫描参数：
+ * 无过滤时ef_search随topK调整；过滤后的文档块很少时关闭索引扫描精确排序；
+ * 选择性较低时开启迭代扫描（不支持时调大ef_search），避免HNSW后过滤返回不足topK个结果。
+ * 过滤条件匹配的文档块数通过抽样估算并短时间缓存，每种计划的使用次数记录在统计中
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Component
+public class SearchPlanner {
+
+    // pgvector允许的hnsw.ef_search范围及默认值
+    static final int DEFAULT_EF_SEARCH = 40;
+    static final int MAX_EF_SEARCH = 1000;
+
+    // 估算缓存的条目上限
+    private static final int MAX_ESTIMATES = 512;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PgVectorWriter vectorWriter;
+
+    private final boolean enabled;
+    private final int efSearchFactor;
+    private final int minEfSearch;
+    private final long exactScanMaxRows;
+    private final long sampleRows;
+    private final long maxScanTuples;
+    private final long estimateTtlMillis;
+
+    private final Map<String, Estimate> estimates = new ConcurrentHashMap<>();
+    private volatile Boolean iterativeScanSupported;
+
+    private final Map<Strategy, LongAdder> planCounts = new EnumMap<>(Strategy.class);
+    private final LongAdder efSearchTotal = new LongAdder();
+    private final LongAdder estimateQueries = new LongAdder();
+
+    public SearchPlanner(JdbcTemplate jdbcTemplate, PgVectorWriter vectorWriter,
+                         @Value("${app.vectorstore.search-tuning.enabled:true}") boolean enabled,
+                         @Value("${app.vectorstore.search-tuning.ef-search-factor:4}") int efSearchFactor,
+                         @Value("${app.vectorstore.search-tuning.min-ef-search:20}") int minEfSearch,
+                         @Value("${app.vectorstore.search-tuning.exact-scan-max-rows:2000}") long exactScanMaxRows,
+                         @Value("${app.vectorstore.search-tuning.sample-rows:10000}") long sampleRows,
+                         @Value("${app.vectorstore.search-tuning.max-scan-tuples:200000}") long maxScanTuples,
+                         @Value("${app.vectorstore.search-tuning.estimate-ttl-seconds:60}") long estimateTtlSeconds) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorWriter = vectorWriter;
+        this.enabled = enabled;
+        this.efSearchFactor = Math.max(1, efSearchFactor);
+        this.minEfSearch = Math.max(1, minEfSearch);
+        this.exactScanMaxRows = exactScanMaxRows;
+        this.sampleRows = Math.max(1, sampleRows);
+        this.maxScanTuples = maxScanTuples;
+        this.estimateTtlMillis = estimateTtlSeconds * 1000;
+        for (Strategy strategy : Strategy.values()) {
+            planCounts.put(strategy, new LongAdder());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 为一次检索选择执行计划
+     *
+     * @param topK 最终返回数量
+     * @param candidates 需要从索引中取出的候选数（量化检索为topK的倍数）
+     * @param jsonPathFilter {@link JsonPathFilterConverter}转换的过滤条件，没有过滤条件时为null
+     */
+    public SearchPlan plan(int topK, int candidates, String jsonPathFilter) {
+        SearchPlan plan = enabled ? choose(topK, candidates, jsonPathFilter) : legacyPlan(candidates);
+        record(plan);
+        return plan;
+    }
+
+    /**
+     * 按类别检索的计划：有部分索引时只需按topK调整ef_search，否则精确排序
+     */
+    public SearchPlan planCategory(boolean indexed, int topK) {
+        SearchPlan plan;
+        if (!indexed) {
+            plan = new SearchPlan(Strategy.EXACT, 0, 0, -1);
+        } else {
+            plan = enabled ? new SearchPlan(Strategy.HNSW, efSearch(topK, topK), 0, -1) : legacyPlan(topK);
+        }
+        record(plan);
+        return plan;
+    }
+
+    /**
+     * 在当前事务中应用计划，必须在关闭自动提交的连接上调用
+     */
+    public void apply(Statement statement, SearchPlan plan) throws SQLException {
+        for (String setting : plan.settings()) {
+            statement.execute(setting);
+        }
+    }
+
+    /**
+     * 各执行计划的使用次数和平均ef_search
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> plans = new LinkedHashMap<>();
+        long total = 0;
+        for (Strategy strategy : Strategy.values()) {
+            long count = planCounts.get(strategy).sum();
+            plans.put(strategy.name().toLowerCase(), count);
+            total += count;
+        }
+        long hnswPlans = total - planCounts.get(Strategy.EXACT).sum();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("iterative_scan_supported", iterativeScanSupported);
+        stats.put("plans", plans);
+        stats.put("avg_ef_search", hnswPlans == 0 ? 0.0 : (double) efSearchTotal.sum() / hnswPlans);
+        stats.put("estimate_queries", estimateQueries.sum());
+        stats.put("cached_estimates", estimates.size());
+        return stats;
+    }
+
+    private SearchPlan choose(int topK, int candidates, String jsonPathFilter) {
+        int efSearch = efSearch(topK, candidates);
+        if (jsonPathFilter == null) {
+            return new SearchPlan(Strategy.HNSW, efSearch, 0, -1);
+        }
+
+        Estimate estimate = estimate(jsonPathFilter);
+        if (estimate.matches() <= exactScanMaxRows) {
+            return new SearchPlan(Strategy.EXACT, 0, 0, estimate.matches());
+        }
+
+        double selectivity = estimate.total() > 0 ? Math.min(1.0, (double) estimate.matches() / estimate.total()) : 1.0;
+        // HNSW按ef_search取候选后才过滤，需要扫描约 ef_search / 选择性 个节点才能得到足够的匹配结果
+        long tuplesNeeded = (long) Math.ceil(efSearch / selectivity);
+        if (tuplesNeeded <= efSearch) {
+            return new SearchPlan(Strategy.HNSW, efSearch, 0, estimate.matches());
+        }
+        if (iterativeScanSupported()) {
+            return new SearchPlan(Strategy.HNSW_ITERATIVE, efSearch, Math.min(Math.max(tuplesNeeded, 20000), maxScanTuples),
+                    estimate.matches());
+        }
+        return new SearchPlan(Strategy.HNSW, (int) Math.min(tuplesNeeded, MAX_EF_SEARCH), 0, estimate.matches());
+    }
+
+    /**
+     * 关闭调优时的计划：只在候选数超过默认ef_search时调大，保证能取到足够的候选
+     */
+    private SearchPlan legacyPlan(int candidates) {
+        int efSearch = candidates > DEFAULT_EF_SEARCH ? Math.min(candidates, MAX_EF_SEARCH) : 0;
+        return new SearchPlan(Strategy.HNSW, efSearch, 0, -1);
+    }
+
+    private int efSearch(int topK, int candidates) {
+        long efSearch = Math.max(candidates, (long) topK * efSearchFactor);
+        return (int) Math.min(Math.max(efSearch, minEfSearch), MAX_EF_SEARCH);
+    }
+
+    private void record(SearchPlan plan) {
+        planCounts.get(plan.strategy()).increment();
+        if (plan.strategy() != Strategy.EXACT) {
+            efSearchTotal.add(plan.efSearch() > 0 ? plan.efSearch() : DEFAULT_EF_SEARCH);
+        }
+        log.debug("向量检索计划: {}", plan);
+    }
+
+    /**
+     * 估算过滤条件匹配的文档块数：表较小时直接计数，否则按页抽样约sample-rows行
+     */
+    private Estimate estimate(String jsonPathFilter) {
+        long now = System.currentTimeMillis();
+        Estimate cached = estimates.get(jsonPathFilter);
+        if (cached != null && now - cached.createdAt() < estimateTtlMillis) {
+            return cached;
+        }
+
+        String table = vectorWriter.getQualifiedTableName();
+        Long reltuples = jdbcTemplate.queryForObject(
+                "SELECT GREATEST(reltuples, 0)::bigint FROM pg_class WHERE oid = ?::regclass", Long.class, table);
+        long total = reltuples == null ? 0 : reltuples;
+
+        Estimate estimate;
+        if (total <= sampleRows) {
+            // 从未ANALYZE的表reltuples为0，同样直接计数
+            Map<String, Object> counts = jdbcTemplate.queryForMap("SELECT count(*) AS total, count(*) FILTER (WHERE true"
+                    + JsonPathFilterConverter.CONDITION + ") AS matches FROM " + table, jsonPathFilter);
+            estimate = new Estimate(((Number) counts.get("total")).longValue(), ((Number) counts.get("matches")).longValue(), now);
+        } else {
+            double percent = 100.0 * sampleRows / total;
+            Map<String, Object> counts = jdbcTemplate.queryForMap("SELECT count(*) AS total, count(*) FILTER (WHERE true"
+                    + JsonPathFilterConverter.CONDITION + ") AS matches FROM " + table + " TABLESAMPLE SYSTEM (" + percent
+                    + ") REPEATABLE (0)", jsonPathFilter);
+            long sampled = ((Number) counts.get("total")).longValue();
+            long matched = ((Number) counts.get("matches")).longValue();
+            long matches = sampled == 0 ? total : Math.round((double) matched * total / sampled);
+            estimate = new Estimate(total, matches, now);
+        }
+        estimateQueries.increment();
+
+        if (estimates.size() >= MAX_ESTIMATES) {
+            estimates.clear();
+        }
+        estimates.put(jsonPathFilter, estimate);
+        return estimate;
+    }
+
+    /**
+     * hnsw.iterative_scan需要pgvector 0.8.0及以上
+     */
+    private boolean iterativeScanSupported() {
+        Boolean supported = iterativeScanSupported;
+        if (supported == null) {
+            String version = jdbcTemplate.queryForObject(
+                    "SELECT extversion FROM pg_extension WHERE extname = 'vector'", String.class);
+            supported = version != null && compareVersions(version, "0.8.0") >= 0;
+            iterativeScanSupported = supported;
+            log.info("pgvector版本 {}，{}迭代索引扫描", version, supported ? "使用" : "不支持");
+        }
+        return supported;
+    }
+
+    static int compareVersions(String a, String b) {
+        String[] left = a.split("\\.");
+        String[] right = b.split("\\.");
+        for (int i = 0; i < Math.max(left.length, right.length); i++) {
+            int l = i < left.length ? Integer.parseInt(left[i].replaceAll("\\D.*", "")) : 0;
+            int r = i < right.length ? Integer.parseInt(right[i].replaceAll("\\D.*", "")) : 0;
+            if (l != r) {
+                return Integer.compare(l, r);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 执行方式
+     */
+    public enum Strategy {
+        // 关闭索引扫描，按过滤条件取出全部匹配的文档块后精确排序
+        EXACT,
+        // HNSW索引扫描
+        HNSW,
+        // HNSW迭代扫描，过滤后结果不足时继续扫描
+        HNSW_ITERATIVE
+    }
+
+    /**
+     * 一次检索的执行计划
+     *
+     * @param efSearch 为0时使用服务器的默认值
+     * @param estimatedRows 过滤条件匹配的估算文档块数，没有估算时为-1
+     */
+    public record SearchPlan(Strategy strategy, int efSearch, long maxScanTuples, long estimatedRows) {
+
+        /**
+         * 需要在事务中执行的SET LOCAL语句
+         */
+        List<String> settings() {
+            List<String> settings = new ArrayList<>();
+            if (strategy == Strategy.EXACT) {
+                settings.add("SET LOCAL enable_indexscan = off");
+                return settings;
+            }
+            if (efSearch > 0) {
+                settings.add("SET LOCAL hnsw.ef_search = " + efSearch);
+            }
+            if (strategy == Strategy.HNSW_ITERATIVE) {
+                // 外层查询按精确距离重新排序，可以使用relaxed_order
+                settings.add("SET LOCAL hnsw.iterative_scan = relaxed_order");
+                settings.add("SET LOCAL hnsw.max_scan_tuples = " + maxScanTuples);
+            }
+            return settings;
+        }
+    }
+
+    private record Estimate(long total, long matches, long createdAt) {
+    }
+}
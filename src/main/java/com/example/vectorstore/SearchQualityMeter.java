@@ -0,0 +1,80 @@
+package com.example.vectorstore;
+
+import com.pgvector.PGvector;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 检索质量测量工具
+ * 从表中抽取已有向量作为查询（不调用embedding模型），在关闭索引扫描的事务中计算精确结果作为召回率基准
+ *
+ * @author AI Assistant
+ */
+final class SearchQualityMeter {
+
+    private SearchQualityMeter() {
+    }
+
+    /**
+     * 随机抽取表中的向量作为查询
+     */
+    static List<float[]> sampleQueries(JdbcTemplate jdbcTemplate, String table, int samples) {
+        List<float[]> queries = jdbcTemplate.query("SELECT embedding::text AS embedding FROM " + table
+                + " ORDER BY random() LIMIT ?", (rs, rowNum) -> new PGvector(rs.getString("embedding")).toArray(), samples);
+        if (queries.isEmpty()) {
+            throw new IllegalStateException("vector_store中没有文档块");
+        }
+        return queries;
+    }
+
+    /**
+     * 顺序扫描计算精确的topK结果
+     *
+     * @param operator 距离运算符，如 <=>
+     */
+    static List<String> exactSearch(JdbcTemplate jdbcTemplate, String table, String operator, float[] query, int topK) {
+        return jdbcTemplate.execute((ConnectionCallback<List<String>>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement();
+                 PreparedStatement ps = connection.prepareStatement(
+                         "SELECT id FROM " + table + " ORDER BY embedding " + operator + " ? LIMIT ?")) {
+                statement.execute("SET LOCAL enable_indexscan = off");
+                ps.setObject(1, new PGvector(query));
+                ps.setInt(2, topK);
+                List<String> ids = new ArrayList<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getString("id"));
+                    }
+                }
+                connection.commit();
+                return ids;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+    static double recall(Set<String> exact, List<String> found) {
+        if (exact.isEmpty()) {
+            return 1.0;
+        }
+        return (double) found.stream().filter(exact::contains).count() / exact.size();
+    }
+
+    static long percentileMicros(long[] nanos, int percentile) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1000;
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.vectorstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore.PgDistanceType;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * 分片向量存储
+ * 写入按VectorStoreShards的分配规则路由到文档块所在的分片；检索只向量化一次查询，
+ * 用与PgVectorStore相同的SQL并行发往所有分片（scatter），各分片按相同的topK和阈值返回结果，
+ * 再用堆按得分归并出全局topK（gather）。
+ * 检索共用一个超时：超时或失败的分片被跳过，允许部分结果时返回其余分片的归并结果，否则检索失败；
+ * 超时的分片任务被中断，分片检索语句同时设置了queryTimeout，数据库侧的查询也会在超时后取消，不会占满线程池。
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+public class ShardedVectorStore implements VectorStore {
+
+    private final VectorStoreShards shards;
+    private final List<VectorStore> shardStores;
+    private final List<JdbcTemplate> searchTemplates;
+    private final EmbeddingModel embeddingModel;
+    private final ObjectMapper objectMapper;
+    private final String searchSelect;
+    private final long timeoutNanos;
+    private final boolean partialResults;
+    private final ExecutorService shardExecutor;
+
+    /**
+     * @param shards 分片及分配规则
+     * @param shardStores 与shards一一对应的各分片向量存储，用于写入和删除
+     * @param embeddingModel 查询向量化模型，与各分片使用的模型相同
+     * @param qualifiedTableName 各分片上带schema的向量表名
+     * @param distanceType 与各分片向量存储相同的距离类型
+     * @param timeoutMillis 检索等待各分片的最长时间，同时作为分片检索语句的queryTimeout（向上取整到秒）
+     * @param partialResults 部分分片超时或失败时是否返回其余分片的结果
+     * @param parallelism 执行分片请求的线程数
+     */
+    public ShardedVectorStore(VectorStoreShards shards, List<VectorStore> shardStores, EmbeddingModel embeddingModel,
+                              ObjectMapper objectMapper, String qualifiedTableName, PgDistanceType distanceType,
+                              long timeoutMillis, boolean partialResults, int parallelism) {
+        this(shards, shardStores, searchTemplates(shards, timeoutMillis), embeddingModel, objectMapper,
+                qualifiedTableName, distanceType, timeoutMillis, partialResults, parallelism);
+    }
+
+    /**
+     * @param searchTemplates 与shards一一对应、用于检索的JdbcTemplate
+     */
+    ShardedVectorStore(VectorStoreShards shards, List<VectorStore> shardStores, List<JdbcTemplate> searchTemplates,
+                       EmbeddingModel embeddingModel, ObjectMapper objectMapper, String qualifiedTableName,
+                       PgDistanceType distanceType, long timeoutMillis, boolean partialResults, int parallelism) {
+        if (shards.size() != shardStores.size() || shards.size() != searchTemplates.size()) {
+            throw new IllegalArgumentException("分片数量与分片向量存储数量不一致");
+        }
+        this.shards = shards;
+        this.shardStores = List.copyOf(shardStores);
+        this.searchTemplates = List.copyOf(searchTemplates);
+        this.embeddingModel = embeddingModel;
+        this.objectMapper = objectMapper;
+        String distance = QuantizedVectorSearch.distanceExpression(distanceType);
+        // 与PgVectorStore的检索语句相同，只是不读取embedding列
+        this.searchSelect = "SELECT id, content, metadata, " + distance + " AS distance FROM " + qualifiedTableName
+                + " WHERE " + distance + " < ?";
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.partialResults = partialResults;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.shardExecutor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "vector-shard-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 检索使用单独的JdbcTemplate，queryTimeout只作用于检索，不影响写入和批量删除
+     */
+    private static List<JdbcTemplate> searchTemplates(VectorStoreShards shards, long timeoutMillis) {
+        int queryTimeoutSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeoutMillis + 999));
+        List<JdbcTemplate> templates = new ArrayList<>(shards.size());
+        for (JdbcTemplate jdbcTemplate : shards.getJdbcTemplates()) {
+            JdbcTemplate searchTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+            searchTemplate.setQueryTimeout(queryTimeoutSeconds);
+            templates.add(searchTemplate);
+        }
+        return templates;
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        Map<Integer, List<Document>> batches = documents.stream()
+                .collect(Collectors.groupingBy(shards::shardOf, LinkedHashMap::new, Collectors.toList()));
+        List<CompletableFuture<Void>> writes = batches.entrySet().stream()
+                .map(entry -> CompletableFuture.runAsync(
+                        () -> shardStores.get(entry.getKey()).add(entry.getValue()), shardExecutor))
+                .toList();
+        awaitAll(writes, "写入");
+    }
+
+    /**
+     * 只知道文档块ID，无法确定分片，在所有分片上删除
+     */
+    @Override
+    public void delete(List<String> idList) {
+        broadcast(store -> store.delete(idList), "删除");
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        broadcast(store -> store.delete(filterExpression), "删除");
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        // 查询只向量化一次，各分片使用同一个查询向量
+        PGvector vector = new PGvector(embeddingModel.embed(request.getQuery()));
+        // 过滤条件作为参数绑定，不拼接进SQL
+        String jsonPathFilter = JsonPathFilterConverter.toJsonPath(request.getFilterExpression());
+        String sql = searchSelect + (jsonPathFilter != null ? JsonPathFilterConverter.CONDITION : "")
+                + " ORDER BY distance LIMIT ?";
+        Object[] params = jsonPathFilter != null
+                ? new Object[]{vector, vector, 1 - request.getSimilarityThreshold(), jsonPathFilter, request.getTopK()}
+                : new Object[]{vector, vector, 1 - request.getSimilarityThreshold(), request.getTopK()};
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        // 使用Future而不是CompletableFuture，cancel(true)才会中断执行中的分片任务
+        List<Future<List<Document>>> futures = new ArrayList<>(searchTemplates.size());
+        for (int i = 0; i < searchTemplates.size(); i++) {
+            int shard = i;
+            futures.add(shardExecutor.submit(() -> {
+                long start = System.nanoTime();
+                List<Document> results = searchTemplates.get(shard).query(sql,
+                        (rs, rowNum) -> QuantizedVectorSearch.toDocument(rs, objectMapper), params);
+                shards.recordSearch(shard, System.nanoTime() - start);
+                return results;
+            }));
+        }
+
+        List<List<Document>> rankings = new ArrayList<>(futures.size());
+        List<String> failed = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                rankings.add(futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                futures.get(i).cancel(true);
+                shards.recordFailure(i, true);
+                failed.add(shards.getName(i) + ": 超时");
+            } catch (ExecutionException e) {
+                shards.recordFailure(i, false);
+                failed.add(shards.getName(i) + ": " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("分片检索被中断", e);
+            }
+        }
+
+        if (!failed.isEmpty()) {
+            if (!partialResults || rankings.isEmpty()) {
+                shards.recordScatter(true, true);
+                throw new RuntimeException("分片检索失败: " + failed);
+            }
+            log.warn("{} 个分片未返回结果，只使用其余 {} 个分片的结果: {}", failed.size(), rankings.size(), failed);
+        }
+        shards.recordScatter(!failed.isEmpty(), false);
+        return merge(rankings, request.getTopK());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shardExecutor.shutdown();
+    }
+
+    /**
+     * 各分片结果已按得分从高到低排列，堆中保存每个分片当前最高的一个，依次取出全局得分最高的topK个
+     */
+    static List<Document> merge(List<List<Document>> rankings, int topK) {
+        PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(1, rankings.size()),
+                Comparator.comparingDouble((int[] cursor) -> scoreOf(rankings.get(cursor[0]).get(cursor[1]))).reversed());
+        for (int i = 0; i < rankings.size(); i++) {
+            if (!rankings.get(i).isEmpty()) {
+                heap.add(new int[]{i, 0});
+            }
+        }
+
+        List<Document> merged = new ArrayList<>(topK);
+        Set<String> seen = new HashSet<>();
+        while (merged.size() < topK && !heap.isEmpty()) {
+            int[] cursor = heap.poll();
+            List<Document> ranking = rankings.get(cursor[0]);
+            Document document = ranking.get(cursor[1]);
+            // 重新分片期间同一文档块可能同时存在于两个分片
+            if (seen.add(document.getId())) {
+                merged.add(document);
+            }
+            if (++cursor[1] < ranking.size()) {
+                heap.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    private static double scoreOf(Document document) {
+        return document.getScore() != null ? document.getScore() : 0.0;
+    }
+
+    private void broadcast(Consumer<VectorStore> operation, String action) {
+        awaitAll(shardStores.stream()
+                .map(store -> CompletableFuture.runAsync(() -> operation.accept(store), shardExecutor))
+                .toList(), action);
+    }
+
+    /**
+     * 写入和删除需要所有分片成功，不使用检索超时
+     */
+    private static void awaitAll(List<CompletableFuture<Void>> futures, String action) {
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("分片" + action + "失败: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
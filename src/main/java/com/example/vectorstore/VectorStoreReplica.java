@@ -0,0 +1,535 @@
+package com.example.vectorstore;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+
+/**
+ * vector_store进程内热副本
+ * 启动时从vector_store读取全部文档块建立HNSW索引，之后通过触发器发出的LISTEN/NOTIFY通知同步增删改，
+ * pgvector仍然是唯一的数据来源：副本未就绪、通知连接中断或结果不足时检索回退到pgvector。
+ * 检索在进程内完成，不经过网络也不占用PostgreSQL的CPU。
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Component
+public class VectorStoreReplica {
+
+    static final String CHANNEL = "vector_store_changes";
+
+    // 每次按ID读取变化的文档块数量
+    private static final int FETCH_BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSource dataSource;
+    private final ObjectMapper objectMapper;
+    private final PgVectorWriter vectorWriter;
+    private final EmbeddingModel embeddingModel;
+
+    private final boolean enabled;
+    private final String distanceType;
+    private final int dimensions;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final long maxVectors;
+    private final double rebuildDeletedRatio;
+    private final int pollMillis;
+
+    private volatile Replica replica;
+    private volatile String state = "DISABLED";
+    private volatile String lastError;
+    private volatile Date loadedAt;
+    private volatile long loadMillis;
+    private volatile boolean running;
+    private Thread listenerThread;
+
+    // 统计信息
+    private final AtomicLong appliedChanges = new AtomicLong();
+    private final AtomicLong servedSearches = new AtomicLong();
+    private final AtomicLong fallbackSearches = new AtomicLong();
+
+    public VectorStoreReplica(JdbcTemplate jdbcTemplate, DataSource dataSource, ObjectMapper objectMapper,
+                              PgVectorWriter vectorWriter, EmbeddingModel embeddingModel,
+                              @Value("${app.vectorstore.replica.enabled:false}") boolean enabled,
+                              @Value("${spring.ai.vectorstore.pgvector.distance-type:COSINE_DISTANCE}") String distanceType,
+                              @Value("${spring.ai.vectorstore.pgvector.dimensions:1536}") int dimensions,
+                              @Value("${app.vectorstore.replica.m:16}") int m,
+                              @Value("${app.vectorstore.replica.ef-construction:128}") int efConstruction,
+                              @Value("${app.vectorstore.replica.ef-search:64}") int efSearch,
+                              @Value("${app.vectorstore.replica.max-vectors:500000}") long maxVectors,
+                              @Value("${app.vectorstore.replica.rebuild-deleted-ratio:0.3}") double rebuildDeletedRatio,
+                              @Value("${app.vectorstore.replica.poll-millis:500}") int pollMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSource = dataSource;
+        this.objectMapper = objectMapper;
+        this.vectorWriter = vectorWriter;
+        this.embeddingModel = embeddingModel;
+        this.enabled = enabled;
+        this.distanceType = distanceType;
+        this.dimensions = dimensions;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.maxVectors = maxVectors;
+        this.rebuildDeletedRatio = rebuildDeletedRatio;
+        this.pollMillis = pollMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (!"COSINE_DISTANCE".equals(distanceType)) {
+            log.warn("向量热副本只支持COSINE_DISTANCE，当前为 {}，检索继续使用pgvector", distanceType);
+            return;
+        }
+
+        initSchema();
+        state = "LOADING";
+        running = true;
+        listenerThread = new Thread(this::listen, "vector-replica");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (listenerThread != null) {
+            listenerThread.interrupt();
+        }
+    }
+
+    /**
+     * 包装VectorStore，检索优先使用热副本；写入和删除仍由pgvector完成，通过通知同步到副本
+     */
+    public VectorStore decorate(VectorStore delegate) {
+        return enabled ? new ReplicaVectorStore(delegate) : delegate;
+    }
+
+    public boolean isReady() {
+        return replica != null;
+    }
+
+    /**
+     * 在热副本中检索
+     *
+     * @return 副本未就绪或结果可能不完整时返回empty，调用方应回退到pgvector
+     */
+    public Optional<List<Document>> search(float[] query, int topK, double similarityThreshold, Filter.Expression filter) {
+        Replica current = replica;
+        if (current == null) {
+            return Optional.empty();
+        }
+
+        IntPredicate accept = filter == null
+                ? current.documents::containsKey
+                : node -> {
+                    StoredDocument document = current.documents.get(node);
+                    return document != null && MetadataFilterEvaluator.matches(filter, document.metadata());
+                };
+
+        List<HnswIndex.Neighbor> neighbors = current.index.search(query, topK, efSearch, accept);
+        if (neighbors.size() < topK && filter != null) {
+            // 过滤条件较严格时扩大候选列表再试一次
+            neighbors = current.index.search(query, topK, efSearch * 4, accept);
+        }
+        if (neighbors.size() < Math.min(topK, current.documents.size()) && (filter != null || current.index.deletedCount() > 0)) {
+            // 结果不足可能是过滤或删除造成的遗漏，交给pgvector保证结果完整
+            return Optional.empty();
+        }
+
+        List<Document> results = new ArrayList<>(neighbors.size());
+        for (HnswIndex.Neighbor neighbor : neighbors) {
+            if (neighbor.similarity() <= similarityThreshold) {
+                break;
+            }
+            StoredDocument stored = current.documents.get(neighbor.node());
+            if (stored == null) {
+                continue;
+            }
+            float distance = 1 - neighbor.similarity();
+            Map<String, Object> metadata = new HashMap<>(stored.metadata());
+            metadata.put(DocumentMetadata.DISTANCE.value(), distance);
+            results.add(Document.builder()
+                    .id(stored.id())
+                    .text(stored.content())
+                    .metadata(metadata)
+                    .score(1.0 - distance)
+                    .build());
+        }
+        return Optional.of(results);
+    }
+
+    /**
+     * 用表中随机抽取的向量作为查询，对比热副本与pgvector的召回率和延迟
+     * 基准结果在关闭索引扫描的事务中精确计算
+     *
+     * @param samples 查询数量
+     * @param topK 每次检索返回数量
+     */
+    public Map<String, Object> validate(int samples, int topK) {
+        Replica current = replica;
+        if (current == null) {
+            throw new IllegalStateException("向量热副本未就绪: " + state);
+        }
+
+        String table = vectorWriter.getQualifiedTableName();
+        List<float[]> queries = SearchQualityMeter.sampleQueries(jdbcTemplate, table, samples);
+
+        String annSql = "SELECT id FROM " + table + " ORDER BY embedding <=> ? LIMIT ?";
+        long[] replicaNanos = new long[queries.size()];
+        long[] pgvectorNanos = new long[queries.size()];
+        double replicaRecall = 0;
+        double pgvectorRecall = 0;
+
+        for (int i = 0; i < queries.size(); i++) {
+            float[] query = queries.get(i);
+            Set<String> exact = new HashSet<>(SearchQualityMeter.exactSearch(jdbcTemplate, table, "<=>", query, topK));
+
+            long start = System.nanoTime();
+            List<Document> fromReplica = search(query, topK, SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL, null)
+                    .orElse(List.of());
+            replicaNanos[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<String> fromPgvector = jdbcTemplate.queryForList(annSql, String.class, new PGvector(query), topK);
+            pgvectorNanos[i] = System.nanoTime() - start;
+
+            replicaRecall += SearchQualityMeter.recall(exact, fromReplica.stream().map(Document::getId).toList());
+            pgvectorRecall += SearchQualityMeter.recall(exact, fromPgvector);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("samples", queries.size());
+        result.put("topK", topK);
+        result.put("ef_search", efSearch);
+        result.put("replica_recall", replicaRecall / queries.size());
+        result.put("pgvector_recall", pgvectorRecall / queries.size());
+        result.put("replica_p50_micros", SearchQualityMeter.percentileMicros(replicaNanos, 50));
+        result.put("replica_p99_micros", SearchQualityMeter.percentileMicros(replicaNanos, 99));
+        result.put("pgvector_p50_micros", SearchQualityMeter.percentileMicros(pgvectorNanos, 50));
+        result.put("pgvector_p99_micros", SearchQualityMeter.percentileMicros(pgvectorNanos, 99));
+        return result;
+    }
+
+    /**
+     * 获取热副本状态
+     */
+    public Map<String, Object> getStatus() {
+        Replica current = replica;
+        Map<String, Object> status = new HashMap<>();
+        status.put("enabled", enabled);
+        status.put("state", state);
+        status.put("vectors", current != null ? current.documents.size() : 0);
+        status.put("index_nodes", current != null ? current.index.size() : 0);
+        status.put("deleted_nodes", current != null ? current.index.deletedCount() : 0);
+        status.put("loaded_at", loadedAt);
+        status.put("load_millis", loadMillis);
+        status.put("applied_changes", appliedChanges.get());
+        status.put("served_searches", servedSearches.get());
+        status.put("fallback_searches", fallbackSearches.get());
+        if (lastError != null) {
+            status.put("last_error", lastError);
+        }
+        return status;
+    }
+
+    /**
+     * 创建变更通知触发器，行级变化通知文档块ID，TRUNCATE通知整表清空
+     */
+    private void initSchema() {
+        String table = vectorWriter.getQualifiedTableName();
+        jdbcTemplate.execute("""
+                CREATE OR REPLACE FUNCTION vector_store_notify_change() RETURNS trigger AS $$
+                BEGIN
+                    IF TG_OP = 'TRUNCATE' THEN
+                        PERFORM pg_notify('vector_store_changes', 'T');
+                    ELSIF TG_OP = 'DELETE' THEN
+                        PERFORM pg_notify('vector_store_changes', 'D' || OLD.id);
+                    ELSE
+                        PERFORM pg_notify('vector_store_changes', 'U' || NEW.id);
+                    END IF;
+                    RETURN NULL;
+                END
+                $$ LANGUAGE plpgsql
+                """);
+        jdbcTemplate.execute("CREATE OR REPLACE TRIGGER vector_store_notify_row AFTER INSERT OR UPDATE OR DELETE ON "
+                + table + " FOR EACH ROW EXECUTE FUNCTION vector_store_notify_change()");
+        jdbcTemplate.execute("CREATE OR REPLACE TRIGGER vector_store_notify_truncate AFTER TRUNCATE ON "
+                + table + " FOR EACH STATEMENT EXECUTE FUNCTION vector_store_notify_change()");
+    }
+
+    /**
+     * 通知线程：先LISTEN再加载全量数据，加载期间的变化留在通知队列中随后应用；连接中断后重连并重新加载
+     */
+    private void listen() {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                reload();
+
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(pollMillis);
+                    if (notifications != null && notifications.length > 0) {
+                        apply(notifications);
+                    }
+                    Replica current = replica;
+                    if (current != null && current.index.deletedCount() > current.index.size() * rebuildDeletedRatio) {
+                        log.info("向量热副本中已删除节点超过 {}%，重新加载", (int) (rebuildDeletedRatio * 100));
+                        reload();
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                // 通知可能已经丢失，回退到pgvector直到重新加载完成
+                replica = null;
+                state = "RECONNECTING";
+                lastError = e.getMessage();
+                log.warn("向量热副本同步中断，稍后重新加载: {}", e.getMessage());
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    private void reload() {
+        String table = vectorWriter.getQualifiedTableName();
+        Long count = jdbcTemplate.queryForObject("SELECT count(*) FROM " + table, Long.class);
+        if (count != null && count > maxVectors) {
+            replica = null;
+            state = "TOO_LARGE";
+            log.warn("vector_store中有 {} 个文档块，超过热副本上限 {}，检索继续使用pgvector", count, maxVectors);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Replica loaded = new Replica(new HnswIndex(dimensions, m, efConstruction, 42));
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            // 关闭自动提交后fetchSize才会生效，按批读取而不是一次读入整张表
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.setFetchSize(1000);
+                try (ResultSet rs = statement.executeQuery("SELECT id, content, metadata::text AS metadata, "
+                        + "embedding::text AS embedding FROM " + table)) {
+                    while (rs.next()) {
+                        loaded.upsert(toStoredDocument(rs), new PGvector(rs.getString("embedding")).toArray());
+                    }
+                }
+                connection.commit();
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+
+        replica = loaded;
+        loadMillis = System.currentTimeMillis() - start;
+        loadedAt = new Date();
+        state = "READY";
+        lastError = null;
+        log.info("向量热副本加载完成: {} 个文档块, 耗时 {} ms", loaded.documents.size(), loadMillis);
+    }
+
+    private void apply(PGNotification[] notifications) {
+        Replica current = replica;
+        if (current == null) {
+            return;
+        }
+
+        // 同一文档块的多次变化只保留最后一次
+        Map<String, Boolean> changes = new LinkedHashMap<>();
+        for (PGNotification notification : notifications) {
+            if (!CHANNEL.equals(notification.getName())) {
+                continue;
+            }
+            String payload = notification.getParameter();
+            if ("T".equals(payload)) {
+                changes.clear();
+                current = new Replica(new HnswIndex(dimensions, m, efConstruction, 42));
+                replica = current;
+                continue;
+            }
+            String id = payload.substring(1);
+            changes.remove(id);
+            changes.put(id, payload.charAt(0) == 'U');
+        }
+
+        List<String> upserts = new ArrayList<>();
+        for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+            if (change.getValue()) {
+                upserts.add(change.getKey());
+            } else {
+                current.delete(change.getKey());
+            }
+        }
+
+        for (int from = 0; from < upserts.size(); from += FETCH_BATCH_SIZE) {
+            List<String> ids = upserts.subList(from, Math.min(from + FETCH_BATCH_SIZE, upserts.size()));
+            Set<String> found = new HashSet<>();
+            Replica target = current;
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement("SELECT id, content, metadata::text AS metadata, "
+                        + "embedding::text AS embedding FROM " + vectorWriter.getQualifiedTableName() + " WHERE id = ANY (?)");
+                Array idArray = connection.createArrayOf("uuid", ids.stream().map(UUID::fromString).toArray());
+                ps.setArray(1, idArray);
+                return ps;
+            }, rs -> {
+                StoredDocument document = toStoredDocument(rs);
+                found.add(document.id());
+                target.upsert(document, new PGvector(rs.getString("embedding")).toArray());
+            });
+            // 通知之后又被删除的文档块
+            ids.stream().filter(id -> !found.contains(id)).forEach(target::delete);
+        }
+        appliedChanges.addAndGet(changes.size());
+    }
+
+    private StoredDocument toStoredDocument(ResultSet rs) throws SQLException {
+        try {
+            String metadata = rs.getString("metadata");
+            Map<String, Object> metadataMap = metadata == null ? Map.of()
+                    : objectMapper.readValue(metadata, new TypeReference<Map<String, Object>>() { });
+            return new StoredDocument(rs.getString("id"), rs.getString("content"), metadataMap);
+        } catch (Exception e) {
+            throw new SQLException("解析文档块元数据失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 一份完整的副本：HNSW索引和节点对应的文档块，只由通知线程写入
+     */
+    private static class Replica {
+
+        private final HnswIndex index;
+        private final Map<Integer, StoredDocument> documents = new ConcurrentHashMap<>();
+        private final Map<String, Integer> nodeById = new ConcurrentHashMap<>();
+
+        Replica(HnswIndex index) {
+            this.index = index;
+        }
+
+        void upsert(StoredDocument document, float[] embedding) {
+            int node = index.add(embedding);
+            documents.put(node, document);
+            Integer previous = nodeById.put(document.id(), node);
+            if (previous != null) {
+                index.markDeleted(previous);
+                documents.remove(previous);
+            }
+        }
+
+        void delete(String id) {
+            Integer node = nodeById.remove(id);
+            if (node != null) {
+                index.markDeleted(node);
+                documents.remove(node);
+            }
+        }
+    }
+
+    private record StoredDocument(String id, String content, Map<String, Object> metadata) {
+    }
+
+    /**
+     * 检索优先使用热副本的VectorStore
+     */
+    private class ReplicaVectorStore implements VectorStore {
+
+        private final VectorStore delegate;
+
+        ReplicaVectorStore(VectorStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void add(List<Document> documents) {
+            delegate.add(documents);
+        }
+
+        @Override
+        public void delete(List<String> idList) {
+            delegate.delete(idList);
+        }
+
+        @Override
+        public void delete(Filter.Expression filterExpression) {
+            delegate.delete(filterExpression);
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            if (isReady()) {
+                // 回退时pgvector再次向量化查询会命中查询向量缓存
+                float[] query = embeddingModel.embed(request.getQuery());
+                Optional<List<Document>> results = search(query, request.getTopK(), request.getSimilarityThreshold(),
+                        request.getFilterExpression());
+                if (results.isPresent()) {
+                    servedSearches.incrementAndGet();
+                    return results.get();
+                }
+            }
+            fallbackSearches.incrementAndGet();
+            return delegate.similaritySearch(request);
+        }
+
+        @Override
+        public String getName() {
+            return delegate.getName();
+        }
+
+        @Override
+        public <T> Optional<T> getNativeClient() {
+            return delegate.getNativeClient();
+        }
+    }
+}
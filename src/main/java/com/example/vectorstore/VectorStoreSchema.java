@@ -0,0 +1,205 @@
+package com.example.vectorstore;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * vector_store辅助索引初始化
+ * PgVectorStore只创建向量索引，这里补充按元数据查询所需的表达式索引；
+ * 大批量导入时可以暂时删除向量索引，导入完成后一次性重建，避免逐行维护HNSW图；配置分片时在每个分片上执行
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class VectorStoreSchema {
+
+    /**
+     * 全文索引的tsvector表达式，查询条件与之完全一致时才能使用索引
+     */
+    public static final String CONTENT_TSVECTOR = "to_tsvector('simple', rag_cjk_segment(content))";
+
+    // 注入VectorStore以保证其建表逻辑先于本组件执行
+    private final VectorStore vectorStore;
+    private final VectorStoreShards vectorStoreShards;
+    private final PgVectorWriter vectorWriter;
+
+    @Value("${spring.ai.vectorstore.pgvector.initialize-schema:true}")
+    private boolean initializeSchema;
+
+    @Value("${app.rag.hybrid.enabled:true}")
+    private boolean fullTextSearch;
+
+    // 同时进行的延迟建索引导入数，由第一个导入删除索引、最后一个导入重建索引
+    private int deferredLoads;
+    // 已删除、尚未重建成功的向量索引
+    private List<DeferredIndex> deferredIndexes = new ArrayList<>();
+
+    @PostConstruct
+    public void initSchema() {
+        if (!initializeSchema) {
+            return;
+        }
+        String table = vectorWriter.getQualifiedTableName();
+        for (JdbcTemplate jdbcTemplate : vectorStoreShards.getJdbcTemplates()) {
+            initSchema(jdbcTemplate, table);
+        }
+        log.debug("vector_store辅助索引初始化完成");
+    }
+
+    private void initSchema(JdbcTemplate jdbcTemplate, String table) {
+        // 增量更新时按逻辑文档ID查找已有文档块
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS vector_store_document_id_idx ON " + table
+                + " ((metadata->>'document_id'))");
+        // 按来源文件删除文档块
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS vector_store_source_file_idx ON " + table
+                + " ((metadata->>'source_file'))");
+        initCategoryColumn(jdbcTemplate, table);
+
+        if (fullTextSearch) {
+            initFullTextIndex(jdbcTemplate, table);
+        }
+
+        // 向量存储统计视图，分片上没有执行init-db.sql，统一在这里创建
+        jdbcTemplate.execute("""
+                CREATE OR REPLACE VIEW vector_store_stats AS
+                SELECT
+                    COUNT(*) as total_vectors,
+                    COUNT(CASE WHEN metadata->>'category' IS NOT NULL THEN 1 END) as categorized_vectors,
+                    COUNT(DISTINCT metadata->>'source_file') as unique_source_files,
+                    AVG(length(content)) as avg_content_length
+                """ + "FROM " + table);
+    }
+
+    /**
+     * 类别由metadata生成为独立的列，写入路径不需要改动；按类别检索和删除都使用该列上的索引。
+     * 已有数据的表添加存储列时会重写整张表，只在第一次启动时发生
+     */
+    private void initCategoryColumn(JdbcTemplate jdbcTemplate, String table) {
+        Boolean exists = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_attribute WHERE attrelid = ?::regclass AND attname = 'category' AND NOT attisdropped)",
+                Boolean.class, table);
+        if (!Boolean.TRUE.equals(exists)) {
+            log.info("为 {} 添加category列，已有数据时需要重写整张表", table);
+            jdbcTemplate.execute("ALTER TABLE " + table
+                    + " ADD COLUMN category text GENERATED ALWAYS AS (metadata->>'category') STORED");
+        }
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS vector_store_category_col_idx ON " + table + " (category)");
+        // 旧版本在metadata表达式上建立的类别索引已被列索引取代
+        jdbcTemplate.execute("DROP INDEX IF EXISTS " + schemaOf(table) + ".vector_store_category_idx");
+    }
+
+    /**
+     * 混合检索使用的全文索引
+     * 没有中文分词扩展时，在每个中文字符两侧加空格，由simple配置切成带位置的单字，
+     * 查询时用相邻两字的短语匹配；函数声明为IMMUTABLE才能用于表达式索引
+     */
+    private void initFullTextIndex(JdbcTemplate jdbcTemplate, String table) {
+        jdbcTemplate.execute("""
+                CREATE OR REPLACE FUNCTION rag_cjk_segment(text) RETURNS text
+                LANGUAGE sql IMMUTABLE STRICT PARALLEL SAFE AS
+                $$ SELECT regexp_replace($1, '([\\u3400-\\u9fff\\uf900-\\ufaff])', ' \\1 ', 'g') $$
+                """);
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS vector_store_content_fts_idx ON " + table
+                + " USING gin (" + CONTENT_TSVECTOR + ")");
+    }
+
+    /**
+     * 删除embedding列上的向量索引（HNSW/IVFFlat），供大批量导入开始时调用
+     * 只删除直接建在embedding列上的整表索引：类别的部分索引由CategoryVectorSearch按类别维护，
+     * 量化的表达式索引由QuantizedVectorSearch创建，它们都保持不变，导入期间仍然随写入更新。
+     * 索引定义保存在内存中，由restoreVectorIndexes重建；进程在两者之间退出时，
+     * 开启initialize-schema的PgVectorStore会在下次启动时重新创建默认索引。
+     * 删除失败时重建已删除的索引并抛出异常，不计入进行中的导入
+     */
+    public synchronized void deferVectorIndexes() {
+        if (deferredLoads > 0) {
+            deferredLoads++;
+            return;
+        }
+
+        try {
+            for (JdbcTemplate jdbcTemplate : vectorStoreShards.getJdbcTemplates()) {
+                List<Map<String, Object>> indexes = jdbcTemplate.queryForList("""
+                        SELECT x.indexrelid::regclass::text AS index_name, pg_get_indexdef(x.indexrelid) AS definition
+                        FROM pg_index x
+                        JOIN pg_class i ON i.oid = x.indexrelid
+                        JOIN pg_am am ON am.oid = i.relam
+                        JOIN pg_attribute a ON a.attrelid = x.indrelid AND a.attnum = x.indkey[0]
+                        WHERE x.indrelid = ?::regclass AND am.amname IN ('hnsw', 'ivfflat')
+                          AND a.attname = 'embedding' AND x.indexprs IS NULL AND x.indpred IS NULL
+                        """, vectorWriter.getQualifiedTableName());
+
+                for (Map<String, Object> index : indexes) {
+                    String definition = (String) index.get("definition");
+                    log.warn("批量导入期间删除向量索引，导入完成后重建: {}", definition);
+                    jdbcTemplate.execute("DROP INDEX IF EXISTS " + index.get("index_name"));
+                    deferredIndexes.add(new DeferredIndex(jdbcTemplate, definition));
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("删除向量索引失败，重建已删除的索引", e);
+            rebuildDeferredIndexes();
+            throw e;
+        }
+        deferredLoads++;
+    }
+
+    /**
+     * 重建deferVectorIndexes删除的向量索引，仍有其他导入在进行时只减少计数
+     * 每个索引单独重建，失败的索引定义保留下来，没有进行中的导入时再次调用即可重试
+     *
+     * @return 重建索引的耗时（毫秒）
+     * @throws IllegalStateException 有索引重建失败
+     */
+    public synchronized long restoreVectorIndexes() {
+        if (deferredLoads > 0 && --deferredLoads > 0) {
+            return 0;
+        }
+
+        long start = System.currentTimeMillis();
+        List<String> failed = rebuildDeferredIndexes();
+        long elapsed = System.currentTimeMillis() - start;
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("重建向量索引失败，可再次调用重建: " + failed);
+        }
+        log.info("向量索引重建完成，耗时 {} ms", elapsed);
+        return elapsed;
+    }
+
+    /**
+     * @return 重建失败的索引定义，这些索引仍保留在待重建列表中
+     */
+    private List<String> rebuildDeferredIndexes() {
+        List<DeferredIndex> failed = new ArrayList<>();
+        for (DeferredIndex index : deferredIndexes) {
+            try {
+                log.info("重建向量索引: {}", index.definition());
+                index.jdbcTemplate().execute(index.definition());
+            } catch (RuntimeException e) {
+                log.error("重建向量索引失败: {}", index.definition(), e);
+                failed.add(index);
+            }
+        }
+        deferredIndexes = failed;
+        return failed.stream().map(DeferredIndex::definition).toList();
+    }
+
+    private record DeferredIndex(JdbcTemplate jdbcTemplate, String definition) {
+    }
+
+    private static String schemaOf(String qualifiedTableName) {
+        int dot = qualifiedTableName.indexOf('.');
+        return dot > 0 ? qualifiedTableName.substring(0, dot) : "public";
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.vectorstore;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * vector_store分片
+ * 配置多个分片时，文档块按逻辑文档ID（元数据document_id，没有时使用文档块ID）的哈希分配到各分片的vector_store表，
+ * 同一文档的文档块在同一分片上，增量入库和按文档ID删除只访问一个分片；
+ * 不分片时只有一个分片，即主库的vector_store。documents登记表等其余表始终在主库。
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+public class VectorStoreShards {
+
+    // 与IncrementalIngestionService.DOCUMENT_ID一致
+    private static final String DOCUMENT_ID = "document_id";
+
+    private final List<Shard> shards = new ArrayList<>();
+    private final boolean sharded;
+
+    // 统计信息
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong partialSearches = new AtomicLong();
+    private final AtomicLong failedSearches = new AtomicLong();
+
+    /**
+     * @param shardDataSources 分片名称（如JDBC URL）到分片连接池，顺序决定文档块的分配，扩缩分片后需要重新导入
+     */
+    public VectorStoreShards(Map<String, DataSource> shardDataSources) {
+        if (shardDataSources.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个分片");
+        }
+        shardDataSources.forEach((name, dataSource) -> shards.add(new Shard(name, dataSource, new JdbcTemplate(dataSource))));
+        this.sharded = true;
+    }
+
+    private VectorStoreShards(JdbcTemplate jdbcTemplate) {
+        shards.add(new Shard("primary", null, jdbcTemplate));
+        this.sharded = false;
+    }
+
+    /**
+     * 不分片时使用，唯一的分片是主库
+     */
+    public static VectorStoreShards single(JdbcTemplate jdbcTemplate) {
+        return new VectorStoreShards(jdbcTemplate);
+    }
+
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    public int size() {
+        return shards.size();
+    }
+
+    public String getName(int shard) {
+        return shards.get(shard).name;
+    }
+
+    public JdbcTemplate getJdbcTemplate(int shard) {
+        return shards.get(shard).jdbcTemplate;
+    }
+
+    public List<JdbcTemplate> getJdbcTemplates() {
+        return shards.stream().map(shard -> shard.jdbcTemplate).toList();
+    }
+
+    /**
+     * 逻辑文档所在分片的JdbcTemplate
+     */
+    public JdbcTemplate forDocument(String documentId) {
+        return getJdbcTemplate(shardOf(documentId));
+    }
+
+    /**
+     * 文档块所在的分片
+     */
+    public int shardOf(Document document) {
+        Object documentId = document.getMetadata().get(DOCUMENT_ID);
+        return shardOf(documentId != null ? documentId.toString() : document.getId());
+    }
+
+    /**
+     * 按CRC32哈希取模，与进程和JVM无关，重启后分配不变
+     */
+    public int shardOf(String key) {
+        if (shards.size() == 1) {
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(key.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % shards.size());
+    }
+
+    /**
+     * 把文档块及其向量按分片分组，保持组内顺序
+     */
+    public Map<Integer, ShardBatch> partition(List<Document> documents, List<float[]> embeddings) {
+        Map<Integer, ShardBatch> batches = new LinkedHashMap<>();
+        for (int i = 0; i < documents.size(); i++) {
+            ShardBatch batch = batches.computeIfAbsent(shardOf(documents.get(i)),
+                    shard -> new ShardBatch(new ArrayList<>(), new ArrayList<>()));
+            batch.documents().add(documents.get(i));
+            batch.embeddings().add(embeddings.get(i));
+        }
+        return batches;
+    }
+
+    void recordSearch(int shard, long elapsedNanos) {
+        shards.get(shard).searches.incrementAndGet();
+        shards.get(shard).searchNanos.addAndGet(elapsedNanos);
+    }
+
+    void recordFailure(int shard, boolean timeout) {
+        (timeout ? shards.get(shard).timeouts : shards.get(shard).failures).incrementAndGet();
+    }
+
+    void recordScatter(boolean partial, boolean failed) {
+        searches.incrementAndGet();
+        if (failed) {
+            failedSearches.incrementAndGet();
+        } else if (partial) {
+            partialSearches.incrementAndGet();
+        }
+    }
+
+    /**
+     * 获取分片检索统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", sharded);
+        stats.put("searches", searches.get());
+        stats.put("partial_searches", partialSearches.get());
+        stats.put("failed_searches", failedSearches.get());
+
+        List<Map<String, Object>> shardStats = new ArrayList<>();
+        for (Shard shard : shards) {
+            Map<String, Object> shardStat = new LinkedHashMap<>();
+            long shardSearches = shard.searches.get();
+            shardStat.put("name", shard.name);
+            shardStat.put("searches", shardSearches);
+            shardStat.put("failures", shard.failures.get());
+            shardStat.put("timeouts", shard.timeouts.get());
+            shardStat.put("avg_latency_ms", shardSearches == 0 ? 0.0 : shard.searchNanos.get() / 1_000_000.0 / shardSearches);
+            shardStats.add(shardStat);
+        }
+        stats.put("shards", shardStats);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Shard shard : shards) {
+            if (shard.dataSource instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    log.warn("关闭分片 {} 的连接池失败", shard.name, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 同一分片的文档块及其向量
+     */
+    public record ShardBatch(List<Document> documents, List<float[]> embeddings) {
+    }
+
+    private static class Shard {
+
+        private final String name;
+        private final DataSource dataSource;
+        private final JdbcTemplate jdbcTemplate;
+        private final AtomicLong searches = new AtomicLong();
+        private final AtomicLong searchNanos = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+
+        Shard(String name, DataSource dataSource, JdbcTemplate jdbcTemplate) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.jdbcTemplate = jdbcTemplate;
+        }
+    }
+}
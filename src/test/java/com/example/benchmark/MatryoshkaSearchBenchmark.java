@@ -0,0 +1,184 @@
+package com.example.benchmark;
+
+import com.example.vectorstore.PgVectorWriter;
+import com.example.vectorstore.QuantizedVectorSearch;
+import com.example.vectorstore.QuantizedVectorSearch.Quantization;
+import com.example.vectorstore.SearchPlanner;
+import com.example.vectorstore.VectorStoreShards;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore.PgDistanceType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * 两阶段Matryoshka检索JMH基准测试
+ * 对比单阶段检索（原始1536维HNSW索引）与两阶段检索（截断为256/512维的归一化HNSW索引取候选、原始向量重排）
+ * 的每次查询耗时；启动时另外输出以顺序扫描为基准的recall@k、p50/p99延迟和各索引大小。
+ * 测试向量的方差随维度递减，模拟text-embedding-3系列模型前若干维包含主要信息的特点。
+ *
+ * 默认通过Testcontainers启动pgvector/pgvector:pg16，也可以用 -Dbenchmark.jdbc-url 指定已有数据库
+ * （同时指定 -Dbenchmark.username、-Dbenchmark.password，基准测试会重建其中的vector_store表）。
+ *
+ * 运行方式: mvn test-compile exec:java -Dexec.classpathScope=test
+ *          -Dexec.mainClass=com.example.benchmark.MatryoshkaSearchBenchmark
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class MatryoshkaSearchBenchmark {
+
+    private static final int ROWS = 50000;
+    private static final int DIMENSIONS = 1536;
+    private static final int TOP_K = 10;
+
+    @Param({"256", "512"})
+    private int truncatedDimensions;
+
+    private PostgreSQLContainer<?> postgres;
+    private HikariDataSource dataSource;
+    private QuantizedVectorSearch search;
+
+    private final List<float[]> queries = new ArrayList<>();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String jdbcUrl = System.getProperty("benchmark.jdbc-url");
+        dataSource = new HikariDataSource();
+        if (jdbcUrl != null) {
+            dataSource.setJdbcUrl(jdbcUrl);
+            dataSource.setUsername(System.getProperty("benchmark.username", "postgres"));
+            dataSource.setPassword(System.getProperty("benchmark.password", "postgres"));
+        } else {
+            postgres = new PostgreSQLContainer<>("pgvector/pgvector:pg16");
+            postgres.start();
+            dataSource.setJdbcUrl(postgres.getJdbcUrl());
+            dataSource.setUsername(postgres.getUsername());
+            dataSource.setPassword(postgres.getPassword());
+        }
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+
+        // 建表时不建索引，写入完成后再建立原始精度和截断维度的索引
+        PgVectorStore.builder(jdbcTemplate, embeddingModel)
+                .dimensions(DIMENSIONS)
+                .distanceType(PgDistanceType.COSINE_DISTANCE)
+                .indexType(PgVectorStore.PgIndexType.NONE)
+                .initializeSchema(true)
+                .removeExistingVectorStoreTable(true)
+                .build()
+                .afterPropertiesSet();
+
+        PgVectorWriter vectorWriter = new PgVectorWriter(VectorStoreShards.single(jdbcTemplate), new ObjectMapper());
+        ReflectionTestUtils.setField(vectorWriter, "schemaName", "public");
+        ReflectionTestUtils.setField(vectorWriter, "tableName", "vector_store");
+        ReflectionTestUtils.setField(vectorWriter, "maxDocumentBatchSize", 1000);
+
+        Random random = new Random(42);
+        for (int from = 0; from < ROWS; from += 5000) {
+            List<Document> documents = new ArrayList<>();
+            List<float[]> embeddings = new ArrayList<>();
+            for (int i = from; i < from + 5000; i++) {
+                documents.add(new Document("文档块 " + i, Map.of("category", "基准测试")));
+                embeddings.add(matryoshkaVector(random));
+            }
+            vectorWriter.copy(documents, embeddings);
+        }
+        for (int i = 0; i < 200; i++) {
+            queries.add(matryoshkaVector(random));
+        }
+
+        jdbcTemplate.execute("SET maintenance_work_mem = '1GB'");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS spring_ai_vector_index ON vector_store"
+                + " USING hnsw (embedding vector_cosine_ops)");
+        SearchPlanner searchPlanner = new SearchPlanner(jdbcTemplate, vectorWriter, false, 4, 20, 2000, 10000, 200000, 60);
+        search = new QuantizedVectorSearch(jdbcTemplate, new ObjectMapper(), vectorWriter, embeddingModel, searchPlanner,
+                Quantization.MATRYOSHKA, PgDistanceType.COSINE_DISTANCE, DIMENSIONS, truncatedDimensions, 4, true);
+        search.initSchema();
+        jdbcTemplate.execute("ANALYZE vector_store");
+
+        log.info("截断维度 {} 的召回率、延迟和索引大小: {}", truncatedDimensions, search.compare(100, TOP_K));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.close();
+        if (postgres != null) {
+            postgres.stop();
+        }
+    }
+
+    @Benchmark
+    public List<Document> singleStage() {
+        return search.search(Quantization.NONE, nextQuery(), TOP_K, SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL, null);
+    }
+
+    @Benchmark
+    public List<Document> twoStage() {
+        return search.search(Quantization.MATRYOSHKA, nextQuery(), TOP_K, SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL, null);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MatryoshkaSearchBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    private float[] nextQuery() {
+        next = (next + 1) % queries.size();
+        return queries.get(next);
+    }
+
+    /**
+     * 方差随维度指数递减的单位向量
+     */
+    private static float[] matryoshkaVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        double norm = 0;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) (random.nextGaussian() * Math.exp(-i / 256.0));
+            norm += vector[i] * vector[i];
+        }
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] /= (float) Math.sqrt(norm);
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.benchmark;
+
+import com.example.splitter.FastTokenTextSplitter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文本分割器JMH基准测试
+ * 对比TokenTextSplitter与FastTokenTextSplitter分割一组PDF页面的耗时，
+ * 加上 -prof gc 参数可以同时对比每次操作的内存分配量
+ *
+ * 运行方式: mvn test-compile exec:java -Dexec.classpathScope=test
+ *          -Dexec.mainClass=com.example.benchmark.TextSplitterBenchmark
+ *
+ * @author AI Assistant
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextSplitterBenchmark {
+
+    @Param({"1", "50"})
+    private int pages;
+
+    private List<Document> documents;
+    private TokenTextSplitter tokenTextSplitter;
+    private FastTokenTextSplitter fastTokenTextSplitter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // 与ChatConfig中的分割参数保持一致
+        tokenTextSplitter = new TokenTextSplitter(1000, 200, 5, 10000, true);
+        fastTokenTextSplitter = new FastTokenTextSplitter(1000, 200, 5, 10000, true);
+
+        // 总文本量固定，页数越多单页越短，可观察并行分割的收益
+        documents = new ArrayList<>();
+        int paragraphsPerPage = 4000 / pages;
+        Random random = new Random(42);
+        for (int page = 1; page <= pages; page++) {
+            documents.add(new Document(generateText(random, paragraphsPerPage), Map.of("page_number", page)));
+        }
+    }
+
+    @Benchmark
+    public List<Document> tokenTextSplitter() {
+        return tokenTextSplitter.apply(documents);
+    }
+
+    @Benchmark
+    public List<Document> fastTokenTextSplitter() {
+        return fastTokenTextSplitter.apply(documents);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TextSplitterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    private static String generateText(Random random, int paragraphs) {
+        String[] sentences = {
+                "Spring AI提供了与多种AI模型提供商的集成。",
+                "检索增强生成(RAG)将信息检索与语言生成相结合！",
+                "The vector store keeps one embedding per chunk.",
+                "Why does the splitter cut at the last punctuation mark?",
+                "向量数据库使用HNSW索引加速相似性搜索，ef_search越大召回率越高",
+                "Error code E-1024 indicates that the upload was interrupted."
+        };
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < paragraphs; i++) {
+            int length = 1 + random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                text.append(sentences[random.nextInt(sentences.length)]).append(' ');
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+}
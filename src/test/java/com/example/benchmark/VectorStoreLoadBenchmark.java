@@ -0,0 +1,221 @@
+package com.example.benchmark;
+
+import com.example.vectorstore.PgVectorWriter;
+import com.example.vectorstore.VectorStoreShards;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * vector_store写入JMH基准测试
+ * 对比三种写入路径每秒写入的行数：VectorStore.add（embedding使用固定向量，只衡量数据库写入）、
+ * PgVectorWriter的批量upsert、以及二进制COPY；hnswIndex=false时表中没有向量索引，
+ * 对应导入期间延迟建索引的情况。
+ *
+ * 默认通过Testcontainers启动pgvector/pgvector:pg16，也可以用 -Dbenchmark.jdbc-url 指定已有数据库
+ * （同时指定 -Dbenchmark.username、-Dbenchmark.password，基准测试会清空其中的vector_store表）。
+ *
+ * 运行方式: mvn test-compile exec:java -Dexec.classpathScope=test
+ *          -Dexec.mainClass=com.example.benchmark.VectorStoreLoadBenchmark
+ *
+ * @author AI Assistant
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class VectorStoreLoadBenchmark {
+
+    // 每次调用写入的行数，吞吐量结果即为每秒写入的行数
+    private static final int ROWS = 5000;
+    private static final int DIMENSIONS = 1536;
+
+    @Param({"true", "false"})
+    private boolean hnswIndex;
+
+    private PostgreSQLContainer<?> postgres;
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private PgVectorStore vectorStore;
+    private PgVectorWriter vectorWriter;
+
+    private final List<float[]> vectorPool = new ArrayList<>();
+    private List<Document> documents;
+    private List<float[]> embeddings;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String jdbcUrl = System.getProperty("benchmark.jdbc-url");
+        dataSource = new HikariDataSource();
+        if (jdbcUrl != null) {
+            dataSource.setJdbcUrl(jdbcUrl);
+            dataSource.setUsername(System.getProperty("benchmark.username", "postgres"));
+            dataSource.setPassword(System.getProperty("benchmark.password", "postgres"));
+        } else {
+            postgres = new PostgreSQLContainer<>("pgvector/pgvector:pg16");
+            postgres.start();
+            dataSource.setJdbcUrl(postgres.getJdbcUrl());
+            dataSource.setUsername(postgres.getUsername());
+            dataSource.setPassword(postgres.getPassword());
+        }
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 256; i++) {
+            vectorPool.add(randomUnitVector(random));
+        }
+
+        vectorStore = PgVectorStore.builder(jdbcTemplate, new FixedEmbeddingModel(vectorPool))
+                .dimensions(DIMENSIONS)
+                .distanceType(PgVectorStore.PgDistanceType.COSINE_DISTANCE)
+                .indexType(hnswIndex ? PgVectorStore.PgIndexType.HNSW : PgVectorStore.PgIndexType.NONE)
+                .initializeSchema(true)
+                .removeExistingVectorStoreTable(true)
+                .maxDocumentBatchSize(1000)
+                .build();
+        vectorStore.afterPropertiesSet();
+
+        vectorWriter = new PgVectorWriter(VectorStoreShards.single(jdbcTemplate), new ObjectMapper());
+        ReflectionTestUtils.setField(vectorWriter, "schemaName", "public");
+        ReflectionTestUtils.setField(vectorWriter, "tableName", "vector_store");
+        ReflectionTestUtils.setField(vectorWriter, "maxDocumentBatchSize", 1000);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareRows() {
+        jdbcTemplate.execute("TRUNCATE vector_store");
+
+        // 每次调用使用新的文档ID，COPY只写入新行
+        Random random = new Random();
+        documents = new ArrayList<>(ROWS);
+        embeddings = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            documents.add(new Document(randomText(random), Map.of(
+                    "source_file", "benchmark.txt",
+                    "category", "基准测试",
+                    "document_id", "benchmark-" + (i % 50))));
+            embeddings.add(vectorPool.get(i % vectorPool.size()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.close();
+        if (postgres != null) {
+            postgres.stop();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void vectorStoreAdd() {
+        vectorStore.add(documents);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void batchUpsert() {
+        vectorWriter.write(documents, embeddings);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long binaryCopy() {
+        return vectorWriter.copy(documents, embeddings);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VectorStoreLoadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    private static float[] randomUnitVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        double norm = 0;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] /= (float) Math.sqrt(norm);
+        }
+        return vector;
+    }
+
+    /**
+     * 生成长度与实际文档块相近（约1000 tokens）的中英文混合文本
+     */
+    private static String randomText(Random random) {
+        String[] words = {"员工", "远程办公", "申请", "审批", "Spring AI", "向量", "检索", "文档", "embedding", "配置"};
+        StringBuilder text = new StringBuilder(2400);
+        while (text.length() < 2000) {
+            text.append(words[random.nextInt(words.length)]).append(random.nextInt(10) == 0 ? "。\n" : "，");
+        }
+        return text.toString();
+    }
+
+    /**
+     * 返回固定向量的embedding模型，使VectorStore.add的耗时只包含写入数据库
+     */
+    private static class FixedEmbeddingModel implements EmbeddingModel {
+
+        private final List<float[]> vectors;
+
+        FixedEmbeddingModel(List<float[]> vectors) {
+            this.vectors = vectors;
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> results = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                results.add(new Embedding(vectors.get(i % vectors.size()), i));
+            }
+            return new EmbeddingResponse(results);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vectors.get(0);
+        }
+
+        @Override
+        public int dimensions() {
+            return DIMENSIONS;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.datasource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 只读副本路由测试
+ * 验证读范围内的连接轮询分配到健康副本、延迟超限或未回放到写入位置的副本被跳过，以及读范围传递到线程池
+ *
+ * @author AI Assistant
+ */
+class ReadReplicaRouterTest {
+
+    private static final long MAX_LAG = 1024;
+
+    private final Connection primaryConnection = mock(Connection.class);
+    private final Connection replica1Connection = mock(Connection.class);
+    private final Connection replica2Connection = mock(Connection.class);
+    private ReadReplicaRouter router;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        replicas.put("replica-1", dataSource(replica1Connection));
+        replicas.put("replica-2", dataSource(replica2Connection));
+        router = new ReadReplicaRouter(dataSource(primaryConnection), replicas, MAX_LAG, 0);
+        router.recordPrimaryLsn(10_000);
+        router.recordReplica(0, 10_000L, null);
+        router.recordReplica(1, 9_500L, null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        router.shutdown();
+    }
+
+    @Test
+    void testReadsAreBalancedAcrossReplicas() throws Exception {
+        DataSource dataSource = router.getDataSource();
+
+        assertSame(primaryConnection, dataSource.getConnection());
+        List<Connection> reads = router.read(() -> List.of(connection(), connection(), connection(), connection()));
+
+        assertEquals(List.of(replica1Connection, replica2Connection, replica1Connection, replica2Connection), reads);
+        assertSame(primaryConnection, dataSource.getConnection());
+    }
+
+    @Test
+    void testLaggingReplicaIsSkipped() {
+        router.recordReplica(1, 10_000L - MAX_LAG - 1, null);
+
+        assertEquals(List.of(replica1Connection, replica1Connection), router.read(() -> List.of(connection(), connection())));
+
+        router.recordReplica(0, null, "Connection refused");
+        assertSame(primaryConnection, router.read(this::connection));
+        assertEquals(1L, router.getStats().get("primary_reads"));
+    }
+
+    @Test
+    void testReplicasBehindWriteFenceAreSkipped() {
+        router.recordPrimaryLsn(12_000);
+        router.fence(12_000);
+        router.recordReplica(0, 11_800L, null);
+        router.recordReplica(1, 12_000L, null);
+
+        // 副本1落后200字节，在延迟上限内，但还没有回放到最近一次写入的位置
+        assertEquals(List.of(replica2Connection, replica2Connection), router.read(() -> List.of(connection(), connection())));
+        assertEquals("0/2EE0", router.getStats().get("fence_lsn"));
+    }
+
+    @Test
+    void testReadScopeIsPropagatedToExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Connection fromExecutor = router.read(() -> CompletableFuture
+                    .supplyAsync(ReadReplicaRouter.propagate(this::connection), executor).join());
+            Connection afterScope = CompletableFuture.supplyAsync(this::connection, executor).join();
+
+            assertSame(replica1Connection, fromExecutor);
+            assertSame(primaryConnection, afterScope);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testPrimaryOnlyRouterRunsOnPrimary() throws Exception {
+        ReadReplicaRouter primaryOnly = ReadReplicaRouter.primaryOnly(dataSource(primaryConnection));
+
+        assertSame(primaryConnection, primaryOnly.read(() -> {
+            try {
+                return primaryOnly.getDataSource().getConnection();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        assertEquals(Boolean.FALSE, primaryOnly.getStats().get("enabled"));
+    }
+
+    @Test
+    void testParseLsn() {
+        assertEquals(0x16_B374D848L, ReadReplicaRouter.parseLsn("16/B374D848"));
+        assertEquals("16/B374D848", ReadReplicaRouter.formatLsn(ReadReplicaRouter.parseLsn("16/B374D848")));
+    }
+
+    private Connection connection() {
+        try {
+            return router.getDataSource().getConnection();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static DataSource dataSource(Connection connection) throws Exception {
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        return dataSource;
+    }
+}
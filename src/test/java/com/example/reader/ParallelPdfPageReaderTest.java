@@ -0,0 +1,99 @@
+package com.example.reader;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.reader.ExtractedTextFormatter;
+import org.springframework.ai.reader.pdf.PagePdfDocumentReader;
+import org.springframework.ai.reader.pdf.config.PdfDocumentReaderConfig;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 并行分页PDF读取器测试
+ * 验证并行解析得到的页面内容与PagePdfDocumentReader逐页读取的结果一致
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+class ParallelPdfPageReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ExtractedTextFormatter textFormatter = new ExtractedTextFormatter.Builder()
+            .withNumberOfBottomTextLinesToDelete(3)
+            .withNumberOfTopPagesToSkipBeforeDelete(1)
+            .build();
+
+    @Test
+    void testSamePagesAsPagePdfDocumentReader() throws IOException {
+        Path file = createPdf(23);
+
+        List<Document> expected = new PagePdfDocumentReader(file.toUri().toString(),
+                PdfDocumentReaderConfig.builder()
+                        .withPageExtractedTextFormatter(textFormatter)
+                        .withPagesPerDocument(1)
+                        .build()).get();
+
+        List<Document> actual = new ArrayList<>();
+        try (ParallelPdfPageReader reader = new ParallelPdfPageReader(textFormatter, 4, 2, 3)) {
+            int count = reader.read(file, List::of, actual::add);
+            assertEquals(actual.size(), count);
+        }
+        actual.sort(Comparator.comparing(doc -> (Integer) doc.getMetadata().get("page_number")));
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getText(), actual.get(i).getText());
+            assertEquals(expected.get(i).getMetadata().get("page_number"), actual.get(i).getMetadata().get("page_number"));
+        }
+        log.info("并行读取 {} 页，结果与PagePdfDocumentReader一致", actual.size());
+    }
+
+    @Test
+    void testConsumerFailureStopsWorkers() throws IOException {
+        Path file = createPdf(40);
+
+        try (ParallelPdfPageReader reader = new ParallelPdfPageReader(textFormatter, 4, 1, 1)) {
+            assertThrows(IllegalStateException.class, () -> reader.read(file, List::of, doc -> {
+                throw new IllegalStateException("consumer failed");
+            }));
+        }
+    }
+
+    private Path createPdf(int pages) throws IOException {
+        Path file = tempDir.resolve("sample-" + pages + ".pdf");
+        try (PDDocument document = new PDDocument()) {
+            PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+            for (int p = 0; p < pages; p++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(font, 12);
+                    content.newLineAtOffset(50, 700);
+                    for (int line = 0; line < 12; line++) {
+                        content.showText("Page " + (p + 1) + " line " + (line + 1) + ": streaming ingestion test.");
+                        content.newLineAtOffset(0, -16);
+                    }
+                    content.endText();
+                }
+            }
+            document.save(file.toFile());
+        }
+        return file;
+    }
+}
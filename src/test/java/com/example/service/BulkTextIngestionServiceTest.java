@@ -0,0 +1,141 @@
+package com.example.service;
+
+import com.example.vectorstore.VectorStoreSchema;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * NDJSON批量导入测试
+ * 验证逐行解析、错误记录不影响其他记录、按段输出进度以及向量化失败只影响所在的一段
+ *
+ * @author AI Assistant
+ */
+class BulkTextIngestionServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private EmbeddingBatcher embeddingBatcher;
+    private VectorStoreSchema vectorStoreSchema;
+    private DocumentRegistry documentRegistry;
+    private List<Document> submittedChunks;
+    private BulkTextIngestionService bulkService;
+
+    @BeforeEach
+    void setUp() {
+        embeddingBatcher = mock(EmbeddingBatcher.class);
+        submittedChunks = new ArrayList<>();
+        vectorStoreSchema = mock(VectorStoreSchema.class);
+        documentRegistry = mock(DocumentRegistry.class);
+        bulkService = new BulkTextIngestionService(new TokenTextSplitter(), embeddingBatcher, vectorStoreSchema,
+                documentRegistry, objectMapper, mock(RetrievalResultCache.class), 2, true);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRecordsAreStreamedWithProgressAndErrors() throws IOException {
+        when(embeddingBatcher.openBulkLoadSession()).thenAnswer(invocation -> newSession(false));
+
+        String body = """
+                {"content": "远程办公需提前一天申请", "title": "远程办公制度", "category": "公司政策"}
+                {"content": "Spring AI提供统一的Embedding API", "title": "Spring AI概述"}
+                {"content": "缺少结尾的记录"
+
+                {"content": "   ", "title": "空文档"}
+                {"content": "年假按工龄计算", "category": "公司政策"}
+                """;
+
+        List<Map<String, Object>> events = ingest(body, false);
+
+        assertEquals(List.of("progress", "error", "error", "progress", "summary"),
+                events.stream().map(event -> event.get("type")).toList());
+        assertEquals(3, events.get(1).get("line"));
+        assertEquals(5, events.get(2).get("line"));
+        assertEquals("文档内容不能为空", events.get(2).get("error"));
+
+        Map<String, Object> summary = events.get(4);
+        assertEquals(3, summary.get("succeededRecords"));
+        assertEquals(2, summary.get("failedRecords"));
+        assertEquals(3, summary.get("chunks"));
+
+        assertEquals(3, submittedChunks.size());
+        assertEquals("公司政策", submittedChunks.get(0).getMetadata().get("category"));
+        assertEquals("bulk_input", submittedChunks.get(1).getMetadata().get("source"));
+        assertEquals("批量导入文档", submittedChunks.get(2).getMetadata().get("title"));
+
+        // 每条成功的记录登记为一个文档，文档ID与文档块元数据一致
+        ArgumentCaptor<List<DocumentRegistry.TextDocument>> registered = ArgumentCaptor.forClass(List.class);
+        verify(documentRegistry, times(2)).registerTextDocuments(registered.capture());
+        List<DocumentRegistry.TextDocument> textDocuments = registered.getAllValues().stream()
+                .flatMap(List::stream).toList();
+        assertEquals(3, textDocuments.size());
+        assertEquals("远程办公制度", textDocuments.get(0).title());
+        assertEquals(1, textDocuments.get(0).chunkCount());
+        assertEquals(submittedChunks.get(0).getMetadata().get(IncrementalIngestionService.DOCUMENT_ID),
+                textDocuments.get(0).documentKey());
+    }
+
+    @Test
+    void testEmbeddingFailureOnlyAffectsItsSegment() throws IOException {
+        when(embeddingBatcher.openBulkLoadSession())
+                .thenAnswer(invocation -> newSession(true))
+                .thenAnswer(invocation -> newSession(false));
+
+        String body = """
+                {"content": "第一条"}
+                {"content": "第二条"}
+                {"content": "第三条"}
+                """;
+
+        List<Map<String, Object>> events = ingest(body, true);
+
+        assertEquals(List.of("error", "progress", "summary"), events.stream().map(event -> event.get("type")).toList());
+        assertEquals(1, events.get(0).get("fromLine"));
+        assertEquals(2, events.get(0).get("toLine"));
+        assertEquals(1, events.get(2).get("succeededRecords"));
+        assertEquals(2, events.get(2).get("failedRecords"));
+
+        // 导入失败的段不影响向量索引的重建
+        verify(vectorStoreSchema).deferVectorIndexes();
+        verify(vectorStoreSchema).restoreVectorIndexes();
+        verify(embeddingBatcher, never()).openSession();
+        verify(documentRegistry, times(1)).registerTextDocuments(argThat(documents -> documents.size() == 1));
+    }
+
+    private EmbeddingBatcher.Session newSession(boolean failOnFinish) {
+        EmbeddingBatcher.Session session = mock(EmbeddingBatcher.Session.class);
+        doAnswer(invocation -> submittedChunks.add(invocation.getArgument(0))).when(session).add(any());
+        if (failOnFinish) {
+            when(session.finish()).thenThrow(new RuntimeException("文档块向量化失败: 429 Too Many Requests"));
+        }
+        return session;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> ingest(String body, boolean deferIndex) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bulkService.ingest(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), output, deferIndex);
+
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (String line : output.toString(StandardCharsets.UTF_8).split("\n")) {
+            events.add(objectMapper.readValue(line, Map.class));
+        }
+        return events;
+    }
+}
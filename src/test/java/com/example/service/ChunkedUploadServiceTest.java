@@ -0,0 +1,187 @@
+package com.example.service;
+
+import com.example.storage.ContentAddressedDocumentStore;
+import com.example.storage.ContentAddressedDocumentStore.StoredFile;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 分片上传服务测试
+ * 验证乱序上传的分片按偏移写入正确位置，边接收边处理只读取已连续到达的内容，
+ * 已接收的分片不能被覆盖，同一上传同时只有一个完成请求处理文件，处理失败后可以重新完成
+ *
+ * @author AI Assistant
+ */
+class ChunkedUploadServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private DocumentService documentService;
+    private ChunkedUploadService uploadService;
+
+    @BeforeEach
+    void setUp() {
+        documentService = mock(DocumentService.class);
+        uploadService = new ChunkedUploadService(documentService, new ObjectMapper(), tempDir.toString(),
+                DataSize.ofBytes(10), DataSize.ofMegabytes(1), 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        uploadService.shutdown();
+    }
+
+    @Test
+    void testOutOfOrderPartsWithProgressiveIngestion() throws IOException {
+        byte[] content = "第一行内容\nsecond line of the manual\n第三行".getBytes(StandardCharsets.UTF_8);
+        when(documentService.supportsProgressiveIngestion("manual.txt")).thenReturn(true);
+        when(documentService.processTextStream(any(), eq("manual.txt"), eq((long) content.length), any(), any()))
+                .thenAnswer(invocation -> readFully(invocation.getArgument(0)));
+
+        String uploadId = (String) uploadService.initiate("manual.txt", content.length, "手册", null).get("uploadId");
+        int totalParts = (content.length + 9) / 10;
+
+        // 倒序上传，最后才到达第1个分片
+        for (int part = totalParts; part >= 1; part--) {
+            int from = (part - 1) * 10;
+            uploadService.uploadPart(uploadId, part,
+                    new ByteArrayInputStream(Arrays.copyOfRange(content, from, Math.min(from + 10, content.length))));
+        }
+
+        Map<String, Object> result = uploadService.complete(uploadId);
+
+        assertEquals(true, result.get("progressive"));
+        assertEquals(new String(content, StandardCharsets.UTF_8), result.get("message"));
+        verify(documentService).attachStoredFile(any(), eq("manual.txt"), eq("手册"), isNull());
+        verify(documentService, never()).processStoredDocument(any(), any(), any(), any());
+    }
+
+    @Test
+    void testMissingPartsAndWrongPartSizeAreRejected() throws IOException {
+        String uploadId = (String) uploadService.initiate("report.pdf", 25, null, null).get("uploadId");
+
+        assertThrows(IllegalArgumentException.class,
+                () -> uploadService.uploadPart(uploadId, 1, new ByteArrayInputStream(new byte[5])));
+        uploadService.uploadPart(uploadId, 1, new ByteArrayInputStream(new byte[10]));
+
+        Map<String, Object> status = uploadService.getStatus(uploadId);
+        assertEquals(List.of(2, 3), status.get("missingParts"));
+        assertThrows(IllegalArgumentException.class, () -> uploadService.complete(uploadId));
+    }
+
+    @Test
+    void testReceivedPartCannotBeOverwritten() throws IOException {
+        String uploadId = (String) uploadService.initiate("report.pdf", 15, null, null).get("uploadId");
+        uploadService.uploadPart(uploadId, 1, new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.UTF_8)));
+
+        assertThrows(IllegalArgumentException.class, () -> uploadService.uploadPart(uploadId, 1,
+                new ByteArrayInputStream("abcdefghij".getBytes(StandardCharsets.UTF_8))));
+
+        byte[] data = Files.readAllBytes(tempDir.resolve("uploads").resolve(uploadId + ".part"));
+        assertEquals("0123456789", new String(data, 0, 10, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testConcurrentCompleteIngestsOnce() throws Exception {
+        CountDownLatch processing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(documentService.processStoredDocument(any(), eq("report.pdf"), any(), any())).thenAnswer(invocation -> {
+            processing.countDown();
+            release.await();
+            return "处理成功";
+        });
+        String uploadId = (String) uploadService.initiate("report.pdf", 5, null, null).get("uploadId");
+        uploadService.uploadPart(uploadId, 1, new ByteArrayInputStream(new byte[5]));
+
+        CompletableFuture<Map<String, Object>> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return uploadService.complete(uploadId);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(processing.await(5, TimeUnit.SECONDS));
+        assertThrows(IllegalStateException.class, () -> uploadService.complete(uploadId));
+
+        release.countDown();
+        assertEquals("处理成功", first.get(5, TimeUnit.SECONDS).get("message"));
+        verify(documentService, times(1)).processStoredDocument(any(), any(), any(), any());
+    }
+
+    @Test
+    void testFailedCompletionCanBeRetried() throws IOException {
+        ContentAddressedDocumentStore documentStore = new ContentAddressedDocumentStore(tempDir.resolve("documents").toString());
+        List<StoredFile> stored = new ArrayList<>();
+        when(documentService.processStoredDocument(any(), eq("report.pdf"), any(), any())).thenAnswer(invocation -> {
+            stored.add(documentStore.store(invocation.<Path>getArgument(0), "pdf"));
+            if (stored.size() == 1) {
+                throw new RuntimeException("文档处理失败: 429 Too Many Requests");
+            }
+            return "处理成功";
+        });
+        String uploadId = (String) uploadService.initiate("report.pdf", 5, null, null).get("uploadId");
+        uploadService.uploadPart(uploadId, 1, new ByteArrayInputStream("%PDF-".getBytes(StandardCharsets.UTF_8)));
+        Path data = tempDir.resolve("uploads").resolve(uploadId + ".part");
+
+        assertThrows(RuntimeException.class, () -> uploadService.complete(uploadId));
+        // 处理失败时上传的文件仍在，重新完成时再次处理
+        assertTrue(Files.exists(data));
+        assertEquals("处理成功", uploadService.complete(uploadId).get("message"));
+
+        assertEquals(2, stored.size());
+        assertTrue(stored.get(1).existed());
+        assertFalse(Files.exists(data));
+        assertEquals("%PDF-", Files.readString(stored.get(1).path()));
+    }
+
+    @Test
+    void testUploadStateSurvivesRestart() throws IOException {
+        String uploadId = (String) uploadService.initiate("report.pdf", 15, null, null).get("uploadId");
+        uploadService.uploadPart(uploadId, 2, new ByteArrayInputStream(new byte[5]));
+        uploadService.shutdown();
+
+        ChunkedUploadService restarted = new ChunkedUploadService(documentService, new ObjectMapper(),
+                tempDir.toString(), DataSize.ofBytes(10), DataSize.ofMegabytes(1), 10);
+        try {
+            assertEquals(List.of(1), restarted.getStatus(uploadId).get("missingParts"));
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    private static String readFully(ReadableByteChannel channel) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            output.write(buffer.array(), 0, buffer.limit());
+            buffer.clear();
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.service;
+
+import com.example.service.DocumentDeletionService.DeletionScope;
+import com.example.service.DocumentRegistry.StoredContent;
+import com.example.storage.ContentAddressedDocumentStore;
+import com.example.vectorstore.PgVectorWriter;
+import com.example.vectorstore.VectorStoreShards;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.IntSupplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 文档删除服务测试
+ * 验证后台任务在删除登记前确定要删除的文档块ID并按批删除、按来源文件删除限定在类别内、只删除不再被引用的存储文件、
+ * 删除后检索结果缓存失效，以及清空知识库时只读取行数估计值
+ *
+ * @author AI Assistant
+ */
+class DocumentDeletionServiceTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private DocumentRegistry documentRegistry;
+    private ContentAddressedDocumentStore documentStore;
+    private RetrievalResultCache retrievalResultCache;
+    private DocumentDeletionService deletionService;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        documentRegistry = mock(DocumentRegistry.class);
+        documentStore = mock(ContentAddressedDocumentStore.class);
+        retrievalResultCache = mock(RetrievalResultCache.class);
+        PgVectorWriter vectorWriter = mock(PgVectorWriter.class);
+        when(vectorWriter.getQualifiedTableName()).thenReturn("public.vector_store");
+
+        deletionService = new DocumentDeletionService(jdbcTemplate, vectorWriter, VectorStoreShards.single(jdbcTemplate),
+                documentRegistry, documentStore, retrievalResultCache, 100, 0, "5s");
+    }
+
+    @AfterEach
+    void tearDown() {
+        deletionService.shutdown();
+    }
+
+    @Test
+    void testSourceFileIsDeletedInBatches() throws Exception {
+        List<String> chunkIds = IntStream.range(0, 237).mapToObj(i -> new UUID(0, i).toString()).toList();
+        when(jdbcTemplate.queryForList(contains("metadata->>'source_file' = ?"), eq(String.class), eq("员工手册.pdf"), isNull()))
+                .thenReturn(chunkIds);
+        when(documentRegistry.deleteDocuments(contains("original_filename = ?"), eq("员工手册.pdf"), isNull())).thenReturn(List.of(
+                new StoredContent("a".repeat(64), "pdf"), new StoredContent("b".repeat(64), "pdf")));
+        when(documentRegistry.countContentReferences("a".repeat(64), "pdf")).thenReturn(0);
+        when(documentRegistry.countContentReferences("b".repeat(64), "pdf")).thenReturn(1);
+        when(jdbcTemplate.update(any(PreparedStatementCreator.class))).thenReturn(100, 100, 37);
+        // 引用数在存储的哈希锁内统计，为0时删除
+        when(documentStore.deleteIfUnreferenced(anyString(), anyString(), any(IntSupplier.class))).thenAnswer(invocation ->
+                ((IntSupplier) invocation.getArgument(2)).getAsInt() == 0
+                        && documentStore.delete(invocation.getArgument(0), invocation.getArgument(1)));
+
+        String taskId = (String) deletionService.submit(DeletionScope.SOURCE_FILE, " 员工手册.pdf ").get("taskId");
+        Map<String, Object> task = awaitTask(taskId);
+
+        assertEquals("COMPLETED", task.get("status"));
+        assertEquals(237L, task.get("deletedChunks"));
+        assertEquals(2, task.get("deletedDocuments"));
+        // 先读出文档块ID，再删除登记，最后按ID分批删除
+        InOrder inOrder = inOrder(jdbcTemplate, documentRegistry);
+        inOrder.verify(jdbcTemplate).queryForList(anyString(), eq(String.class), any(Object[].class));
+        inOrder.verify(documentRegistry).deleteDocuments(anyString(), any(Object[].class));
+        ArgumentCaptor<PreparedStatementCreator> deletes = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        inOrder.verify(jdbcTemplate, times(3)).update(deletes.capture());
+        assertEquals(chunkIds.subList(200, 237), idsOf(deletes.getAllValues().get(2)));
+        verify(documentStore).delete("a".repeat(64), "pdf");
+        verify(documentStore, never()).delete(eq("b".repeat(64)), any());
+        // 未指定类别时删除的是未分类的文件，每批删除后不带类别的检索结果缓存失效
+        verify(retrievalResultCache, times(3)).invalidateCategory(null);
+        verify(retrievalResultCache, never()).invalidateAll();
+    }
+
+    @Test
+    void testSourceFileDeletionIsScopedToCategory() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), any(Object[].class)))
+                .thenReturn(List.of(new UUID(0, 1).toString()));
+        when(documentRegistry.deleteDocuments(anyString(), any(Object[].class))).thenReturn(List.of());
+        when(jdbcTemplate.update(any(PreparedStatementCreator.class))).thenReturn(1);
+
+        Map<String, Object> submitted = deletionService.submit(DeletionScope.SOURCE_FILE, "员工手册.pdf", " 公司政策 ");
+        assertEquals("公司政策", submitted.get("category"));
+        assertEquals("COMPLETED", awaitTask((String) submitted.get("taskId")).get("status"));
+
+        verify(jdbcTemplate).queryForList(contains("category IS NOT DISTINCT FROM ?"), eq(String.class),
+                eq("员工手册.pdf"), eq("公司政策"));
+        verify(documentRegistry).deleteDocuments(contains("category, '') IS NOT DISTINCT FROM ?"),
+                eq("员工手册.pdf"), eq("公司政策"));
+        verify(retrievalResultCache).invalidateCategory("公司政策");
+    }
+
+    @Test
+    void testCategoryDeletionInvalidatesOnlyThatCategory() throws Exception {
+        when(jdbcTemplate.queryForList(contains("category = ?"), eq(String.class), eq("公司政策")))
+                .thenReturn(List.of(new UUID(0, 1).toString()));
+        when(documentRegistry.deleteDocuments("category = ?", "公司政策")).thenReturn(List.of());
+        when(jdbcTemplate.update(any(PreparedStatementCreator.class))).thenReturn(1);
+
+        String taskId = (String) deletionService.submit(DeletionScope.CATEGORY, "公司政策").get("taskId");
+        assertEquals("COMPLETED", awaitTask(taskId).get("status"));
+
+        verify(retrievalResultCache).invalidateCategory("公司政策");
+        verify(retrievalResultCache, never()).invalidateAll();
+    }
+
+    @Test
+    void testClearAllReportsEstimatedChunkCount() {
+        when(jdbcTemplate.queryForObject(contains("reltuples"), eq(Long.class), eq("public.vector_store"))).thenReturn(1200L);
+
+        assertEquals(1200L, deletionService.clearAll());
+        verify(jdbcTemplate, never()).queryForObject(contains("count(*)"), eq(Long.class));
+    }
+
+    @Test
+    void testEmptyConditionIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> deletionService.submit(DeletionScope.CATEGORY, " "));
+        assertThrows(IllegalArgumentException.class, () -> deletionService.getTask("missing"));
+    }
+
+    /**
+     * 用模拟的连接执行删除语句，取出绑定的文档块ID
+     */
+    private static List<String> idsOf(PreparedStatementCreator creator) throws Exception {
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString())).thenReturn(mock(PreparedStatement.class));
+        when(connection.createArrayOf(eq("uuid"), any())).thenReturn(mock(Array.class));
+        creator.createPreparedStatement(connection);
+        ArgumentCaptor<Object[]> ids = ArgumentCaptor.forClass(Object[].class);
+        verify(connection).createArrayOf(eq("uuid"), ids.capture());
+        return Arrays.stream(ids.getValue()).map(Object::toString).toList();
+    }
+
+    private Map<String, Object> awaitTask(String taskId) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            Map<String, Object> task = deletionService.getTask(taskId);
+            if (task.containsKey("finishedAt")) {
+                return task;
+            }
+            Thread.sleep(50);
+        }
+        fail("删除任务未在预期时间内完成");
+        return null;
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.service;
+
+import com.example.datasource.ReadReplicaRouter;
+import com.example.splitter.StreamingTextSplitter;
+import com.example.service.IncrementalIngestionService.ChunkDiff;
+import com.example.service.IncrementalIngestionService.IngestionResult;
+import com.example.storage.ContentAddressedDocumentStore;
+import com.example.storage.ContentAddressedDocumentStore.StoredFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 文档管理服务测试
+ * 验证批量上传后检索结果缓存失效，之后的检索重新执行；文档更换类别时原类别的检索结果同样失效；
+ * 处理失败时删除本次新写入的存储文件；批量上传中某个文件读到一半失败时撤销其已提交的文档块，不影响其他文件
+ *
+ * @author AI Assistant
+ */
+class DocumentServiceTest {
+
+    private VectorStore vectorStore;
+    private DocumentRegistry documentRegistry;
+    private IncrementalIngestionService incrementalIngestionService;
+    private RetrievalResultCache retrievalResultCache;
+    private ContentAddressedDocumentStore documentStore;
+    private EmbeddingBatcher.Session session;
+    private StreamingTextSplitter streamingTextSplitter;
+    private DocumentService documentService;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        vectorStore = mock(VectorStore.class);
+        documentRegistry = mock(DocumentRegistry.class);
+        incrementalIngestionService = mock(IncrementalIngestionService.class);
+        retrievalResultCache = spy(new RetrievalResultCache(true, 100));
+
+        EmbeddingBatcher embeddingBatcher = mock(EmbeddingBatcher.class);
+        session = mock(EmbeddingBatcher.Session.class);
+        when(embeddingBatcher.openSession()).thenReturn(session);
+        streamingTextSplitter = mock(StreamingTextSplitter.class);
+        documentStore = mock(ContentAddressedDocumentStore.class);
+        when(documentStore.store(any(InputStream.class), eq("txt")))
+                .thenReturn(new StoredFile("a".repeat(64), "txt", Path.of("a.txt"), 12, true));
+        MmrReranker mmrReranker = mock(MmrReranker.class);
+        when(mmrReranker.fetchSize(anyInt())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(mmrReranker.rerank(anyString(), anyList(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+
+        documentService = new DocumentService(vectorStore, null, null, embeddingBatcher, null, documentRegistry,
+                incrementalIngestionService, streamingTextSplitter, null, documentStore, null, null, null, null, null, mmrReranker,
+                retrievalResultCache, ReadReplicaRouter.primaryOnly(mock(DataSource.class)));
+        ReflectionTestUtils.setField(documentService, "similarityThreshold", 0.75);
+        ReflectionTestUtils.setField(documentService, "supportedDocumentTypes", List.of("pdf", "txt", "md"));
+    }
+
+    @Test
+    void testBatchUploadInvalidatesCachedSearchResults() {
+        when(vectorStore.similaritySearch(any(SearchRequest.class)))
+                .thenReturn(List.of(Document.builder().id("chunk-1").text("远程办公每周最多两天").build()));
+        // 内容与已有文档相同，复制其文档块
+        when(documentRegistry.resolveDocumentKey(null, "远程办公.txt", "公司政策")).thenReturn("doc-2");
+        when(documentRegistry.findProcessedDocumentWithContent("a".repeat(64), "txt", "doc-2")).thenReturn("doc-1");
+        ChunkDiff diff = mock(ChunkDiff.class);
+        when(diff.getDocumentId()).thenReturn("doc-2");
+        when(incrementalIngestionService.begin(eq("doc-2"), anyInt(), eq("远程办公.txt"), eq("公司政策"))).thenReturn(diff);
+        when(incrementalIngestionService.complete(diff)).thenReturn(new IngestionResult(0, 1, 0));
+
+        documentService.searchDocuments("远程办公", 5);
+        documentService.searchDocuments("远程办公", 5);
+        verify(vectorStore, times(1)).similaritySearch(any(SearchRequest.class));
+
+        Map<String, String> results = documentService.uploadMultipleDocuments(List.of(
+                new MockMultipartFile("files", "远程办公.txt", "text/plain", "远程办公每周最多两天".getBytes())), "公司政策");
+        assertTrue(results.get("远程办公.txt").contains("处理成功"), results.toString());
+
+        documentService.searchDocuments("远程办公", 5);
+        verify(vectorStore, times(2)).similaritySearch(any(SearchRequest.class));
+        assertEquals(2L, retrievalResultCache.getStats().get("misses"));
+        assertEquals(1L, retrievalResultCache.getStats().get("hits"));
+    }
+
+    @Test
+    void testCategoryChangeInvalidatesPreviousCategory() throws Exception {
+        when(documentRegistry.resolveDocumentKey(null, "远程办公.txt", "公司政策")).thenReturn("doc-2");
+        when(documentRegistry.findProcessedDocumentWithContent("a".repeat(64), "txt", "doc-2")).thenReturn("doc-1");
+        ChunkDiff diff = mock(ChunkDiff.class);
+        when(diff.getDocumentId()).thenReturn("doc-2");
+        when(diff.getPreviousCategories()).thenReturn(Set.of("行政制度"));
+        when(incrementalIngestionService.begin(eq("doc-2"), anyInt(), eq("远程办公.txt"), eq("公司政策"))).thenReturn(diff);
+        when(incrementalIngestionService.complete(diff)).thenReturn(new IngestionResult(0, 1, 0));
+
+        documentService.uploadAndProcessDocument(new MockMultipartFile("file", "远程办公.txt", "text/plain",
+                "远程办公每周最多两天".getBytes()), "公司政策");
+
+        verify(retrievalResultCache).invalidateCategory("公司政策");
+        verify(retrievalResultCache).invalidateCategory("行政制度");
+    }
+
+    @Test
+    void testFailedIngestionDiscardsNewlyStoredFile() throws Exception {
+        StoredFile stored = new StoredFile("b".repeat(64), "txt", Path.of("b.txt"), 12, false);
+        when(documentStore.store(any(Path.class), eq("txt"))).thenReturn(stored);
+        when(documentRegistry.resolveDocumentKey(null, "远程办公.txt", "公司政策")).thenReturn("doc-2");
+        when(documentRegistry.findProcessedDocumentWithContent("b".repeat(64), "txt", "doc-2")).thenReturn("doc-1");
+        ChunkDiff diff = mock(ChunkDiff.class);
+        when(diff.getDocumentId()).thenReturn("doc-2");
+        when(incrementalIngestionService.begin(eq("doc-2"), anyInt(), eq("远程办公.txt"), eq("公司政策"))).thenReturn(diff);
+        when(incrementalIngestionService.complete(diff)).thenThrow(new IllegalStateException("connection reset"));
+
+        assertThrows(RuntimeException.class,
+                () -> documentService.processStoredDocument(Path.of("upload.part"), "远程办公.txt", "公司政策", null));
+
+        // 本次新写入、没有被登记的文件被删除
+        verify(documentStore).release(stored);
+        verify(documentStore).deleteIfUnreferenced(eq("b".repeat(64)), eq("txt"), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testBatchUploadDiscardsChunksOfFailedFile() throws Exception {
+        ReflectionTestUtils.setField(documentService, "textStreamingThreshold", DataSize.ofBytes(0));
+        StoredFile storedA = storedFile("c", "a.txt");
+        StoredFile storedB = storedFile("d", "b.txt");
+        when(documentStore.store(any(InputStream.class), eq("txt"))).thenReturn(storedA, storedB);
+        ChunkDiff diffA = beginIngestion("a.txt", "doc-a");
+        ChunkDiff diffB = beginIngestion("b.txt", "doc-b");
+        when(incrementalIngestionService.complete(diffA)).thenReturn(new IngestionResult(2, 0, 0));
+        // 第二个文件读到一半时出错
+        AtomicInteger files = new AtomicInteger();
+        when(streamingTextSplitter.split(any(ReadableByteChannel.class), any(), any())).thenAnswer(invocation -> {
+            Consumer<String> consumer = invocation.getArgument(2);
+            consumer.accept("第一段");
+            if (files.incrementAndGet() == 2) {
+                throw new IOException("磁盘读取错误");
+            }
+            consumer.accept("第二段");
+            return 2;
+        });
+
+        Map<String, String> results = documentService.uploadMultipleDocuments(List.of(
+                new MockMultipartFile("files", "a.txt", "text/plain", "第一段第二段".getBytes()),
+                new MockMultipartFile("files", "b.txt", "text/plain", "第一段".getBytes())), "公司政策");
+
+        assertTrue(results.get("a.txt").contains("处理成功"), results.toString());
+        assertTrue(results.get("b.txt").contains("磁盘读取错误"), results.toString());
+        verify(session, times(3)).add(any(Document.class));
+        verify(session).discard(argThat(chunks -> chunks.size() == 1
+                && "b.txt".equals(chunks.get(0).getMetadata().get("source_file"))));
+        verify(session).finish();
+        verify(incrementalIngestionService, never()).complete(diffB);
+        // 失败文件本次新写入的存储文件被删除，成功的文件保留
+        verify(documentStore).deleteIfUnreferenced(eq("d".repeat(64)), eq("txt"), any());
+        verify(documentStore, never()).deleteIfUnreferenced(eq("c".repeat(64)), eq("txt"), any());
+    }
+
+    private StoredFile storedFile(String hashChar, String fileName) throws IOException {
+        Path path = Files.writeString(tempDir.resolve(fileName), "内容");
+        return new StoredFile(hashChar.repeat(64), "txt", path, Files.size(path), false);
+    }
+
+    private ChunkDiff beginIngestion(String fileName, String documentKey) {
+        when(documentRegistry.resolveDocumentKey(null, fileName, "公司政策")).thenReturn(documentKey);
+        ChunkDiff diff = mock(ChunkDiff.class);
+        when(diff.getDocumentId()).thenReturn(documentKey);
+        when(diff.accept(any(Document.class))).thenReturn(true);
+        when(incrementalIngestionService.begin(eq(documentKey), anyInt(), eq(fileName), eq("公司政策"))).thenReturn(diff);
+        return diff;
+    }
+}
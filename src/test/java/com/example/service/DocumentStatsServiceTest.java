@@ -0,0 +1,63 @@
+package com.example.service;
+
+import com.example.vectorstore.VectorStoreShards;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * 文档统计服务测试
+ * 验证统计信息来自数据库视图、在缓存时间内复用，以及失效后重新查询
+ *
+ * @author AI Assistant
+ */
+class DocumentStatsServiceTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private DocumentStatsService statsService;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.queryForMap("SELECT * FROM document_stats")).thenReturn(Map.of(
+                "total_documents", 3L, "processed_documents", 2L, "pending_documents", 1L,
+                "total_chunks", 42L, "avg_chunks_per_document", 14.0));
+        when(jdbcTemplate.queryForMap("SELECT * FROM vector_store_stats")).thenReturn(Map.of(
+                "total_vectors", 42L, "categorized_vectors", 40L, "unique_source_files", 2L));
+        statsService = new DocumentStatsService(jdbcTemplate, VectorStoreShards.single(jdbcTemplate), Duration.ofMinutes(1));
+    }
+
+    @Test
+    void testStatsAreReadFromViewsAndCached() {
+        Map<String, Object> stats = statsService.getStats();
+
+        assertEquals(3L, stats.get("total_documents"));
+        assertEquals(42L, stats.get("total_chunks"));
+        assertEquals(40L, stats.get("categorized_vectors"));
+        assertEquals(0.0, stats.get("avg_content_length"));
+
+        // 调用方修改返回值不影响缓存
+        stats.put("total_documents", 0L);
+        assertEquals(3L, statsService.getStats().get("total_documents"));
+        verify(jdbcTemplate, times(1)).queryForMap("SELECT * FROM document_stats");
+        verify(jdbcTemplate, times(1)).query(anyString(), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void testInvalidateForcesRefresh() {
+        statsService.getStats();
+        statsService.invalidate();
+        statsService.getStats();
+
+        verify(jdbcTemplate, times(2)).queryForMap("SELECT * FROM vector_store_stats");
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.service;
+
+import com.example.vectorstore.PgVectorWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 向量化批处理服务测试
+ * 验证文档块按组写入，某个批次失败后不再发送后续批次并删除本会话已写入的文档块，以及撤销的文档块不会保留
+ *
+ * @author AI Assistant
+ */
+class EmbeddingBatcherTest {
+
+    private PgVectorWriter vectorWriter;
+    private EmbeddingCache embeddingCache;
+    private List<String> embeddedTexts;
+    private EmbeddingBatcher embeddingBatcher;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        vectorWriter = mock(PgVectorWriter.class);
+        when(vectorWriter.getMaxDocumentBatchSize()).thenReturn(2);
+        embeddingCache = mock(EmbeddingCache.class);
+        embeddedTexts = Collections.synchronizedList(new ArrayList<>());
+        when(embeddingCache.embed(anyList(), any(Function.class))).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            embeddedTexts.addAll(texts);
+            if (texts.stream().anyMatch(text -> text.contains("限流"))) {
+                throw new IllegalStateException("429 Too Many Requests");
+            }
+            return texts.stream().map(text -> new float[]{1f, 0f}).toList();
+        });
+        // 每个请求只包含一个文档块，并发为1，批次按提交顺序执行
+        embeddingBatcher = new EmbeddingBatcher(mock(EmbeddingModel.class), vectorWriter, embeddingCache, 100000, 1, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        embeddingBatcher.shutdown();
+    }
+
+    @Test
+    void testChunksAreWrittenInGroups() {
+        assertEquals(3, embeddingBatcher.embedAndStore(List.of(chunk("c1", "第一段"), chunk("c2", "第二段"),
+                chunk("c3", "第三段"))));
+
+        verify(vectorWriter, times(2)).write(anyList(), anyList());
+        verify(vectorWriter, never()).delete(anyList());
+    }
+
+    @Test
+    void testFailedBatchStopsSessionAndRemovesWrittenChunks() {
+        Document c1 = chunk("c1", "第一段");
+        Document c2 = chunk("c2", "第二段");
+        EmbeddingBatcher.Session session = embeddingBatcher.openSession();
+        session.add(c1);
+        session.add(c2);
+        session.add(chunk("c3", "触发限流的段落"));
+        session.add(chunk("c4", "第四段"));
+
+        RuntimeException e = assertThrows(RuntimeException.class, session::finish);
+        assertTrue(e.getMessage().contains("429"));
+
+        // 失败之后的批次没有发送请求，已写入的第一组被删除
+        assertEquals(List.of("第一段", "第二段", "触发限流的段落"), embeddedTexts);
+        verify(vectorWriter).write(eq(List.of(c1, c2)), anyList());
+        verify(vectorWriter).delete(List.of(c1, c2));
+        // 会话结束后仍然报告最初的失败原因
+        assertTrue(assertThrows(RuntimeException.class, () -> session.add(chunk("c5", "第五段"))).getMessage()
+                .contains("429"));
+        assertThrows(RuntimeException.class, session::close);
+    }
+
+    @Test
+    void testDiscardedChunksAreNotKept() {
+        Document c1 = chunk("c1", "第一段");
+        Document c2 = chunk("c2", "第二段");
+        Document c3 = chunk("c3", "第三段");
+        EmbeddingBatcher.Session session = embeddingBatcher.openSession();
+        session.add(c1);
+        session.add(c2);
+        // c1已经发送，c2还在当前批次中
+        session.discard(List.of(c1, c2));
+        session.add(c3);
+
+        assertEquals(1, session.finish());
+        assertEquals(List.of("第一段", "第三段"), embeddedTexts);
+        verify(vectorWriter).delete(List.of(c1));
+    }
+
+    private static Document chunk(String id, String text) {
+        return Document.builder().id(id).text(text).build();
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 文档块向量缓存测试
+ * 验证命中缓存时返回向量副本，调用方修改结果不影响缓存
+ *
+ * @author AI Assistant
+ */
+class EmbeddingCacheTest {
+
+    @Test
+    void testCachedEmbeddingIsReturnedAsCopy() {
+        EmbeddingCache cache = new EmbeddingCache(mock(JdbcTemplate.class), "text-embedding-3-small", 2, true, false, 10);
+
+        float[] first = cache.embed(List.of("远程办公"), texts -> List.of(new float[]{0.6f, 0.8f})).get(0);
+        first[0] = 0f;
+        float[] second = cache.embed(List.of("远程办公"), texts -> fail("应命中缓存")).get(0);
+
+        assertArrayEquals(new float[]{0.6f, 0.8f}, second);
+        assertNotSame(first, second);
+    }
+}
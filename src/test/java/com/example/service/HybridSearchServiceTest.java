@@ -0,0 +1,135 @@
+package com.example.service;
+
+import com.example.vectorstore.PgVectorWriter;
+import com.example.vectorstore.VectorStoreShards;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 混合检索测试
+ * 验证查询切分、全文检索SQL与索引表达式一致、分片的全文检索结果按得分归并，以及倒数排名融合的排序和元数据
+ *
+ * @author AI Assistant
+ */
+class HybridSearchServiceTest {
+
+    private VectorStore vectorStore;
+    private JdbcTemplate jdbcTemplate;
+    private PgVectorWriter vectorWriter;
+    private HybridSearchService hybridSearchService;
+
+    @BeforeEach
+    void setUp() {
+        vectorStore = mock(VectorStore.class);
+        jdbcTemplate = mock(JdbcTemplate.class);
+        vectorWriter = mock(PgVectorWriter.class);
+        when(vectorWriter.getQualifiedTableName()).thenReturn("public.vector_store");
+        hybridSearchService = new HybridSearchService(vectorStore, VectorStoreShards.single(jdbcTemplate), vectorWriter, new ObjectMapper(),
+                true, 20, 60, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        hybridSearchService.shutdown();
+    }
+
+    @Test
+    void testQueryTerms() {
+        assertEquals(List.of("ERR-CONN-42", "连接", "接超", "超时"), HybridSearchService.queryTerms("ERR-CONN-42 连接超时"));
+        assertEquals(List.of("年假", "假规", "规定", "v2.1"), HybridSearchService.queryTerms("年假规定（v2.1）。"));
+        assertEquals(List.of("云", "API"), HybridSearchService.queryTerms("云 API?"));
+        assertTrue(HybridSearchService.queryTerms("？！ ...").isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testLexicalAndVectorResultsAreFused() {
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenReturn(List.of(
+                document("a", Map.of("distance", 0.1f)), document("b", Map.of()), document("c", Map.of())));
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class))).thenReturn(List.of(
+                document("c", Map.of()), document("d", Map.of())));
+
+        List<Document> results = hybridSearchService.search("ERR-42 超时", 4, 0.75,
+                new FilterExpressionTextParser().parse("category == '运维手册'"));
+
+        // c: 1/63 + 1/61，a: 1/61，b和d: 1/62，得分相同时保持向量结果在前
+        assertEquals(List.of("c", "a", "b", "d"), results.stream().map(Document::getId).toList());
+        Document top = results.get(0);
+        assertEquals(1.0 / 63 + 1.0 / 61, top.getScore(), 1e-9);
+        assertEquals(3, top.getMetadata().get("vector_rank"));
+        assertEquals(1, top.getMetadata().get("lexical_rank"));
+        assertFalse(results.get(1).getMetadata().containsKey("lexical_rank"));
+        assertEquals(0.1f, results.get(1).getMetadata().get("distance"));
+
+        verify(vectorStore).similaritySearch(argThat((SearchRequest request) ->
+                request.getTopK() == 20 && request.getSimilarityThreshold() == 0.75 && request.hasFilterExpression()));
+        verify(jdbcTemplate).query(eq("SELECT id, content, metadata, ts_rank_cd("
+                        + "to_tsvector('simple', rag_cjk_segment(content)), q) AS rank FROM public.vector_store, "
+                        + "(SELECT phraseto_tsquery('simple', rag_cjk_segment(?)) || phraseto_tsquery('simple', rag_cjk_segment(?))"
+                        + " AS q) tsquery WHERE to_tsvector('simple', rag_cjk_segment(content)) @@ q"
+                        + " AND metadata::jsonb @@ ?::jsonpath ORDER BY rank DESC LIMIT ?"),
+                any(RowMapper.class), eq("ERR-42"), eq("超时"), eq("$.category == \"运维手册\""), eq(20));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testLexicalFailureFallsBackToVectorResults() {
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenReturn(List.of(document("a", Map.of())));
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class)))
+                .thenThrow(new IllegalStateException("function rag_cjk_segment(text) does not exist"));
+
+        List<Document> results = hybridSearchService.search("超时", 5, 0.75, null);
+
+        assertEquals(1, results.size());
+        assertEquals(1, results.get(0).getMetadata().get("vector_rank"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testLexicalResultsOfAllShardsAreMergedByRank() {
+        JdbcTemplate shard0 = mock(JdbcTemplate.class);
+        JdbcTemplate shard1 = mock(JdbcTemplate.class);
+        when(shard0.query(anyString(), any(RowMapper.class), any(Object[].class))).thenReturn(List.of(
+                ranked("a", 0.9), ranked("b", 0.3)));
+        when(shard1.query(anyString(), any(RowMapper.class), any(Object[].class))).thenReturn(List.of(
+                ranked("c", 0.5), ranked("d", 0.1)));
+        VectorStoreShards shards = mock(VectorStoreShards.class);
+        when(shards.getJdbcTemplates()).thenReturn(List.of(shard0, shard1));
+        HybridSearchService sharded = new HybridSearchService(vectorStore, shards, vectorWriter, new ObjectMapper(),
+                true, 20, 60, 2);
+        try {
+            assertEquals(List.of("a", "c", "b"), sharded.lexicalSearch("超时", 3, null).join().stream()
+                    .map(Document::getId).toList());
+            verify(shard0).query(anyString(), any(RowMapper.class), eq("超时"), eq(3));
+            verify(shard1).query(anyString(), any(RowMapper.class), eq("超时"), eq(3));
+        } finally {
+            sharded.shutdown();
+        }
+    }
+
+    private static Document ranked(String id, double rank) {
+        return Document.builder().id(id).text("内容 " + id).score(rank).build();
+    }
+
+    private static Document document(String id, Map<String, Object> metadata) {
+        return Document.builder().id(id).text("内容 " + id).metadata(metadata).build();
+    }
+}
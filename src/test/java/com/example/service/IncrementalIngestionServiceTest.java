@@ -0,0 +1,160 @@
+package com.example.service;
+
+import com.example.service.IncrementalIngestionService.ChunkDiff;
+import com.example.service.IncrementalIngestionService.IngestionResult;
+import com.example.vectorstore.PgVectorWriter;
+import com.example.vectorstore.VectorStoreShards;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 增量入库服务测试
+ * 验证复用的文档块在完成时改为新版本的类别，并返回已存储文档块的原类别；
+ * 入库期间持有文档的advisory锁，同一文档已有入库在进行时立即失败
+ *
+ * @author AI Assistant
+ */
+class IncrementalIngestionServiceTest {
+
+    private static final String KEPT_ID = "00000000-0000-0000-0000-000000000001";
+    private static final String REMOVED_ID = "00000000-0000-0000-0000-000000000002";
+
+    private JdbcTemplate jdbcTemplate;
+    private Connection lockConnection;
+    private ResultSet lockResult;
+    private VectorStore vectorStore;
+    private IncrementalIngestionService incrementalIngestionService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        DataSource dataSource = mock(DataSource.class);
+        when(jdbcTemplate.getDataSource()).thenReturn(dataSource);
+        lockConnection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(lockConnection);
+        PreparedStatement lockStatement = mock(PreparedStatement.class);
+        when(lockConnection.prepareStatement(anyString())).thenReturn(lockStatement);
+        lockResult = mock(ResultSet.class);
+        when(lockStatement.executeQuery()).thenReturn(lockResult);
+        when(lockResult.next()).thenReturn(true);
+        when(lockResult.getBoolean(1)).thenReturn(true);
+        vectorStore = mock(VectorStore.class);
+        PgVectorWriter vectorWriter = mock(PgVectorWriter.class);
+        when(vectorWriter.getQualifiedTableName()).thenReturn("public.vector_store");
+        incrementalIngestionService = new IncrementalIngestionService(VectorStoreShards.single(jdbcTemplate), vectorStore,
+                vectorWriter, new ObjectMapper());
+    }
+
+    @Test
+    void testKeptChunksMoveToNewCategory() throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getString("id")).thenReturn(KEPT_ID, REMOVED_ID);
+        when(rs.getString("chunk_hash")).thenReturn(EmbeddingCache.contentHash("远程办公每周最多两天"),
+                EmbeddingCache.contentHash("已删除的段落"));
+        when(rs.getString("category")).thenReturn("行政制度", "行政制度");
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            handler.processRow(rs);
+            handler.processRow(rs);
+            return null;
+        }).when(jdbcTemplate).query(contains("category FROM public.vector_store"), any(RowCallbackHandler.class), eq("员工手册"));
+
+        ChunkDiff diff = incrementalIngestionService.begin("员工手册", 2, "员工手册.md", " 公司政策 ");
+        assertFalse(diff.accept(Document.builder().text("远程办公每周最多两天").build()));
+        assertTrue(diff.accept(Document.builder().text("新增的段落").build()));
+        IngestionResult result = incrementalIngestionService.complete(diff);
+
+        assertEquals(new IngestionResult(1, 1, 1), result);
+        assertEquals(Set.of("行政制度"), diff.getPreviousCategories());
+        ArgumentCaptor<PreparedStatementCreator> update = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        verify(jdbcTemplate).update(update.capture());
+        Connection connection = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        when(connection.prepareStatement(anyString())).thenReturn(ps);
+        when(connection.createArrayOf(eq("uuid"), any())).thenReturn(mock(Array.class));
+        update.getValue().createPreparedStatement(connection);
+        verify(connection).prepareStatement(contains("'source_file', ?::text, 'category', ?::text)"));
+        verify(ps).setString(3, "公司政策");
+        verify(vectorStore).delete(List.of(REMOVED_ID));
+    }
+
+    @Test
+    void testKeptChunksLoseCategoryWhenNewVersionHasNone() throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getString("id")).thenReturn(KEPT_ID);
+        when(rs.getString("chunk_hash")).thenReturn(EmbeddingCache.contentHash("远程办公每周最多两天"));
+        when(rs.getString("category")).thenReturn("行政制度");
+        doAnswer(invocation -> {
+            ((RowCallbackHandler) invocation.getArgument(1)).processRow(rs);
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class), eq("员工手册"));
+
+        ChunkDiff diff = incrementalIngestionService.begin("员工手册", 2, "员工手册.md", null);
+        diff.accept(Document.builder().text("远程办公每周最多两天").build());
+        incrementalIngestionService.complete(diff);
+
+        ArgumentCaptor<PreparedStatementCreator> update = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        verify(jdbcTemplate).update(update.capture());
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString())).thenReturn(mock(PreparedStatement.class));
+        update.getValue().createPreparedStatement(connection);
+        verify(connection).prepareStatement(contains("'source_file', ?::text) - 'category')::json"));
+        verify(vectorStore, never()).delete(anyList());
+    }
+
+    @Test
+    void testDocumentLockIsHeldUntilDiffIsClosed() throws Exception {
+        ChunkDiff diff = incrementalIngestionService.begin("员工手册", 2, "员工手册.md", null);
+        verify(lockConnection).prepareStatement("SELECT pg_try_advisory_lock(hashtext(?))");
+        verify(lockConnection, never()).close();
+
+        diff.close();
+        diff.close();
+
+        verify(lockConnection).prepareStatement("SELECT pg_advisory_unlock(hashtext(?))");
+        verify(lockConnection).close();
+    }
+
+    @Test
+    void testConcurrentIngestionOfSameDocumentIsRejected() throws Exception {
+        when(lockResult.getBoolean(1)).thenReturn(false);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> incrementalIngestionService.begin("员工手册", 2, "员工手册.md", null));
+
+        assertTrue(e.getMessage().contains("正在由另一个请求处理"));
+        verify(lockConnection).close();
+        verify(jdbcTemplate, never()).query(anyString(), any(RowCallbackHandler.class), any(Object[].class));
+    }
+
+    @Test
+    void testDocumentLockIsReleasedWhenBeginFails() throws Exception {
+        doThrow(new IllegalStateException("connection reset"))
+                .when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class), eq("员工手册"));
+
+        assertThrows(IllegalStateException.class,
+                () -> incrementalIngestionService.begin("员工手册", 2, "员工手册.md", null));
+
+        verify(lockConnection).prepareStatement("SELECT pg_advisory_unlock(hashtext(?))");
+        verify(lockConnection).close();
+    }
+}
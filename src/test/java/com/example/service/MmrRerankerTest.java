@@ -0,0 +1,227 @@
+package com.example.service;
+
+import com.example.vectorstore.PgVectorWriter;
+import com.example.vectorstore.VectorStoreShards;
+import com.pgvector.PGvector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.postgresql.PGConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * MMR重排测试
+ * 验证相邻重复的文档块被更有信息量的候选替换、相关性沿用上游融合得分、向量按ID批量读取并直接以PGvector类型返回（分片时从文档块所在分片读取），
+ * 以及点积计算
+ *
+ * @author AI Assistant
+ */
+class MmrRerankerTest {
+
+    // 四个候选：a与a2几乎相同，b稍不相关但内容不同，c与查询无关
+    private static final Map<String, String> EMBEDDINGS = Map.of(
+            "00000000-0000-0000-0000-00000000000a", "[1,0.1,0]",
+            "00000000-0000-0000-0000-0000000000a2", "[1,0.12,0]",
+            "00000000-0000-0000-0000-00000000000b", "[0.8,0,0.6]",
+            "00000000-0000-0000-0000-00000000000c", "[0,0,1]");
+
+    private JdbcTemplate jdbcTemplate;
+    private VectorStoreShards shards;
+    private EmbeddingModel embeddingModel;
+    private PgVectorWriter vectorWriter;
+    private List<EmbeddingQuery> queries;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        shards = VectorStoreShards.single(jdbcTemplate);
+        embeddingModel = mock(EmbeddingModel.class);
+        vectorWriter = mock(PgVectorWriter.class);
+        when(vectorWriter.getQualifiedTableName()).thenReturn("public.vector_store");
+        when(embeddingModel.embed("远程办公")).thenReturn(new float[]{1f, 0f, 0f});
+
+        queries = answerEmbeddings(jdbcTemplate);
+    }
+
+    @Test
+    void testNearDuplicateIsReplacedByDiverseCandidate() {
+        MmrReranker reranker = new MmrReranker(shards, vectorWriter, embeddingModel, true, 0.5, 4);
+        List<Document> candidates = List.of(
+                document("00000000-0000-0000-0000-00000000000a"),
+                document("00000000-0000-0000-0000-0000000000a2"),
+                document("00000000-0000-0000-0000-00000000000b"),
+                document("00000000-0000-0000-0000-00000000000c"));
+
+        List<Document> results = reranker.rerank("远程办公", candidates, 2);
+
+        assertEquals(List.of("00000000-0000-0000-0000-00000000000a", "00000000-0000-0000-0000-00000000000b"),
+                results.stream().map(Document::getId).toList());
+        assertEquals(1, queries.size());
+        assertEquals("SELECT id, embedding FROM public.vector_store WHERE id IN (?::uuid, ?::uuid, ?::uuid, ?::uuid)",
+                queries.get(0).sql());
+        assertEquals(8, reranker.fetchSize(2));
+    }
+
+    @Test
+    void testFusedScoreIsUsedAsRelevance() {
+        MmrReranker reranker = new MmrReranker(shards, vectorWriter, embeddingModel, true, 0.7, 4);
+        // c只被全文检索命中，与查询向量不相似，但RRF融合得分排第二
+        List<Document> candidates = List.of(
+                document("00000000-0000-0000-0000-00000000000a", 0.0328),
+                document("00000000-0000-0000-0000-00000000000c", 0.0318),
+                document("00000000-0000-0000-0000-0000000000a2", 0.0161));
+
+        List<Document> results = reranker.rerank("远程办公", candidates, 2);
+
+        assertEquals(List.of("00000000-0000-0000-0000-00000000000a", "00000000-0000-0000-0000-00000000000c"),
+                results.stream().map(Document::getId).toList());
+        verifyNoInteractions(embeddingModel);
+    }
+
+    @Test
+    void testLambdaOneKeepsRelevanceOrder() {
+        MmrReranker reranker = new MmrReranker(shards, vectorWriter, embeddingModel, true, 1.0, 4);
+        List<Document> candidates = List.of(
+                document("00000000-0000-0000-0000-00000000000a"),
+                document("00000000-0000-0000-0000-0000000000a2"),
+                document("00000000-0000-0000-0000-00000000000b"));
+
+        assertEquals(candidates.subList(0, 2), reranker.rerank("远程办公", candidates, 2));
+    }
+
+    @Test
+    void testMissingEmbeddingsAreAppendedLast() {
+        MmrReranker reranker = new MmrReranker(shards, vectorWriter, embeddingModel, true, 0.5, 4);
+        Document deleted = document("00000000-0000-0000-0000-0000000000ff");
+        Document a = document("00000000-0000-0000-0000-00000000000a");
+
+        assertEquals(List.of(a, deleted), reranker.rerank("远程办公", List.of(deleted, a), 2));
+    }
+
+    @Test
+    void testDisabledReturnsTopKUnchanged() {
+        MmrReranker reranker = new MmrReranker(shards, vectorWriter, embeddingModel, false, 0.5, 4);
+        List<Document> candidates = List.of(document("00000000-0000-0000-0000-00000000000a"),
+                document("00000000-0000-0000-0000-0000000000a2"));
+
+        assertEquals(candidates.subList(0, 1), reranker.rerank("远程办公", candidates, 1));
+        assertEquals(1, reranker.fetchSize(1));
+        verifyNoInteractions(jdbcTemplate, embeddingModel);
+    }
+
+    @Test
+    void testEmbeddingsAreLoadedFromEachCandidatesShard() {
+        JdbcTemplate shard0 = mock(JdbcTemplate.class);
+        JdbcTemplate shard1 = mock(JdbcTemplate.class);
+        List<EmbeddingQuery> shard0Queries = answerEmbeddings(shard0);
+        List<EmbeddingQuery> shard1Queries = answerEmbeddings(shard1);
+        VectorStoreShards twoShards = mock(VectorStoreShards.class);
+        when(twoShards.getJdbcTemplate(0)).thenReturn(shard0);
+        when(twoShards.getJdbcTemplate(1)).thenReturn(shard1);
+        when(twoShards.shardOf(any(Document.class))).thenAnswer(invocation ->
+                "员工手册".equals(invocation.<Document>getArgument(0).getMetadata().get("document_id")) ? 0 : 1);
+
+        MmrReranker reranker = new MmrReranker(twoShards, vectorWriter, embeddingModel, true, 0.5, 4);
+        List<Document> candidates = List.of(
+                document("00000000-0000-0000-0000-00000000000a", "员工手册"),
+                document("00000000-0000-0000-0000-0000000000a2", "员工手册"),
+                document("00000000-0000-0000-0000-00000000000b", "远程办公政策"),
+                document("00000000-0000-0000-0000-00000000000c", "远程办公政策"));
+
+        List<Document> results = reranker.rerank("远程办公", candidates, 2);
+
+        // 两个分片的向量都被读到，结果与单库相同
+        assertEquals(List.of("00000000-0000-0000-0000-00000000000a", "00000000-0000-0000-0000-00000000000b"),
+                results.stream().map(Document::getId).toList());
+        assertEquals(List.of(new EmbeddingQuery("SELECT id, embedding FROM public.vector_store WHERE id IN (?::uuid, ?::uuid)",
+                List.of("00000000-0000-0000-0000-00000000000a", "00000000-0000-0000-0000-0000000000a2"))), shard0Queries);
+        assertEquals(List.of(new EmbeddingQuery("SELECT id, embedding FROM public.vector_store WHERE id IN (?::uuid, ?::uuid)",
+                List.of("00000000-0000-0000-0000-00000000000b", "00000000-0000-0000-0000-00000000000c"))), shard1Queries);
+    }
+
+    @Test
+    void testDot() {
+        Random random = new Random(7);
+        float[] a = new float[1539];
+        float[] b = new float[1539];
+        double expected = 0;
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextFloat();
+            b[i] = random.nextFloat();
+            expected += (double) a[i] * b[i];
+        }
+        assertEquals(expected, MmrReranker.dot(a, 0, b, 0, a.length), 1e-2);
+        assertEquals(a[3] * b[5] + a[4] * b[6], MmrReranker.dot(a, 3, b, 5, 2), 1e-6);
+    }
+
+    private static Document document(String id) {
+        return Document.builder().id(id).text("内容").build();
+    }
+
+    private static Document document(String id, double score) {
+        return Document.builder().id(id).text("内容").score(score).build();
+    }
+
+    private static Document document(String id, String documentId) {
+        return Document.builder().id(id).text("内容").metadata(Map.of("document_id", documentId)).build();
+    }
+
+    /**
+     * 模拟vector_store按ID读取向量，只返回查询的ID中存在的文档块，记录执行的语句
+     */
+    private static List<EmbeddingQuery> answerEmbeddings(JdbcTemplate jdbcTemplate) {
+        List<EmbeddingQuery> queries = new ArrayList<>();
+        doAnswer(invocation -> {
+            PGConnection pgConnection = mock(PGConnection.class);
+            Connection connection = mock(Connection.class);
+            when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+            PreparedStatement ps = mock(PreparedStatement.class);
+            when(connection.prepareStatement(anyString())).thenReturn(ps);
+            invocation.<PreparedStatementCreator>getArgument(0).createPreparedStatement(connection);
+
+            ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+            verify(connection).prepareStatement(sql.capture());
+            ArgumentCaptor<String> ids = ArgumentCaptor.forClass(String.class);
+            verify(ps, atLeastOnce()).setString(anyInt(), ids.capture());
+            // 读取前在连接上注册了vector类型
+            verify(pgConnection).addDataType("vector", PGvector.class);
+            queries.add(new EmbeddingQuery(sql.getValue(), ids.getAllValues()));
+
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (String id : ids.getAllValues()) {
+                if (!EMBEDDINGS.containsKey(id)) {
+                    continue;
+                }
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getString("id")).thenReturn(id);
+                when(rs.getObject("embedding")).thenReturn(new PGvector(EMBEDDINGS.get(id)));
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+        return queries;
+    }
+
+    /**
+     * 读取向量时执行的语句和绑定的ID
+     */
+    private record EmbeddingQuery(String sql, List<String> ids) {
+    }
+}
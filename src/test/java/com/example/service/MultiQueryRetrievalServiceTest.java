@@ -0,0 +1,126 @@
+package com.example.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * 多查询检索测试
+ * 验证本地规则扩展、所有变体的向量一次批量计算、各变体并行检索，以及结果的倒数排名融合
+ *
+ * @author AI Assistant
+ */
+class MultiQueryRetrievalServiceTest {
+
+    private static final String QUERY = "年假怎么申请，病假需要哪些材料？";
+
+    private VectorStore vectorStore;
+    private EmbeddingModel embeddingModel;
+    private QueryEmbeddingCache queryEmbeddingCache;
+    private MultiQueryRetrievalService multiQueryRetrievalService;
+
+    @BeforeEach
+    void setUp() {
+        vectorStore = mock(VectorStore.class);
+        embeddingModel = mock(EmbeddingModel.class);
+        queryEmbeddingCache = new QueryEmbeddingCache("text-embedding-3-small", 1536, true, 100);
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).stream()
+                .map(text -> new float[]{1f}).toList());
+        multiQueryRetrievalService = new MultiQueryRetrievalService(vectorStore, embeddingModel, queryEmbeddingCache,
+                null, "rules", 4, 60, 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        multiQueryRetrievalService.shutdown();
+    }
+
+    @Test
+    void testRuleVariants() {
+        assertEquals(List.of(QUERY, "年假 申请 病假需要 材料", "年假 申请", "病假需要 材料"),
+                MultiQueryRetrievalService.ruleVariants(QUERY, 4));
+        assertEquals(List.of("ERR-CONN-42 是什么？", "ERR-CONN-42"),
+                MultiQueryRetrievalService.ruleVariants("ERR-CONN-42 是什么？", 4));
+        assertEquals(List.of(QUERY, "年假 申请 病假需要 材料"), MultiQueryRetrievalService.ruleVariants(QUERY, 2));
+        assertEquals(List.of("远程办公"), MultiQueryRetrievalService.ruleVariants("远程办公", 4));
+    }
+
+    @Test
+    void testVariantsAreEmbeddedOnceAndSearchedInParallel() {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenAnswer(invocation -> {
+            SearchRequest request = invocation.getArgument(0);
+            threads.add(Thread.currentThread().getName());
+            // 检索时查询向量已在缓存中
+            EmbeddingModel cached = queryEmbeddingCache.decorate(embeddingModel);
+            cached.embed(request.getQuery());
+            Thread.sleep(300);
+            return switch (request.getQuery()) {
+                case "年假 申请" -> List.of(document("annual-leave"), document("overtime"));
+                case "病假需要 材料" -> List.of(document("sick-leave"), document("annual-leave"));
+                default -> List.of(document("annual-leave"), document("sick-leave"));
+            };
+        });
+
+        long start = System.nanoTime();
+        List<Document> results = multiQueryRetrievalService.search(QUERY, 3, 0.75, null);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // 4个变体串行需要1200ms
+        assertTrue(elapsedMillis < 900, "多查询检索耗时 " + elapsedMillis + " ms");
+        assertEquals(4, threads.size());
+        verify(embeddingModel, times(1)).embed(anyList());
+        verify(embeddingModel, never()).embed(anyString());
+        verify(vectorStore, times(4)).similaritySearch(any(SearchRequest.class));
+
+        assertEquals(List.of("annual-leave", "sick-leave", "overtime"), results.stream().map(Document::getId).toList());
+        assertEquals(4, results.get(0).getMetadata().get("matched_queries"));
+        assertEquals(3, results.get(1).getMetadata().get("matched_queries"));
+        assertEquals(1.0 / 62, (double) results.get(2).getMetadata().get("rrf_score"), 1e-9);
+    }
+
+    @Test
+    void testFailedVariantIsIgnored() {
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenAnswer(invocation -> {
+            SearchRequest request = invocation.getArgument(0);
+            if (request.getQuery().equals("年假 申请")) {
+                throw new IllegalStateException("连接超时");
+            }
+            return List.of(document("annual-leave"));
+        });
+
+        List<Document> results = multiQueryRetrievalService.search(QUERY, 3, 0.75, null);
+
+        assertEquals(1, results.size());
+        assertEquals(3, results.get(0).getMetadata().get("matched_queries"));
+    }
+
+    @Test
+    void testSingleVariantSkipsBatchEmbedding() {
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenReturn(List.of(document("remote-work")));
+
+        List<Document> results = multiQueryRetrievalService.search("远程办公", 3, 0.75, null);
+
+        assertEquals(List.of("remote-work"), results.stream().map(Document::getId).toList());
+        verifyNoInteractions(embeddingModel);
+    }
+
+    private static Document document(String id) {
+        return Document.builder().id(id).text("内容").metadata(Map.of("category", "公司政策")).build();
+    }
+}
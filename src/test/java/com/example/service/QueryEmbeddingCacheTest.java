@@ -0,0 +1,92 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * 查询向量缓存测试
+ * 验证规范化后相同的查询只调用一次模型（向量由原始查询计算，返回的是副本）、超过容量时按LRU淘汰、批量embed不经过缓存，以及批量预先计算多个查询
+ *
+ * @author AI Assistant
+ */
+class QueryEmbeddingCacheTest {
+
+    @Test
+    void testNormalizedQueriesShareEmbedding() {
+        EmbeddingModel delegate = mock(EmbeddingModel.class);
+        when(delegate.embed(anyString())).thenReturn(new float[]{0.1f, 0.2f});
+        EmbeddingModel embeddingModel = new QueryEmbeddingCache("text-embedding-3-small", 1536, true, 10)
+                .decorate(delegate);
+
+        float[] first = embeddingModel.embed("远程办公 如何申请？");
+        first[0] = 9f;
+        float[] second = embeddingModel.embed("  远程办公\n如何申请? ");
+
+        assertArrayEquals(new float[]{0.1f, 0.2f}, second);
+        verify(delegate, times(1)).embed(anyString());
+        verify(delegate).embed("远程办公 如何申请？");
+    }
+
+    @Test
+    void testLeastRecentlyUsedQueryIsEvicted() {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache("text-embedding-3-small", 1536, true, 2);
+        EmbeddingModel delegate = mock(EmbeddingModel.class);
+        when(delegate.embed(anyString())).thenAnswer(invocation -> new float[]{1f});
+        EmbeddingModel embeddingModel = cache.decorate(delegate);
+
+        embeddingModel.embed("年假");
+        embeddingModel.embed("报销");
+        embeddingModel.embed("年假");
+        embeddingModel.embed("加班");
+        embeddingModel.embed("年假");
+        embeddingModel.embed("报销");
+
+        verify(delegate, times(1)).embed("年假");
+        verify(delegate, times(2)).embed("报销");
+        assertEquals(2L, cache.getStats().get("hits"));
+        assertEquals(2L, cache.getStats().get("evictions"));
+        assertEquals(2, cache.getStats().get("entries"));
+    }
+
+    @Test
+    void testBatchEmbeddingBypassesCache() {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache("text-embedding-3-small", 1536, true, 10);
+        EmbeddingModel delegate = mock(EmbeddingModel.class);
+        when(delegate.embed(anyList())).thenReturn(List.of(new float[]{1f}));
+        EmbeddingModel embeddingModel = cache.decorate(delegate);
+
+        embeddingModel.embed(List.of("文档块"));
+        embeddingModel.embed(List.of("文档块"));
+
+        verify(delegate, times(2)).embed(List.of("文档块"));
+        assertEquals(0, cache.getStats().get("entries"));
+    }
+
+    @Test
+    void testEmbedAllBatchesMissesAndFillsCache() {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache("text-embedding-3-small", 1536, true, 10);
+        EmbeddingModel delegate = mock(EmbeddingModel.class);
+        float[] cachedVector = new float[]{1f};
+        when(delegate.embed("年假")).thenReturn(cachedVector);
+        when(delegate.embed(anyList())).thenReturn(List.of(new float[]{2f}, new float[]{3f}));
+        EmbeddingModel embeddingModel = cache.decorate(delegate);
+        embeddingModel.embed("年假");
+
+        List<float[]> embeddings = cache.embedAll(List.of("报销", " 年假", "加班？"), delegate::embed);
+
+        assertArrayEquals(cachedVector, embeddings.get(1));
+        assertNotSame(cachedVector, embeddings.get(1));
+        assertEquals(2f, embeddings.get(0)[0]);
+        assertEquals(3f, embeddings.get(2)[0]);
+        verify(delegate, times(1)).embed(List.of("报销", "加班？"));
+        assertArrayEquals(embeddings.get(2), embeddingModel.embed("加班?"));
+        verify(delegate, times(1)).embed(anyString());
+    }
+}
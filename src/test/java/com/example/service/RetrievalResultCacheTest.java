@@ -0,0 +1,97 @@
+package com.example.service;
+
+import com.example.service.RetrievalResultCache.RetrievalKey;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 检索结果缓存测试
+ * 验证相同检索参数命中缓存、文档变化时按类别使版本号失效，以及检索过程中发生的变化不会留下过期结果
+ *
+ * @author AI Assistant
+ */
+class RetrievalResultCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void testIdenticalRequestsHitCache() {
+        RetrievalResultCache cache = new RetrievalResultCache(true, 10);
+
+        List<Document> first = cache.get(key("远程办公 如何申请？", null, 5), loader("a"));
+        List<Document> second = cache.get(key("  远程办公\n如何申请? ", null, 5), loader("b"));
+        cache.get(key("远程办公 如何申请？", null, 3), loader("c"));
+
+        assertSame(first, second);
+        assertEquals(2, loads.get());
+        assertEquals(1L, cache.getStats().get("hits"));
+        assertEquals(2L, cache.getStats().get("misses"));
+        assertEquals(1.0 / 3, (double) cache.getStats().get("hit_ratio"), 1e-9);
+    }
+
+    @Test
+    void testCategoryChangeInvalidatesOnlyAffectedResults() {
+        RetrievalResultCache cache = new RetrievalResultCache(true, 10);
+        cache.get(key("年假", null, 5), loader("a"));
+        cache.get(key("年假", "公司政策", 5), loader("a"));
+        cache.get(key("年假", "产品手册", 5), loader("a"));
+
+        cache.invalidateCategory("公司政策");
+
+        cache.get(key("年假", null, 5), loader("b"));
+        cache.get(key("年假", "公司政策", 5), loader("b"));
+        List<Document> unaffected = cache.get(key("年假", "产品手册", 5), loader("b"));
+        assertEquals("a", unaffected.get(0).getId());
+        assertEquals(5, loads.get());
+        assertEquals(1L, cache.getStats().get("epoch"));
+
+        cache.invalidateAll();
+        assertEquals("c", cache.get(key("年假", "产品手册", 5), loader("c")).get(0).getId());
+        assertEquals(1, cache.getStats().get("entries"));
+    }
+
+    @Test
+    void testChangeDuringRetrievalIsNotServedLater() {
+        RetrievalResultCache cache = new RetrievalResultCache(true, 10);
+
+        cache.get(key("年假", "公司政策", 5), () -> {
+            // 检索过程中同一类别的文档被更新
+            cache.invalidateCategory("公司政策");
+            return List.of(document("stale"));
+        });
+
+        assertEquals("fresh", cache.get(key("年假", "公司政策", 5), loader("fresh")).get(0).getId());
+    }
+
+    @Test
+    void testDisabledCacheAlwaysLoads() {
+        RetrievalResultCache cache = new RetrievalResultCache(false, 10);
+
+        cache.get(key("年假", null, 5), loader("a"));
+        cache.get(key("年假", null, 5), loader("a"));
+
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.getStats().get("entries"));
+    }
+
+    private static RetrievalKey key(String query, String category, int topK) {
+        return new RetrievalKey("vector", query, category, null, topK, 0.75);
+    }
+
+    private Supplier<List<Document>> loader(String id) {
+        return () -> {
+            loads.incrementAndGet();
+            return List.of(document(id));
+        };
+    }
+
+    private static Document document(String id) {
+        return Document.builder().id(id).text("内容").build();
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.service;
+
+import com.example.service.DocumentRegistry.SourceFileState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 监控目录入库服务测试
+ * 验证启动扫描跳过已处理且未变化的文件、按子目录映射类别，以及启动后新增的文件会被处理
+ *
+ * @author AI Assistant
+ */
+class WatchFolderIngestionServiceTest {
+
+    @TempDir
+    Path watchDirectory;
+
+    private DocumentService documentService;
+    private DocumentRegistry documentRegistry;
+    private WatchFolderIngestionService watchService;
+
+    @BeforeEach
+    void setUp() {
+        documentService = mock(DocumentService.class);
+        documentRegistry = mock(DocumentRegistry.class);
+        when(documentService.isSupportedDocumentType(anyString()))
+                .thenAnswer(invocation -> invocation.<String>getArgument(0).endsWith(".txt")
+                        || invocation.<String>getArgument(0).endsWith(".md"));
+        when(documentService.processLocalFile(any(), any(), any())).thenReturn("ok");
+
+        watchService = new WatchFolderIngestionService(documentService, documentRegistry, true,
+                watchDirectory.toString(), "policies=公司政策", "默认", 2, 2, 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        watchService.shutdown();
+    }
+
+    @Test
+    void testInitialScanResumesAndNewFilesAreIngested() throws IOException {
+        Path processed = Files.writeString(watchDirectory.resolve("processed.txt"), "已处理");
+        Path policy = Files.writeString(Files.createDirectories(watchDirectory.resolve("policies")).resolve("leave.md"), "请假制度");
+        Path manual = Files.writeString(Files.createDirectories(watchDirectory.resolve("manuals")).resolve("guide.txt"), "手册");
+        Files.writeString(watchDirectory.resolve(".draft.txt"), "临时文件");
+        Files.writeString(watchDirectory.resolve("image.png"), "不支持的类型");
+        when(documentRegistry.findProcessedSourceFiles()).thenReturn(Map.of("processed.txt",
+                new SourceFileState(Files.size(processed), Files.getLastModifiedTime(processed).toMillis())));
+
+        watchService.start();
+
+        verify(documentService, timeout(5000)).processLocalFile(eq(policy.toAbsolutePath()), eq("公司政策"), any());
+        verify(documentService, timeout(5000)).processLocalFile(eq(manual.toAbsolutePath()), eq("manuals"), any());
+        verify(documentRegistry, timeout(5000)).recordSourceFile(any(), eq("policies/leave.md"), anyLong());
+
+        Path added = Files.writeString(watchDirectory.resolve("added.txt"), "新增文档");
+        verify(documentService, timeout(5000)).processLocalFile(eq(added.toAbsolutePath()), eq("默认"), any());
+
+        verify(documentService, never()).processLocalFile(eq(processed.toAbsolutePath()), any(), any());
+        verify(documentService, times(3)).processLocalFile(any(), any(), any());
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.splitter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 低分配分割器测试
+ * 验证在不同参数下分块结果、元数据和顺序都与TokenTextSplitter一致
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+class FastTokenTextSplitterTest {
+
+    @Test
+    void testSameChunksAsTokenTextSplitter() {
+        List<Document> documents = createDocuments(12);
+
+        assertSameChunks(new TokenTextSplitter(1000, 200, 5, 10000, true),
+                new FastTokenTextSplitter(1000, 200, 5, 10000, true), documents);
+        assertSameChunks(new TokenTextSplitter(300, 50, 5, 10000, false),
+                new FastTokenTextSplitter(300, 50, 5, 10000, false), documents);
+        // 超过最大分块数后剩余内容合并为一个分块
+        assertSameChunks(new TokenTextSplitter(200, 100, 5, 3, true),
+                new FastTokenTextSplitter(200, 100, 5, 3, true), documents);
+    }
+
+    @Test
+    void testBlankDocumentsProduceNoChunks() {
+        List<Document> documents = List.of(new Document("  \n\n  "), new Document("\t"));
+
+        assertTrue(new FastTokenTextSplitter(1000, 200, 5, 10000, true).apply(documents).isEmpty());
+    }
+
+    private void assertSameChunks(TokenTextSplitter expectedSplitter, FastTokenTextSplitter actualSplitter,
+                                  List<Document> documents) {
+        List<Document> expected = expectedSplitter.apply(documents);
+        List<Document> actual = actualSplitter.apply(documents);
+
+        log.info("TokenTextSplitter: {} 个分块, FastTokenTextSplitter: {} 个分块", expected.size(), actual.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getText(), actual.get(i).getText());
+            assertEquals(expected.get(i).getMetadata(), actual.get(i).getMetadata());
+        }
+    }
+
+    static List<Document> createDocuments(int pages) {
+        List<Document> documents = new ArrayList<>();
+        for (int page = 1; page <= pages; page++) {
+            String text = StreamingTextSplitterTest.generateText(20 * page).replace("\n", System.lineSeparator());
+            documents.add(new Document(text, Map.of("page_number", page, "source_file", "sample.pdf")));
+        }
+        return documents;
+    }
+}
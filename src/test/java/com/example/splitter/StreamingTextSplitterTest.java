@@ -0,0 +1,83 @@
+package com.example.splitter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 流式分割器测试
+ * 验证在很小的缓冲区下流式分割的结果与TokenTextSplitter一次性分割的结果一致
+ *
+ * @author AI Assistant
+ */
+@Slf4j
+class StreamingTextSplitterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSameChunksAsTokenTextSplitter() throws IOException {
+        String text = generateText(2000);
+        Path file = tempDir.resolve("large.txt");
+        Files.writeString(file, text);
+
+        List<String> expected = new TokenTextSplitter(1000, 200, 5, 10000, true)
+                .apply(List.of(new Document(text))).stream()
+                .map(Document::getText)
+                .toList();
+
+        List<String> actual = new ArrayList<>();
+        int count = new StreamingTextSplitter(1000, 200, 5, true, 4096)
+                .split(file, StandardCharsets.UTF_8, actual::add);
+
+        log.info("TokenTextSplitter: {} 个分块, 流式分割: {} 个分块", expected.size(), count);
+        assertEquals(expected.size(), count);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testEmptyFileProducesNoChunks() throws IOException {
+        Path file = tempDir.resolve("empty.md");
+        Files.writeString(file, "  \n\n  ");
+
+        List<String> actual = new ArrayList<>();
+        int count = new StreamingTextSplitter(1000, 200, 5, true).split(file, StandardCharsets.UTF_8, actual::add);
+
+        assertEquals(0, count);
+        assertTrue(actual.isEmpty());
+    }
+
+    static String generateText(int paragraphs) {
+        String[] sentences = {
+                "Spring AI提供了与多种AI模型提供商的集成。",
+                "检索增强生成(RAG)将信息检索与语言生成相结合！",
+                "The vector store keeps one embedding per chunk.",
+                "Why does the splitter cut at the last punctuation mark?",
+                "向量数据库使用HNSW索引加速相似性搜索，ef_search越大召回率越高",
+                "Error code E-1024 indicates that the upload was interrupted."
+        };
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < paragraphs; i++) {
+            int length = 1 + random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                text.append(sentences[random.nextInt(sentences.length)]).append(' ');
+            }
+            text.append(random.nextInt(4) == 0 ? "\n\n" : "\n");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.storage;
+
+import com.example.storage.ContentAddressedDocumentStore.StoredFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 内容寻址存储测试
+ * 验证流式计算的哈希、分级目录、相同内容只保存一份，以及同一哈希的保存和删除互斥、待登记引用的文件不被删除
+ *
+ * @author AI Assistant
+ */
+class ContentAddressedDocumentStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testDuplicateContentIsStoredOnce() throws IOException, NoSuchAlgorithmException {
+        ContentAddressedDocumentStore store = new ContentAddressedDocumentStore(tempDir.toString());
+        byte[] content = "员工手册\n第一章 总则\n".repeat(10000).getBytes(StandardCharsets.UTF_8);
+        String expectedHash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+
+        StoredFile first = store.store(new ByteArrayInputStream(content), "md");
+        StoredFile second = store.store(new ByteArrayInputStream(content), "md");
+
+        assertEquals(expectedHash, first.contentHash());
+        assertFalse(first.existed());
+        assertTrue(second.existed());
+        assertEquals(first.path(), second.path());
+        assertEquals(content.length, second.size());
+        assertEquals("objects/" + expectedHash.substring(0, 2) + "/" + expectedHash.substring(2, 4) + "/"
+                + expectedHash + ".md", first.relativePath());
+        assertArrayEquals(content, Files.readAllBytes(first.path()));
+
+        // 临时文件都已被移走或删除
+        try (var tempFiles = Files.list(tempDir.resolve("tmp"))) {
+            assertEquals(0, tempFiles.count());
+        }
+    }
+
+    @Test
+    void testStoreExistingFileKeepsSourceFile() throws IOException {
+        ContentAddressedDocumentStore store = new ContentAddressedDocumentStore(tempDir.toString());
+        Path upload = Files.writeString(tempDir.resolve("upload.part"), "merged upload content");
+
+        StoredFile stored = store.store(upload, "txt");
+
+        // 原文件保留，处理失败时可以再次加入存储；删除原文件不影响已存储的内容
+        assertEquals("merged upload content", Files.readString(upload));
+        assertTrue(store.store(upload, "txt").existed());
+        Files.delete(upload);
+        assertEquals(stored.path(), store.resolve(stored.contentHash(), "txt"));
+        assertEquals("merged upload content", Files.readString(stored.path()));
+        assertTrue(store.delete(stored.contentHash(), "txt"));
+        assertFalse(Files.exists(stored.path()));
+    }
+
+    @Test
+    void testPendingFileIsNotDeletedUntilReleased() throws IOException {
+        ContentAddressedDocumentStore store = new ContentAddressedDocumentStore(tempDir.toString());
+        StoredFile first = store.store(new ByteArrayInputStream("远程办公制度".getBytes(StandardCharsets.UTF_8)), "txt");
+        StoredFile second = store.store(new ByteArrayInputStream("远程办公制度".getBytes(StandardCharsets.UTF_8)), "txt");
+
+        // 两次保存都还没有登记引用
+        store.release(first);
+        assertFalse(store.deleteIfUnreferenced(first.contentHash(), "txt", () -> 0));
+        store.release(second);
+        assertTrue(store.deleteIfUnreferenced(first.contentHash(), "txt", () -> 0));
+        assertFalse(Files.exists(first.path()));
+    }
+
+    @Test
+    void testStoreWaitsForDeletionOfSameContent() throws Exception {
+        ContentAddressedDocumentStore store = new ContentAddressedDocumentStore(tempDir.toString());
+        byte[] content = "报销流程".getBytes(StandardCharsets.UTF_8);
+        StoredFile stored = store.store(new ByteArrayInputStream(content), "md");
+        store.release(stored);
+
+        AtomicReference<CompletableFuture<StoredFile>> concurrentStore = new AtomicReference<>();
+        boolean deleted = store.deleteIfUnreferenced(stored.contentHash(), "md", () -> {
+            // 统计引用期间保存相同内容，保存等待删除完成
+            concurrentStore.set(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return store.store(new ByteArrayInputStream(content), "md");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+            assertThrows(Exception.class, () -> concurrentStore.get().get(200, TimeUnit.MILLISECONDS));
+            return 0;
+        });
+
+        assertTrue(deleted);
+        StoredFile restored = concurrentStore.get().get(5, TimeUnit.SECONDS);
+        // 删除之后的保存重新写入文件
+        assertFalse(restored.existed());
+        assertArrayEquals(content, Files.readAllBytes(restored.path()));
+    }
+}
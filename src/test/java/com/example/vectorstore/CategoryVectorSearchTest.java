@@ -0,0 +1,155 @@
+package com.example.vectorstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore.PgDistanceType;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 按类别的向量检索测试
+ * 验证类别条件的拆分、类别作为参数绑定、有无部分索引时的执行方式以及部分索引DDL的转义
+ *
+ * @author AI Assistant
+ */
+class CategoryVectorSearchTest {
+
+    private final FilterExpressionTextParser parser = new FilterExpressionTextParser();
+
+    private JdbcTemplate jdbcTemplate;
+    private Connection connection;
+    private Statement statement;
+    private PreparedStatement preparedStatement;
+    private EmbeddingModel embeddingModel;
+    private CategoryVectorSearch categoryVectorSearch;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        connection = mock(Connection.class);
+        statement = mock(Statement.class);
+        preparedStatement = mock(PreparedStatement.class);
+        ResultSet resultSet = mock(ResultSet.class);
+        embeddingModel = mock(EmbeddingModel.class);
+        PgVectorWriter vectorWriter = mock(PgVectorWriter.class);
+
+        when(vectorWriter.getQualifiedTableName()).thenReturn("public.vector_store");
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.createStatement()).thenReturn(statement);
+        when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+        when(preparedStatement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getString("id")).thenReturn("c7a1d2e0-0000-0000-0000-000000000001");
+        when(resultSet.getString("content")).thenReturn("远程办公需提前一天申请");
+        when(resultSet.getString("metadata")).thenReturn("{\"category\":\"公司政策\"}");
+        when(resultSet.getFloat("distance")).thenReturn(0.2f);
+        when(jdbcTemplate.execute(any(ConnectionCallback.class)))
+                .thenAnswer(invocation -> ((ConnectionCallback<?>) invocation.getArgument(0)).doInConnection(connection));
+        when(embeddingModel.embed(anyString())).thenReturn(new float[]{0.6f, 0.8f, 0f});
+
+        SearchPlanner searchPlanner = new SearchPlanner(jdbcTemplate, vectorWriter, false, 4, 20, 2000, 10000, 200000, 60);
+        categoryVectorSearch = new CategoryVectorSearch(jdbcTemplate, new ObjectMapper(), vectorWriter, embeddingModel,
+                searchPlanner, true, 10000, PgDistanceType.COSINE_DISTANCE, false);
+    }
+
+    @Test
+    void testSplitCategory() {
+        CategoryVectorSearch.CategoryFilter only = CategoryVectorSearch.splitCategory(parser.parse("category == '公司政策'")).orElseThrow();
+        assertEquals("公司政策", only.category());
+        assertNull(only.rest());
+
+        CategoryVectorSearch.CategoryFilter combined = CategoryVectorSearch.splitCategory(
+                parser.parse("source_file == '员工手册.pdf' && category == '公司政策'")).orElseThrow();
+        assertEquals("公司政策", combined.category());
+        assertEquals(parser.parse("source_file == '员工手册.pdf'"), combined.rest());
+
+        assertTrue(CategoryVectorSearch.splitCategory(parser.parse("category == '公司政策' || category == '技术文档'")).isEmpty());
+        assertTrue(CategoryVectorSearch.splitCategory(parser.parse("category != '公司政策'")).isEmpty());
+        assertTrue(CategoryVectorSearch.splitCategory(null).isEmpty());
+    }
+
+    @Test
+    void testSmallCategoryIsSearchedExactlyWithBoundCategory() throws Exception {
+        String category = "公司政策' OR '1' = '1";
+        VectorStore vectorStore = categoryVectorSearch.decorate(mock(VectorStore.class));
+
+        List<Document> results = vectorStore.similaritySearch(SearchRequest.builder()
+                .query("远程办公")
+                .topK(5)
+                .similarityThreshold(0.75)
+                .filterExpression(new FilterExpressionBuilder().eq("category", category).build())
+                .build());
+
+        verify(connection).prepareStatement("SELECT id, content, metadata, embedding <=> ? AS distance FROM public.vector_store"
+                + " WHERE category = ? AND embedding <=> ? < ? ORDER BY distance LIMIT ?");
+        verify(statement).execute("SET LOCAL enable_indexscan = off");
+        verify(preparedStatement).setString(2, category);
+        verify(preparedStatement).setDouble(4, 1 - 0.75);
+        verify(preparedStatement).setInt(5, 5);
+        verify(connection).commit();
+
+        assertEquals(1, results.size());
+        assertEquals(0.8, results.get(0).getScore(), 1e-6);
+        assertEquals(0.2f, results.get(0).getMetadata().get("distance"));
+    }
+
+    @Test
+    void testIndexedCategoryUsesCustomPlanForPartialIndex() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), eq("public.vector_store"),
+                eq(CategoryVectorSearch.INDEX_PREFIX))).thenReturn(List.of("产品手册"));
+        categoryVectorSearch.init();
+
+        categoryVectorSearch.search("产品手册", new float[]{1f, 0f, 0f}, 50, 0.0, parser.parse("source_file == 'x.pdf'"));
+
+        verify(statement).execute("SET LOCAL plan_cache_mode = force_custom_plan");
+        verify(statement).execute("SET LOCAL hnsw.ef_search = 50");
+        verify(statement, never()).execute("SET LOCAL enable_indexscan = off");
+        verify(connection).prepareStatement(
+                "SELECT id, content, metadata, embedding <=> ? AS distance FROM public.vector_store WHERE category = ?"
+                        + " AND embedding <=> ? < ? AND metadata::jsonb @@ ?::jsonpath"
+                        + " ORDER BY distance LIMIT ?");
+        verify(preparedStatement).setString(5, "$.source_file == \"x.pdf\"");
+        verify(preparedStatement).setInt(6, 50);
+    }
+
+    @Test
+    void testRequestsWithoutCategoryAreDelegated() {
+        VectorStore delegate = mock(VectorStore.class);
+        SearchRequest request = SearchRequest.builder().query("远程办公").filterExpression("source_file == 'x.pdf'").build();
+
+        categoryVectorSearch.decorate(delegate).similaritySearch(request);
+
+        verify(delegate).similaritySearch(request);
+        verifyNoInteractions(embeddingModel);
+    }
+
+    @Test
+    void testPartialIndexDefinitionEscapesCategory() {
+        String indexName = CategoryVectorSearch.indexName("O'Reilly 图书");
+
+        assertTrue(indexName.matches(CategoryVectorSearch.INDEX_PREFIX + "[0-9a-f]{12}"));
+        assertEquals("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + indexName + " ON public.vector_store"
+                        + " USING hnsw (embedding vector_cosine_ops) WHERE category = 'O''Reilly 图书'",
+                categoryVectorSearch.createIndexSql("public.vector_store", indexName, "O'Reilly 图书"));
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.vectorstore;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * HNSW索引测试
+ * 以暴力检索的精确结果为基准验证召回率，以及已删除节点和过滤条件不出现在结果中
+ *
+ * @author AI Assistant
+ */
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 48;
+
+    @Test
+    void testRecallAgainstBruteForce() {
+        Random random = new Random(7);
+        List<float[]> vectors = randomVectors(random, 3000);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 128, 42);
+        vectors.forEach(index::add);
+
+        int k = 10;
+        double recall = 0;
+        int queries = 100;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVectors(random, 1).get(0);
+            Set<Integer> exact = new HashSet<>(bruteForce(vectors, query, k));
+            List<HnswIndex.Neighbor> found = index.search(query, k, 64, node -> true);
+
+            assertEquals(k, found.size());
+            for (int i = 1; i < found.size(); i++) {
+                assertTrue(found.get(i - 1).similarity() >= found.get(i).similarity());
+            }
+            recall += found.stream().filter(neighbor -> exact.contains(neighbor.node())).count() / (double) k;
+        }
+
+        assertTrue(recall / queries >= 0.95, "召回率过低: " + recall / queries);
+    }
+
+    @Test
+    void testDeletedAndRejectedNodesAreExcluded() {
+        Random random = new Random(11);
+        List<float[]> vectors = randomVectors(random, 500);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 8, 64, 42);
+        vectors.forEach(index::add);
+
+        // 用节点自身的向量查询，最相似的结果应该是它自己
+        assertEquals(3, index.search(vectors.get(3), 1, 32, node -> true).get(0).node());
+
+        index.markDeleted(3);
+        List<HnswIndex.Neighbor> found = index.search(vectors.get(3), 5, 32, node -> node % 2 == 1);
+        assertEquals(5, found.size());
+        assertTrue(found.stream().allMatch(neighbor -> neighbor.node() != 3 && neighbor.node() % 2 == 1));
+        assertEquals(1, index.deletedCount());
+        assertEquals(500, index.size());
+    }
+
+    @Test
+    void testEmptyIndexAndDimensionMismatch() {
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 64, 42);
+        assertTrue(index.search(new float[DIMENSIONS], 5, 32, node -> true).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> index.add(new float[DIMENSIONS + 1]));
+    }
+
+    private static List<Integer> bruteForce(List<float[]> vectors, float[] query, int k) {
+        return IntStream.range(0, vectors.size()).boxed()
+                .sorted(Comparator.comparingDouble(i -> -cosine(vectors.get(i), query)))
+                .limit(k)
+                .toList();
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, normA = 0, normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    private static List<float[]> randomVectors(Random random, int count) {
+        List<float[]> vectors = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            float[] vector = new float[DIMENSIONS];
+            for (int i = 0; i < DIMENSIONS; i++) {
+                vector[i] = (float) random.nextGaussian();
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+}
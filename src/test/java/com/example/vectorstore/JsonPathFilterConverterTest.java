@@ -0,0 +1,26 @@
+package com.example.vectorstore;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * jsonpath过滤条件转换测试
+ * 验证字符串值中的引号和反斜杠按jsonpath字符串字面量转义，没有过滤条件时返回null
+ *
+ * @author AI Assistant
+ */
+class JsonPathFilterConverterTest {
+
+    @Test
+    void testQuotesInValuesAreEscaped() {
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+
+        assertEquals("$.category == \"O'Reilly \\\"运维\\\" C:\\\\docs\"",
+                JsonPathFilterConverter.toJsonPath(b.eq("category", "O'Reilly \"运维\" C:\\docs").build()));
+        assertEquals("$.category == \"公司政策\" && $.version == 2",
+                JsonPathFilterConverter.toJsonPath(b.and(b.eq("category", "公司政策"), b.eq("version", 2)).build()));
+        assertNull(JsonPathFilterConverter.toJsonPath(null));
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.vectorstore;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 元数据过滤表达式求值测试
+ *
+ * @author AI Assistant
+ */
+class MetadataFilterEvaluatorTest {
+
+    private final FilterExpressionTextParser parser = new FilterExpressionTextParser();
+
+    private final Map<String, Object> metadata = Map.of(
+            "category", "公司政策",
+            "source_file", "员工手册.pdf",
+            "page_number", 12);
+
+    @Test
+    void testComparisons() {
+        assertTrue(matches("category == '公司政策'"));
+        assertFalse(matches("category == '技术文档'"));
+        assertTrue(matches("category != '技术文档'"));
+        assertTrue(matches("page_number >= 12 && page_number < 20"));
+        assertTrue(matches("category in ['技术文档', '公司政策']"));
+        assertTrue(matches("source_file nin ['产品手册.pdf']"));
+        assertTrue(matches("NOT (page_number > 12) || category == '技术文档'"));
+    }
+
+    @Test
+    void testMissingKeyDoesNotMatch() {
+        assertFalse(matches("document_id == 'abc'"));
+        assertFalse(matches("document_id != 'abc'"));
+    }
+
+    private boolean matches(String expression) {
+        return MetadataFilterEvaluator.matches(parser.parse(expression), metadata);
+    }
+}
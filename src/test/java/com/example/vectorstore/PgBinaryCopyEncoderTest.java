@@ -0,0 +1,75 @@
+package com.example.vectorstore;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 二进制COPY编码测试
+ * 按PostgreSQL二进制COPY格式和pgvector的vector_recv格式逐字段解码，验证长度前缀和字节序
+ *
+ * @author AI Assistant
+ */
+class PgBinaryCopyEncoderTest {
+
+    @Test
+    void testRowLayout() throws IOException {
+        UUID id = UUID.randomUUID();
+        byte[] metadata = "{\"category\":\"公司政策\"}".getBytes(StandardCharsets.UTF_8);
+        float[] embedding = {0.25f, -1.5f, 3.0f};
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        PgBinaryCopyEncoder.writeHeader(output);
+        PgBinaryCopyEncoder.writeRow(output, id, "远程办公制度", metadata, true, embedding);
+        PgBinaryCopyEncoder.writeRow(output, id, null, metadata, false, embedding);
+        PgBinaryCopyEncoder.writeTrailer(output);
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        byte[] signature = new byte[11];
+        input.readFully(signature);
+        assertArrayEquals(new byte[]{'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0}, signature);
+        assertEquals(0, input.readInt());
+        assertEquals(0, input.readInt());
+
+        // 第一行：jsonb元数据带版本号
+        assertEquals(4, input.readShort());
+        assertEquals(16, input.readInt());
+        assertEquals(id, new UUID(input.readLong(), input.readLong()));
+        byte[] content = new byte[input.readInt()];
+        input.readFully(content);
+        assertEquals("远程办公制度", new String(content, StandardCharsets.UTF_8));
+        assertEquals(metadata.length + 1, input.readInt());
+        assertEquals(1, input.readByte());
+        input.skipNBytes(metadata.length);
+        assertVector(input, embedding);
+
+        // 第二行：NULL内容，json元数据不带版本号
+        assertEquals(4, input.readShort());
+        input.skipNBytes(4 + 16);
+        assertEquals(-1, input.readInt());
+        assertEquals(metadata.length, input.readInt());
+        input.skipNBytes(metadata.length);
+        assertVector(input, embedding);
+
+        assertEquals(-1, input.readShort());
+        assertEquals(0, input.available());
+    }
+
+    private static void assertVector(DataInputStream input, float[] expected) throws IOException {
+        assertEquals(4 + expected.length * 4, input.readInt());
+        assertEquals(expected.length, input.readShort());
+        assertEquals(0, input.readShort());
+        for (float value : expected) {
+            assertEquals(value, input.readFloat());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.vectorstore;
+
+import com.example.vectorstore.QuantizedVectorSearch.Quantization;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore.PgDistanceType;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.*;
+
+/**
+ * 量化向量检索测试
+ * 验证第一阶段的排序表达式与量化索引一致、候选数按倍数放大并相应调大ef_search，以及结果的score与distance
+ *
+ * @author AI Assistant
+ */
+class QuantizedVectorSearchTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private Connection connection;
+    private Statement statement;
+    private PreparedStatement preparedStatement;
+    private PgVectorWriter vectorWriter;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        connection = mock(Connection.class);
+        statement = mock(Statement.class);
+        preparedStatement = mock(PreparedStatement.class);
+        ResultSet resultSet = mock(ResultSet.class);
+        vectorWriter = mock(PgVectorWriter.class);
+
+        when(vectorWriter.getQualifiedTableName()).thenReturn("public.vector_store");
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.createStatement()).thenReturn(statement);
+        when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+        when(preparedStatement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getString("id")).thenReturn("c7a1d2e0-0000-0000-0000-000000000001");
+        when(resultSet.getString("content")).thenReturn("远程办公需提前一天申请");
+        when(resultSet.getString("metadata")).thenReturn("{\"category\":\"公司政策\"}");
+        when(resultSet.getFloat("distance")).thenReturn(0.125f);
+        when(jdbcTemplate.execute(any(ConnectionCallback.class)))
+                .thenAnswer(invocation -> ((ConnectionCallback<?>) invocation.getArgument(0)).doInConnection(connection));
+    }
+
+    @Test
+    void testHalfvecCandidatesAreRerankedAtFullPrecision() throws Exception {
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed("远程办公")).thenReturn(new float[]{0.6f, 0.8f, 0f});
+        VectorStore vectorStore = newSearch(Quantization.HALFVEC, embeddingModel).decorate(mock(VectorStore.class));
+
+        List<Document> results = vectorStore.similaritySearch(SearchRequest.builder()
+                .query("远程办公")
+                .topK(5)
+                .similarityThreshold(0.75)
+                .filterExpression(new FilterExpressionTextParser().parse("category == '公司政策'"))
+                .build());
+
+        verify(connection).prepareStatement(
+                "SELECT id, content, metadata, embedding <=> ? AS distance FROM ("
+                        + "SELECT id, content, metadata, embedding FROM public.vector_store WHERE true"
+                        + " AND metadata::jsonb @@ ?::jsonpath"
+                        + " ORDER BY embedding::halfvec(3) <=> ?::halfvec(3) LIMIT ?) candidates"
+                        + " WHERE embedding <=> ? < ? ORDER BY distance LIMIT ?");
+        verify(statement, never()).execute(anyString());
+        // 过滤条件作为参数绑定
+        verify(preparedStatement).setString(2, "$.category == \"公司政策\"");
+        verify(preparedStatement).setInt(4, 20);
+        verify(preparedStatement).setDouble(6, 1 - 0.75);
+        verify(preparedStatement).setInt(7, 5);
+        verify(connection).commit();
+
+        assertEquals(1, results.size());
+        assertEquals(0.875, results.get(0).getScore(), 1e-6);
+        assertEquals(0.125f, results.get(0).getMetadata().get("distance"));
+        assertEquals("公司政策", results.get(0).getMetadata().get("category"));
+    }
+
+    @Test
+    void testBinaryQuantizationRaisesEfSearch() throws Exception {
+        newSearch(Quantization.BINARY, mock(EmbeddingModel.class))
+                .search(Quantization.BINARY, new float[]{1f, 0f, 0f}, 10, 0.0, null);
+
+        verify(statement).execute("SET LOCAL hnsw.ef_search = 100");
+        verify(connection).prepareStatement(contains(
+                "ORDER BY binary_quantize(embedding)::bit(3) <~> binary_quantize(?::vector) LIMIT ?"));
+        verify(preparedStatement).setInt(3, 100);
+    }
+
+    @Test
+    void testMatryoshkaCandidatesUseNormalizedPrefix() throws Exception {
+        newSearch(Quantization.MATRYOSHKA, mock(EmbeddingModel.class))
+                .search(Quantization.MATRYOSHKA, new float[]{0.6f, 0.8f, 0f}, 5, 0.0, null);
+
+        verify(connection).prepareStatement(contains("ORDER BY l2_normalize(subvector(embedding, 1, 2))::vector(2)"
+                + " <#> l2_normalize(subvector(?::vector, 1, 2))::vector(2) LIMIT ?) candidates"
+                + " WHERE embedding <=> ? < ? ORDER BY distance LIMIT ?"));
+        verify(preparedStatement).setInt(3, 20);
+    }
+
+    @Test
+    void testMatryoshkaRequiresFewerDimensions() {
+        assertThrows(IllegalArgumentException.class, () -> new QuantizedVectorSearch(jdbcTemplate, new ObjectMapper(),
+                vectorWriter, mock(EmbeddingModel.class), mock(SearchPlanner.class), Quantization.MATRYOSHKA,
+                PgDistanceType.COSINE_DISTANCE, 3, 3, 4, false));
+    }
+
+    @Test
+    void testNoneLeavesVectorStoreUnchanged() {
+        VectorStore delegate = mock(VectorStore.class);
+        assertSame(delegate, newSearch(Quantization.NONE, mock(EmbeddingModel.class)).decorate(delegate));
+    }
+
+    private QuantizedVectorSearch newSearch(Quantization quantization, EmbeddingModel embeddingModel) {
+        int rerankMultiplier = quantization == Quantization.BINARY ? 10 : 4;
+        // 关闭检索调优，只在候选数超过默认ef_search时调大
+        SearchPlanner searchPlanner = new SearchPlanner(jdbcTemplate, vectorWriter, false, 4, 20, 2000, 10000, 200000, 60);
+        return new QuantizedVectorSearch(jdbcTemplate, new ObjectMapper(), vectorWriter, embeddingModel, searchPlanner,
+                quantization, PgDistanceType.COSINE_DISTANCE, 3, 2, rerankMultiplier, false);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.vectorstore;
+
+import com.example.vectorstore.SearchPlanner.SearchPlan;
+import com.example.vectorstore.SearchPlanner.Strategy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 向量检索执行计划测试
+ * 验证ef_search随topK调整、过滤后结果很少时精确排序、选择性较低时的迭代扫描以及估算缓存
+ *
+ * @author AI Assistant
+ */
+class SearchPlannerTest {
+
+    private static final String FILTER = "$.source_file == \"员工手册.pdf\"";
+
+    private JdbcTemplate jdbcTemplate;
+    private SearchPlanner searchPlanner;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        PgVectorWriter vectorWriter = mock(PgVectorWriter.class);
+        when(vectorWriter.getQualifiedTableName()).thenReturn("public.vector_store");
+        when(jdbcTemplate.queryForObject(contains("reltuples"), eq(Long.class), eq("public.vector_store")))
+                .thenReturn(1_000_000L);
+        when(jdbcTemplate.queryForObject(contains("pg_extension"), eq(String.class))).thenReturn("0.8.0");
+        searchPlanner = new SearchPlanner(jdbcTemplate, vectorWriter, true, 4, 20, 2000, 10000, 200000, 60);
+    }
+
+    @Test
+    void testUnfilteredEfSearchFollowsTopK() {
+        assertEquals(new SearchPlan(Strategy.HNSW, 20, 0, -1), searchPlanner.plan(3, 3, null));
+        assertEquals(new SearchPlan(Strategy.HNSW, 80, 0, -1), searchPlanner.plan(20, 20, null));
+        // 量化检索的候选数大于 topK × 倍数 时按候选数
+        assertEquals(new SearchPlan(Strategy.HNSW, 100, 0, -1), searchPlanner.plan(10, 100, null));
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void testTinyFilteredSetUsesExactScan() throws Exception {
+        // 抽样约1%的表，匹配3行，估算全表约300行
+        when(jdbcTemplate.queryForMap(contains("TABLESAMPLE SYSTEM (1.0)"), eq(FILTER))).thenReturn(Map.of("total", 10000L, "matches", 3L));
+
+        SearchPlan plan = searchPlanner.plan(5, 5, FILTER);
+
+        assertEquals(Strategy.EXACT, plan.strategy());
+        assertEquals(300, plan.estimatedRows());
+        Statement statement = mock(Statement.class);
+        searchPlanner.apply(statement, plan);
+        verify(statement).execute("SET LOCAL enable_indexscan = off");
+        verifyNoMoreInteractions(statement);
+    }
+
+    @Test
+    void testSelectiveFilterUsesIterativeScan() throws Exception {
+        when(jdbcTemplate.queryForMap(anyString(), eq(FILTER))).thenReturn(Map.of("total", 10000L, "matches", 50L));
+
+        SearchPlan plan = searchPlanner.plan(5, 5, FILTER);
+        searchPlanner.plan(5, 5, FILTER);
+
+        // 选择性0.5%，ef_search为20时约需扫描4000个节点，不低于pgvector的默认上限20000
+        assertEquals(new SearchPlan(Strategy.HNSW_ITERATIVE, 20, 20000, 5000), plan);
+        assertEquals(List.of("SET LOCAL hnsw.ef_search = 20", "SET LOCAL hnsw.iterative_scan = relaxed_order",
+                "SET LOCAL hnsw.max_scan_tuples = 20000"), plan.settings());
+        // 估算结果被缓存
+        verify(jdbcTemplate, times(1)).queryForMap(contains("metadata::jsonb @@ ?::jsonpath"), eq(FILTER));
+
+        Map<String, Object> stats = searchPlanner.getStats();
+        assertEquals(2L, ((Map<?, ?>) stats.get("plans")).get("hnsw_iterative"));
+        assertEquals(Boolean.TRUE, stats.get("iterative_scan_supported"));
+    }
+
+    @Test
+    void testWithoutIterativeScanEfSearchIsRaised() {
+        when(jdbcTemplate.queryForObject(contains("pg_extension"), eq(String.class))).thenReturn("0.7.4");
+        when(jdbcTemplate.queryForMap(anyString(), eq(FILTER))).thenReturn(Map.of("total", 10000L, "matches", 500L));
+
+        // 选择性5%，ef_search需要 20 / 0.05 = 400
+        assertEquals(new SearchPlan(Strategy.HNSW, 400, 0, 50000), searchPlanner.plan(5, 5, FILTER));
+    }
+
+    @Test
+    void testCompareVersions() {
+        assertTrue(SearchPlanner.compareVersions("0.8.0", "0.8.0") == 0);
+        assertTrue(SearchPlanner.compareVersions("0.10.1", "0.8.0") > 0);
+        assertTrue(SearchPlanner.compareVersions("0.7", "0.8.0") < 0);
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.vectorstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore.PgDistanceType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 分片向量存储测试
+ * 验证查询只向量化一次、各分片结果按得分归并出全局topK、超时的分片任务被中断、失败的分片按配置跳过或使检索失败，
+ * 以及写入按逻辑文档ID路由、删除发往所有分片
+ *
+ * @author AI Assistant
+ */
+class ShardedVectorStoreTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private VectorStoreShards shards;
+    private List<VectorStore> shardStores;
+    private List<JdbcTemplate> searchTemplates;
+    private EmbeddingModel embeddingModel;
+    private ShardedVectorStore store;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, DataSource> dataSources = new LinkedHashMap<>();
+        shardStores = new ArrayList<>();
+        searchTemplates = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            dataSources.put("shard-" + i, mock(DataSource.class));
+            shardStores.add(mock(VectorStore.class));
+            searchTemplates.add(mock(JdbcTemplate.class));
+        }
+        shards = new VectorStoreShards(dataSources);
+        embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed("远程办公")).thenReturn(new float[]{1f, 0f});
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (store != null) {
+            store.shutdown();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testShardResultsAreMergedByScore() {
+        when(search(0)).thenReturn(List.of(document("a1", 0.95), document("a2", 0.70)));
+        when(search(1)).thenReturn(List.of(document("b1", 0.90), document("b2", 0.85), document("b3", 0.60)));
+        when(search(2)).thenReturn(List.of());
+        store = shardedStore(1000, true);
+
+        List<Document> results = store.similaritySearch(SearchRequest.builder().query("远程办公").topK(4).build());
+
+        assertEquals(List.of("a1", "b1", "b2", "a2"), results.stream().map(Document::getId).toList());
+        // 查询只向量化一次，各分片直接使用查询向量检索
+        verify(embeddingModel, times(1)).embed("远程办公");
+        for (int i = 0; i < searchTemplates.size(); i++) {
+            verify(searchTemplates.get(i)).query(eq("SELECT id, content, metadata, embedding <=> ? AS distance"
+                            + " FROM public.vector_store WHERE embedding <=> ? < ? ORDER BY distance LIMIT ?"),
+                    any(RowMapper.class), any(), any(), eq(1.0), eq(4));
+            verify(shardStores.get(i), never()).similaritySearch(any(SearchRequest.class));
+        }
+    }
+
+    @Test
+    void testSlowShardIsSkippedWithPartialResults() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(search(0)).thenReturn(List.of(document("a1", 0.95)));
+        when(search(1)).thenAnswer(invocation -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return List.of(document("b1", 0.99));
+        });
+        when(search(2)).thenThrow(new IllegalStateException("Connection refused"));
+        store = shardedStore(100, true);
+
+        List<Document> results = store.similaritySearch(SearchRequest.builder().query("远程办公").topK(4).build());
+
+        assertEquals(List.of("a1"), results.stream().map(Document::getId).toList());
+        Map<String, Object> stats = shards.getStats();
+        assertEquals(1L, stats.get("partial_searches"));
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> shardStats = (List<Map<String, Object>>) stats.get("shards");
+        assertEquals(1L, shardStats.get(1).get("timeouts"));
+        assertEquals(1L, shardStats.get(2).get("failures"));
+        // 超时的分片任务被中断，线程不会一直被占用
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testFailedShardFailsSearchWithoutPartialResults() {
+        when(search(0)).thenReturn(List.of(document("a1", 0.95)));
+        when(search(1)).thenReturn(List.of());
+        when(search(2)).thenThrow(new IllegalStateException("Connection refused"));
+        store = shardedStore(1000, false);
+
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> store.similaritySearch(SearchRequest.builder().query("远程办公").topK(4).build()));
+        assertTrue(e.getMessage().contains("shard-3"));
+        assertEquals(1L, shards.getStats().get("failed_searches"));
+    }
+
+    @Test
+    void testChunksOfOneDocumentAreWrittenToOneShard() {
+        store = shardedStore(1000, true);
+        List<Document> chunks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            chunks.add(Document.builder().id("chunk-" + i).text("内容" + i).metadata(Map.of("document_id", "员工手册")).build());
+        }
+
+        store.add(chunks);
+        store.delete(List.of("chunk-0"));
+
+        int shard = shards.shardOf("员工手册");
+        verify(shardStores.get(shard)).add(chunks);
+        for (int i = 0; i < shardStores.size(); i++) {
+            verify(shardStores.get(i), times(i == shard ? 1 : 0)).add(anyList());
+            verify(shardStores.get(i)).delete(List.of("chunk-0"));
+        }
+    }
+
+    @Test
+    void testShardAssignmentIsStableAndSpread() {
+        int[] counts = new int[shards.size()];
+        for (int i = 0; i < 3000; i++) {
+            counts[shards.shardOf("document-" + i)]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 800, "分片分配不均匀: " + count);
+        }
+        assertEquals(shards.shardOf("员工手册"), shards.shardOf(Document.builder().id("chunk-9").text("内容")
+                .metadata(Map.of("document_id", "员工手册")).build()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Document> search(int shard) {
+        return searchTemplates.get(shard).query(anyString(), any(RowMapper.class), any(Object[].class));
+    }
+
+    private ShardedVectorStore shardedStore(long timeoutMillis, boolean partialResults) {
+        return new ShardedVectorStore(shards, shardStores, searchTemplates, embeddingModel, new ObjectMapper(),
+                "public.vector_store", PgDistanceType.COSINE_DISTANCE, timeoutMillis, partialResults, 3);
+    }
+
+    private static Document document(String id, double score) {
+        return Document.builder().id(id).text("内容").score(score).build();
+    }
+}
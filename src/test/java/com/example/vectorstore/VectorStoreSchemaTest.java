@@ -0,0 +1,87 @@
+package com.example.vectorstore;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * vector_store辅助索引测试
+ * 验证批量导入只删除embedding列上的整表向量索引、删除的向量索引逐个重建、重建失败的索引保留下来可以重试，以及删除失败时恢复已删除的索引且不计入进行中的导入
+ *
+ * @author AI Assistant
+ */
+class VectorStoreSchemaTest {
+
+    private static final String INDEX_A = "CREATE INDEX vector_store_embedding_idx ON public.vector_store USING hnsw (embedding vector_cosine_ops)";
+    private static final String INDEX_B = "CREATE INDEX vector_store_embedding_ivf_idx ON public.vector_store USING ivfflat (embedding vector_l2_ops)";
+
+    private JdbcTemplate jdbcTemplate;
+    private VectorStoreSchema vectorStoreSchema;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        PgVectorWriter vectorWriter = mock(PgVectorWriter.class);
+        when(vectorWriter.getQualifiedTableName()).thenReturn("public.vector_store");
+        when(jdbcTemplate.queryForList(anyString(), eq("public.vector_store"))).thenReturn(List.of(
+                Map.of("index_name", "vector_store_embedding_idx", "definition", INDEX_A),
+                Map.of("index_name", "vector_store_embedding_ivf_idx", "definition", INDEX_B)));
+        vectorStoreSchema = new VectorStoreSchema(mock(VectorStore.class), VectorStoreShards.single(jdbcTemplate), vectorWriter);
+    }
+
+    @Test
+    void testFailedRebuildIsKeptForRetry() {
+        doThrow(new IllegalStateException("could not extend file")).doNothing().when(jdbcTemplate).execute(INDEX_A);
+
+        vectorStoreSchema.deferVectorIndexes();
+        vectorStoreSchema.deferVectorIndexes();
+        // 仍有一个导入在进行，不重建
+        assertEquals(0, vectorStoreSchema.restoreVectorIndexes());
+        verify(jdbcTemplate, never()).execute(INDEX_A);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> vectorStoreSchema.restoreVectorIndexes());
+        assertTrue(e.getMessage().contains(INDEX_A));
+        verify(jdbcTemplate).execute(INDEX_B);
+
+        // 再次调用只重试失败的索引
+        vectorStoreSchema.restoreVectorIndexes();
+        verify(jdbcTemplate, times(2)).execute(INDEX_A);
+        verify(jdbcTemplate, times(1)).execute(INDEX_B);
+    }
+
+    @Test
+    void testDropFailureRestoresDroppedIndexes() {
+        doThrow(new IllegalStateException("lock timeout")).doNothing().when(jdbcTemplate)
+                .execute("DROP INDEX IF EXISTS vector_store_embedding_ivf_idx");
+
+        assertThrows(IllegalStateException.class, () -> vectorStoreSchema.deferVectorIndexes());
+        verify(jdbcTemplate).execute(INDEX_A);
+        verify(jdbcTemplate, never()).execute(INDEX_B);
+
+        // 删除失败的导入不计数，之后的导入正常删除和重建
+        vectorStoreSchema.deferVectorIndexes();
+        vectorStoreSchema.restoreVectorIndexes();
+        verify(jdbcTemplate, times(2)).execute("DROP INDEX IF EXISTS vector_store_embedding_idx");
+        verify(jdbcTemplate, times(2)).execute(INDEX_A);
+        verify(jdbcTemplate).execute(INDEX_B);
+    }
+
+    @Test
+    void testOnlyWholeTableEmbeddingIndexesAreDropped() {
+        vectorStoreSchema.deferVectorIndexes();
+
+        // 类别的部分索引和量化的表达式索引不在查询结果中
+        verify(jdbcTemplate).queryForList(argThat(sql -> sql.contains("a.attname = 'embedding'")
+                && sql.contains("x.indexprs IS NULL") && sql.contains("x.indpred IS NULL")), eq("public.vector_store"));
+    }
+}